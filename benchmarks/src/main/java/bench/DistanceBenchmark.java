@@ -0,0 +1,121 @@
+package bench;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.MathUtilsException;
+import utils.DataLoader;
+import utils.DistanceMetrics;
+import utils.MathUtils;
+
+/**
+ * Compares the time of one distance computation on each signature family of
+ * {@code res/Signatures}, between:
+ * <ul>
+ * <li>the {@code MathUtils} methods on {@code CharacteristicVector},</li>
+ * <li>the scalar {@code DistanceMetric} kernels on a {@code FeatureMatrix},</li>
+ * <li>the Vector API kernels, when started with
+ * {@code --add-modules jdk.incubator.vector}.</li>
+ * </ul>
+ * Every pair of the family is computed for each round, the first rounds are
+ * only used to warm up the JIT. The kernels are timed on the reduced distance
+ * (no final root), which is what the classifiers compute per pair.
+ *
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp benchmarks/target/benchmarks.jar bench.DistanceBenchmark [rounds]
+ * </pre>
+ */
+public class DistanceBenchmark {
+    private static final String[] FAMILIES = { "ART", "E34", "GFD", "Yang", "Zernike7" };
+    private static final String[] METRICS = { Classifier.EUCLIDEAN, Classifier.MANHATTAN, Classifier.MINKOWSKI };
+    private static final int NORM = 3;
+    private static final int WARMUP_ROUNDS = 20;
+
+    /** Accumulates every result so the JIT can not remove the computations. */
+    private static double sink;
+
+    public static void main(String[] args) throws MathUtilsException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        System.out.println("Vector API backend: " + (DistanceMetrics.isVectorized() ? "enabled" : "not available"));
+        System.out.printf("%-9s %4s %-10s %14s %14s %14s%n", "Family", "Dim", "Metric", "MathUtils ns", "Scalar ns",
+                "Vector ns");
+
+        for (String family : FAMILIES) {
+            ArrayList<CharacteristicVector> vectors = DataLoader
+                    .extractFromFolder(Paths.get("res", "Signatures", family).toString());
+            FeatureMatrix matrix = FeatureMatrix.fromVectors(vectors);
+            long pairs = (long) matrix.getRowCount() * matrix.getRowCount();
+
+            for (String metricName : METRICS) {
+                double mathUtils = timeMathUtils(vectors, metricName, rounds) / pairs;
+                double scalar = timeMetric(matrix, DistanceMetrics.scalarOf(metricName, NORM), rounds) / pairs;
+                String vector = "-";
+                if (DistanceMetrics.isVectorized()) {
+                    vector = String.format("%.2f",
+                            timeMetric(matrix, DistanceMetrics.of(metricName, NORM), rounds) / pairs);
+                }
+                System.out.printf("%-9s %4d %-10s %14.2f %14.2f %14s%n", family, matrix.getDimension(), metricName,
+                        mathUtils, scalar, vector);
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * @return the average time in nanoseconds of one round over every pair
+     */
+    private static double timeMathUtils(ArrayList<CharacteristicVector> vectors, String metricName, int rounds)
+            throws MathUtilsException {
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            double sum = 0;
+            for (CharacteristicVector a : vectors) {
+                for (CharacteristicVector b : vectors) {
+                    switch (metricName) {
+                        case Classifier.EUCLIDEAN:
+                            sum += MathUtils.distEuclidean(a, b);
+                            break;
+                        case Classifier.MANHATTAN:
+                            sum += MathUtils.distManhattan(a, b);
+                            break;
+                        default:
+                            sum += MathUtils.distMinkowski(a, b, NORM);
+                            break;
+                    }
+                }
+            }
+            sink += sum;
+        }
+        return (double) (System.nanoTime() - start) / rounds;
+    }
+
+    /**
+     * @return the average time in nanoseconds of one round over every pair
+     */
+    private static double timeMetric(FeatureMatrix matrix, DistanceMetric metric, int rounds) {
+        double[] data = matrix.getData();
+        int rows = matrix.getRowCount();
+        int dimension = matrix.getDimension();
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            double sum = 0;
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < rows; j++) {
+                    sum += metric.reducedDistance(data, i * dimension, data, j * dimension, dimension);
+                }
+            }
+            sink += sum;
+        }
+        return (double) (System.nanoTime() - start) / rounds;
+    }
+}
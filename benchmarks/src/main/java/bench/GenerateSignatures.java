@@ -0,0 +1,58 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import utils.SignatureGenerator;
+
+/**
+ * Writes generated signatures modeled on a family of {@code res/Signatures} to
+ * disk, for the benchmarks and the tests at scale, see
+ * {@link SignatureGenerator}.
+ * <p>
+ * The text format writes a folder of signature files, read by
+ * {@code DataLoader.extractFromFolder}; the binary format writes a single
+ * {@code SignatureCache} file, read by {@code SignatureCache.open}. A dimension
+ * of 0 keeps the one of the family.
+ * </p>
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar bench.GenerateSignatures
+ *      &lt;family folder&gt; &lt;count&gt; &lt;output&gt; [text|binary] [dimension] [spread] [seed]
+ * java -cp benchmarks/target/benchmarks.jar bench.GenerateSignatures res/Signatures/GFD 1000000 gfd.sigcache binary
+ * </pre>
+ */
+public class GenerateSignatures {
+    private static final String TEXT = "text";
+    private static final String BINARY = "binary";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: GenerateSignatures <family folder> <count> <output> [" + TEXT + "|" + BINARY
+                    + "] [dimension] [spread] [seed]");
+            return;
+        }
+        int count = Integer.parseInt(args[1]);
+        String format = args.length > 3 ? args[3] : TEXT;
+        int dimension = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        double spread = args.length > 5 ? Double.parseDouble(args[5]) : SignatureGenerator.DEFAULT_SPREAD;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 42L;
+
+        SignatureGenerator generator = SignatureGenerator.fromFolder(args[0], seed);
+        if (dimension > 0) {
+            generator.setDimension(dimension);
+        }
+        generator.setSpread(spread);
+        long start = System.nanoTime();
+        if (BINARY.equals(format)) {
+            generator.writeBinary(Paths.get(args[2]), count);
+        } else if (TEXT.equals(format)) {
+            generator.writeText(Paths.get(args[2]), count);
+        } else {
+            System.out.println("Unknown format: " + format + ", expected " + TEXT + " or " + BINARY);
+            return;
+        }
+        System.out.printf("%d signatures of dimension %d written to %s in %.1f s%n", count,
+                generator.getDimension(), args[2], (System.nanoTime() - start) / 1e9);
+    }
+}
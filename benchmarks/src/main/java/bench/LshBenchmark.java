@@ -0,0 +1,146 @@
+package bench;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import data.Classifier;
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
+import utils.BruteForceIndex;
+import utils.DataLoader;
+import utils.DistanceMetrics;
+import utils.LshIndex;
+
+/**
+ * Reports the recall@k and queries per second of {@link LshIndex} for several
+ * numbers of tables and projections per table, against the linear scan.
+ * <p>
+ * The data is synthetic and shaped like the GFD signatures: 100 values, 12
+ * classes each spread around its own center. The neighbors of every query are
+ * first computed with the linear scan, then each configuration is built (on
+ * the common pool) and timed over the same queries. The GFD family of
+ * {@code res/Signatures} follows, each sample querying all of them.
+ * </p>
+ *
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp benchmarks/target/benchmarks.jar bench.LshBenchmark [rows] [metric]
+ * </pre>
+ */
+public class LshBenchmark {
+    private static final int DIMENSION = 100;
+    private static final int CLASSES = 12;
+    private static final int QUERIES = 500;
+    private static final int K = 10;
+    private static final int[] TABLES = { 4, 8, 16, 32 };
+    private static final int[] PROJECTIONS = { 2, 4, 8 };
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ROUNDS = 3;
+
+    /** Accumulates every result so the JIT can not remove the queries. */
+    private static long sink;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        String metricName = args.length > 1 ? args[1] : Classifier.EUCLIDEAN;
+        DistanceMetric metric = DistanceMetrics.of(metricName, 0);
+        Random random = new Random(42L);
+        double[] centers = new double[CLASSES * DIMENSION];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = random.nextDouble();
+        }
+        FeatureMatrix train = blobs(random, centers, rows);
+        double[] queries = blobs(random, centers, QUERIES).getData();
+
+        System.out.println("Synthetic GFD-like data: " + rows + " rows of " + DIMENSION + " values, " + QUERIES
+                + " queries, recall@" + K + ", " + metric);
+        report(train, queries, metric);
+
+        FeatureMatrix gfd = DataLoader.extractMatrixFromFolder(Paths.get("res", "Signatures", "GFD").toString());
+        System.out.println();
+        System.out.println("GFD signatures: " + gfd.getRowCount() + " rows of " + gfd.getDimension() + " values");
+        report(gfd, gfd.getData(), metric);
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static void report(FeatureMatrix train, double[] queries, DistanceMetric metric) {
+        int dimension = train.getDimension();
+        int count = queries.length / dimension;
+        NeighborIndex brute = new BruteForceIndex(train, metric);
+        int[][] expected = new int[count][];
+        for (int q = 0; q < count; q++) {
+            expected[q] = brute.nearest(queries, q * dimension, K);
+        }
+        double bruteTime = time(brute, queries, dimension);
+        System.out.printf("%-11s %6s %11s %8s %10s %10s %9s %8s%n", "Index", "Tables", "Projections", "Recall",
+                "Queries/s", "Cand/query", "Build ms", "MiB");
+        System.out.printf("%-11s %6s %11s %8.3f %10.0f %10d %9s %8s%n", "brute-force", "-", "-", 1.0,
+                1e9 / bruteTime, train.getRowCount(), "-", "-");
+
+        for (int tables : TABLES) {
+            for (int projections : PROJECTIONS) {
+                long start = System.nanoTime();
+                LshIndex lsh = new LshIndex(train, metric, tables, projections, 0, 7L, ForkJoinPool.commonPool());
+                double buildMillis = (System.nanoTime() - start) / 1e6;
+
+                int hits = 0;
+                for (int q = 0; q < count; q++) {
+                    int[] found = lsh.nearest(queries, q * dimension, K);
+                    Arrays.sort(found);
+                    for (int row : expected[q]) {
+                        if (Arrays.binarySearch(found, row) >= 0) {
+                            hits++;
+                        }
+                    }
+                }
+                double recall = (double) hits / (count * Math.min(K, train.getRowCount()));
+                long evaluations = lsh.getDistanceEvaluations();
+                double time = time(lsh, queries, dimension);
+                double candidates = (double) (lsh.getDistanceEvaluations() - evaluations)
+                        / ((WARMUP_ROUNDS + ROUNDS) * count);
+                double mebibytes = LshIndex.estimateBytes(train.getRowCount(), dimension, tables, projections)
+                        / (1024.0 * 1024.0);
+                System.out.printf("%-11s %6d %11d %8.3f %10.0f %10.0f %9.1f %8.1f%n", "lsh", tables, projections,
+                        recall, 1e9 / time, candidates, buildMillis, mebibytes);
+            }
+        }
+    }
+
+    /**
+     * @return rows drawn around the centers, class by class in turn
+     */
+    private static FeatureMatrix blobs(Random random, double[] centers, int rows) {
+        double[] data = new double[rows * DIMENSION];
+        int[] labels = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            labels[i] = i % CLASSES;
+            for (int j = 0; j < DIMENSION; j++) {
+                data[i * DIMENSION + j] = centers[labels[i] * DIMENSION + j] + 0.1 * random.nextGaussian();
+            }
+        }
+        String[] names = new String[CLASSES];
+        for (int c = 0; c < CLASSES; c++) {
+            names[c] = String.valueOf(c + 1);
+        }
+        return new FeatureMatrix(data, rows, DIMENSION, labels, names, null, null);
+    }
+
+    /**
+     * @return the average time in nanoseconds of one query
+     */
+    private static double time(NeighborIndex index, double[] queries, int dimension) {
+        int count = queries.length / dimension;
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            for (int q = 0; q < count; q++) {
+                sink += index.nearest(queries, q * dimension, K)[0];
+            }
+        }
+        return (double) (System.nanoTime() - start) / ((long) ROUNDS * count);
+    }
+}
@@ -0,0 +1,180 @@
+package bench;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import data.Classifier;
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
+import utils.BallTreeIndex;
+import utils.BruteForceIndex;
+import utils.DataLoader;
+import utils.DistanceMetrics;
+import utils.KDTreeIndex;
+
+/**
+ * Compares the time of one k nearest neighbors query between the linear scan,
+ * the k-d tree and the ball tree, to find the dimension at which the trees stop
+ * paying off.
+ * <p>
+ * The trees prune on the intrinsic dimension of the data rather than on the
+ * number of coordinates, so the sweep runs on two synthetic distributions:
+ * </p>
+ * <ul>
+ * <li>uniform: rows drawn uniformly in the unit cube, the worst case where
+ * every coordinate matters,</li>
+ * <li>clusters: 12 classes, each a Gaussian blob around its own center, like
+ * the classes of the signature files.</li>
+ * </ul>
+ * For each dimension it prints the time per query, the number of distances
+ * (and bounds) computed per query and the speedup over the linear scan, then
+ * the first dimension where each tree is slower than the scan. The families of
+ * {@code res/Signatures} follow, each sample querying all of them.
+ *
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp benchmarks/target/benchmarks.jar bench.NeighborIndexBenchmark [rows] [rounds]
+ * </pre>
+ */
+public class NeighborIndexBenchmark {
+    private static final String[] FAMILIES = { "ART", "E34", "GFD", "Yang", "Zernike7" };
+    private static final int[] DIMENSIONS = { 2, 4, 8, 12, 16, 18, 24, 32, 48, 64, 100 };
+    private static final String[] INDEXES = { "brute-force", "kd-tree", "ball-tree" };
+    private static final int CLASSES = 12;
+    private static final int QUERIES = 500;
+    private static final int K = 3;
+    private static final int WARMUP_ROUNDS = 5;
+
+    /** Accumulates every result so the JIT can not remove the queries. */
+    private static long sink;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        DistanceMetric metric = DistanceMetrics.of(Classifier.EUCLIDEAN, 0);
+        System.out.println("Synthetic data: " + rows + " rows, " + CLASSES + " classes, " + QUERIES
+                + " queries, k=" + K + ", " + metric);
+
+        sweep("uniform", rows, rounds, metric);
+        sweep("clusters", rows, rounds, metric);
+
+        System.out.println();
+        System.out.printf("%-9s %4s %-11s %12s %14s%n", "Family", "Dim", "Index", "ns/query", "dist/query");
+        for (String family : FAMILIES) {
+            FeatureMatrix matrix = DataLoader
+                    .extractMatrixFromFolder(Paths.get("res", "Signatures", family).toString());
+            for (String name : INDEXES) {
+                NeighborIndex index = build(name, matrix, metric);
+                double time = time(index, matrix.getData(), matrix.getDimension(), rounds * 20);
+                double distances = (double) index.getDistanceEvaluations()
+                        / ((WARMUP_ROUNDS + rounds * 20) * matrix.getRowCount());
+                System.out.printf("%-9s %4d %-11s %12.0f %14.0f%n", family, matrix.getDimension(), name, time,
+                        distances);
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * Times every index over the dimensions of {@link #DIMENSIONS} on one
+     * distribution.
+     */
+    private static void sweep(String distribution, int rows, int rounds, DistanceMetric metric) {
+        System.out.println();
+        System.out.printf("%-9s %4s %-11s %12s %14s %9s%n", "Data", "Dim", "Index", "ns/query", "dist/query",
+                "speedup");
+        int[] breakEven = new int[INDEXES.length];
+        Random random = new Random(42L);
+        for (int dimension : DIMENSIONS) {
+            FeatureMatrix train;
+            double[] queries;
+            if (distribution.equals("uniform")) {
+                train = uniform(random, rows, dimension);
+                queries = uniform(random, QUERIES, dimension).getData();
+            } else {
+                double[] centers = new double[CLASSES * dimension];
+                for (int i = 0; i < centers.length; i++) {
+                    centers[i] = 4 * random.nextDouble();
+                }
+                train = blobs(random, centers, rows, dimension);
+                queries = blobs(random, centers, QUERIES, dimension).getData();
+            }
+
+            double bruteTime = 0;
+            for (int i = 0; i < INDEXES.length; i++) {
+                NeighborIndex index = build(INDEXES[i], train, metric);
+                double time = time(index, queries, dimension, rounds);
+                double distances = (double) index.getDistanceEvaluations() / ((WARMUP_ROUNDS + rounds) * QUERIES);
+                if (i == 0) {
+                    bruteTime = time;
+                } else if (time > bruteTime && breakEven[i] == 0) {
+                    breakEven[i] = dimension;
+                }
+                System.out.printf("%-9s %4d %-11s %12.0f %14.0f %9.2f%n", distribution, dimension, INDEXES[i], time,
+                        distances, bruteTime / time);
+            }
+        }
+        for (int i = 1; i < INDEXES.length; i++) {
+            System.out.println(distribution + ": " + INDEXES[i] + " slower than the linear scan from dimension "
+                    + (breakEven[i] == 0 ? "> " + DIMENSIONS[DIMENSIONS.length - 1] : breakEven[i]));
+        }
+    }
+
+    /**
+     * @return rows drawn uniformly in the unit cube
+     */
+    private static FeatureMatrix uniform(Random random, int rows, int dimension) {
+        double[] data = new double[rows * dimension];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextDouble();
+        }
+        return new FeatureMatrix(data, rows, dimension, new int[rows], new String[] { "1" }, null, null);
+    }
+
+    /**
+     * @return rows drawn around the centers, class by class in turn
+     */
+    private static FeatureMatrix blobs(Random random, double[] centers, int rows, int dimension) {
+        double[] data = new double[rows * dimension];
+        int[] labels = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            labels[i] = i % CLASSES;
+            for (int j = 0; j < dimension; j++) {
+                data[i * dimension + j] = centers[labels[i] * dimension + j] + 0.5 * random.nextGaussian();
+            }
+        }
+        String[] names = new String[CLASSES];
+        for (int c = 0; c < CLASSES; c++) {
+            names[c] = String.valueOf(c + 1);
+        }
+        return new FeatureMatrix(data, rows, dimension, labels, names, null, null);
+    }
+
+    private static NeighborIndex build(String name, FeatureMatrix matrix, DistanceMetric metric) {
+        switch (name) {
+            case "kd-tree":
+                return new KDTreeIndex(matrix, metric);
+            case "ball-tree":
+                return new BallTreeIndex(matrix, metric);
+            default:
+                return new BruteForceIndex(matrix, metric);
+        }
+    }
+
+    /**
+     * @return the average time in nanoseconds of one query
+     */
+    private static double time(NeighborIndex index, double[] queries, int dimension, int rounds) {
+        int count = queries.length / dimension;
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            for (int q = 0; q < count; q++) {
+                sink += index.nearest(queries, q * dimension, K)[0];
+            }
+        }
+        return (double) (System.nanoTime() - start) / ((long) rounds * count);
+    }
+}
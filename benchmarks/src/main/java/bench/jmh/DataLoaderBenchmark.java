@@ -0,0 +1,83 @@
+package bench.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.CharacteristicVector;
+import utils.DataLoader;
+
+/**
+ * Time of {@link DataLoader#extractFromFolder} parsing a folder of signature
+ * files, with the binary cache disabled so every call reads the files.
+ * <p>
+ * The real size reads the folder of {@code res/Signatures}; the larger sizes
+ * read a temporary folder of generated signature files
+ * ({@link utils.SignatureGenerator#writeText}), deleted at the end of the
+ * trial. The files are in the page cache after
+ * the first call, so the benchmark measures the listing and the parsing, not the
+ * disk.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class DataLoaderBenchmark {
+
+    @Param({ "ART", "GFD" })
+    public String family;
+
+    @Param({ "216", "2000", "10000" })
+    public int size;
+
+    private String folder;
+    private Path written;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (size == Datasets.REAL_SIZE) {
+            folder = Datasets.folder(family);
+        } else {
+            written = Files.createTempDirectory("signatures-" + family);
+            Datasets.generator(Datasets.load(family), Datasets.SEED).writeText(written, size);
+            folder = written.toString();
+        }
+        DataLoader.setCacheEnabled(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        DataLoader.setCacheEnabled(true);
+        if (written != null) {
+            Datasets.delete(written);
+        }
+    }
+
+    @Benchmark
+    public ArrayList<CharacteristicVector> parallel() {
+        return DataLoader.extractFromFolder(folder);
+    }
+
+    @Benchmark
+    public ArrayList<CharacteristicVector> sequential() {
+        return DataLoader.extractFromFolder(folder, null);
+    }
+}
@@ -0,0 +1,104 @@
+package bench.jmh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import data.CharacteristicVector;
+import data.FeatureMatrix;
+import utils.DataLoader;
+import utils.SignatureGenerator;
+
+/**
+ * The data sets of the JMH benchmarks: the signature families of
+ * {@code res/Signatures}, up-sampled to the size a benchmark asks for.
+ * <p>
+ * A size equal to the size of the family (216) gives the real vectors. A larger
+ * size appends the vectors of a {@link SignatureGenerator} modeling the classes
+ * of the family, so the classes and their spread are kept while the size grows.
+ * </p>
+ * The folder of the families is read from the {@code signatures} system
+ * property, {@code res/Signatures} by default, so the benchmarks are run from the
+ * root of the repository.
+ */
+public final class Datasets {
+    /** Number of vectors of each family of {@code res/Signatures}. */
+    public static final int REAL_SIZE = 216;
+    /** Seed of the generated vectors, the same data set is given to every fork. */
+    static final long SEED = 42L;
+
+    private Datasets() {
+    }
+
+    /**
+     * @param family a folder of {@code res/Signatures}, e.g. "GFD"
+     * @return the path of the folder
+     */
+    public static String folder(String family) {
+        return Paths.get(System.getProperty("signatures", Paths.get("res", "Signatures").toString()), family)
+                .toString();
+    }
+
+    /**
+     * @param family a folder of {@code res/Signatures}
+     * @return the real vectors of the family
+     * @throws IllegalStateException if the folder has no vector, e.g. when the
+     *                               benchmark is not started from the root of the
+     *                               repository
+     */
+    public static ArrayList<CharacteristicVector> load(String family) {
+        ArrayList<CharacteristicVector> vectors = DataLoader.extractFromFolder(folder(family));
+        if (vectors.isEmpty()) {
+            throw new IllegalStateException("No signature found in " + folder(family)
+                    + ", run from the repository root or set -Dsignatures=<folder>.");
+        }
+        return vectors;
+    }
+
+    /**
+     * @param family a folder of {@code res/Signatures}
+     * @param size   the number of vectors
+     * @return the first {@code size} real vectors of the family if there are
+     *         enough, else all of them followed by generated ones
+     */
+    public static ArrayList<CharacteristicVector> load(String family, int size) {
+        ArrayList<CharacteristicVector> real = load(family);
+        if (size <= real.size()) {
+            return new ArrayList<>(real.subList(0, size));
+        }
+        ArrayList<CharacteristicVector> vectors = new ArrayList<>(size);
+        vectors.addAll(real);
+        vectors.addAll(generator(real, SEED).generate(size - real.size()).toVectors());
+        return vectors;
+    }
+
+    /**
+     * @param real the vectors to model
+     * @param seed the seed of the generated vectors
+     * @return a generator of vectors like the given ones
+     */
+    public static SignatureGenerator generator(ArrayList<CharacteristicVector> real, long seed) {
+        return new SignatureGenerator(FeatureMatrix.fromVectors(real), seed);
+    }
+
+    /**
+     * Deletes a folder and its files.
+     */
+    public static void delete(Path folder) {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
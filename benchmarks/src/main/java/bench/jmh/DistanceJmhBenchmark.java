@@ -0,0 +1,106 @@
+package bench.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.CharacteristicVector;
+import data.MathUtilsException;
+import utils.MathUtils;
+
+/**
+ * Time of one {@link MathUtils} distance on each signature family, the family
+ * giving the dimension of the vectors (16 for E34 to 100 for GFD). Each call
+ * takes the next pair of vectors of the family, so the branch predictor and the
+ * caches see the pairs the classifiers compare.
+ * <p>
+ * The {@code CharacteristicVector} methods are timed next to the array methods
+ * used by the classifiers on a {@code FeatureMatrix}, the difference is the
+ * cost of the size check and of the indirection.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class DistanceJmhBenchmark {
+    private static final int NORM = 3;
+
+    @Param({ "ART", "E34", "GFD", "Yang", "Zernike7" })
+    public String family;
+
+    private CharacteristicVector[] vectors;
+    private double[] data;
+    private int dimension;
+    private int pair;
+
+    @Setup
+    public void setUp() {
+        ArrayList<CharacteristicVector> loaded = Datasets.load(family);
+        vectors = loaded.toArray(new CharacteristicVector[0]);
+        dimension = vectors[0].getVectorSize();
+        data = new double[vectors.length * dimension];
+        for (int i = 0; i < vectors.length; i++) {
+            System.arraycopy(vectors[i].getVector(), 0, data, i * dimension, dimension);
+        }
+    }
+
+    /** @return the index of the first vector of the next pair */
+    private int next() {
+        pair = pair + 1 == vectors.length ? 0 : pair + 1;
+        return pair;
+    }
+
+    private int other(int first) {
+        return first == 0 ? vectors.length - 1 : first - 1;
+    }
+
+    @Benchmark
+    public double euclideanVectors() throws MathUtilsException {
+        int i = next();
+        return MathUtils.distEuclidean(vectors[i], vectors[other(i)]);
+    }
+
+    @Benchmark
+    public double euclideanArrays() {
+        int i = next();
+        return MathUtils.distEuclidean(data, i * dimension, data, other(i) * dimension, dimension);
+    }
+
+    @Benchmark
+    public double manhattanVectors() throws MathUtilsException {
+        int i = next();
+        return MathUtils.distManhattan(vectors[i], vectors[other(i)]);
+    }
+
+    @Benchmark
+    public double manhattanArrays() {
+        int i = next();
+        return MathUtils.distManhattan(data, i * dimension, data, other(i) * dimension, dimension);
+    }
+
+    @Benchmark
+    public double minkowskiVectors() throws MathUtilsException {
+        int i = next();
+        return MathUtils.distMinkowski(vectors[i], vectors[other(i)], NORM);
+    }
+
+    @Benchmark
+    public double minkowskiArrays() {
+        int i = next();
+        return MathUtils.distMinkowski(data, i * dimension, data, other(i) * dimension, dimension, NORM);
+    }
+}
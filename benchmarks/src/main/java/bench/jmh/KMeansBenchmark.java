@@ -0,0 +1,86 @@
+package bench.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import process.KMeansClassifier;
+
+/**
+ * Time of {@link KMeansClassifier#train} and of the silhouette score of the
+ * trained clusters, with one cluster per class of the family (18). The seed is
+ * fixed, so every call runs the same iterations.
+ * <p>
+ * The exact silhouette computes every pair of vectors, the sampled one only the
+ * pairs of {@value #SILHOUETTE_SAMPLE} vectors with all the others.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KMeansBenchmark {
+    private static final int CLUSTERS = 18;
+    private static final int SILHOUETTE_SAMPLE = 500;
+    private static final long SEED = 7L;
+
+    @Param({ "ART", "GFD" })
+    public String family;
+
+    @Param({ "216", "2000", "10000" })
+    public int size;
+
+    @Param({ KMeansClassifier.LLOYD, KMeansClassifier.HAMERLY })
+    public String algorithm;
+
+    private ArrayList<CharacteristicVector> vectors;
+    private KMeansClassifier trained;
+
+    @Setup
+    public void setUp() {
+        vectors = Datasets.load(family, size);
+        trained = newClassifier();
+        trained.train(vectors);
+    }
+
+    private KMeansClassifier newClassifier() {
+        KMeansClassifier classifier = new KMeansClassifier(CLUSTERS, Classifier.EUCLIDEAN);
+        classifier.setAlgorithm(algorithm);
+        classifier.setSeed(SEED);
+        // one thread, the benchmark measures the algorithm and not the machine
+        classifier.setPool(null);
+        return classifier;
+    }
+
+    @Benchmark
+    public KMeansClassifier train() {
+        KMeansClassifier classifier = newClassifier();
+        classifier.train(vectors);
+        return classifier;
+    }
+
+    @Benchmark
+    public double silhouette() {
+        return trained.calculateSilhouetteScore();
+    }
+
+    @Benchmark
+    public double sampledSilhouette() {
+        return trained.calculateSilhouetteScore(SILHOUETTE_SAMPLE);
+    }
+}
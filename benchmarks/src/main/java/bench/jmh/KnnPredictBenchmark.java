@@ -0,0 +1,66 @@
+package bench.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import process.KNNClassifier;
+
+/**
+ * Time of one {@link KNNClassifier#predict} against a training set of the given
+ * size. The queries are generated from the classes of the family with their own
+ * seed, so they are never equal to a training vector.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KnnPredictBenchmark {
+
+    @Param({ "ART", "GFD" })
+    public String family;
+
+    @Param({ "216", "2000", "10000" })
+    public int size;
+
+    @Param({ Classifier.EUCLIDEAN, Classifier.MANHATTAN })
+    public String metric;
+
+    @Param({ KNNClassifier.BRUTE_FORCE, KNNClassifier.KD_TREE })
+    public String index;
+
+    private KNNClassifier classifier;
+    private CharacteristicVector[] queries;
+    private int query;
+
+    @Setup
+    public void setUp() {
+        ArrayList<CharacteristicVector> real = Datasets.load(family);
+        classifier = new KNNClassifier(5, metric);
+        classifier.setIndex(index);
+        classifier.train(Datasets.load(family, size));
+        queries = Datasets.generator(real, Datasets.SEED + 1).generate(real.size()).toVectors()
+                .toArray(new CharacteristicVector[0]);
+    }
+
+    @Benchmark
+    public String predict() {
+        query = query + 1 == queries.length ? 0 : query + 1;
+        return classifier.predict(queries[query]);
+    }
+}
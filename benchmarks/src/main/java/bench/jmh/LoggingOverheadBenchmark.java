@@ -0,0 +1,91 @@
+package bench.jmh;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.Classifier;
+import data.ConfusionMatrix;
+import data.FeatureMatrix;
+import logger.LoggerUtil;
+import process.KNNClassifier;
+import utils.MachineLearningUtils;
+
+/**
+ * Cost of the logging calls of a leave-one-out cross-validation of a 5-NN:
+ * the calls of {@code performLOOCV} and {@code predictLeaveOneOut} run once
+ * per sample, their messages being disabled by the configured levels.
+ * <p>
+ * {@code configured} keeps the levels of the log4j configuration,
+ * {@code off} turns every logger off; the difference is the overhead of the
+ * disabled calls. {@code loocvProduction} runs the same cross-validation with
+ * {@code -Dlog.mode=production}, the asynchronous loggers.
+ * </p>
+ * The predictions of a trained classifier are read from a cached
+ * {@code DistanceMatrix}, so the time of a sample is short and the logging
+ * calls weigh as much as they can.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class LoggingOverheadBenchmark {
+
+    @Param({ "ART" })
+    public String family;
+
+    @Param({ "216", "2000" })
+    public int size;
+
+    @Param({ "configured", "off" })
+    public String levels;
+
+    private FeatureMatrix dataset;
+    private Set<String> labels;
+    private KNNClassifier classifier;
+
+    @Setup
+    public void setUp() {
+        // creates the loggers with the levels of the configuration
+        LoggerUtil.getLogger(LoggingOverheadBenchmark.class);
+        dataset = FeatureMatrix.fromVectors(Datasets.load(family, size));
+        labels = new HashSet<>();
+        for (int row = 0; row < dataset.getRowCount(); row++) {
+            labels.add(dataset.getLabel(row));
+        }
+        classifier = new KNNClassifier(5, Classifier.EUCLIDEAN);
+        if ("off".equals(levels)) {
+            Configurator.setAllLevels(LogManager.ROOT_LOGGER_NAME, Level.OFF);
+        }
+    }
+
+    @Benchmark
+    public ConfusionMatrix loocv() {
+        ConfusionMatrix cfx = new ConfusionMatrix(labels);
+        MachineLearningUtils.performLOOCV(dataset, classifier, cfx);
+        return cfx;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Dlog.mode=production" })
+    public ConfusionMatrix loocvProduction() {
+        return loocv();
+    }
+}
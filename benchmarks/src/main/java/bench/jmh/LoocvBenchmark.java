@@ -0,0 +1,53 @@
+package bench.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import process.KNNClassifier;
+import utils.MachineLearningUtils;
+
+/**
+ * Time of a whole {@link MachineLearningUtils#performLOOCV} of a 5-NN, training
+ * included. The cost grows with the square of the size, the largest size is
+ * kept lower than in the other benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class LoocvBenchmark {
+
+    @Param({ "ART", "GFD" })
+    public String family;
+
+    @Param({ "216", "1000", "4000" })
+    public int size;
+
+    private ArrayList<CharacteristicVector> vectors;
+
+    @Setup
+    public void setUp() {
+        vectors = Datasets.load(family, size);
+    }
+
+    @Benchmark
+    public double loocv() {
+        return MachineLearningUtils.performLOOCV(vectors, new KNNClassifier(5, Classifier.EUCLIDEAN));
+    }
+}
@@ -0,0 +1,152 @@
+package utils;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import data.Classifier;
+import data.DistanceMetric;
+
+/**
+ * SIMD implementations of the Euclidean, Manhattan and Minkowski metrics with
+ * the incubating Java Vector API.
+ * <p>
+ * This class needs the {@code jdk.incubator.vector} module, both to compile and
+ * to run ({@code --add-modules jdk.incubator.vector}), so it lives in its own
+ * source folder, {@code src-vector}, added by the {@code vector} Maven profile.
+ * Nothing references it directly: {@link DistanceMetrics} loads it by
+ * reflection at startup when the module is available, otherwise the scalar
+ * loops of {@link MathUtils} are used.
+ * </p>
+ * The reduced distances are the same as the scalar ones, only the order of the
+ * additions changes, so results can differ in the last bits.
+ */
+public class VectorDistanceMetrics {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /** Euclidean distance, the reduced distance is the squared one (no sqrt). */
+    public static final DistanceMetric EUCLIDEAN = new DistanceMetric() {
+        @Override
+        public double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+            return squaredEuclidean(a, offsetA, b, offsetB, length);
+        }
+
+        @Override
+        public double toDistance(double reducedDistance) {
+            return Math.sqrt(reducedDistance);
+        }
+
+        @Override
+        public String toString() {
+            return Classifier.EUCLIDEAN + " (vector)";
+        }
+    };
+
+    /** Manhattan distance, the reduced distance is the distance itself. */
+    public static final DistanceMetric MANHATTAN = new DistanceMetric() {
+        @Override
+        public double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+            return manhattan(a, offsetA, b, offsetB, length);
+        }
+
+        @Override
+        public String toString() {
+            return Classifier.MANHATTAN + " (vector)";
+        }
+    };
+
+    private VectorDistanceMetrics() {
+    }
+
+    /**
+     * Returns a Minkowski metric of order p, the reduced distance being the sum of
+     * the p-th powers.
+     *
+     * @param p the order of the norm, 1 or more
+     * @return the Minkowski metric of order p
+     */
+    public static DistanceMetric minkowski(int p) {
+        final double inverse = 1.0 / (double) p;
+        return new DistanceMetric() {
+            @Override
+            public double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+                return minkowskiSum(a, offsetA, b, offsetB, length, p);
+            }
+
+            @Override
+            public double toDistance(double reducedDistance) {
+                return Math.pow(reducedDistance, inverse);
+            }
+
+            @Override
+            public String toString() {
+                return Classifier.MINKOWSKI + " p=" + p + " (vector)";
+            }
+        };
+    }
+
+    /**
+     * @return the number of doubles processed at once
+     */
+    public static int laneCount() {
+        return SPECIES.length();
+    }
+
+    private static double squaredEuclidean(double[] a, int offsetA, double[] b, int offsetB, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(SPECIES, a, offsetA + i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, offsetB + i));
+            acc = diff.fma(diff, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        // Tail smaller than a vector
+        for (; i < length; i++) {
+            double diff = a[offsetA + i] - b[offsetB + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static double manhattan(double[] a, int offsetA, double[] b, int offsetB, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(SPECIES, a, offsetA + i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, offsetB + i));
+            acc = acc.add(diff.abs());
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += Math.abs(a[offsetA + i] - b[offsetB + i]);
+        }
+        return sum;
+    }
+
+    private static double minkowskiSum(double[] a, int offsetA, double[] b, int offsetB, int length, int p) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, offsetA + i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, offsetB + i)).abs();
+            // x^p by squaring, lane-wise
+            DoubleVector power = DoubleVector.broadcast(SPECIES, 1.0);
+            for (int e = p; e > 0; e >>= 1) {
+                if ((e & 1) != 0) {
+                    power = power.mul(x);
+                }
+                x = x.mul(x);
+            }
+            acc = acc.add(power);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += MathUtils.pow(Math.abs(a[offsetA + i] - b[offsetB + i]), p);
+        }
+        return sum;
+    }
+}
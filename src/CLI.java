@@ -1,12 +1,20 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import data.CharacteristicVector;
 import data.Classifier;
 import data.ConfusionMatrix;
 import data.EntityConstants;
+import data.FeatureMatrix;
+import metrics.MetricsRegistry;
 import process.KMeansClassifier;
+import process.KMeansRunner;
 import process.KNNClassifier;
+import process.StreamingClassifier;
 import utils.DataLoader;
 import utils.MachineLearningUtils;
 
@@ -18,12 +26,34 @@ public class CLI {
     private static final String YNG_FILE_LOCATION = "res\\Signatures\\Yang";
     private static final String ZRK_FILE_LOCATION = "res\\Signatures\\Zernike7";
 
-    public static void main(String[] args) {
+    /** Seed of the folds and of KMeans, set it with -Dseed=... to replay a run. */
+    private static final long SEED = Long.getLong("seed", System.nanoTime());
+    /** Threads running the folds and LOOCV samples, -Dthreads=1 to run them one by one. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Integer.getInteger("threads", Runtime.getRuntime().availableProcessors()));
+    /** KMeans trainings of each fold and k, -Drestarts=... to keep the best of several. */
+    private static final int RESTARTS = Integer.getInteger("restarts", 1);
+    /** Neighbor index of the KNN classifiers, -Dindex=kd-tree or ball-tree, same results. */
+    private static final String INDEX = System.getProperty("index", KNNClassifier.BRUTE_FORCE);
+    /** Port serving the metrics on localhost (/metrics, /metrics.json), -Dmetrics.port=9404, 0 for none. */
+    private static final int METRICS_PORT = Integer.getInteger("metrics.port", 0);
+    /** File receiving the metrics at the end of the run, -Dmetrics.file=metrics.json (JSON) or metrics.prom. */
+    private static final String METRICS_FILE = System.getProperty("metrics.file");
+
+    public static void main(String[] args) throws IOException {
+        if (METRICS_PORT > 0) {
+            MetricsRegistry.global().serve(METRICS_PORT);
+        }
+        if (args.length == 3 && args[0].equals("watch")) {
+            doWatch(args[1], args[2]);
+            return;
+        }
         int nbClass = 10;
         int nbEchantillon = 12;
         boolean cut = (nbClass == 10 ? true : false);
         int nbFold = 10;
         String[] location = { ART_FILE_LOCATION, GFD_FILE_LOCATION, YNG_FILE_LOCATION, ZRK_FILE_LOCATION };
+        System.out.println("Seed = " + SEED + ", threads = " + POOL.getParallelism());
         for (String stringPath : location) {
             System.out.println("Doing KMeans to folder " + stringPath);
             System.out.println("Manhattan");
@@ -42,38 +72,68 @@ public class CLI {
             doKNN(stringPath, nbClass * nbEchantillon, Classifier.MINKOWSKI, cut);
             doPRCurveKNN(stringPath);
         }
+        writeMetrics();
+        MetricsRegistry.global().stopServing();
+    }
+
+    /**
+     * Writes the metrics of the run to the file of -Dmetrics.file, if set.
+     */
+    private static void writeMetrics() {
+        if (METRICS_FILE == null) {
+            return;
+        }
+        String format = METRICS_FILE.endsWith(".json") ? MetricsRegistry.JSON : MetricsRegistry.PROMETHEUS;
+        try {
+            MetricsRegistry.global().writeTo(Paths.get(METRICS_FILE), format);
+        } catch (IOException e) {
+            System.err.println("Can not write the metrics to " + METRICS_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Classifies the signature files appearing in a folder with a KNN trained on
+     * another folder, until the program is stopped.
+     * {@code java CLI watch <training folder> <incoming folder>}, -Dk=... to set
+     * the number of neighbors (default 3).
+     */
+    public static void doWatch(String trainingFolder, String incomingFolder) throws IOException {
+        FeatureMatrix training = DataLoader.extractMatrixFromFolder(trainingFolder);
+        KNNClassifier knn = newKNN(Integer.getInteger("k", 3), Classifier.EUCLIDEAN);
+        knn.train(training);
+        StreamingClassifier stream = new StreamingClassifier(knn, training.getDimension(), 256,
+                prediction -> System.out.println(prediction));
+        stream.watch(Paths.get(incomingFolder));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stream.close();
+            System.out.println(stream.getStatistics());
+            writeMetrics();
+        }));
+        System.out.println("Watching " + incomingFolder + " with " + training.getRowCount()
+                + " training vectors, stop with Ctrl+C");
     }
 
     public static void doKMeans(String folderLocation, int datasetSize, String distanceMetric, boolean b, int nbFold) {
         ArrayList<CharacteristicVector> dataset = new ArrayList<>(
                 DataLoader.extractFromFolder(folderLocation).subList(0, datasetSize));
         dataset = MachineLearningUtils.normalizeCharacteristicVectors(dataset);
-        ArrayList<ArrayList<CharacteristicVector>> folds = MachineLearningUtils.createKFolds(dataset, nbFold);
+        ArrayList<ArrayList<CharacteristicVector>> folds = MachineLearningUtils.createKFolds(dataset, nbFold, SEED);
+        // the training set of each fold is the same for every k, pack it once so its
+        // distances are computed once too
+        ArrayList<FeatureMatrix> trainSets = trainingMatrices(folds);
 
         ArrayList<Double> sseArray = new ArrayList<>();
         ArrayList<Double> silArray = new ArrayList<>();
 
         // number of cluster to find the best K
         for (int k = 2; k < 19; k++) {
-            KMeansClassifier kMeansClassifier = new KMeansClassifier(k, distanceMetric);
-            if (distanceMetric == Classifier.MINKOWSKI) {
-                kMeansClassifier = new KMeansClassifier(k, distanceMetric, 3);
-            }
             double currentBestSSE = Double.MAX_VALUE;
             double currentBestSilScore = Double.MIN_VALUE;
+            ArrayList<double[]> foldScores = evaluateKMeansFolds(trainSets, k, distanceMetric,
+                    MachineLearningUtils.deriveSeed(SEED, k));
             for (int i = 0; i < folds.size(); i++) {
-
-                ArrayList<CharacteristicVector> testSet = folds.get(i);
-                ArrayList<CharacteristicVector> trainSet = new ArrayList<>();
-                for (int j = 0; j < folds.size(); j++) {
-                    if (j != i) {
-                        trainSet.addAll(folds.get(j));
-                    }
-                }
-
-                kMeansClassifier.train(trainSet);
-                double foldSSE = kMeansClassifier.calculateSSE();
-                double foldSilScore = kMeansClassifier.calculateSilhouetteScore();
+                double foldSSE = foldScores.get(i)[0];
+                double foldSilScore = foldScores.get(i)[1];
                 if (foldSSE <= currentBestSSE) {
                     currentBestSSE = foldSSE;
                 }
@@ -123,6 +183,8 @@ public class CLI {
         ArrayList<CharacteristicVector> dataset = new ArrayList<>(
                 DataLoader.extractFromFolder(folderLocation).subList(0, datasetSize));
         dataset = MachineLearningUtils.normalizeCharacteristicVectors(dataset);
+        // packed once: every k below reuses the same pairwise distances
+        FeatureMatrix matrix = FeatureMatrix.fromVectors(dataset);
         // Should we shuffle since we LOOCV inherit the fact that we check for each
         // point ?
         // Collections.shuffle(dataset);
@@ -134,12 +196,8 @@ public class CLI {
         prCurve.add(new ArrayList<Double>());
         for (int k = 1; k < 13; k++) {
             ConfusionMatrix testCfMatrix = new ConfusionMatrix(entites);
-            KNNClassifier knn = new KNNClassifier(k, distanceMetric);
-            if (distanceMetric == Classifier.MINKOWSKI) {
-                knn = new KNNClassifier(k, distanceMetric, 3);
-            }
-            knn.train(dataset);
-            MachineLearningUtils.performLOOCV(dataset, knn, testCfMatrix);
+            final int neighbors = k;
+            MachineLearningUtils.performLOOCV(matrix, () -> newKNN(neighbors, distanceMetric), testCfMatrix, POOL);
             double res = testCfMatrix.accuracy() * 100;
             // double res = MachineLearningUtils.performLOOCV(dataset, knn) * 100;
             if (res > bestAccuracy) {
@@ -150,13 +208,9 @@ public class CLI {
                     "%");
         }
 
-        KNNClassifier classifier = new KNNClassifier(bestK, distanceMetric);
-        if (distanceMetric == Classifier.MINKOWSKI) {
-            classifier = new KNNClassifier(bestK, distanceMetric, 3);
-        }
+        final int chosenK = bestK;
         System.out.println("BestK = " + bestK);
-        classifier.train(dataset);
-        MachineLearningUtils.performLOOCV(dataset, classifier, cfx);
+        MachineLearningUtils.performLOOCV(matrix, () -> newKNN(chosenK, distanceMetric), cfx, POOL);
         // the confusion matrix
         cfx.display();
         // Accuracy, Recall, Precision, F1 score
@@ -166,7 +220,7 @@ public class CLI {
     public static void doPRCurveKNN(String path) {
         ArrayList<CharacteristicVector> dataset = new ArrayList<>(
                 DataLoader.extractFromFolder(path).subList(0, 120));
-        ArrayList<ArrayList<CharacteristicVector>> fold = MachineLearningUtils.createKFolds(dataset, 12);
+        ArrayList<ArrayList<CharacteristicVector>> fold = MachineLearningUtils.createKFolds(dataset, 12, SEED);
         ArrayList<CharacteristicVector> testFold = fold.get(0);
         ArrayList<CharacteristicVector> trainFold = new ArrayList<>();
 
@@ -179,11 +233,14 @@ public class CLI {
         }
 
         KNNClassifier knn = new KNNClassifier(3, Classifier.EUCLIDEAN);
+        knn.setPool(POOL);
         knn.train(trainFold);
+        List<String> predictions = knn.predictBatch(testFold);
 
-        for (CharacteristicVector cVector : testFold) {
+        for (int t = 0; t < testFold.size(); t++) {
+            CharacteristicVector cVector = testFold.get(t);
             String trueLabel = cVector.getLabel();
-            String res = knn.predict(cVector);
+            String res = predictions.get(t);
             ArrayList<CharacteristicVector> neigh = knn.getNeighbors(cVector, 12);
 
             int relevant = 0;
@@ -230,31 +287,21 @@ public class CLI {
 
         int numRepetitions = 50;
         for (int repetition = 0; repetition < numRepetitions; repetition++) {
-            ArrayList<ArrayList<CharacteristicVector>> folds = MachineLearningUtils.createKFolds(dataset, nbFold);
+            long repetitionSeed = MachineLearningUtils.deriveSeed(SEED, repetition);
+            ArrayList<ArrayList<CharacteristicVector>> folds = MachineLearningUtils.createKFolds(dataset, nbFold,
+                    repetitionSeed);
+            ArrayList<FeatureMatrix> trainSets = trainingMatrices(folds);
 
             // number of clusters to find the best K
             for (int k = 2; k < 19; k++) {
-                KMeansClassifier kMeansClassifier = new KMeansClassifier(k, distanceMetric);
-                if (distanceMetric == Classifier.MINKOWSKI) {
-                    kMeansClassifier = new KMeansClassifier(k, distanceMetric, 3);
-                }
-
                 double currentBestSSE = Double.MAX_VALUE;
                 double currentBestSilScore = Double.MIN_VALUE;
+                ArrayList<double[]> foldScores = evaluateKMeansFolds(trainSets, k, distanceMetric,
+                        MachineLearningUtils.deriveSeed(repetitionSeed, k));
 
                 for (int i = 0; i < folds.size(); i++) {
-
-                    ArrayList<CharacteristicVector> testSet = folds.get(i);
-                    ArrayList<CharacteristicVector> trainSet = new ArrayList<>();
-                    for (int j = 0; j < folds.size(); j++) {
-                        if (j != i) {
-                            trainSet.addAll(folds.get(j));
-                        }
-                    }
-
-                    kMeansClassifier.train(trainSet);
-                    double foldSSE = kMeansClassifier.calculateSSE();
-                    double foldSilScore = kMeansClassifier.calculateSilhouetteScore();
+                    double foldSSE = foldScores.get(i)[0];
+                    double foldSilScore = foldScores.get(i)[1];
 
                     if (foldSSE <= currentBestSSE) {
                         currentBestSSE = foldSSE;
@@ -304,6 +351,55 @@ public class CLI {
         }
     }
 
+    private static KNNClassifier newKNN(int k, String distanceMetric) {
+        KNNClassifier knn = distanceMetric == Classifier.MINKOWSKI ? new KNNClassifier(k, distanceMetric, 3)
+                : new KNNClassifier(k, distanceMetric);
+        knn.setIndex(INDEX);
+        return knn;
+    }
+
+    /**
+     * Runs the KMeans restarts of each fold, the folds running on the pool. Each
+     * fold has its own master seed derived from the given one.
+     *
+     * @return the lowest SSE and the highest silhouette score of the restarts of
+     *         each fold, in fold order
+     */
+    private static ArrayList<double[]> evaluateKMeansFolds(ArrayList<FeatureMatrix> trainSets, int k,
+            String distanceMetric, long seed) {
+        return MachineLearningUtils.runTasks(trainSets.size(), i -> {
+            KMeansRunner runner = new KMeansRunner(() -> distanceMetric == Classifier.MINKOWSKI
+                    ? new KMeansClassifier(k, distanceMetric, 3)
+                    : new KMeansClassifier(k, distanceMetric));
+            runner.setRestarts(RESTARTS);
+            // computes the silhouette of every restart, the lowest SSE is still reported
+            runner.setCriterion(KMeansRunner.BY_SILHOUETTE);
+            runner.setSeed(MachineLearningUtils.deriveSeed(seed, i));
+            KMeansRunner.Result result = runner.run(trainSets.get(i));
+            return new double[] { result.getMinSse(), result.getMaxSilhouette() };
+        }, POOL);
+    }
+
+    /**
+     * Packs, for each fold, the training set made of all the other folds.
+     *
+     * @param folds the folds of the dataset
+     * @return the training matrix of each fold
+     */
+    private static ArrayList<FeatureMatrix> trainingMatrices(ArrayList<ArrayList<CharacteristicVector>> folds) {
+        ArrayList<FeatureMatrix> trainSets = new ArrayList<>();
+        for (int i = 0; i < folds.size(); i++) {
+            ArrayList<CharacteristicVector> trainSet = new ArrayList<>();
+            for (int j = 0; j < folds.size(); j++) {
+                if (j != i) {
+                    trainSet.addAll(folds.get(j));
+                }
+            }
+            trainSets.add(FeatureMatrix.fromVectors(trainSet));
+        }
+        return trainSets;
+    }
+
     private static int count(ArrayList<CharacteristicVector> dataset, String label) {
         int count = 0;
         for (CharacteristicVector vector : dataset) {
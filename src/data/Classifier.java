@@ -1,5 +1,6 @@
 package data;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -18,6 +19,9 @@ public interface Classifier {
     /** Constant for the Minkowski distance metric. */
     public static final String MINKOWSKI = "minkowski";
 
+    /** Constant for the Chebyshev distance metric. */
+    public static final String CHEBYSHEV = "chebyshev";
+
     /**
      * Predicts the class label for a given characteristic vector.
      *
@@ -26,6 +30,35 @@ public interface Classifier {
      */
     String predict(CharacteristicVector vector);
 
+    /**
+     * Predicts the class labels of several vectors at once.
+     * This default implementation calls {@link #predict(CharacteristicVector)} for
+     * each vector, implementations able to share the work between the queries
+     * should override it.
+     *
+     * @param vectors the vectors to classify.
+     * @return the predicted class labels, in the order of the vectors.
+     */
+    default List<String> predictBatch(List<CharacteristicVector> vectors) {
+        ArrayList<String> labels = new ArrayList<>(vectors.size());
+        for (CharacteristicVector vector : vectors) {
+            labels.add(predict(vector));
+        }
+        return labels;
+    }
+
+    /**
+     * Predicts the class label of every row of a matrix.
+     * This default implementation unpacks the matrix and calls
+     * {@link #predictBatch(List)}.
+     *
+     * @param queries the vectors to classify, one per row.
+     * @return the predicted class labels, in row order.
+     */
+    default List<String> predictBatch(FeatureMatrix queries) {
+        return predictBatch(queries.toVectors());
+    }
+
     /**
      * Trains the classifier with a given set of training data.
      * This default implementation does nothing and can be overridden by
@@ -36,4 +69,45 @@ public interface Classifier {
      */
     default void train(List<CharacteristicVector> trainingData) {
     }
+
+    /**
+     * Trains the classifier with an already packed set of training data.
+     * This default implementation unpacks the matrix and calls
+     * {@link #train(List)}, implementations working on the matrix directly should
+     * override it.
+     *
+     * @param trainingData the training data, one vector per row.
+     */
+    default void train(FeatureMatrix trainingData) {
+        train(trainingData.toVectors());
+    }
+
+    /**
+     * Tells if {@link #predictLeaveOneOut(int)} is supported, i.e. if the
+     * classifier can predict one of its training vectors as if it was not part of
+     * the training data. Leave-one-out cross-validation then trains only once
+     * instead of copying and training on the dataset for every sample.
+     * This default implementation returns false.
+     *
+     * @return true if leave-one-out predictions are supported.
+     */
+    default boolean supportsLeaveOneOut() {
+        return false;
+    }
+
+    /**
+     * Predicts the class label of the training vector at the given index, using
+     * every other training vector but this one. Once trained, implementations
+     * must allow concurrent calls so parallel evaluations can share one trained
+     * classifier.
+     *
+     * @param trainingIndex the index of the vector in the training data.
+     * @return the predicted class label.
+     * @throws UnsupportedOperationException if {@link #supportsLeaveOneOut()}
+     *                                       returns false.
+     */
+    default String predictLeaveOneOut(int trainingIndex) {
+        throw new UnsupportedOperationException(
+                getClass().getSimpleName() + " does not support leave-one-out predictions.");
+    }
 }
@@ -1,6 +1,8 @@
 package data;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -8,13 +10,28 @@ import java.util.Set;
  * The matrix stores counts of actual vs predicted classifications
  * and provides methods to calculate performance metrics such as accuracy,
  * precision, recall, and F1-score.
+ * <p>
+ * Counts are stored in a dense {@code int[C * C]} array, labels being
+ * translated to an index by a dictionary, sorted so the rows and columns are
+ * always displayed in the same order. The sum of each row and each column is
+ * kept up to date on every increment, so every metric is computed in one pass
+ * over the classes. A matrix is not thread-safe: parallel evaluations fill one
+ * matrix per thread (see {@link #emptyCopy()}) then {@link #merge} them.
+ * </p>
  */
 public class ConfusionMatrix {
-    /**
-     * The outer map represents the actual labels (rows),
-     * and the inner map represents the predicted labels (columns).
-     */
-    private HashMap<String, HashMap<String, Integer>> matrix;
+    /** Labels sorted, the i-th label is the i-th row and column. */
+    private final String[] labels;
+    private final HashMap<String, Integer> indices;
+    /** Count of [actual][predicted] at {@code actual * size + predicted}. */
+    private final int[] counts;
+    /** Number of samples of each actual label. */
+    private final int[] rowSums;
+    /** Number of predictions of each label. */
+    private final int[] columnSums;
+    private final int size;
+    private int total;
+    private int correct;
 
     /**
      * Constructor to initialize the confusion matrix with given labels.
@@ -23,13 +40,55 @@ public class ConfusionMatrix {
      * @param labels The set of possible labels (classes) for the matrix.
      */
     public ConfusionMatrix(Set<String> labels) {
-        matrix = new HashMap<>();
-        for (String row : labels) {
-            matrix.put(row, new HashMap<>());
-            for (String column : labels) {
-                matrix.get(row).put(column, 0);
-            }
+        this.labels = labels.toArray(new String[0]);
+        Arrays.sort(this.labels);
+        this.size = this.labels.length;
+        this.indices = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            indices.put(this.labels[i], i);
         }
+        this.counts = new int[size * size];
+        this.rowSums = new int[size];
+        this.columnSums = new int[size];
+    }
+
+    /**
+     * Creates an empty matrix sharing the labels of another one.
+     */
+    private ConfusionMatrix(ConfusionMatrix other) {
+        this.labels = other.labels;
+        this.indices = other.indices;
+        this.size = other.size;
+        this.counts = new int[size * size];
+        this.rowSums = new int[size];
+        this.columnSums = new int[size];
+    }
+
+    /**
+     * Creates an empty matrix with the same labels, cheaper than the constructor
+     * and merged without any label lookup.
+     *
+     * @return a new matrix with every count at 0
+     */
+    public ConfusionMatrix emptyCopy() {
+        return new ConfusionMatrix(this);
+    }
+
+    /**
+     * @param label a class label
+     * @return the row and column of the label, or -1 if the label is not in the
+     *         matrix
+     */
+    public int indexOf(String label) {
+        Integer index = indices.get(label);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return a copy of the labels (classes) of the matrix, in display order
+     */
+    public Set<String> getLabels() {
+        return new LinkedHashSet<>(Arrays.asList(labels));
     }
 
     /**
@@ -40,9 +99,70 @@ public class ConfusionMatrix {
      * @param predicted The predicted class label.
      */
     public void increment(String actual, String predicted) {
-        if (matrix.containsKey(actual) && matrix.get(actual).containsKey(predicted)) {
-            int currentCount = matrix.get(actual).get(predicted);
-            matrix.get(actual).put(predicted, currentCount + 1);
+        int row = indexOf(actual);
+        int column = indexOf(predicted);
+        if (row >= 0 && column >= 0) {
+            increment(row, column);
+        }
+    }
+
+    /**
+     * Increments the count of a pair of label indices, see
+     * {@link #indexOf(String)}.
+     *
+     * @param actual    The index of the actual class label.
+     * @param predicted The index of the predicted class label.
+     */
+    public void increment(int actual, int predicted) {
+        counts[actual * size + predicted]++;
+        rowSums[actual]++;
+        columnSums[predicted]++;
+        total++;
+        if (actual == predicted) {
+            correct++;
+        }
+    }
+
+    /**
+     * Adds every count of another confusion matrix to this one, e.g. to combine
+     * the partial matrices filled by several threads. Labels of the other matrix
+     * that are not in this one are ignored, like in {@link #increment}.
+     *
+     * @param other the matrix to add to this one
+     */
+    public void merge(ConfusionMatrix other) {
+        if (other.labels == labels || Arrays.equals(other.labels, labels)) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            for (int i = 0; i < size; i++) {
+                rowSums[i] += other.rowSums[i];
+                columnSums[i] += other.columnSums[i];
+            }
+            total += other.total;
+            correct += other.correct;
+            return;
+        }
+
+        for (int otherRow = 0; otherRow < other.size; otherRow++) {
+            int row = indexOf(other.labels[otherRow]);
+            if (row < 0) {
+                continue;
+            }
+            for (int otherColumn = 0; otherColumn < other.size; otherColumn++) {
+                int column = indexOf(other.labels[otherColumn]);
+                int count = other.counts[otherRow * other.size + otherColumn];
+                if (column < 0 || count == 0) {
+                    continue;
+                }
+                counts[row * size + column] += count;
+                rowSums[row] += count;
+                columnSums[column] += count;
+                total += count;
+                if (row == column) {
+                    correct += count;
+                }
+            }
         }
     }
 
@@ -55,8 +175,10 @@ public class ConfusionMatrix {
      *         or -1 if the labels are not found.
      */
     public int get(String actual, String predicted) {
-        if (matrix.containsKey(actual) && matrix.get(actual).containsKey(predicted)) {
-            return matrix.get(actual).get(predicted);
+        int row = indexOf(actual);
+        int column = indexOf(predicted);
+        if (row >= 0 && column >= 0) {
+            return counts[row * size + column];
         }
         return -1;
     }
@@ -65,19 +187,20 @@ public class ConfusionMatrix {
      * Display the confusion matrix in a readable format
      */
     public void display() {
-        System.out.print("A\\P\t");
-        for (String column : matrix.keySet()) {
-            System.out.print(column + "\t");
+        StringBuilder builder = new StringBuilder("A\\P\t");
+        for (String column : labels) {
+            builder.append(column).append('\t');
         }
-        System.out.println();
+        builder.append(System.lineSeparator());
 
-        for (String row : matrix.keySet()) {
-            System.out.print(row + "\t");
-            for (String column : matrix.get(row).keySet()) {
-                System.out.print(matrix.get(row).get(column) + "\t");
+        for (int row = 0; row < size; row++) {
+            builder.append(labels[row]).append('\t');
+            for (int column = 0; column < size; column++) {
+                builder.append(counts[row * size + column]).append('\t');
             }
-            System.out.println();
+            builder.append(System.lineSeparator());
         }
+        System.out.print(builder);
     }
 
     /**
@@ -94,26 +217,13 @@ public class ConfusionMatrix {
      * Calculates the accuracy of the classification based on the confusion matrix.
      * Accuracy is the ratio of correct predictions to total predictions.
      * (FR : aussi appelé Taux de reconnaissance)
-     * 
+     *
      * @return The accuracy value between 0.0 and 1.0.
      */
     public double accuracy() {
-        int correctPredictions = 0;
-        int totalPredictions = 0;
-        // Explore each [row][column] of the matrix
-        for (String actual : matrix.keySet()) {
-            for (String predicted : matrix.get(actual).keySet()) {
-                int count = matrix.get(actual).get(predicted);
-                totalPredictions += count;
-                if (actual.equals(predicted)) {
-                    correctPredictions += count;
-                }
-            }
-        }
-
-        if (totalPredictions == 0)
+        if (total == 0)
             return 0.0;
-        return (double) correctPredictions / totalPredictions;
+        return (double) correct / total;
     }
 
     /**
@@ -121,36 +231,41 @@ public class ConfusionMatrix {
      * Precision is the ratio of true positives to the sum of true positives and
      * false positives.
      * (FR : Précision)
-     * 
+     *
      * @return The global precision value.
      */
     public double globalPrecision() {
         double totalPrecision = 0;
-        int totalClass = matrix.keySet().size();
-        for (String label : matrix.keySet()) {
-            totalPrecision += precision(label);
+        for (int i = 0; i < size; i++) {
+            totalPrecision += precision(i);
         }
 
         if (totalPrecision == 0) {
             return 0;
         }
 
-        return (double) totalPrecision / (double) totalClass;
+        return (double) totalPrecision / (double) size;
     }
 
-    private double precision(String label) {
-        int truePositive = this.get(label, label);
-        int falsePositive = 0;
-        for (String row : matrix.keySet()) {
-            if (!row.equals(label)) {
-                falsePositive += this.get(row, label);
-            }
-        }
+    /**
+     * Calculates the precision of one class.
+     *
+     * @param label The class label.
+     * @return The precision of the class, 0 if it is never predicted right or if
+     *         the label is not in the matrix.
+     */
+    public double precision(String label) {
+        int index = indexOf(label);
+        return index < 0 ? 0 : precision(index);
+    }
 
+    private double precision(int index) {
+        // The column sum holds the true positives and the false positives
+        int truePositive = counts[index * size + index];
         if (truePositive == 0) {
             return 0;
         }
-        return (double) truePositive / (double) (falsePositive + truePositive);
+        return (double) truePositive / (double) columnSums[index];
     }
 
     /**
@@ -158,32 +273,56 @@ public class ConfusionMatrix {
      * Recall is the ratio of true positives to the sum of true positives and false
      * negatives.
      * (FR : Rappel)
-     * 
+     *
      * @return The global recall value.
      */
     public double globalRecall() {
         double totalRecall = 0;
-        int totalClass = matrix.keySet().size();
-        for (String label : matrix.keySet()) {
-            totalRecall += recall(label);
+        for (int i = 0; i < size; i++) {
+            totalRecall += recall(i);
         }
 
         if (totalRecall == 0) {
             return 0;
         }
 
-        return (double) totalRecall / (double) totalClass;
+        return (double) totalRecall / (double) size;
+    }
+
+    /**
+     * Calculates the recall of one class.
+     *
+     * @param label The class label.
+     * @return The recall of the class, 0 if it is never predicted right or if the
+     *         label is not in the matrix.
+     */
+    public double recall(String label) {
+        int index = indexOf(label);
+        return index < 0 ? 0 : recall(index);
     }
 
-    private double recall(String label) {
-        int truePositive = this.get(label, label);
-        // Inside all the false negative there is also the true positive inside that why
-        // we substract it
-        int falseNegative = matrix.get(label).values().stream().mapToInt(Integer::intValue).sum() - truePositive;
+    private double recall(int index) {
+        // The row sum holds the true positives and the false negatives
+        int truePositive = counts[index * size + index];
         if (truePositive == 0) {
             return 0;
         }
-        return (double) truePositive / (double) (falseNegative + truePositive);
+        return (double) truePositive / (double) rowSums[index];
+    }
+
+    /**
+     * Calculates the F1-Score of one class, the harmonic mean of its precision and
+     * recall.
+     *
+     * @param label The class label.
+     * @return The F1-Score of the class.
+     */
+    public double f1Score(String label) {
+        double precision = precision(label);
+        double recall = recall(label);
+        if (precision + recall == 0)
+            return 0.0;
+        return 2 * precision * recall / (precision + recall);
     }
 
     /**
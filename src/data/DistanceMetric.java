@@ -0,0 +1,56 @@
+package data;
+
+/**
+ * A distance between two vectors stored inside larger arrays, e.g. two rows of
+ * a {@link FeatureMatrix}, or a row and a query vector.
+ * <p>
+ * Implementations compute a <em>reduced</em> distance: a value ordered exactly
+ * like the true distance but cheaper to get, for instance the squared Euclidean
+ * distance which skips the square root. Ranking neighbors or finding the
+ * nearest centroid only needs the reduced distance, the true distance is
+ * obtained with {@link #toDistance(double)} when the value itself matters.
+ * </p>
+ * Implementations must not allocate nor throw, they are called in the
+ * innermost loops.
+ */
+@FunctionalInterface
+public interface DistanceMetric {
+
+    /**
+     * Computes the reduced distance between {@code a[offsetA .. offsetA + length - 1]}
+     * and {@code b[offsetB .. offsetB + length - 1]}.
+     *
+     * @param a       the array holding the first vector
+     * @param offsetA the index of the first value of the first vector
+     * @param b       the array holding the second vector
+     * @param offsetB the index of the first value of the second vector
+     * @param length  the size of the vectors
+     * @return the reduced distance between the two vectors
+     */
+    double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length);
+
+    /**
+     * Converts a reduced distance to the true distance. The default is the
+     * identity, for metrics where both are the same.
+     *
+     * @param reducedDistance a value returned by {@link #reducedDistance}
+     * @return the true distance
+     */
+    default double toDistance(double reducedDistance) {
+        return reducedDistance;
+    }
+
+    /**
+     * Computes the true distance between the two vectors.
+     *
+     * @param a       the array holding the first vector
+     * @param offsetA the index of the first value of the first vector
+     * @param b       the array holding the second vector
+     * @param offsetB the index of the first value of the second vector
+     * @param length  the size of the vectors
+     * @return the distance between the two vectors
+     */
+    default double distance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+        return toDistance(reducedDistance(a, offsetA, b, offsetB, length));
+    }
+}
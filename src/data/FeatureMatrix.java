@@ -0,0 +1,237 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Columnar storage of a whole signature family.
+ * <p>
+ * Every vector is stored as one row of a single contiguous row-major
+ * {@code double[]}, so row {@code i} starts at {@code i * dimension}. Labels are
+ * stored as {@code int} codes, the original String of a code is kept in a small
+ * dictionary. Distance loops can then walk the data without any indirection
+ * nor String attached to each vector.
+ * </p>
+ *
+ * <pre>
+ * FeatureMatrix matrix = FeatureMatrix.fromVectors(vectors);
+ * double[] data = matrix.getData();
+ * int offset = matrix.offset(i);
+ * // data[offset] .. data[offset + matrix.getDimension() - 1] is the i-th vector
+ * </pre>
+ */
+public class FeatureMatrix {
+    private final double[] data;
+    private final int rows;
+    private final int dimension;
+    private final int[] labelCodes;
+    private final String[] labels;
+    private final String[] samples;
+    private final String method;
+
+    /**
+     * Creates a matrix from already packed data. Arrays are used as is, not copied.
+     *
+     * @param data       the row-major values, of length rows * dimension
+     * @param rows       the number of vectors
+     * @param dimension  the size of each vector
+     * @param labelCodes the label code of each row
+     * @param labels     the dictionary giving the label of each code
+     * @param samples    the sample of each row (can be null)
+     * @param method     the method used to compute the vectors (can be null)
+     * @throws IllegalArgumentException if the array sizes are not consistent
+     */
+    public FeatureMatrix(double[] data, int rows, int dimension, int[] labelCodes, String[] labels,
+            String[] samples, String method) {
+        if (rows < 0 || dimension < 0 || data.length != rows * dimension) {
+            throw new IllegalArgumentException(
+                    "Data of length " + data.length + " does not match " + rows + " rows of dimension " + dimension);
+        }
+        if (labelCodes.length != rows || (samples != null && samples.length != rows)) {
+            throw new IllegalArgumentException("Expected " + rows + " labels and samples");
+        }
+        this.data = data;
+        this.rows = rows;
+        this.dimension = dimension;
+        this.labelCodes = labelCodes;
+        this.labels = labels;
+        this.samples = samples;
+        this.method = method;
+    }
+
+    /**
+     * Packs a list of {@link CharacteristicVector} in a matrix. Label codes are
+     * given in order of first appearance.
+     *
+     * @param vectors the vectors to pack, all of the same size
+     * @return the packed matrix
+     * @throws IllegalArgumentException if the vectors are not the same size
+     */
+    public static FeatureMatrix fromVectors(List<CharacteristicVector> vectors) {
+        int rows = vectors.size();
+        int dimension = rows == 0 ? 0 : vectors.get(0).getVectorSize();
+        double[] data = new double[rows * dimension];
+        int[] labelCodes = new int[rows];
+        String[] samples = new String[rows];
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        ArrayList<String> labels = new ArrayList<>();
+
+        for (int i = 0; i < rows; i++) {
+            CharacteristicVector vector = vectors.get(i);
+            if (vector.getVectorSize() != dimension) {
+                throw new IllegalArgumentException("Vectors are not the same size !");
+            }
+            System.arraycopy(vector.getVector(), 0, data, i * dimension, dimension);
+            Integer code = dictionary.get(vector.getLabel());
+            if (code == null) {
+                code = labels.size();
+                dictionary.put(vector.getLabel(), code);
+                labels.add(vector.getLabel());
+            }
+            labelCodes[i] = code;
+            samples[i] = vector.getSample();
+        }
+        String method = rows == 0 ? null : vectors.get(0).getMethod();
+        return new FeatureMatrix(data, rows, dimension, labelCodes, labels.toArray(new String[0]), samples,
+                method);
+    }
+
+    /**
+     * Creates a matrix with the same rows, labels and samples but other values,
+     * e.g. after a normalization.
+     *
+     * @param newData the new row-major values, of the same length
+     * @return the new matrix
+     */
+    public FeatureMatrix withData(double[] newData) {
+        return new FeatureMatrix(newData, rows, dimension, labelCodes, labels, samples, method);
+    }
+
+    /**
+     * @return the number of vectors stored
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return the size of each vector
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Returns the backing row-major array, not a copy.
+     *
+     * @return the values of every vector
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    /**
+     * @param row the index of the vector
+     * @return the index in {@link #getData()} of the first value of the row
+     */
+    public int offset(int row) {
+        return row * dimension;
+    }
+
+    /**
+     * @param row    the index of the vector
+     * @param column the index of the value inside the vector
+     * @return the value at [row][column]
+     */
+    public double get(int row, int column) {
+        return data[row * dimension + column];
+    }
+
+    /**
+     * @param row the index of the vector
+     * @return a copy of the values of the row
+     */
+    public double[] copyRow(int row) {
+        return Arrays.copyOfRange(data, row * dimension, (row + 1) * dimension);
+    }
+
+    /**
+     * Returns the label codes of every row, not a copy.
+     *
+     * @return the label code of each row
+     */
+    public int[] getLabelCodes() {
+        return labelCodes;
+    }
+
+    /**
+     * @param row the index of the vector
+     * @return the label code of the row
+     */
+    public int getLabelCode(int row) {
+        return labelCodes[row];
+    }
+
+    /**
+     * @return the number of distinct labels
+     */
+    public int getLabelCount() {
+        return labels.length;
+    }
+
+    /**
+     * @param code a label code
+     * @return the label corresponding to the code
+     */
+    public String getLabelByCode(int code) {
+        return labels[code];
+    }
+
+    /**
+     * @param row the index of the vector
+     * @return the label of the row
+     */
+    public String getLabel(int row) {
+        return labels[labelCodes[row]];
+    }
+
+    /**
+     * @param row the index of the vector
+     * @return the sample of the row, or null if unknown
+     */
+    public String getSample(int row) {
+        return samples == null ? null : samples[row];
+    }
+
+    /**
+     * @return the method used to compute the vectors
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Creates a {@link CharacteristicVector} holding a copy of the given row.
+     *
+     * @param row the index of the vector
+     * @return the row as a CharacteristicVector
+     */
+    public CharacteristicVector getVector(int row) {
+        return new CharacteristicVector(copyRow(row), getLabel(row), method, getSample(row));
+    }
+
+    /**
+     * Unpacks every row, see {@link #getVector(int)}.
+     *
+     * @return the rows as a list of CharacteristicVector
+     */
+    public ArrayList<CharacteristicVector> toVectors() {
+        ArrayList<CharacteristicVector> vectors = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            vectors.add(getVector(i));
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,57 @@
+package data;
+
+/**
+ * An 8-bit grayscale image, e.g. a shape of the PGM corpus.
+ * <p>
+ * Pixels are stored row by row in a {@code byte[]}, pixel (x, y) at
+ * {@code y * width + x}, and read as unsigned values from 0 (black) to 255
+ * (white).
+ * </p>
+ */
+public class GrayImage {
+    private final int width;
+    private final int height;
+    private final byte[] pixels;
+
+    /**
+     * Creates an image from its pixels. The array is used as is, not copied.
+     *
+     * @param width  the number of columns
+     * @param height the number of rows
+     * @param pixels the row-major pixels, of length width * height
+     * @throws IllegalArgumentException if the sizes are not consistent
+     */
+    public GrayImage(int width, int height, byte[] pixels) {
+        if (width < 0 || height < 0 || pixels.length != (long) width * height) {
+            throw new IllegalArgumentException(
+                    pixels.length + " pixels do not match an image of " + width + " x " + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the row-major pixels, not a copy
+     */
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @param x the column
+     * @param y the row
+     * @return the gray level of the pixel, from 0 to 255
+     */
+    public int get(int x, int y) {
+        return pixels[y * width + x] & 0xFF;
+    }
+}
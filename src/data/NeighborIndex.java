@@ -0,0 +1,52 @@
+package data;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+
+/**
+ * Finds the training rows closest to a query, for a {@link DistanceMetric}
+ * fixed when the index is built.
+ * <p>
+ * Exact implementations return the rows a linear scan would return: sorted by
+ * reduced distance, ties broken by row index, as selected by
+ * {@link utils.TopKSelector}. They only differ by the number of distances they
+ * compute to get there. Approximate ones ({@link #isExact()} false) compute far
+ * fewer distances but may miss some of the nearest rows.
+ * </p>
+ * An index is built once from the training data and is not modified by the
+ * queries, so it can be queried by several threads at the same time.
+ */
+public interface NeighborIndex {
+    /**
+     * Distances and bounds computed by every index, the sum of their
+     * {@link #getDistanceEvaluations()}, with the ones of the tiled linear scan of
+     * {@code KNNClassifier.predictBatch}.
+     */
+    Counter DISTANCE_EVALUATIONS = MetricsRegistry.global().counter("knn_distance_evaluations_total",
+            "Distances and bounds computed by the KNN neighbor searches");
+
+    /**
+     * Selects the {@code count} rows closest to the query
+     * {@code query[offset .. offset + dimension - 1]}.
+     *
+     * @param query  the array holding the query vector
+     * @param offset the index of the first value of the query
+     * @param count  the maximum number of rows to select
+     * @return the row indices sorted in ascending order of distance, ties broken
+     *         by index, at most {@code count} of them
+     */
+    int[] nearest(double[] query, int offset, int count);
+
+    /**
+     * @return true if {@link #nearest} always returns the true nearest rows
+     */
+    default boolean isExact() {
+        return true;
+    }
+
+    /**
+     * @return the number of reduced distances computed by the queries so far,
+     *         bounds of the index included
+     */
+    long getDistanceEvaluations();
+}
@@ -0,0 +1,24 @@
+package data;
+
+/**
+ * Computes the signature of a shape from its image, like the precomputed
+ * families of {@code res/Signatures}.
+ * <p>
+ * Implementations must be stateless once built: the images of a corpus are
+ * described in parallel with the same descriptor.
+ * </p>
+ */
+public interface ShapeDescriptor {
+
+    /**
+     * @return the method identifier of the signatures (e.g. "ZRK"), given to the
+     *         {@link CharacteristicVector}s
+     */
+    String getMethod();
+
+    /**
+     * @param image the image of the shape
+     * @return the signature of the shape
+     */
+    double[] describe(GrayImage image);
+}
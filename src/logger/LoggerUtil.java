@@ -29,12 +29,40 @@ import org.apache.logging.log4j.core.config.builder.api.RootLoggerComponentBuild
  * in a file named
  * {@value LoggerUtil#LOG_NAME} in the command line’s working directory.
  * </p>
+ * <p>
+ * With {@code -Dlog.mode=production} the configuration is
+ * {@code log4j2-production.properties}: every logger is asynchronous, the
+ * events going through the ring buffer of the LMAX disruptor to a thread writing
+ * the buffered file, and the console only shows the warnings. The disruptor
+ * must be on the class path, else the loggers stay synchronous.
+ * </p>
  */
 public class LoggerUtil {
     private static final String DEFAULT_CONFIG_NAME = "log4j2.properties";
     private static final String DEFAULT_CONFIG_PATH = "/logger/";
     private static final String LOG_NAME = "log.txt";
 
+    /** System property selecting the logging mode. */
+    public static final String MODE_PROPERTY = "log.mode";
+    /** Logging mode of the production runs, with asynchronous loggers. */
+    public static final String PRODUCTION = "production";
+    private static final String PRODUCTION_CONFIG_NAME = "log4j2-production.properties";
+    private static final String CONTEXT_SELECTOR_PROPERTY = "log4j2.contextSelector";
+    private static final String ASYNC_CONTEXT_SELECTOR = "org.apache.logging.log4j.core.async.AsyncLoggerContextSelector";
+    private static final String DISRUPTOR_CLASS = "com.lmax.disruptor.RingBuffer";
+
+    /** Path and configuration applied by the last call, to configure only once. */
+    private static String appliedConfigPath;
+    private static Configuration appliedConfiguration;
+
+    static {
+        // the selector is read when the first logger context is created, which
+        // is done by the first getLogger call
+        if (isProductionMode()) {
+            useAsyncLoggers();
+        }
+    }
+
     private LoggerUtil() {
     }
 
@@ -59,7 +87,32 @@ public class LoggerUtil {
      * @return the configured Logger instance
      */
     public static Logger getLogger(Class<?> logClass, Level logLevel) {
-        return getLogger(logClass, logLevel, DEFAULT_CONFIG_PATH + DEFAULT_CONFIG_NAME);
+        return getLogger(logClass, logLevel,
+                DEFAULT_CONFIG_PATH + (isProductionMode() ? PRODUCTION_CONFIG_NAME : DEFAULT_CONFIG_NAME));
+    }
+
+    /**
+     * @return true if the {@value #MODE_PROPERTY} system property is
+     *         {@value #PRODUCTION}
+     */
+    public static boolean isProductionMode() {
+        return PRODUCTION.equalsIgnoreCase(System.getProperty(MODE_PROPERTY));
+    }
+
+    /**
+     * Selects the asynchronous logger contexts, unless another selector was given
+     * on the command line or the disruptor is missing.
+     */
+    private static void useAsyncLoggers() {
+        if (System.getProperty(CONTEXT_SELECTOR_PROPERTY) != null) {
+            return;
+        }
+        try {
+            Class.forName(DISRUPTOR_CLASS, false, LoggerUtil.class.getClassLoader());
+            System.setProperty(CONTEXT_SELECTOR_PROPERTY, ASYNC_CONTEXT_SELECTOR);
+        } catch (ClassNotFoundException e) {
+            System.err.println("LMAX disruptor not found, production logging stays synchronous.");
+        }
     }
 
     /**
@@ -74,16 +127,7 @@ public class LoggerUtil {
      */
     public static Logger getLogger(Class<?> logClass, Level logLevel, String configPath) {
         LoggerContext context = LoggerContext.getContext(false);
-        Configuration cfg = context.getConfiguration();
-
-        URL configFileURL = logClass.getResource(configPath);
-
-        if (configFileURL != null) {
-            applyConfigurationIfChanged(context, configFileURL, cfg);
-        } else {
-            System.out.println("Configuration file not found. Using default configuration.");
-            setupDefaultConfiguration(context);
-        }
+        Configuration cfg = configure(context, logClass, configPath);
 
         String className = logClass.getName();
         Logger logger = LogManager.getLogger(className);
@@ -98,6 +142,34 @@ public class LoggerUtil {
         return logger;
     }
 
+    /**
+     * Applies a configuration file to the context, only once: the following
+     * loggers asking for the same file keep the configuration, and its levels
+     * changed at runtime, as long as nobody replaced it.
+     *
+     * @param context    the LoggerContext instance
+     * @param logClass   the class locating the configuration file
+     * @param configPath the relative path to the configuration file
+     * @return the configuration of the context
+     */
+    private static synchronized Configuration configure(LoggerContext context, Class<?> logClass,
+            String configPath) {
+        if (configPath.equals(appliedConfigPath) && context.getConfiguration() == appliedConfiguration) {
+            return appliedConfiguration;
+        }
+        URL configFileURL = logClass.getResource(configPath);
+
+        if (configFileURL != null) {
+            applyConfigurationIfChanged(context, configFileURL, context.getConfiguration());
+        } else {
+            System.out.println("Configuration file not found. Using default configuration.");
+            setupDefaultConfiguration(context);
+        }
+        appliedConfigPath = configPath;
+        appliedConfiguration = context.getConfiguration();
+        return appliedConfiguration;
+    }
+
     /**
      * Updates the logger configuration if the provided URI differs from the current
      * configuration.
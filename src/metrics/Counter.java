@@ -0,0 +1,54 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only grows (distances computed, files read...), updated by
+ * several threads without a lock. Created by {@link MetricsRegistry#counter}.
+ */
+public class Counter extends Metric {
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String help) {
+        super(name, help);
+    }
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * @param amount the amount to add, not negative
+     */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    /**
+     * @return the count so far
+     */
+    public long get() {
+        return count.sum();
+    }
+
+    @Override
+    void reset() {
+        count.reset();
+    }
+
+    @Override
+    void appendJson(StringBuilder json) {
+        json.append("{\"type\":\"counter\",\"help\":");
+        appendJsonString(json, getHelp());
+        json.append(",\"value\":").append(get()).append('}');
+    }
+
+    @Override
+    void appendPrometheus(StringBuilder text) {
+        appendPrometheusHeader(text, "counter");
+        text.append(getName()).append(' ').append(get()).append('\n');
+    }
+}
@@ -0,0 +1,204 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of recorded values (latencies in nanoseconds, iteration
+ * counts...), updated by several threads without a lock. Created by
+ * {@link MetricsRegistry#histogram}.
+ * <p>
+ * Like an HDR histogram, the values are counted in log-linear buckets: the
+ * values below {@value #LINEAR_LIMIT} have a bucket each, then every power of
+ * two is split in {@value #SUB_BUCKETS} buckets of equal width. A quantile is
+ * known within 1 / {@value #SUB_BUCKETS} (about 3%) of its value, whatever the
+ * range of the values, with a fixed array of counts: recording a value is a few
+ * shifts and one atomic increment.
+ * </p>
+ * The snapshots are exported in a unit given at creation, e.g. {@code 1e-9} to
+ * write nanoseconds as seconds.
+ */
+public class Histogram extends Metric {
+    /** Number of buckets of each power of two. */
+    static final int SUB_BUCKETS = 32;
+    /** Values below this limit are counted exactly. */
+    static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    private static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+    /** Quantiles written in the snapshots. */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final double unit;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram(String name, String help, double unit) {
+        super(name, help);
+        this.unit = unit;
+    }
+
+    /**
+     * @param value a value, not negative
+     * @return the bucket counting the value
+     */
+    static int bucket(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        // keep the SUB_BITS + 1 highest bits of the value
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @param bucket a bucket
+     * @return the highest value counted by the bucket
+     */
+    static long highestValue(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value, a negative value being recorded as 0.
+     *
+     * @param value the value, in the unit of the histogram before export
+     */
+    public void record(long value) {
+        long recorded = Math.max(0, value);
+        counts.incrementAndGet(bucket(recorded));
+        count.increment();
+        sum.add(recorded);
+        max.accumulate(recorded);
+    }
+
+    /**
+     * Records the time elapsed since a start read from {@link System#nanoTime()},
+     * for the histograms in nanoseconds.
+     *
+     * @param startNanos the start
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of the recorded values, not converted to the export unit
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the largest recorded value, 0 if none, not converted to the export
+     *         unit
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Computes a quantile from the buckets: the result is the highest value of
+     * the bucket holding the quantile, never more than the largest value.
+     *
+     * @param quantile the quantile, between 0 and 1
+     * @return the value of the quantile, 0 if nothing was recorded, not converted
+     *         to the export unit
+     */
+    public long getQuantile(double quantile) {
+        return quantiles(quantile)[0];
+    }
+
+    private long quantile(long[] snapshot, long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the values of the quantiles, read from a single copy of the buckets
+     */
+    private long[] quantiles(double... quantiles) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long[] values = new long[quantiles.length];
+        for (int q = 0; q < quantiles.length; q++) {
+            values[q] = quantile(snapshot, total, quantiles[q]);
+        }
+        return values;
+    }
+
+    @Override
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    void appendJson(StringBuilder json) {
+        long[] quantiles = quantiles(QUANTILES);
+        json.append("{\"type\":\"histogram\",\"help\":");
+        appendJsonString(json, getHelp());
+        json.append(",\"count\":").append(getCount());
+        json.append(",\"sum\":").append(format(getSum() * unit));
+        json.append(",\"max\":").append(format(getMax() * unit));
+        for (int q = 0; q < QUANTILES.length; q++) {
+            json.append(",\"p").append(quantileName(QUANTILES[q])).append("\":")
+                    .append(format(quantiles[q] * unit));
+        }
+        json.append('}');
+    }
+
+    @Override
+    void appendPrometheus(StringBuilder text) {
+        // a summary: the buckets are too many to be exported as a Prometheus histogram
+        long[] quantiles = quantiles(QUANTILES);
+        appendPrometheusHeader(text, "summary");
+        for (int q = 0; q < QUANTILES.length; q++) {
+            text.append(getName()).append("{quantile=\"").append(QUANTILES[q]).append("\"} ")
+                    .append(format(quantiles[q] * unit)).append('\n');
+        }
+        text.append(getName()).append("_sum ").append(format(getSum() * unit)).append('\n');
+        text.append(getName()).append("_count ").append(getCount()).append('\n');
+    }
+
+    /**
+     * @return "50" for 0.5, "999" for 0.999
+     */
+    private static String quantileName(double quantile) {
+        String digits = Double.toString(quantile).substring(2);
+        return digits.length() == 1 ? digits + "0" : digits;
+    }
+}
@@ -0,0 +1,72 @@
+package metrics;
+
+/**
+ * A named value of a {@link MetricsRegistry}, written in the JSON and Prometheus
+ * snapshots of the registry.
+ */
+public abstract class Metric {
+    private final String name;
+    private final String help;
+
+    Metric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * @return the name of the metric, e.g. {@code knn_predict_seconds}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the description of the metric
+     */
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Sets the metric back to its initial value.
+     */
+    abstract void reset();
+
+    /**
+     * Appends the value of the metric as a JSON object.
+     */
+    abstract void appendJson(StringBuilder json);
+
+    /**
+     * Appends the lines of the metric in the Prometheus text format.
+     */
+    abstract void appendPrometheus(StringBuilder text);
+
+    void appendPrometheusHeader(StringBuilder text, String type) {
+        text.append("# HELP ").append(name).append(' ')
+                .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * @return the value as a JSON or Prometheus number, not localized
+     */
+    static String format(double value) {
+        return Double.toString(value);
+    }
+}
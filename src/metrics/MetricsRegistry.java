@@ -0,0 +1,221 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import logger.LoggerUtil;
+
+/**
+ * Named counters and histograms of the classifiers, the evaluators and the
+ * loader, read as JSON or Prometheus text snapshots.
+ * <p>
+ * The classes keep their metrics in static fields, like their logger:
+ * </p>
+ *
+ * <pre>
+ * private static final Histogram predictLatency = MetricsRegistry.global()
+ *         .histogram("knn_predict_seconds", "Latency of KNNClassifier.predict", MetricsRegistry.NANOSECONDS);
+ * ...
+ * long start = System.nanoTime();
+ * ...
+ * predictLatency.recordSince(start);
+ * </pre>
+ *
+ * Updating a metric takes no lock, so they can be updated in the hot loops and
+ * by every thread of a pool. A snapshot reads each metric once, without
+ * stopping the updates: the metrics of a snapshot may be a few updates apart.
+ */
+public class MetricsRegistry {
+    private static final Logger logger = LoggerUtil.getLogger(MetricsRegistry.class, Level.INFO);
+
+    /** Format of {@link #toJson()}. */
+    public static final String JSON = "json";
+    /** Format of {@link #toPrometheus()}. */
+    public static final String PROMETHEUS = "prometheus";
+
+    /** Export unit of the histograms recording nanoseconds, written in seconds. */
+    public static final double NANOSECONDS = 1e-9;
+    /** Export unit of the histograms recording counts. */
+    public static final double UNITS = 1;
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    /** The metrics by name, sorted so the snapshots are stable. */
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+    private HttpServer server;
+
+    /**
+     * @return the registry of the metrics of the project
+     */
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Returns the counter of the given name, created on the first call.
+     *
+     * @param name the name, in the Prometheus style ({@code [a-z_]+}, ending with
+     *             {@code _total})
+     * @param help the description of the counter
+     * @return the counter
+     * @throws IllegalArgumentException if a histogram has the name
+     */
+    public Counter counter(String name, String help) {
+        return get(name, Counter.class, metrics.computeIfAbsent(name, n -> new Counter(n, help)));
+    }
+
+    /**
+     * Returns the histogram of the given name, created on the first call.
+     *
+     * @param name the name, in the Prometheus style, ending with its unit
+     * @param help the description of the histogram
+     * @param unit the factor converting the recorded values to the exported ones,
+     *             {@link #NANOSECONDS} or {@link #UNITS}
+     * @return the histogram
+     * @throws IllegalArgumentException if a counter has the name
+     */
+    public Histogram histogram(String name, String help, double unit) {
+        return get(name, Histogram.class, metrics.computeIfAbsent(name, n -> new Histogram(n, help, unit)));
+    }
+
+    private static <T extends Metric> T get(String name, Class<T> type, Metric metric) {
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(
+                    "Metric " + name + " is a " + metric.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * @param name the name of a metric
+     * @return the metric, or null if there is none of this name
+     */
+    public Metric get(String name) {
+        return metrics.get(name);
+    }
+
+    /**
+     * Sets every metric back to 0, e.g. between two runs of a benchmark.
+     */
+    public void reset() {
+        for (Metric metric : metrics.values()) {
+            metric.reset();
+        }
+    }
+
+    /**
+     * @return a JSON object with one member per metric: the value of a counter,
+     *         the count, sum, max and quantiles (p50, p90, p99, p999) of a
+     *         histogram
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Metric metric : metrics.values()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            Metric.appendJsonString(json, metric.getName());
+            json.append(':');
+            metric.appendJson(json);
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * @return the metrics in the Prometheus text format, the histograms as
+     *         summaries
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        for (Metric metric : metrics.values()) {
+            metric.appendPrometheus(text);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param format {@link #JSON} or {@link #PROMETHEUS}
+     * @return the snapshot in the format
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public String snapshot(String format) {
+        if (JSON.equals(format)) {
+            return toJson();
+        }
+        if (PROMETHEUS.equals(format)) {
+            return toPrometheus();
+        }
+        throw new IllegalArgumentException("Unknown metrics format: " + format);
+    }
+
+    /**
+     * Writes a snapshot to a file. The file is written next to the target then
+     * moved over it, so a reader never sees a partial snapshot.
+     *
+     * @param file   the file
+     * @param format {@link #JSON} or {@link #PROMETHEUS}
+     * @throws IOException if the file can not be written
+     */
+    public void writeTo(Path file, String format) throws IOException {
+        String snapshot = snapshot(format);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, snapshot.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Serves the snapshots over HTTP on the loopback interface:
+     * {@code /metrics} in the Prometheus format, {@code /metrics.json} in JSON. A
+     * previous server of the registry is stopped.
+     *
+     * @param port the port, 0 for any free port
+     * @return the port the server listens on
+     * @throws IOException if the port can not be bound
+     */
+    public synchronized int serve(int port) throws IOException {
+        stopServing();
+        HttpServer created = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        created.createContext("/metrics", exchange -> respond(exchange,
+                exchange.getRequestURI().getPath().endsWith(".json") ? JSON : PROMETHEUS));
+        // the handlers only read the metrics, the default single thread is enough
+        created.start();
+        server = created;
+        logger.info("Serving metrics on http://{}:{}/metrics", InetAddress.getLoopbackAddress().getHostAddress(),
+                created.getAddress().getPort());
+        return created.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server started by {@link #serve}, if any.
+     */
+    public synchronized void stopServing() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private void respond(HttpExchange exchange, String format) throws IOException {
+        byte[] body = snapshot(format).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                JSON.equals(format) ? "application/json" : "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+}
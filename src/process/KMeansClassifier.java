@@ -1,17 +1,27 @@
 package process;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
 import data.CharacteristicVector;
 import data.Classifier;
-import data.MathUtilsException;
+import data.DistanceMetric;
+import data.FeatureMatrix;
 import logger.LoggerUtil;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import utils.DistanceMatrix;
+import utils.DistanceMetrics;
 import utils.MathUtils;
+import utils.Silhouette;
 
 /**
  * KMeansClassifier implements the k-means clustering algorithm for
@@ -20,13 +30,79 @@ import utils.MathUtils;
  */
 public class KMeansClassifier implements Classifier {
     private static final Logger logger = LoggerUtil.getLogger(KMeansClassifier.class, Level.ERROR);
-    private String distanceMetric;
-    private int k;
-    private int norm;
+    private static final Histogram trainLatency = MetricsRegistry.global().histogram("kmeans_train_seconds",
+            "Duration of a KMeans training", MetricsRegistry.NANOSECONDS);
+    static final Histogram iterationLatency = MetricsRegistry.global().histogram("kmeans_iteration_seconds",
+            "Duration of one iteration of a KMeans training", MetricsRegistry.NANOSECONDS);
+    static final Histogram convergenceIterations = MetricsRegistry.global().histogram("kmeans_iterations",
+            "Iterations of a KMeans training until convergence", MetricsRegistry.UNITS);
+    private static final Counter distanceCounter = MetricsRegistry.global().counter(
+            "kmeans_distance_evaluations_total", "Point to centroid distances computed by the KMeans assignments");
+    private static final Histogram predictLatency = MetricsRegistry.global().histogram("kmeans_predict_seconds",
+            "Latency of KMeansClassifier.predict", MetricsRegistry.NANOSECONDS);
+    private static final Histogram silhouetteLatency = MetricsRegistry.global().histogram("silhouette_seconds",
+            "Duration of a silhouette score, exact or sampled", MetricsRegistry.NANOSECONDS);
+
+    /** Constant for the plain assignment, every point to every centroid. */
+    public static final String LLOYD = "lloyd";
 
-    private ArrayList<ArrayList<CharacteristicVector>> cluster;
-    private ArrayList<CharacteristicVector> arrayCentroid;
-    private ArrayList<CharacteristicVector> trainData;
+    /**
+     * Constant for the assignment pruned with Hamerly's bounds, same clusters as
+     * {@link #LLOYD} with fewer distance computations.
+     */
+    public static final String HAMERLY = "hamerly";
+
+    /**
+     * Relative margin applied to Hamerly's bounds so rounding errors can never
+     * skip a point the Lloyd loop would have moved.
+     */
+    private static final double BOUND_MARGIN = 1e-9;
+    /**
+     * The silhouette is always Euclidean, with the same loop as MathUtils. The
+     * reduced distance is the true one so cached distances are read as is.
+     */
+    private static final DistanceMetric SILHOUETTE_METRIC = MathUtils::distEuclidean;
+    /**
+     * Above this training size the exact silhouette does not keep the pairwise
+     * distances (n(n-1)/2 doubles, 100 MB at this size) and computes them again
+     * on each call.
+     */
+    static final int SILHOUETTE_MATRIX_MAX_ROWS = 5000;
+    // package-private: shared with the variants of this package
+    DistanceMetric metric;
+    int k;
+
+    ArrayList<ArrayList<CharacteristicVector>> cluster;
+    private List<CharacteristicVector> trainData;
+    FeatureMatrix trainMatrix;
+    int dimension;
+
+    /** Centroids stored row-major, centroid i starts at i * dimension. */
+    double[] centroids;
+    /** Index of the cluster of each training vector. */
+    int[] assignment;
+    /**
+     * Training vector indices grouped by cluster, cluster i holds
+     * members[memberOffsets[i]] to members[memberOffsets[i + 1] - 1].
+     */
+    private int[] members;
+    private int[] memberOffsets;
+
+    private String algorithm = HAMERLY;
+    /** Hamerly's bounds: distance to the own centroid is at most upper[i]. */
+    private double[] upper;
+    /** Hamerly's bounds: distance to any other centroid is at least lower[i]. */
+    private double[] lower;
+    private long distanceEvaluations;
+    private long savedDistanceEvaluations;
+
+    /** Rows handled by each task when a pool is set. */
+    static final int CHUNK_SIZE = 1024;
+    private ForkJoinPool pool;
+
+    /** Seed of the random choices of each training, null for a random one. */
+    private Long seed;
+    Random random;
 
     /**
      * Constructs a KMeansClassifier with the specified number of clusters and
@@ -37,7 +113,7 @@ public class KMeansClassifier implements Classifier {
      */
     public KMeansClassifier(int kCluster, String metric) {
         this.k = kCluster;
-        this.distanceMetric = metric;
+        this.metric = resolveMetric(metric, 0);
     }
 
     /**
@@ -54,8 +130,89 @@ public class KMeansClassifier implements Classifier {
             norm = 1;
         }
         this.k = kCluster;
-        this.distanceMetric = metric;
-        this.norm = norm;
+        this.metric = resolveMetric(metric, norm);
+    }
+
+    /**
+     * Resolves the distance metric once so no dispatch is done per distance.
+     *
+     * @param metricName the distance metric name
+     * @param norm       the norm for the Minkowski distance metric
+     * @return the metric, or a metric putting every vector at maximum distance if
+     *         the name or the norm is not valid
+     */
+    private static DistanceMetric resolveMetric(String metricName, int norm) {
+        DistanceMetric resolved = DistanceMetrics.of(metricName, norm);
+        if (resolved == null) {
+            logger.warn("Unknown distance metric: {} (norm={}). Defaulting to maximum distance.", metricName, norm);
+            return DistanceMetrics.MAXIMUM;
+        }
+        return resolved;
+    }
+
+    /**
+     * Chooses how points are assigned to their nearest centroid.
+     * <ul>
+     * <li>{@link #LLOYD} computes the distance of every point to every centroid at
+     * each iteration.</li>
+     * <li>{@link #HAMERLY} (default) keeps for each point an upper bound of the
+     * distance to its centroid and a lower bound of the distance to the others,
+     * moved by how much centroids moved (triangle inequality). Points whose
+     * bounds prove they can not change cluster are skipped. The clusters are
+     * exactly the ones of {@link #LLOYD}.</li>
+     * </ul>
+     * Without a valid metric every vector is at maximum distance and the bounds
+     * are meaningless, the Lloyd loop is then always used.
+     *
+     * @param algorithm {@link #LLOYD} or {@link #HAMERLY}
+     */
+    public void setAlgorithm(String algorithm) {
+        if (!LLOYD.equals(algorithm) && !HAMERLY.equals(algorithm)) {
+            logger.warn("Unknown KMeans algorithm: {}. Keeping {}.", algorithm, this.algorithm);
+            return;
+        }
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return the number of point to centroid distances the last training did not
+     *         compute compared to the Lloyd loop, centroid to centroid distances
+     *         needed by the bounds deducted
+     */
+    public long getSavedDistanceEvaluations() {
+        return savedDistanceEvaluations;
+    }
+
+    /**
+     * @return the number of distances computed by the assignments of the last
+     *         training
+     */
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    /**
+     * Runs the assignment, the centroid update and the KMeans++ distance updates
+     * of the following trainings on a pool. Rows are split in chunks of
+     * {@value #CHUNK_SIZE}, each with its own partial sums reduced in chunk order,
+     * so the result is the same whatever the number of threads. Small datasets
+     * fit in one chunk and stay on the calling thread.
+     *
+     * @param pool the pool to use, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Makes every following training deterministic: the random choices (initial
+     * centroids, replacement of empty clusters) are drawn from a generator
+     * created with this seed at the start of each training.
+     *
+     * @param seed the seed of the random choices
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
     }
 
     /**
@@ -66,39 +223,110 @@ public class KMeansClassifier implements Classifier {
      */
     @Override
     public void train(List<CharacteristicVector> trainingData) {
-        this.trainData = new ArrayList<>(trainingData);
-        this.arrayCentroid = initCentroid();
-        cluster = resetArrayCluster();
+        long start = System.nanoTime();
+        fit(FeatureMatrix.fromVectors(trainingData), new ArrayList<>(trainingData));
+        trainLatency.recordSince(start);
+    }
+
+    /**
+     * Trains the classifier on an already packed training dataset by partitioning
+     * the data into k clusters. The matrix is used as is, not copied.
+     *
+     * @param trainingData the data to train the model on
+     */
+    @Override
+    public void train(FeatureMatrix trainingData) {
+        long start = System.nanoTime();
+        fit(trainingData, null);
+        trainLatency.recordSince(start);
+    }
+
+    /**
+     * Runs the clustering on the matrix, variants of this package override it.
+     *
+     * @param matrix  the packed training data
+     * @param vectors the same data as {@code CharacteristicVector}, or null to
+     *                unpack it from the matrix only when {@link #getCluster()} is
+     *                called
+     */
+    void fit(FeatureMatrix matrix, List<CharacteristicVector> vectors) {
+        prepareTraining(matrix, vectors);
+        this.centroids = initCentroid();
+        boolean hamerly = HAMERLY.equals(algorithm) && metric != DistanceMetrics.MAXIMUM;
+        this.distanceEvaluations = 0;
+        this.savedDistanceEvaluations = 0;
+        long lloydEvaluations = 0;
         boolean same = false;
         int iteration = 0;
         while (!same) {
-            logger.debug("Iteration {}: Reassigning data points to clusters", iteration);
-            cluster = resetArrayCluster();
+            long iterationStart = System.nanoTime();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Iteration {}: Reassigning data points to clusters", iteration);
+            }
 
             // Add cVector to the corresponding i-th cluster who has the lowest distance
             // between cvector and the cluster
-            for (CharacteristicVector cVector : trainingData) {
-                double[] distanceFromCentroid = arrayDistanceFromCentroid(cVector, arrayCentroid);
-                int indexToAdd = minIndex(distanceFromCentroid);
-                cluster.get(indexToAdd).add(cVector);
+            if (hamerly) {
+                assignClustersHamerly(iteration == 0);
+            } else {
+                assignClusters();
             }
+            lloydEvaluations += (long) assignment.length * k;
+            groupMembers();
 
-            double currentSSE = calculateSSE();
-            logger.info("Iteration {}: SSE = {}", iteration, currentSSE);
+            if (logger.isInfoEnabled()) {
+                // only computed when it is logged
+                logger.info("Iteration {}: SSE = {}", iteration, sse(centroids));
+            }
 
-            ArrayList<CharacteristicVector> newCentroid = calculateNewCentroids();
+            double[] newCentroid = calculateNewCentroids();
 
             // stop if clusters are stabilized between the previous step and the current
             // step
-            if (centroidsAreCloseEnough(newCentroid, arrayCentroid, 0.0000001)) {
+            if (centroidsAreCloseEnough(newCentroid, centroids, 0.0000001)) {
                 logger.info("Convergence reached after {} iterations", iteration);
                 same = true;
-            } else {
+            } else if (logger.isDebugEnabled()) {
                 logger.debug("Iteration {}: Centroids updated", iteration);
             }
-            this.arrayCentroid = newCentroid;
+            if (hamerly && !same) {
+                updateBounds(centroids, newCentroid);
+            }
+            this.centroids = newCentroid;
             iteration++;
+            iterationLatency.recordSince(iterationStart);
         }
+        convergenceIterations.record(iteration);
+        if (hamerly) {
+            savedDistanceEvaluations = lloydEvaluations - distanceEvaluations;
+            logger.info("Hamerly assignment computed {} distances, {} saved over {} iterations",
+                    distanceEvaluations, savedDistanceEvaluations, iteration);
+        } else {
+            distanceEvaluations = lloydEvaluations;
+        }
+        distanceCounter.add(distanceEvaluations);
+    }
+
+    /**
+     * Sets the training data and resets the state of the previous training.
+     *
+     * @param matrix  the packed training data
+     * @param vectors the same data as {@code CharacteristicVector}, or null
+     */
+    void prepareTraining(FeatureMatrix matrix, List<CharacteristicVector> vectors) {
+        this.trainMatrix = matrix;
+        this.trainData = vectors;
+        this.dimension = matrix.getDimension();
+        this.cluster = null;
+        this.random = newRandom();
+        this.assignment = new int[matrix.getRowCount()];
+    }
+
+    /**
+     * @return a generator from the seed, or a random one if no seed is set
+     */
+    Random newRandom() {
+        return seed == null ? new Random() : new Random(seed);
     }
 
     // TODO finish the proper implementation
@@ -111,36 +339,280 @@ public class KMeansClassifier implements Classifier {
      */
     @Override
     public String predict(CharacteristicVector vector) throws IllegalStateException {
-        if (trainData == null || arrayCentroid == null) {
-            logger.error("Attempted to predict without training the model");
-            throw new IllegalStateException("Training data not set. Call train() before predict().");
+        checkTrained();
+
+        if (vector.getVectorSize() != dimension) {
+            logger.error("Error calculating distance between vectors: Vectors are not the same size !");
+            return "Cluster 0";
         }
 
-        double[] distances = arrayDistanceFromCentroid(vector, arrayCentroid);
+        long start = System.nanoTime();
+        double[] distances = arrayDistanceFromCentroid(vector.getVector(), 0);
         int nearestCentroidIndex = minIndex(distances);
 
         String predictedClusterLabel = "Cluster " + nearestCentroidIndex;
-        logger.trace("Predicted cluster for input vector: {}", predictedClusterLabel);
+        predictLatency.recordSince(start);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Predicted cluster for input vector: {}", predictedClusterLabel);
+        }
 
         return predictedClusterLabel;
     }
 
+    /**
+     * Predicts the clusters of several vectors, giving the same labels as
+     * {@link #predict(CharacteristicVector)}, see
+     * {@link #predictBatch(FeatureMatrix)}.
+     *
+     * @param vectors the vectors to classify
+     * @return the predicted cluster labels, in the order of the vectors
+     * @throws IllegalStateException if the model is not trained
+     */
+    @Override
+    public List<String> predictBatch(List<CharacteristicVector> vectors) {
+        checkTrained();
+        double[] queries = new double[vectors.size() * dimension];
+        for (int q = 0; q < vectors.size(); q++) {
+            double[] vector = vectors.get(q).getVector();
+            if (vector.length != dimension) {
+                // predict handles the vectors of another size
+                return Classifier.super.predictBatch(vectors);
+            }
+            System.arraycopy(vector, 0, queries, q * dimension, dimension);
+        }
+        return predictRows(queries, vectors.size());
+    }
+
+    /**
+     * Predicts the cluster of every row of a matrix, giving the same labels as
+     * {@link #predict(CharacteristicVector)}. The k centroids are small enough to
+     * stay in the cache while the rows are streamed past them, in chunks of
+     * {@value #CHUNK_SIZE} rows run on the pool if one is set.
+     *
+     * @param queries the vectors to classify, one per row
+     * @return the predicted cluster labels, in row order
+     * @throws IllegalStateException if the model is not trained
+     */
+    @Override
+    public List<String> predictBatch(FeatureMatrix queries) {
+        checkTrained();
+        if (queries.getRowCount() > 0 && queries.getDimension() != dimension) {
+            return Classifier.super.predictBatch(queries);
+        }
+        return predictRows(queries.getData(), queries.getRowCount());
+    }
+
+    private void checkTrained() {
+        if (centroids == null) {
+            logger.error("Attempted to predict without training the model");
+            throw new IllegalStateException("Training data not set. Call train() before predict().");
+        }
+    }
+
+    private List<String> predictRows(double[] queries, int count) {
+        String[] clusterLabels = new String[k];
+        for (int c = 0; c < k; c++) {
+            clusterLabels[c] = "Cluster " + c;
+        }
+        String[] labels = new String[count];
+        forEachChunk(count, (chunk, from, to) -> {
+            for (int q = from; q < to; q++) {
+                // same choice as minIndex: the first centroid at the smallest distance
+                int nearest = 0;
+                double min = Double.MAX_VALUE;
+                for (int c = 0; c < k; c++) {
+                    double distance = metric.reducedDistance(queries, q * dimension, centroids, c * dimension,
+                            dimension);
+                    if (distance < min) {
+                        nearest = c;
+                        min = distance;
+                    }
+                }
+                labels[q] = clusterLabels[nearest];
+            }
+        });
+        return new ArrayList<>(Arrays.asList(labels));
+    }
+
+    /**
+     * Returns the training vectors grouped by cluster, the i-th list being the
+     * i-th cluster.
+     *
+     * @return the clusters of the last training, or null if not trained
+     */
     public ArrayList<ArrayList<CharacteristicVector>> getCluster() {
+        if (cluster == null && members != null) {
+            if (trainData == null) {
+                trainData = trainMatrix.toVectors();
+            }
+            ArrayList<ArrayList<CharacteristicVector>> clust = new ArrayList<ArrayList<CharacteristicVector>>();
+            for (int i = 0; i < k; i++) {
+                ArrayList<CharacteristicVector> currentCluster = new ArrayList<CharacteristicVector>();
+                for (int m = memberOffsets[i]; m < memberOffsets[i + 1]; m++) {
+                    currentCluster.add(trainData.get(members[m]));
+                }
+                clust.add(currentCluster);
+            }
+            cluster = clust;
+        }
         return cluster;
     }
 
     /**
-     * Resets the cluster array by creating empty lists for each cluster.
+     * Assigns each training vector to the cluster of its nearest centroid.
+     */
+    void assignClusters() {
+        double[] data = trainMatrix.getData();
+        forEachChunk(trainMatrix.getRowCount(), (chunk, from, to) -> {
+            for (int i = from; i < to; i++) {
+                double[] distanceFromCentroid = arrayDistanceFromCentroid(data, i * dimension);
+                assignment[i] = minIndex(distanceFromCentroid);
+            }
+        });
+        cluster = null;
+    }
+
+    /**
+     * Assigns each training vector to the cluster of its nearest centroid, using
+     * Hamerly's bounds to skip the vectors that can not change cluster. The
+     * bounds must have been moved by {@link #updateBounds} since the last call.
+     *
+     * @param first true to compute every distance and initialize the bounds
+     */
+    private void assignClustersHamerly(boolean first) {
+        double[] data = trainMatrix.getData();
+        int sizeData = trainMatrix.getRowCount();
+        // distances computed by each chunk, summed once every chunk is done
+        long[] evaluations = new long[chunkCount(sizeData)];
+        if (first) {
+            upper = new double[sizeData];
+            lower = new double[sizeData];
+            forEachChunk(sizeData, (chunk, from, to) -> {
+                double[] distances = new double[k];
+                for (int i = from; i < to; i++) {
+                    assignFully(data, i, distances);
+                }
+                evaluations[chunk] = (long) (to - from) * k;
+            });
+            distanceEvaluations += Arrays.stream(evaluations).sum();
+            cluster = null;
+            return;
+        }
+
+        // Half the distance from each centroid to its nearest other centroid: a
+        // point closer than that to its centroid can not be closer to another one
+        double[] halfGap = new double[k];
+        Arrays.fill(halfGap, Double.MAX_VALUE);
+        for (int a = 0; a < k; a++) {
+            for (int b = a + 1; b < k; b++) {
+                double d = metric.distance(centroids, a * dimension, centroids, b * dimension, dimension) / 2;
+                halfGap[a] = Math.min(halfGap[a], d);
+                halfGap[b] = Math.min(halfGap[b], d);
+            }
+        }
+        distanceEvaluations += (long) k * (k - 1) / 2;
+
+        forEachChunk(sizeData, (chunk, from, to) -> {
+            double[] distances = new double[k];
+            long computed = 0;
+            for (int i = from; i < to; i++) {
+                int own = assignment[i];
+                double bound = Math.max(halfGap[own], lower[i]) * (1 - BOUND_MARGIN);
+                // strict comparisons: on a tie the Lloyd loop may pick another centroid
+                if (upper[i] < bound) {
+                    continue;
+                }
+                upper[i] = metric.distance(data, i * dimension, centroids, own * dimension, dimension)
+                        * (1 + BOUND_MARGIN);
+                computed++;
+                if (upper[i] < bound) {
+                    continue;
+                }
+                assignFully(data, i, distances);
+                computed += k;
+            }
+            evaluations[chunk] = computed;
+        });
+        distanceEvaluations += Arrays.stream(evaluations).sum();
+        cluster = null;
+    }
+
+    /**
+     * Computes the distance from a vector to every centroid (k distances),
+     * assigns it like the Lloyd loop and resets its bounds.
      *
-     * @return an ArrayList of empty clusters
+     * @param data      the training data
+     * @param i         the index of the vector
+     * @param distances a buffer of k values
      */
-    private ArrayList<ArrayList<CharacteristicVector>> resetArrayCluster() {
-        ArrayList<ArrayList<CharacteristicVector>> clust = new ArrayList<ArrayList<CharacteristicVector>>();
+    private void assignFully(double[] data, int i, double[] distances) {
+        int offset = i * dimension;
+        for (int c = 0; c < k; c++) {
+            distances[c] = metric.reducedDistance(data, offset, centroids, c * dimension, dimension);
+        }
+        int nearest = minIndex(distances);
+        double second = Double.MAX_VALUE;
+        for (int c = 0; c < k; c++) {
+            if (c != nearest && distances[c] < second) {
+                second = distances[c];
+            }
+        }
+        assignment[i] = nearest;
+        upper[i] = metric.toDistance(distances[nearest]) * (1 + BOUND_MARGIN);
+        lower[i] = second == Double.MAX_VALUE ? Double.MAX_VALUE : metric.toDistance(second) * (1 - BOUND_MARGIN);
+    }
+
+    /**
+     * Moves Hamerly's bounds by how much each centroid moved: the distance to the
+     * own centroid grows at most by its move, the distance to any other one
+     * shrinks at most by the largest move of the others.
+     *
+     * @param oldCentroids the centroids the bounds were computed for
+     * @param newCentroids the centroids of the next iteration
+     */
+    private void updateBounds(double[] oldCentroids, double[] newCentroids) {
+        double[] moves = new double[k];
+        int largest = 0;
+        for (int c = 0; c < k; c++) {
+            moves[c] = metric.distance(oldCentroids, c * dimension, newCentroids, c * dimension, dimension)
+                    * (1 + BOUND_MARGIN);
+            if (moves[c] > moves[largest]) {
+                largest = c;
+            }
+        }
+        distanceEvaluations += k;
+        double secondLargest = 0;
+        for (int c = 0; c < k; c++) {
+            if (c != largest && moves[c] > secondLargest) {
+                secondLargest = moves[c];
+            }
+        }
+        for (int i = 0; i < upper.length; i++) {
+            int own = assignment[i];
+            upper[i] += moves[own];
+            lower[i] -= own == largest ? secondLargest : moves[largest];
+        }
+    }
+
+    /**
+     * Groups the training vector indices by cluster (counting sort on the
+     * assignment), keeping the training order inside each cluster.
+     */
+    void groupMembers() {
+        int sizeData = assignment.length;
+        memberOffsets = new int[k + 1];
+        for (int i = 0; i < sizeData; i++) {
+            memberOffsets[assignment[i] + 1]++;
+        }
         for (int i = 0; i < k; i++) {
-            clust.add(new ArrayList<CharacteristicVector>());
+            memberOffsets[i + 1] += memberOffsets[i];
+        }
+        members = new int[sizeData];
+        int[] next = new int[k];
+        System.arraycopy(memberOffsets, 0, next, 0, k);
+        for (int i = 0; i < sizeData; i++) {
+            members[next[assignment[i]]++] = i;
         }
-        logger.trace("Clusters reset to empty");
-        return clust;
     }
 
     /**
@@ -158,38 +630,37 @@ public class KMeansClassifier implements Classifier {
      * </ol>
      * {@link https://www.geeksforgeeks.org/ml-k-means-algorithm/}
      * 
-     * @return the arraylist of centroid
+     * @return the centroids stored row-major
      */
-    private ArrayList<CharacteristicVector> initCentroid() {
-        ArrayList<CharacteristicVector> centroids = new ArrayList<>();
+    double[] initCentroid() {
+        double[] data = trainMatrix.getData();
+        double[] initialCentroids = new double[k * dimension];
         // randomly take the first centroid
-        int sizeData = trainData.size();
-        int firstIndex = new Random().nextInt(sizeData);
-        centroids.add(trainData.get(firstIndex));
+        int sizeData = trainMatrix.getRowCount();
+        int firstIndex = random.nextInt(sizeData);
+        System.arraycopy(data, firstIndex * dimension, initialCentroids, 0, dimension);
         logger.debug("Selected initial centroid at index {}", firstIndex);
 
+        // Distance from each point to its nearest centroid so far, only compared to
+        // the newest centroid at each round
+        double[] distances = new double[sizeData];
+        Arrays.fill(distances, Double.MAX_VALUE);
         for (int i = 0; i < this.k - 1; i++) {
-            double[] distances = new double[sizeData];
+            final int newest = i;
+            forEachChunk(sizeData, (chunk, from, to) -> {
+                for (int j = from; j < to; j++) {
+                    double dist = metric.distance(data, j * dimension, initialCentroids, newest * dimension,
+                            dimension);
+                    distances[j] = Math.min(distances[j], dist);
+                }
+            });
             double sum = 0;
-
-            // Calculate the distance from each point to the nearest centroid
             for (int j = 0; j < sizeData; j++) {
-                CharacteristicVector point = trainData.get(j);
-
-                // Find the minimum distance to any centroid in the current centroids list
-                double minDist = Double.MAX_VALUE;
-                for (CharacteristicVector centroid : centroids) {
-                    double dist = calculateDistance(point, centroid);
-                    minDist = Math.min(minDist, dist);
-                }
-
-                // Store the minimum distance for probability computation
-                distances[j] = minDist;
                 sum += distances[j];
             }
             // choose the next centroid based on weighted probability
             double cumulativeProbability = 0;
-            double threshold = new Random().nextDouble() * sum;
+            double threshold = random.nextDouble() * sum;
 
             int nextCentroidIndex = 0;
             int j = 0;
@@ -199,95 +670,124 @@ public class KMeansClassifier implements Classifier {
                 j++;
             }
 
-            centroids.add(trainData.get(nextCentroidIndex));
+            System.arraycopy(data, nextCentroidIndex * dimension, initialCentroids, (i + 1) * dimension, dimension);
             logger.debug("Added centroid at index {}", nextCentroidIndex);
         }
         logger.info("Initial centroids selected");
-        return centroids;
+        return initialCentroids;
     }
 
     /**
      * Calculates new centroids as the mean of each cluster's vectors.
      *
-     * @return a list of new centroids
-     */
-    private ArrayList<CharacteristicVector> calculateNewCentroids() {
-        ArrayList<CharacteristicVector> nCentroids = new ArrayList<>();
-        int vectorSize = this.trainData.get(0).getVectorSize();
-        int clusterNumber = 0;
-        // Cluster i-th 1->k contains a array of CharactVect we then compute the mean of
-        // this array and create a single CVect then add to ncentroid
-        for (ArrayList<CharacteristicVector> currentCluster : this.cluster) {
-            clusterNumber++;
-            // Check if get(0) is not empty !!!
-            if (currentCluster.isEmpty()) {
-                int randomIndex = new Random().nextInt(trainData.size());
-                nCentroids
-                        .add(new CharacteristicVector(trainData.get(randomIndex).getVector(),
-                                "Cluster " + clusterNumber,
-                                "null", "null"));
-                logger.warn("Cluster {} was empty; assigned a random data point as centroid", clusterNumber - 1);
-                continue;
-            }
-            double[] sum = new double[vectorSize];
-            for (CharacteristicVector cVector : currentCluster) {
-                for (int i = 0; i < vectorSize; i++) {
-                    sum[i] += cVector.getVector()[i];
+     * @return the new centroids stored row-major
+     */
+    private double[] calculateNewCentroids() {
+        double[] data = trainMatrix.getData();
+        int chunks = chunkCount(assignment.length);
+        double[][] partialSums = new double[chunks][];
+        int[][] partialCounts = new int[chunks][];
+        // Sum every vector in the centroid of its cluster, then divide by the size of
+        // the cluster to get the mean. Each chunk of rows has its own sums.
+        forEachChunk(assignment.length, (chunk, from, to) -> {
+            double[] sums = new double[k * dimension];
+            int[] chunkCounts = new int[k];
+            for (int row = from; row < to; row++) {
+                int c = assignment[row];
+                chunkCounts[c]++;
+                int offset = row * dimension;
+                int centroidOffset = c * dimension;
+                for (int i = 0; i < dimension; i++) {
+                    sums[centroidOffset + i] += data[offset + i];
                 }
             }
-            for (int i = 0; i < vectorSize; i++) {
-                sum[i] /= currentCluster.size();
+            partialSums[chunk] = sums;
+            partialCounts[chunk] = chunkCounts;
+        });
+        // reduced in chunk order, the result does not depend on the threads
+        double[] nCentroids = partialSums[0];
+        int[] counts = partialCounts[0];
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            for (int i = 0; i < nCentroids.length; i++) {
+                nCentroids[i] += partialSums[chunk][i];
+            }
+            for (int c = 0; c < k; c++) {
+                counts[c] += partialCounts[chunk][c];
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            int centroidOffset = c * dimension;
+            if (counts[c] == 0) {
+                int randomIndex = random.nextInt(trainMatrix.getRowCount());
+                System.arraycopy(data, randomIndex * dimension, nCentroids, centroidOffset, dimension);
+                logger.warn("Cluster {} was empty; assigned a random data point as centroid", c);
+                continue;
+            }
+            for (int i = 0; i < dimension; i++) {
+                nCentroids[centroidOffset + i] /= counts[c];
             }
-
-            nCentroids.add(new CharacteristicVector(sum, "null", "null", "null"));
         }
 
         return nCentroids;
     }
 
     /**
-     * Calculates the distance between two vectors based on the selected distance
-     * metric.
+     * Computes the reduced distances (see {@link DistanceMetric}) from a vector to
+     * each centroid, they are only compared to each other.
      *
-     * @param v1 the first vector
-     * @param v2 the second vector
-     * @return the distance between v1 and v2
-     */
-    private double calculateDistance(CharacteristicVector v1, CharacteristicVector v2) {
-        logger.trace("Calculating distance between vectors using metric: {}", distanceMetric);
-        try {
-            switch (distanceMetric) {
-                case Classifier.EUCLIDEAN:
-                    return MathUtils.distEuclidean(v1, v2);
-                case Classifier.MANHATTAN:
-                    return MathUtils.distManhattan(v1, v2);
-                case Classifier.MINKOWSKI:
-                    System.out.println(norm);
-                    return MathUtils.distMinkowski(v1, v2, norm);
-                default:
-                    logger.warn("Unknown distance metric: {}. Defaulting to maximum distance.", distanceMetric);
-                    return Double.MAX_VALUE;
-            }
-        } catch (MathUtilsException e) {
-            logger.error("Error calculating distance between vectors: {}", e.getMessage());
-            return Double.MAX_VALUE;
+     * @param vector the array holding the vector to compute distances from
+     * @param offset the index of the first value of the vector
+     * @return an array of distances from the vector to each centroid
+     */
+    double[] arrayDistanceFromCentroid(double[] vector, int offset) {
+        double[] distanceCentroid = new double[k];
+        for (int i = 0; i < k; i++) {
+            distanceCentroid[i] = metric.reducedDistance(vector, offset, centroids, i * dimension, dimension);
         }
+        return distanceCentroid;
     }
 
     /**
-     * Computes the distances from a vector to each centroid.
+     * Work on the rows {@code from} (inclusive) to {@code to} (exclusive) of a
+     * chunk.
+     */
+    @FunctionalInterface
+    interface ChunkBody {
+        void run(int chunk, int from, int to);
+    }
+
+    /**
+     * @param size the number of rows
+     * @return the number of chunks of {@value #CHUNK_SIZE} rows, at least 1
+     */
+    static int chunkCount(int size) {
+        return Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    /**
+     * Runs the body on every chunk of rows, on the pool if one is set and there
+     * are several chunks. Returns when every chunk is done.
      *
-     * @param cVector       the vector to compute distances from
-     * @param arrayCentroid the list of centroids
-     * @return an array of distances from the vector to each centroid
+     * @param size the number of rows
+     * @param body the work of one chunk
      */
-    private double[] arrayDistanceFromCentroid(CharacteristicVector cVector,
-            ArrayList<CharacteristicVector> arrayCentroid) {
-        double[] distanceCentroid = new double[arrayCentroid.size()];
-        for (int i = 0; i < arrayCentroid.size(); i++) {
-            distanceCentroid[i] = calculateDistance(cVector, arrayCentroid.get(i));
+    void forEachChunk(int size, ChunkBody body) {
+        int chunks = chunkCount(size);
+        if (pool == null || chunks == 1) {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                body.run(chunk, chunk * CHUNK_SIZE, Math.min(size, (chunk + 1) * CHUNK_SIZE));
+            }
+            return;
+        }
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int index = chunk;
+            tasks.add(pool.submit(
+                    () -> body.run(index, index * CHUNK_SIZE, Math.min(size, (index + 1) * CHUNK_SIZE))));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
         }
-        return distanceCentroid;
     }
 
     /**
@@ -296,7 +796,7 @@ public class KMeansClassifier implements Classifier {
      * @param array the array to search
      * @return the index of the smallest value
      */
-    private int minIndex(double[] array) {
+    int minIndex(double[] array) {
         int i = 0;
         double min = Double.MAX_VALUE;
         for (int j = 0; j < array.length; j++) {
@@ -305,7 +805,9 @@ public class KMeansClassifier implements Classifier {
                 min = array[j];
             }
         }
-        logger.trace("Minimum index found: {}", i);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Minimum index found: {}", i);
+        }
         return i;
     }
 
@@ -318,22 +820,19 @@ public class KMeansClassifier implements Classifier {
      *                     centroids
      * @return true if centroids are within the threshold, false otherwise
      */
-    private boolean centroidsAreCloseEnough(ArrayList<CharacteristicVector> newCentroids,
-            ArrayList<CharacteristicVector> oldCentroids,
-            double threshold) {
-        for (int i = 0; i < newCentroids.size(); i++) {
-            double[] newVector = newCentroids.get(i).getVector();
-            double[] oldVector = oldCentroids.get(i).getVector();
-
-            for (int j = 0; j < newVector.length; j++) {
-                if (Math.abs(newVector[j] - oldVector[j]) > threshold) {
-                    logger.debug("Centroids not close enough at index {}: diff = {}", i,
-                            Math.abs(newVector[j] - oldVector[j]));
-                    return false; // Centroids are not close enough
+    boolean centroidsAreCloseEnough(double[] newCentroids, double[] oldCentroids, double threshold) {
+        for (int j = 0; j < newCentroids.length; j++) {
+            if (Math.abs(newCentroids[j] - oldCentroids[j]) > threshold) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Centroids not close enough at index {}: diff = {}", j / dimension,
+                            Math.abs(newCentroids[j] - oldCentroids[j]));
                 }
+                return false; // Centroids are not close enough
             }
         }
-        logger.debug("Centroids have converged within the threshold");
+        if (logger.isDebugEnabled()) {
+            logger.debug("Centroids have converged within the threshold");
+        }
         return true;
     }
 
@@ -343,23 +842,26 @@ public class KMeansClassifier implements Classifier {
      * @return the SSE value
      */
     public double calculateSSE() {
+        return sse(centroids);
+    }
+
+    /**
+     * Calculates the SSE of the current clusters against the given centroids.
+     *
+     * @param currentCentroids the centroids stored row-major
+     * @return the SSE value
+     */
+    private double sse(double[] currentCentroids) {
+        double[] data = trainMatrix.getData();
         double sse = 0.0;
 
         // Loop through each cluster and calculate the squared distances
-        for (int i = 0; i < cluster.size(); i++) {
-            ArrayList<CharacteristicVector> currentCluster = cluster.get(i);
-            CharacteristicVector centroid = arrayCentroid.get(i);
-
-            for (CharacteristicVector cVector : currentCluster) {
-                double distance = 0;
-                try {
-                    // Here we sqrt at after sum
-                    distance = MathUtils.distEuclidean(cVector, centroid);
-                } catch (MathUtilsException e) {
-                    logger.error(e.getMessage());
-                }
-                sse += Math.pow(distance, 2); // since euclidean distance we sqrt at the end, we x^2 it to respect the
-                                              // SSE formula
+        for (int i = 0; i < k; i++) {
+            for (int m = memberOffsets[i]; m < memberOffsets[i + 1]; m++) {
+                // squared euclidean distance, no need to sqrt then x^2 it to respect the SSE
+                // formula
+                sse += MathUtils.squaredEuclidean(data, members[m] * dimension, currentCentroids, i * dimension,
+                        dimension);
             }
         }
 
@@ -368,81 +870,55 @@ public class KMeansClassifier implements Classifier {
 
     /**
      * Calculates the silhouette score for the entire clustering solution.
+     * Empty clusters are ignored when looking for the nearest other cluster.
+     * Up to {@value #SILHOUETTE_MATRIX_MAX_ROWS} training vectors the pairwise
+     * distances are cached, above they are computed again on each call.
      * 
      * @return the average silhouette score for the entire clustering solution
      */
     public double calculateSilhouetteScore() {
-        ArrayList<ArrayList<CharacteristicVector>> clusters = this.getCluster();
+        long start = System.nanoTime();
+        double[] scores;
+        if (assignment.length <= SILHOUETTE_MATRIX_MAX_ROWS) {
+            // Pairwise distances do not depend on the clustering, computed once per
+            // training matrix and reused for every k
+            DistanceMatrix distances = DistanceMatrix.of(trainMatrix, SILHOUETTE_METRIC);
+            scores = Silhouette.pointScores(distances, assignment, k);
+        } else {
+            scores = Silhouette.pointScores(trainMatrix, SILHOUETTE_METRIC, assignment, k);
+        }
+
         double totalSilhouetteScore = 0.0;
         int totalPoints = 0;
-
-        // Loop over all data points and calculate the silhouette score for each point
-        for (ArrayList<CharacteristicVector> cluster : clusters) {
-            for (CharacteristicVector point : cluster) {
-                double a = calculateA(point, cluster); // Calculate a(i)
-                double b = calculateB(point, clusters); // Calculate b(i)
-                totalSilhouetteScore += (b - a) / Math.max(a, b);
+        for (int c = 0; c < k; c++) {
+            for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+                totalSilhouetteScore += scores[members[m]];
                 totalPoints++;
             }
         }
 
+        silhouetteLatency.recordSince(start);
         // Return the average silhouette score
         return totalSilhouetteScore / totalPoints;
     }
 
     /**
-     * Calculates the average distance from a data point to all other points in the
-     * same cluster (a(i)).
-     * 
-     * @param point   the data point
-     * @param cluster the cluster the point belongs to
-     * @return the average distance to all other points in the same cluster
-     */
-    private double calculateA(CharacteristicVector point, ArrayList<CharacteristicVector> cluster) {
-        if (cluster.size() == 1) {
-            return 0.0;
-        }
-        double sum = 0.0;
-        for (CharacteristicVector otherPoint : cluster) {
-            if (otherPoint != point) {
-                try {
-                    sum += MathUtils.distEuclidean(point, otherPoint);
-                } catch (MathUtilsException e) {
-                    // e.printStackTrace();
-                }
-            }
-        }
-        return sum / (cluster.size() - 1);
-    }
-
-    /**
-     * Calculates the average distance from a data point to all points in the
-     * nearest cluster (b(i)).
-     * 
-     * @param point    the data point
-     * @param clusters all the clusters
-     * @return the average distance to the nearest cluster
-     */
-    private double calculateB(CharacteristicVector point, ArrayList<ArrayList<CharacteristicVector>> clusters) {
-        double minAvgDistance = Double.MAX_VALUE;
-
-        // Find the nearest cluster based on the centroid distance
-        for (ArrayList<CharacteristicVector> otherCluster : clusters) {
-            if (otherCluster.contains(point))
-                continue; // Skip the current cluster
-
-            double sum = 0.0;
-            for (CharacteristicVector otherPoint : otherCluster) {
-                try {
-                    sum += MathUtils.distEuclidean(point, otherPoint);
-                } catch (MathUtilsException e) {
-                    // e.printStackTrace();
-                }
-            }
-            double avgDistance = sum / otherCluster.size();
-            minAvgDistance = Math.min(minAvgDistance, avgDistance);
+     * Estimates the silhouette score from a random sample of the training
+     * vectors, without computing every pairwise distance. The sample is drawn
+     * from the seed if one is set.
+     *
+     * @param sampleSize the number of vectors to sample, the exact score is
+     *                   computed if it is not lower than the training size
+     * @return the average silhouette score of the sampled vectors
+     */
+    public double calculateSilhouetteScore(int sampleSize) {
+        if (sampleSize >= assignment.length) {
+            return calculateSilhouetteScore();
         }
-
-        return minAvgDistance;
+        long start = System.nanoTime();
+        double score = Silhouette.sampledScore(trainMatrix, SILHOUETTE_METRIC, assignment, k, sampleSize,
+                newRandom());
+        silhouetteLatency.recordSince(start);
+        return score;
     }
 }
@@ -0,0 +1,308 @@
+package process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import data.FeatureMatrix;
+import logger.LoggerUtil;
+import utils.MachineLearningUtils;
+
+/**
+ * Runs several restarts of a KMeans on the same data and keeps the best one.
+ * <p>
+ * Each restart trains a new classifier from the factory, with a seed derived
+ * from the master seed and the index of the restart
+ * ({@link MachineLearningUtils#deriveSeed}). The restarts can run concurrently
+ * on a pool, the result does not depend on the order they finish in: the same
+ * master seed always gives the same models, statistics and best restart.
+ * </p>
+ *
+ * <pre>
+ * KMeansRunner runner = new KMeansRunner(() -&gt; new KMeansClassifier(10, Classifier.EUCLIDEAN));
+ * runner.setRestarts(20);
+ * runner.setSeed(42L);
+ * runner.setPool(pool);
+ * KMeansRunner.Result result = runner.run(matrix);
+ * KMeansClassifier best = result.getBest();
+ * </pre>
+ */
+public class KMeansRunner {
+    private static final Logger logger = LoggerUtil.getLogger(KMeansRunner.class, Level.ERROR);
+
+    /** Constant to keep the restart with the lowest SSE. */
+    public static final String BY_SSE = "sse";
+
+    /** Constant to keep the restart with the highest silhouette score. */
+    public static final String BY_SILHOUETTE = "silhouette";
+
+    private final Supplier<? extends KMeansClassifier> factory;
+    private int restarts = 10;
+    private long seed = System.nanoTime();
+    private ForkJoinPool pool;
+    private String criterion = BY_SSE;
+    private int silhouetteSampleSize;
+
+    /**
+     * @param factory creates the untrained classifier of each restart
+     */
+    public KMeansRunner(Supplier<? extends KMeansClassifier> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @param restarts the number of trainings (default 10)
+     * @throws IllegalArgumentException if the number is lower than 1
+     */
+    public void setRestarts(int restarts) {
+        if (restarts < 1) {
+            throw new IllegalArgumentException("Restarts should be at least 1, got " + restarts);
+        }
+        this.restarts = restarts;
+    }
+
+    /**
+     * @param seed the master seed of the restarts (default: a random one)
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param pool the pool running the restarts concurrently, or null to run
+     *             them one after the other on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param criterion {@link #BY_SSE} (default) or {@link #BY_SILHOUETTE}
+     * @throws IllegalArgumentException if the criterion is unknown
+     */
+    public void setCriterion(String criterion) {
+        if (!BY_SSE.equals(criterion) && !BY_SILHOUETTE.equals(criterion)) {
+            throw new IllegalArgumentException("Unknown criterion: " + criterion);
+        }
+        this.criterion = criterion;
+    }
+
+    /**
+     * @param sampleSize the number of vectors used to estimate the silhouette of
+     *                   each restart, 0 (default) for the exact score. With
+     *                   {@link #BY_SSE} and no sample, the silhouette is not
+     *                   computed
+     */
+    public void setSilhouetteSampleSize(int sampleSize) {
+        this.silhouetteSampleSize = sampleSize;
+    }
+
+    /**
+     * Trains every restart on the data and selects the best one. On equal scores
+     * the first restart is kept.
+     *
+     * @param data the training data, shared by every restart
+     * @return the best model and the statistics of every restart
+     */
+    public Result run(FeatureMatrix data) {
+        long start = System.nanoTime();
+        ArrayList<Restart> runs = MachineLearningUtils.runTasks(restarts, index -> train(data, index), pool);
+
+        int best = 0;
+        for (int i = 1; i < runs.size(); i++) {
+            if (isBetter(runs.get(i).stats, runs.get(best).stats)) {
+                best = i;
+            }
+        }
+        ArrayList<RestartStats> stats = new ArrayList<>(runs.size());
+        for (Restart run : runs) {
+            stats.add(run.stats);
+        }
+        long wallTime = System.nanoTime() - start;
+        logger.info("{} restarts in {} ms, best restart {} (SSE = {}, silhouette = {})", restarts,
+                wallTime / 1_000_000, best, stats.get(best).getSse(), stats.get(best).getSilhouette());
+        return new Result(runs.get(best).model, best, stats, wallTime);
+    }
+
+    private Restart train(FeatureMatrix data, int index) {
+        long restartSeed = MachineLearningUtils.deriveSeed(seed, index);
+        KMeansClassifier model = factory.get();
+        model.setSeed(restartSeed);
+        long start = System.nanoTime();
+        model.train(data);
+        long trainingTime = System.nanoTime() - start;
+        // the exact silhouette costs more than the fit, only computed when needed
+        double silhouette = Double.NaN;
+        if (silhouetteSampleSize > 0) {
+            silhouette = model.calculateSilhouetteScore(silhouetteSampleSize);
+        } else if (BY_SILHOUETTE.equals(criterion)) {
+            silhouette = model.calculateSilhouetteScore();
+        }
+        RestartStats stats = new RestartStats(index, restartSeed, model.calculateSSE(), silhouette,
+                model.getDistanceEvaluations(), trainingTime);
+        logger.debug("Restart {}: {}", index, stats);
+        return new Restart(model, stats);
+    }
+
+    private boolean isBetter(RestartStats candidate, RestartStats best) {
+        if (BY_SILHOUETTE.equals(criterion)) {
+            return candidate.getSilhouette() > best.getSilhouette();
+        }
+        return candidate.getSse() < best.getSse();
+    }
+
+    /** A trained model and its statistics. */
+    private static class Restart {
+        private final KMeansClassifier model;
+        private final RestartStats stats;
+
+        Restart(KMeansClassifier model, RestartStats stats) {
+            this.model = model;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Statistics of one restart.
+     */
+    public static class RestartStats {
+        private final int restart;
+        private final long seed;
+        private final double sse;
+        private final double silhouette;
+        private final long distanceEvaluations;
+        private final long trainingTimeNanos;
+
+        RestartStats(int restart, long seed, double sse, double silhouette, long distanceEvaluations,
+                long trainingTimeNanos) {
+            this.restart = restart;
+            this.seed = seed;
+            this.sse = sse;
+            this.silhouette = silhouette;
+            this.distanceEvaluations = distanceEvaluations;
+            this.trainingTimeNanos = trainingTimeNanos;
+        }
+
+        /**
+         * @return the index of the restart
+         */
+        public int getRestart() {
+            return restart;
+        }
+
+        /**
+         * @return the seed of the restart, a classifier trained with it on the same
+         *         data gives the same model
+         */
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * @return the SSE of the model
+         */
+        public double getSse() {
+            return sse;
+        }
+
+        /**
+         * @return the silhouette score of the model (estimated if sampled), NaN if
+         *         the restarts were selected by SSE without a silhouette sample
+         */
+        public double getSilhouette() {
+            return silhouette;
+        }
+
+        /**
+         * @return the number of distances computed by the assignments
+         */
+        public long getDistanceEvaluations() {
+            return distanceEvaluations;
+        }
+
+        /**
+         * @return the training time in nanoseconds
+         */
+        public long getTrainingTimeNanos() {
+            return trainingTimeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "restart=" + restart + ", seed=" + seed + ", SSE=" + sse + ", silhouette=" + silhouette
+                    + ", distances=" + distanceEvaluations + ", time=" + trainingTimeNanos / 1_000_000 + " ms";
+        }
+    }
+
+    /**
+     * The best model of a run and the statistics of every restart.
+     */
+    public static class Result {
+        private final KMeansClassifier best;
+        private final int bestRestart;
+        private final List<RestartStats> restarts;
+        private final long wallTimeNanos;
+
+        Result(KMeansClassifier best, int bestRestart, List<RestartStats> restarts, long wallTimeNanos) {
+            this.best = best;
+            this.bestRestart = bestRestart;
+            this.restarts = Collections.unmodifiableList(restarts);
+            this.wallTimeNanos = wallTimeNanos;
+        }
+
+        /**
+         * @return the trained model of the best restart
+         */
+        public KMeansClassifier getBest() {
+            return best;
+        }
+
+        /**
+         * @return the index of the best restart
+         */
+        public int getBestRestart() {
+            return bestRestart;
+        }
+
+        /**
+         * @return the statistics of the best restart
+         */
+        public RestartStats getBestStats() {
+            return restarts.get(bestRestart);
+        }
+
+        /**
+         * @return the statistics of every restart, in restart order
+         */
+        public List<RestartStats> getRestarts() {
+            return restarts;
+        }
+
+        /**
+         * @return the lowest SSE of all the restarts
+         */
+        public double getMinSse() {
+            return restarts.stream().mapToDouble(RestartStats::getSse).min().orElse(Double.NaN);
+        }
+
+        /**
+         * @return the highest silhouette score of all the restarts, NaN if it was
+         *         not computed
+         */
+        public double getMaxSilhouette() {
+            return restarts.stream().mapToDouble(RestartStats::getSilhouette).max().orElse(Double.NaN);
+        }
+
+        /**
+         * @return the time of the whole run in nanoseconds
+         */
+        public long getWallTimeNanos() {
+            return wallTimeNanos;
+        }
+    }
+}
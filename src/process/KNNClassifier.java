@@ -1,18 +1,33 @@
 package process;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
 import data.CharacteristicVector;
 import data.Classifier;
-import data.MathUtilsException;
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
 import logger.LoggerUtil;
-import utils.MathUtils;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import utils.BallTreeIndex;
+import utils.BruteForceIndex;
+import utils.DistanceMatrix;
+import utils.DistanceMetrics;
+import utils.HnswIndex;
+import utils.KDTreeIndex;
+import utils.LshIndex;
+import utils.MachineLearningUtils;
+import utils.TopKSelector;
 
 /**
  * Implements the k-Nearest Neighbors (KNN) algorithm
@@ -20,8 +35,13 @@ import utils.MathUtils;
  * Euclidean, Manhattan, etc. Then we classify input data based on
  * the majority label of its nearest neighbors.
  *
- * The class allows setting the number of neighbors (k) and the distance metric,
- * storing training data without further preprocessing.
+ * The class allows setting the number of neighbors (k) and the distance metric.
+ * By default the training data is stored without further preprocessing and
+ * scanned by every query, {@link #setIndex(String)} builds a k-d tree or a ball
+ * tree at training instead, which gives the same neighbors with fewer distances
+ * on low-dimensional data, or an approximate HNSW graph or LSH tables for large
+ * training sets.
+ * Vectors can be added after the training with {@link #insert}.
  * <p>
  * Example Usage:
  * </p>
@@ -34,11 +54,68 @@ import utils.MathUtils;
  */
 public class KNNClassifier implements Classifier {
     private static final Logger logger = LoggerUtil.getLogger(KNNClassifier.class, Level.WARN);
+    private static final Histogram predictLatency = MetricsRegistry.global().histogram("knn_predict_seconds",
+            "Latency of KNNClassifier.predict", MetricsRegistry.NANOSECONDS);
+    private static final Histogram batchLatency = MetricsRegistry.global().histogram("knn_predict_batch_seconds",
+            "Latency of KNNClassifier.predictBatch", MetricsRegistry.NANOSECONDS);
+    private static final Counter batchPredictions = MetricsRegistry.global().counter(
+            "knn_batch_predictions_total", "Vectors classified by KNNClassifier.predictBatch");
 
-    private String distanceMetric;
+    /** Constant for the linear scan of the training data, see {@link BruteForceIndex}. */
+    public static final String BRUTE_FORCE = "brute-force";
+
+    /** Constant for the k-d tree, see {@link KDTreeIndex}. */
+    public static final String KD_TREE = "kd-tree";
+
+    /** Constant for the ball tree, see {@link BallTreeIndex}. */
+    public static final String BALL_TREE = "ball-tree";
+
+    /** Constant for the approximate HNSW graph, see {@link HnswIndex}. */
+    public static final String HNSW = "hnsw";
+
+    /** Constant for the approximate locality-sensitive hashing, see {@link LshIndex}. */
+    public static final String LSH = "lsh";
+
+    /** Seed of the levels of the HNSW graph, so two trainings give the same graph. */
+    private static final long HNSW_SEED = 42L;
+    /** Seed of the LSH projections, so two trainings give the same tables. */
+    private static final long LSH_SEED = 42L;
+
+    /** Queries of a block of {@link #predictBatch}, each block being one task. */
+    static final int QUERY_BLOCK = 64;
+    /**
+     * Bytes of training data compared to a whole block of queries before moving
+     * to the next training rows, so they are read from the cache by all but the
+     * first query of the block.
+     */
+    static final int TILE_BYTES = 64 * 1024;
+    /**
+     * Above this training size the leave-one-out predictions scan the training
+     * data instead of caching the pairwise distances (n(n-1)/2 doubles, 100 MB
+     * at this size).
+     */
+    static final int LEAVE_ONE_OUT_MATRIX_MAX_ROWS = 5000;
+
+    private DistanceMetric metric;
+    private FeatureMatrix trainMatrix;
     private ArrayList<CharacteristicVector> trainData;
     private int k;
-    private int norm;
+    private ForkJoinPool pool;
+    private String indexType = BRUTE_FORCE;
+    private NeighborIndex index;
+    /** Linear scan giving the exact neighbors when the index is approximate. */
+    private NeighborIndex exactIndex;
+    private int hnswM = HnswIndex.DEFAULT_M;
+    private int hnswEfConstruction = HnswIndex.DEFAULT_EF_CONSTRUCTION;
+    private int hnswEfSearch = HnswIndex.DEFAULT_EF_SEARCH;
+    private int lshTables = LshIndex.DEFAULT_TABLES;
+    private int lshProjections = LshIndex.DEFAULT_PROJECTIONS;
+    private double lshWidth = 0;
+    /**
+     * Vectors inserted since the last training, rows trainMatrix.getRowCount()
+     * and after. They are only merged into the matrix when a query needs it.
+     */
+    private final ArrayList<CharacteristicVector> inserted = new ArrayList<>();
 
     /**
      * Constructs a KNNClassifier with a specified number of neighbors and distance
@@ -51,8 +128,8 @@ public class KNNClassifier implements Classifier {
      */
     public KNNClassifier(int k, String metricName) {
         logger.info("Initializing KNNClassifier with k={}, metricName={}", k, metricName);
-        distanceMetric = metricName;
         this.k = k;
+        this.metric = resolveMetric(metricName, 0);
     }
 
     /**
@@ -73,9 +150,25 @@ public class KNNClassifier implements Classifier {
             norm = 1;
         }
         logger.info("Initializing KNNClassifier with k={} and Minkowski norm={}", k, norm);
-        distanceMetric = metricName;
         this.k = k;
-        this.norm = norm;
+        this.metric = resolveMetric(metricName, norm);
+    }
+
+    /**
+     * Resolves the distance metric once so no dispatch is done per distance.
+     *
+     * @param metricName the distance metric name.
+     * @param norm       the norm for the Minkowski distance metric.
+     * @return the metric, or a metric putting every vector at maximum distance if
+     *         the name or the norm is not valid.
+     */
+    private static DistanceMetric resolveMetric(String metricName, int norm) {
+        DistanceMetric resolved = DistanceMetrics.of(metricName, norm);
+        if (resolved == null) {
+            logger.warn("Unknown distance metric: {} (norm={}). Defaulting to maximum distance.", metricName, norm);
+            return DistanceMetrics.MAXIMUM;
+        }
+        return resolved;
     }
 
     /**
@@ -93,6 +186,278 @@ public class KNNClassifier implements Classifier {
     public void train(List<CharacteristicVector> trainingData) {
         logger.info("Training KNN classifier with {} training samples.", trainingData.size());
         this.trainData = new ArrayList<>(trainingData);
+        this.trainMatrix = FeatureMatrix.fromVectors(trainData);
+        resetIndex();
+    }
+
+    /**
+     * Stores an already packed training dataset for future predictions.
+     * The matrix is used as is, not copied.
+     * {@link CharacteristicVector} objects are only created if
+     * {@link #getNeighbors(CharacteristicVector)} is called.
+     *
+     * @param trainingData the training dataset.
+     */
+    @Override
+    public void train(FeatureMatrix trainingData) {
+        logger.info("Training KNN classifier with {} training samples.", trainingData.getRowCount());
+        this.trainMatrix = trainingData;
+        this.trainData = null;
+        resetIndex();
+    }
+
+    private void resetIndex() {
+        inserted.clear();
+        exactIndex = null;
+        index = buildIndex();
+    }
+
+    /**
+     * Chooses the structure used to find the neighbors, built at training. Every
+     * exact structure gives the same neighbors, only the time changes: the trees skip
+     * most of the training data when it is clustered or of low dimension, like
+     * the signature files, but compare almost every row plus their bounds on
+     * spread data of high dimension, where the linear scan is faster (see
+     * {@code bench.NeighborIndexBenchmark}).
+     * <p>
+     * {@link #HNSW} and {@link #LSH} compute a small share of the distances
+     * whatever the dimension, but may miss some of the nearest neighbors, see
+     * {@link #setHnswParameters}, {@link #setLshParameters} and
+     * {@link #measureRecall}. The predictions and
+     * {@link #getApproximateNeighbors} use them, {@link #getNeighbors} always
+     * returns the exact neighbors. LSH only hashes the Euclidean and Manhattan
+     * distances, the linear scan is used for the other metrics.
+     * </p>
+     * <p>
+     * If the classifier is already trained, the index is built again.
+     * </p>
+     *
+     * @param indexType {@link #BRUTE_FORCE} (default), {@link #KD_TREE},
+     *                  {@link #BALL_TREE}, {@link #HNSW} or {@link #LSH}, an
+     *                  unknown value is ignored
+     */
+    public void setIndex(String indexType) {
+        if (!BRUTE_FORCE.equals(indexType) && !KD_TREE.equals(indexType) && !BALL_TREE.equals(indexType)
+                && !HNSW.equals(indexType) && !LSH.equals(indexType)) {
+            logger.warn("Unknown neighbor index: {}. Keeping {}.", indexType, this.indexType);
+            return;
+        }
+        this.indexType = indexType;
+        if (trainMatrix != null) {
+            applyInserts();
+            exactIndex = null;
+            index = buildIndex();
+        }
+    }
+
+    /**
+     * Sets the parameters of the {@link #HNSW} graph. If the graph is already
+     * built, only a new efSearch is applied without building it again.
+     *
+     * @param m              the number of links per node and layer (default
+     *                       {@value HnswIndex#DEFAULT_M}), more links give a
+     *                       better recall and a slower build
+     * @param efConstruction the number of candidates kept while linking a node
+     *                       (default {@value HnswIndex#DEFAULT_EF_CONSTRUCTION})
+     * @param efSearch       the number of candidates kept by a query (default
+     *                       {@value HnswIndex#DEFAULT_EF_SEARCH}), the trade-off
+     *                       between recall and query time
+     * @throws IllegalArgumentException if M is lower than 2 or an ef lower than 1
+     */
+    public void setHnswParameters(int m, int efConstruction, int efSearch) {
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("HNSW needs M >= 2 and ef >= 1, got M=" + m + ", efConstruction="
+                    + efConstruction + ", efSearch=" + efSearch);
+        }
+        boolean rebuild = m != hnswM || efConstruction != hnswEfConstruction;
+        this.hnswM = m;
+        this.hnswEfConstruction = efConstruction;
+        this.hnswEfSearch = efSearch;
+        if (index instanceof HnswIndex) {
+            if (rebuild) {
+                applyInserts();
+                index = buildIndex();
+            } else {
+                ((HnswIndex) index).setEfSearch(efSearch);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the training data, or null if not trained
+     */
+    public NeighborIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Sets the parameters of the {@link #LSH} tables, built again if the
+     * classifier is trained with this index.
+     *
+     * @param tables      the number of hash tables (default
+     *                    {@value LshIndex#DEFAULT_TABLES}), more tables give a
+     *                    better recall and use more memory
+     * @param projections the number of projections hashed together by a table
+     *                    (default {@value LshIndex#DEFAULT_PROJECTIONS}), more
+     *                    projections give fewer candidates per query
+     * @param width       the width of the projection buckets, 0 (default) to
+     *                    estimate it from the training data
+     * @throws IllegalArgumentException if tables or projections is lower than 1
+     *                                  or the width is negative
+     */
+    public void setLshParameters(int tables, int projections, double width) {
+        if (tables < 1 || projections < 1 || width < 0) {
+            throw new IllegalArgumentException("LSH needs tables >= 1, projections >= 1 and width >= 0, got tables="
+                    + tables + ", projections=" + projections + ", width=" + width);
+        }
+        this.lshTables = tables;
+        this.lshProjections = projections;
+        this.lshWidth = width;
+        if (index instanceof LshIndex) {
+            applyInserts();
+            index = buildIndex();
+        }
+    }
+
+    private NeighborIndex buildIndex() {
+        long start = System.nanoTime();
+        NeighborIndex built;
+        switch (indexType) {
+            case KD_TREE:
+                built = new KDTreeIndex(trainMatrix, metric);
+                break;
+            case BALL_TREE:
+                built = new BallTreeIndex(trainMatrix, metric);
+                break;
+            case HNSW:
+                built = new HnswIndex(trainMatrix, metric, hnswM, hnswEfConstruction, hnswEfSearch, HNSW_SEED);
+                break;
+            case LSH:
+                if (!LshIndex.supports(metric)) {
+                    logger.warn("LSH can not hash the {} distance, using the linear scan", metric);
+                    built = new BruteForceIndex(trainMatrix, metric);
+                    break;
+                }
+                built = new LshIndex(trainMatrix, metric, lshTables, lshProjections, lshWidth, LSH_SEED, pool);
+                break;
+            default:
+                built = new BruteForceIndex(trainMatrix, metric);
+                break;
+        }
+        logger.info("Built {} index of {} samples in {} ms", indexType, trainMatrix.getRowCount(),
+                (System.nanoTime() - start) / 1_000_000);
+        return built;
+    }
+
+    /**
+     * Adds a vector to the training data without training again.
+     * <p>
+     * With {@link #HNSW}, the vector is linked into the graph right away. The
+     * other indexes are built again, once, by the next query needing them. Like
+     * {@link #train}, it must not be called while other threads predict.
+     * </p>
+     *
+     * @param vector the labeled vector to add, of the training dimension
+     * @throws IllegalStateException    if training data has not been set.
+     * @throws IllegalArgumentException if the vector is not of the training
+     *                                  dimension
+     */
+    public synchronized void insert(CharacteristicVector vector) {
+        checkTrained();
+        if (vector.getVectorSize() != trainMatrix.getDimension()) {
+            throw new IllegalArgumentException("Expected a vector of size " + trainMatrix.getDimension() + ", got "
+                    + vector.getVectorSize());
+        }
+        inserted.add(vector);
+        exactIndex = null;
+        if (index instanceof HnswIndex) {
+            ((HnswIndex) index).insert(vector.getVector(), 0);
+        }
+    }
+
+    /**
+     * @return the number of training vectors, inserted ones included
+     */
+    private int rowCount() {
+        return trainMatrix.getRowCount() + inserted.size();
+    }
+
+    /**
+     * Moves the inserted vectors into the training matrix, building the index
+     * again unless it already holds them.
+     */
+    private synchronized void applyInserts() {
+        if (inserted.isEmpty()) {
+            return;
+        }
+        ArrayList<CharacteristicVector> vectors = new ArrayList<>(trainingVectors());
+        vectors.addAll(inserted);
+        logger.info("Adding {} inserted vectors to the {} training samples", inserted.size(),
+                trainMatrix.getRowCount());
+        trainData = vectors;
+        trainMatrix = FeatureMatrix.fromVectors(vectors);
+        inserted.clear();
+        exactIndex = null;
+        if (!(index instanceof HnswIndex)) {
+            index = buildIndex();
+        }
+    }
+
+    /**
+     * @return the index used by the predictions, holding the inserted vectors
+     */
+    private NeighborIndex currentIndex() {
+        if (!(index instanceof HnswIndex)) {
+            applyInserts();
+        }
+        return index;
+    }
+
+    /**
+     * @return an index giving the exact neighbors, holding the inserted vectors
+     */
+    private synchronized NeighborIndex exactIndex() {
+        applyInserts();
+        if (index.isExact()) {
+            return index;
+        }
+        if (exactIndex == null) {
+            exactIndex = new BruteForceIndex(trainMatrix, metric);
+        }
+        return exactIndex;
+    }
+
+    /**
+     * Measures the share of the exact neighbors found by the index, which is
+     * below 1 only for the approximate {@link #HNSW} index.
+     *
+     * @param queries the vectors to search, of the training dimension
+     * @param count   the number of neighbors of each query
+     * @return the mean over the queries of the fraction of the {@code count}
+     *         exact nearest neighbors (see {@link #getNeighbors}) also returned
+     *         by the index
+     * @throws IllegalStateException if training data has not been set.
+     */
+    public double measureRecall(List<CharacteristicVector> queries, int count) {
+        checkTrained();
+        NeighborIndex searched = currentIndex();
+        NeighborIndex exact = exactIndex();
+        double recall = 0;
+        for (CharacteristicVector query : queries) {
+            int[] expected = exact.nearest(query.getVector(), 0, count);
+            int[] found = searched.nearest(query.getVector(), 0, count);
+            Arrays.sort(found);
+            int hits = 0;
+            for (int row : expected) {
+                if (Arrays.binarySearch(found, row) >= 0) {
+                    hits++;
+                }
+            }
+            recall += expected.length == 0 ? 1 : (double) hits / expected.length;
+        }
+        recall = queries.isEmpty() ? 1 : recall / queries.size();
+        logger.info("Recall@{} of the {} index over {} queries: {}", count, indexType, queries.size(), recall);
+        return recall;
     }
 
     /**
@@ -105,14 +470,13 @@ public class KNNClassifier implements Classifier {
      * function predict(inputVector):
      *     if training data is not set, throw an exception
      *     
-     *     distances = empty list to store distances to inputVector
-     *     vectors = empty list to store corresponding {@link #CharacteristicVectors}
+     *     heap = bounded max-heap of size k over (distance, index)
      *     
-     *     for each vector in trainData:
-     *         calculate distance between vector and inputVector based on distanceMetric
-     *         insert distance and vector in sorted order in distances and vectors
+     *     for each vector at index i in trainData:
+     *         calculate distance between vector and inputVector based on the metric
+     *         offer (distance, i) to heap, it replaces the worst one if closer
      *
-     *     nearest = the first k elements from vectors (k-nearest neighbors)
+     *     nearest = the vectors of heap sorted by distance (k-nearest neighbors)
      *     
      *     return the class label with the highest count from nearest neighbors
      * </pre>
@@ -126,28 +490,232 @@ public class KNNClassifier implements Classifier {
      */
     @Override
     public String predict(CharacteristicVector inputVector) throws IllegalStateException {
-        logger.debug("Starting prediction for input vector: {}", inputVector);
+        if (logger.isDebugEnabled()) {
+            // the string of a vector joins all its components
+            logger.debug("Starting prediction for input vector: {}", inputVector);
+        }
 
-        if (trainData == null) {
+        if (trainMatrix == null) {
             logger.error("Training data not set. Cannot proceed with prediction.");
             throw new IllegalStateException("Training data not set. Call train() before predict().");
         }
 
-        ArrayList<CharacteristicVector> vectors = this.getNeighbors(inputVector);
-
+        long start = System.nanoTime();
         // Grab the k-nearest neighbors
-        ArrayList<CharacteristicVector> nearest = new ArrayList<>();
-        for (int j = 0; j < k && j < vectors.size(); j++) {
-            nearest.add(vectors.get(j));
+        int[] nearest = nearestIndices(inputVector, k, false);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Collected and sorted distances for {} neighbors", k);
         }
-        logger.debug("Collected and sorted distances for {} neighbors", k);
 
         // Check which class got the most vote
         String predictedLabel = majorityVote(nearest);
-        logger.info("Predicted label: {}", predictedLabel);
+        predictLatency.recordSince(start);
+        if (logger.isInfoEnabled()) {
+            logger.info("Predicted label: {}", predictedLabel);
+        }
+        return predictedLabel;
+    }
+
+    /**
+     * Runs the blocks of queries of {@link #predictBatch} on a pool.
+     *
+     * @param pool the pool to use, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Predicts the labels of several vectors, giving the same labels as
+     * {@link #predict(CharacteristicVector)}. The vectors are packed, then
+     * classified like the rows of a matrix, see {@link #predictBatch(FeatureMatrix)}.
+     *
+     * @param vectors the vectors to classify.
+     * @return the predicted labels, in the order of the vectors.
+     * @throws IllegalStateException if training data has not been set.
+     */
+    @Override
+    public List<String> predictBatch(List<CharacteristicVector> vectors) {
+        checkTrained();
+        int dimension = trainMatrix.getDimension();
+        double[] queries = new double[vectors.size() * dimension];
+        for (int q = 0; q < vectors.size(); q++) {
+            double[] vector = vectors.get(q).getVector();
+            if (vector.length != dimension) {
+                // predict handles the vectors of another size
+                return Classifier.super.predictBatch(vectors);
+            }
+            System.arraycopy(vector, 0, queries, q * dimension, dimension);
+        }
+        return predictRows(queries, vectors.size());
+    }
+
+    /**
+     * Predicts the label of every row of a matrix, giving the same labels as
+     * {@link #predict(CharacteristicVector)}.
+     * <p>
+     * Queries are split in blocks of {@value #QUERY_BLOCK}, one task of the pool
+     * each (see {@link #setPool}). With the linear scan, a block walks the
+     * training data by tiles of about {@value #TILE_BYTES} bytes and compares
+     * every query of the block to the tile before loading the next one, so the
+     * training data is read once from memory per block instead of once per query.
+     * With a tree (see {@link #setIndex}), each query of the block searches it.
+     * </p>
+     *
+     * @param queries the vectors to classify, one per row.
+     * @return the predicted labels, in row order.
+     * @throws IllegalStateException if training data has not been set.
+     */
+    @Override
+    public List<String> predictBatch(FeatureMatrix queries) {
+        checkTrained();
+        if (queries.getRowCount() > 0 && queries.getDimension() != trainMatrix.getDimension()) {
+            return Classifier.super.predictBatch(queries);
+        }
+        return predictRows(queries.getData(), queries.getRowCount());
+    }
+
+    private void checkTrained() {
+        if (trainMatrix == null) {
+            logger.error("Training data not set. Cannot proceed with prediction.");
+            throw new IllegalStateException("Training data not set. Call train() before predict().");
+        }
+    }
+
+    private List<String> predictRows(double[] queries, int count) {
+        long start = System.nanoTime();
+        NeighborIndex searched = currentIndex();
+        int blocks = (count + QUERY_BLOCK - 1) / QUERY_BLOCK;
+        ArrayList<String[]> blockLabels = MachineLearningUtils.runTasks(blocks,
+                block -> predictBlock(queries, block * QUERY_BLOCK, Math.min(count, (block + 1) * QUERY_BLOCK),
+                        searched),
+                pool);
+        ArrayList<String> labels = new ArrayList<>(count);
+        for (String[] block : blockLabels) {
+            labels.addAll(Arrays.asList(block));
+        }
+        batchPredictions.add(count);
+        batchLatency.recordSince(start);
+        return labels;
+    }
+
+    /**
+     * Classifies the queries {@code from} to {@code to - 1}, tile by tile of
+     * training rows.
+     */
+    private String[] predictBlock(double[] queries, int from, int to, NeighborIndex searched) {
+        if (!BRUTE_FORCE.equals(indexType)) {
+            int dimension = trainMatrix.getDimension();
+            String[] labels = new String[to - from];
+            for (int q = from; q < to; q++) {
+                labels[q - from] = majorityVote(searched.nearest(queries, q * dimension, k));
+            }
+            return labels;
+        }
+        int size = trainMatrix.getRowCount();
+        int dimension = trainMatrix.getDimension();
+        double[] data = trainMatrix.getData();
+        int tileRows = Math.max(1, TILE_BYTES / (Double.BYTES * Math.max(1, dimension)));
+
+        TopKSelector[] selectors = new TopKSelector[to - from];
+        for (int q = 0; q < selectors.length; q++) {
+            selectors[q] = new TopKSelector(Math.max(0, Math.min(k, size)));
+        }
+        for (int tile = 0; tile < size; tile += tileRows) {
+            int tileEnd = Math.min(size, tile + tileRows);
+            for (int q = from; q < to; q++) {
+                TopKSelector selector = selectors[q - from];
+                int queryOffset = q * dimension;
+                for (int i = tile; i < tileEnd; i++) {
+                    selector.offer(metric.reducedDistance(data, i * dimension, queries, queryOffset, dimension), i);
+                }
+            }
+        }
+
+        NeighborIndex.DISTANCE_EVALUATIONS.add((long) size * selectors.length);
+
+        String[] labels = new String[selectors.length];
+        for (int q = 0; q < selectors.length; q++) {
+            labels[q] = majorityVote(selectors[q].sortedIndices());
+        }
+        return labels;
+    }
+
+    /**
+     * KNN supports leave-one-out predictions: the excluded training vector is
+     * simply skipped while selecting the neighbors.
+     *
+     * @return true
+     */
+    @Override
+    public boolean supportsLeaveOneOut() {
+        return true;
+    }
+
+    /**
+     * Predicts the label of the training vector at the given index from its k
+     * nearest neighbors among all the other training vectors. The result is the
+     * same as training without this vector then predicting it, without copying
+     * the training data.
+     * <p>
+     * Up to {@value #LEAVE_ONE_OUT_MATRIX_MAX_ROWS} training vectors, the first
+     * call computes every pairwise distance of the training matrix, see
+     * {@link DistanceMatrix}, later calls only read them. Above, each call
+     * computes the distances of its vector to the others.
+     * </p>
+     *
+     * @param trainingIndex the index of the vector in the training data.
+     * @return the predicted label based on the majority class among the k-nearest
+     *         neighbors.
+     * @throws IllegalStateException     if training data has not been set.
+     * @throws IndexOutOfBoundsException if the index is not in the training data.
+     */
+    @Override
+    public String predictLeaveOneOut(int trainingIndex) {
+        if (trainMatrix == null) {
+            logger.error("Training data not set. Cannot proceed with prediction.");
+            throw new IllegalStateException("Training data not set. Call train() before predict().");
+        }
+        applyInserts();
+        if (trainingIndex < 0 || trainingIndex >= trainMatrix.getRowCount()) {
+            throw new IndexOutOfBoundsException(
+                    "Index " + trainingIndex + " out of training data of size " + trainMatrix.getRowCount());
+        }
+
+        int[] nearest;
+        if (trainMatrix.getRowCount() <= LEAVE_ONE_OUT_MATRIX_MAX_ROWS) {
+            // Distances do not depend on k, they are shared by every classifier
+            // trained on the same matrix
+            nearest = DistanceMatrix.of(trainMatrix, metric).nearest(trainingIndex, k);
+        } else {
+            nearest = nearestOtherRows(trainingIndex);
+        }
+        String predictedLabel = majorityVote(nearest);
+        if (logger.isInfoEnabled()) {
+            logger.info("Predicted label of training vector {}: {}", trainingIndex, predictedLabel);
+        }
         return predictedLabel;
     }
 
+    /**
+     * Selects the k training vectors closest to a training vector, itself
+     * excluded, with one distance per training vector.
+     */
+    private int[] nearestOtherRows(int trainingIndex) {
+        int size = trainMatrix.getRowCount();
+        int dimension = trainMatrix.getDimension();
+        double[] data = trainMatrix.getData();
+        int queryOffset = trainingIndex * dimension;
+        TopKSelector selector = new TopKSelector(Math.max(0, Math.min(k, size - 1)));
+        for (int i = 0; i < size; i++) {
+            if (i != trainingIndex) {
+                selector.offer(metric.reducedDistance(data, i * dimension, data, queryOffset, dimension), i);
+            }
+        }
+        NeighborIndex.DISTANCE_EVALUATIONS.add(size - 1);
+        return selector.sortedIndices();
+    }
+
     /**
      * Retrieves all the neighbors of the given input vector in ascending order of
      * distance.
@@ -164,26 +732,15 @@ public class KNNClassifier implements Classifier {
      *                               prior to calling this method.
      */
     public ArrayList<CharacteristicVector> getNeighbors(CharacteristicVector input) {
-        logger.debug("Retrieving neighbors of : {}", input);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieving neighbors of : {}", input);
+        }
 
-        if (trainData == null) {
+        if (trainMatrix == null) {
             logger.error("Training data not set. Cannot retrieve neighbors.");
             throw new IllegalStateException("Training data not set. Call train() before predict().");
         }
-        ArrayList<Double> distances = new ArrayList<Double>();
-        ArrayList<CharacteristicVector> vectors = new ArrayList<CharacteristicVector>();
-
-        // Sort each Characteristic Vector by their distance to the InputVector
-        for (CharacteristicVector cVector : trainData) {
-            int i = 0;
-            double distance = calculateDistance(cVector, input);
-            while (i < distances.size() && distances.get(i) <= distance) {
-                i++;
-            }
-            distances.add(i, distance);
-            vectors.add(i, cVector);
-        }
-        return vectors;
+        return toVectors(nearestIndices(input, rowCount(), true));
     }
 
     /**
@@ -205,83 +762,135 @@ public class KNNClassifier implements Classifier {
      * @throws IllegalArgumentException if k is less than 1.
      */
     public ArrayList<CharacteristicVector> getNeighbors(CharacteristicVector input, int k) {
-        logger.debug("Retrieving up to {} neighbors of : {}", k, input);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieving up to {} neighbors of : {}", k, input);
+        }
 
-        if (trainData == null) {
+        if (trainMatrix == null) {
             logger.error("Training data not set. Cannot retrieve neighbors.");
             throw new IllegalStateException("Training data not set. Call train() before predict().");
         }
 
         if (k < 1) {
-            logger.error("Got k={} but getNeighbors should never get an int lower than 1.");
+            logger.error("Got k={} but getNeighbors should never get an int lower than 1.", k);
             throw new IllegalArgumentException("The number of neighbors 'k' must be at least 1.");
         }
 
-        ArrayList<Double> distances = new ArrayList<Double>();
-        ArrayList<CharacteristicVector> vectors = new ArrayList<CharacteristicVector>();
+        return toVectors(nearestIndices(input, k, true));
+    }
+
+    /**
+     * Retrieves up to k neighbors of the given input vector with the index of the
+     * training data (see {@link #setIndex}). With an exact index, the result is
+     * the one of {@link #getNeighbors(CharacteristicVector, int)}; with
+     * {@link #HNSW} or {@link #LSH} it is found with far fewer distances but may
+     * miss some of the nearest vectors.
+     *
+     * @param input the CharacteristicVector for which to find the neighbors.
+     * @param k     the maximum number of neighbors to return.
+     * @return the neighbors found, sorted in ascending order of distance.
+     * @throws IllegalStateException    if the training data has not been
+     *                                  initialized prior to calling this method.
+     * @throws IllegalArgumentException if k is less than 1.
+     */
+    public ArrayList<CharacteristicVector> getApproximateNeighbors(CharacteristicVector input, int k) {
+        checkTrained();
+        if (k < 1) {
+            throw new IllegalArgumentException("The number of neighbors 'k' must be at least 1.");
+        }
+        int[] nearest = nearestIndices(input, k, false);
+        // inserted vectors of the HNSW graph may not be merged yet
+        applyInserts();
+        return toVectors(nearest);
+    }
 
-        // Sort each Characteristic Vector by their distance to the InputVector
-        for (CharacteristicVector cVector : trainData) {
-            int i = 0;
-            double distance = calculateDistance(cVector, input);
-            while (i < distances.size() && distances.get(i) <= distance) {
-                i++;
+    /**
+     * Selects the indices of the {@code count} training vectors closest to the
+     * input with the index of the training data.
+     *
+     * @param input the vector to compare with the training data.
+     * @param count the maximum number of neighbors to select.
+     * @param exact true to get the exact neighbors even if the index is
+     *              approximate.
+     * @return the indices in the training data sorted in ascending order of
+     *         distance, ties broken by index.
+     */
+    private int[] nearestIndices(CharacteristicVector input, int count, boolean exact) {
+        double[] query = input.getVector();
+        if (query.length != trainMatrix.getDimension()) {
+            logger.error("Error calculating distance between vectors: Vectors are not the same size !");
+            // Every training vector is at maximum distance, keep the first ones
+            int size = rowCount();
+            TopKSelector selector = new TopKSelector(Math.max(0, Math.min(count, size)));
+            for (int i = 0; i < size; i++) {
+                selector.offer(Double.MAX_VALUE, i);
             }
-            distances.add(i, distance);
-            vectors.add(i, cVector);
+            return selector.sortedIndices();
         }
+        return (exact ? exactIndex() : currentIndex()).nearest(query, 0, count);
+    }
 
-        return new ArrayList<>(vectors.subList(0, Math.min(k, vectors.size())));
+    /**
+     * Maps training data indices to their {@link CharacteristicVector}.
+     *
+     * @param indices indices in the training data.
+     * @return the vectors in the same order as the indices.
+     */
+    private ArrayList<CharacteristicVector> toVectors(int[] indices) {
+        ArrayList<CharacteristicVector> vectors = trainingVectors();
+        ArrayList<CharacteristicVector> selected = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            selected.add(vectors.get(index));
+        }
+        return selected;
     }
 
     /**
-     * Calculates the distance between two {@link CharacteristicVector} objects
-     * based on
-     * the specified distance metric.
+     * Returns the training data as {@link CharacteristicVector}, unpacking the
+     * matrix the first time if the classifier was trained with a
+     * {@link FeatureMatrix}.
      *
-     * @param v1 the first vector.
-     * @param v2 the second vector.
-     * @return the calculated distance between v1 and v2.
-     * @throws MathUtilsException if an error occurs while calculating the distance.
-     */
-    private double calculateDistance(CharacteristicVector v1, CharacteristicVector v2) {
-        logger.trace("Calculating distance between vectors using metric: {}", distanceMetric);
-        try {
-            switch (distanceMetric) {
-                case Classifier.EUCLIDEAN:
-                    return MathUtils.distEuclidean(v1, v2);
-                case Classifier.MANHATTAN:
-                    return MathUtils.distManhattan(v1, v2);
-                case Classifier.MINKOWSKI:
-                    return MathUtils.distMinkowski(v1, v2, norm);
-                default:
-                    logger.warn("Unknown distance metric: {}. Defaulting to maximum distance.", distanceMetric);
-                    return Double.MAX_VALUE;
-            }
-        } catch (MathUtilsException e) {
-            logger.error("Error calculating distance between vectors: {}", e.getMessage());
-            return Double.MAX_VALUE;
+     * @return the training vectors in the training order.
+     */
+    private synchronized ArrayList<CharacteristicVector> trainingVectors() {
+        if (trainData == null) {
+            trainData = trainMatrix.toVectors();
         }
+        return trainData;
+    }
+
+    /**
+     * @param row a training index, possibly of an inserted vector.
+     * @return the label of the training vector.
+     */
+    private String labelOf(int row) {
+        int rows = trainMatrix.getRowCount();
+        return row < rows ? trainMatrix.getLabel(row) : inserted.get(row - rows).getLabel();
     }
 
     /**
      * Determines the most common label among a list of nearest neighbors.
      *
-     * @param nearestNeighbors the list of nearest {@link CharacteristicVector}
+     * @param nearestNeighbors the indices in the training data of the nearest
      *                         neighbors.
      * @return the label with the highest count among the nearest neighbors.
      */
-    private String majorityVote(ArrayList<CharacteristicVector> nearestNeighbors) {
-        logger.debug("Performing majority vote among {} nearest neighbors", nearestNeighbors.size());
+    private String majorityVote(int[] nearestNeighbors) {
+        int count = nearestNeighbors.length;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Performing majority vote among {} nearest neighbors", count);
+        }
         HashMap<String, Integer> labelCount = new HashMap<>();
 
         // Count occurrences of each label in the k-nearest neighbors
-        for (CharacteristicVector neighbor : nearestNeighbors) {
-            String label = neighbor.getLabel();
+        for (int n = 0; n < count; n++) {
+            String label = labelOf(nearestNeighbors[n]);
             labelCount.put(label, labelCount.getOrDefault(label, 0) + 1);
         }
 
-        logger.debug("Neighbor label counts: {}", labelCount);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Neighbor label counts: {}", labelCount);
+        }
 
         // Find the label with the maximum count
         String predictedLabel = null;
@@ -294,7 +903,9 @@ public class KNNClassifier implements Classifier {
             }
         }
 
-        logger.info("Selected label '{}' as majority vote with {} votes", predictedLabel, maxCount);
+        if (logger.isInfoEnabled()) {
+            logger.info("Selected label '{}' as majority vote with {} votes", predictedLabel, maxCount);
+        }
 
         return predictedLabel;
     }
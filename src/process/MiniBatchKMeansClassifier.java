@@ -0,0 +1,306 @@
+package process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import data.CharacteristicVector;
+import data.FeatureMatrix;
+import logger.LoggerUtil;
+
+/**
+ * Mini-batch variant of {@link KMeansClassifier} (Sculley, "Web-scale k-means
+ * clustering", 2010).
+ * <p>
+ * Centroids are initialized with KMeans++ like the full-batch version, then
+ * each iteration draws a small random batch of training vectors and moves the
+ * nearest centroid of each one towards it, by a step given by a
+ * {@link LearningRateSchedule}. An iteration only costs
+ * {@code batchSize * k} distances instead of {@code n * k}.
+ * </p>
+ * <p>
+ * Centroids can also be updated online, one vector at a time, with
+ * {@link #partialFit(CharacteristicVector)}: no training set needs to be kept
+ * in memory. The first k vectors received become the initial centroids if the
+ * classifier was never trained.
+ * </p>
+ * {@link #calculateSSE()} and {@link #calculateSilhouetteScore()} evaluate the
+ * current centroids on the data of the last {@link #train}, every vector being
+ * assigned to its nearest centroid.
+ */
+public class MiniBatchKMeansClassifier extends KMeansClassifier {
+    private static final Logger logger = LoggerUtil.getLogger(MiniBatchKMeansClassifier.class, Level.ERROR);
+
+    /**
+     * Gives the step by which a centroid moves towards a vector, 0 keeping the
+     * centroid and 1 moving it onto the vector.
+     */
+    @FunctionalInterface
+    public interface LearningRateSchedule {
+        /**
+         * @param clusterUpdates the number of vectors the centroid received,
+         *                       including this one
+         * @param step           the number of updates of all the centroids,
+         *                       including this one
+         * @return the learning rate of this update
+         */
+        double learningRate(long clusterUpdates, long step);
+    }
+
+    /**
+     * Step of 1 / (number of vectors received by the centroid): each centroid is
+     * the running mean of the vectors it received. The default.
+     */
+    public static final LearningRateSchedule PER_CENTER = (clusterUpdates, step) -> 1.0 / clusterUpdates;
+
+    /**
+     * @param rate the learning rate, between 0 and 1
+     * @return a schedule always giving the same rate, so recent vectors weigh
+     *         more than old ones (useful if the data drifts)
+     */
+    public static LearningRateSchedule constant(double rate) {
+        return (clusterUpdates, step) -> rate;
+    }
+
+    /**
+     * @param initialRate the learning rate of the first update
+     * @param decay       how fast the rate decreases with the updates
+     * @return a schedule giving {@code initialRate / (1 + decay * step)}
+     */
+    public static LearningRateSchedule inverseTime(double initialRate, double decay) {
+        return (clusterUpdates, step) -> initialRate / (1 + decay * step);
+    }
+
+    private int batchSize = 100;
+    private int maxIterations = 100;
+    private double tolerance = 1e-4;
+    private LearningRateSchedule schedule = PER_CENTER;
+
+    /** Number of vectors each centroid received. */
+    private long[] clusterUpdates;
+    private long steps;
+    /** True when the centroids moved since the training data was assigned. */
+    private boolean assignmentOutdated;
+    /** Initial centroids received by partialFit before there are k of them. */
+    private double[] pendingCentroids;
+    private int pendingCount;
+
+    /**
+     * Constructs a MiniBatchKMeansClassifier with the specified number of
+     * clusters and distance metric.
+     *
+     * @param kCluster the number of clusters
+     * @param metric   the distance metric to use (e.g., "EUCLIDEAN", "MANHATTAN")
+     */
+    public MiniBatchKMeansClassifier(int kCluster, String metric) {
+        super(kCluster, metric);
+    }
+
+    /**
+     * Constructs a MiniBatchKMeansClassifier with the specified number of
+     * clusters and Minkowski norm.
+     *
+     * @param kCluster the number of clusters
+     * @param metric   the distance metric to use (Must be Classifier.MINKOWSKI)
+     * @param norm     the norm for Minkowski distance (must be >= 1)
+     */
+    public MiniBatchKMeansClassifier(int kCluster, String metric, int norm) {
+        super(kCluster, metric, norm);
+    }
+
+    /**
+     * @param batchSize the number of vectors drawn at each iteration (default 100)
+     * @throws IllegalArgumentException if the size is lower than 1
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be at least 1, got " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param maxIterations the maximum number of batches of a training (default
+     *                      100)
+     * @throws IllegalArgumentException if the number is lower than 1
+     */
+    public void setMaxIterations(int maxIterations) {
+        if (maxIterations < 1) {
+            throw new IllegalArgumentException("Max iterations should be at least 1, got " + maxIterations);
+        }
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @param tolerance the training stops when no centroid coordinate moved more
+     *                  than this during a batch (default 1e-4)
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param schedule the learning rate of the centroid updates (default
+     *                 {@link #PER_CENTER})
+     */
+    public void setLearningRateSchedule(LearningRateSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     * Runs mini-batch iterations on the matrix from KMeans++ centroids, then
+     * assigns every training vector to its nearest centroid.
+     */
+    @Override
+    void fit(FeatureMatrix matrix, List<CharacteristicVector> vectors) {
+        prepareTraining(matrix, vectors);
+        this.centroids = initCentroid();
+        this.clusterUpdates = new long[k];
+        this.steps = 0;
+        this.pendingCentroids = null;
+
+        int sizeData = matrix.getRowCount();
+        int size = Math.min(batchSize, sizeData);
+        double[] data = matrix.getData();
+        int[] batch = new int[size];
+        int[] nearest = new int[size];
+        int iteration = 0;
+        boolean converged = false;
+        while (!converged && iteration < maxIterations) {
+            long iterationStart = System.nanoTime();
+            double[] previous = centroids.clone();
+            // nearest centroids are found before moving any of them, like a Lloyd step
+            for (int b = 0; b < size; b++) {
+                batch[b] = random.nextInt(sizeData);
+                nearest[b] = minIndex(arrayDistanceFromCentroid(data, batch[b] * dimension));
+            }
+            for (int b = 0; b < size; b++) {
+                moveCentroid(nearest[b], data, batch[b] * dimension);
+            }
+            converged = centroidsAreCloseEnough(centroids, previous, tolerance);
+            iteration++;
+            iterationLatency.recordSince(iterationStart);
+        }
+        convergenceIterations.record(iteration);
+        logger.info("Mini-batch training stopped after {} iterations of {} vectors (converged: {})", iteration,
+                size, converged);
+        assignClusters();
+        groupMembers();
+        assignmentOutdated = false;
+    }
+
+    /**
+     * Updates the centroids with one more vector, without retraining. The
+     * nearest centroid moves towards the vector by the step of the learning rate
+     * schedule. Before any training, the first k vectors become the centroids.
+     *
+     * @param vector the new vector
+     */
+    public void partialFit(CharacteristicVector vector) {
+        double[] values = vector.getVector();
+        if (centroids == null) {
+            if (pendingCentroids == null) {
+                dimension = values.length;
+                pendingCentroids = new double[k * dimension];
+                pendingCount = 0;
+                clusterUpdates = new long[k];
+                steps = 0;
+            }
+            if (values.length != dimension) {
+                logger.error("Error calculating distance between vectors: Vectors are not the same size !");
+                return;
+            }
+            System.arraycopy(values, 0, pendingCentroids, pendingCount * dimension, dimension);
+            clusterUpdates[pendingCount]++;
+            steps++;
+            pendingCount++;
+            if (pendingCount == k) {
+                centroids = pendingCentroids;
+                pendingCentroids = null;
+                logger.info("Initial centroids received, online updates start");
+            }
+            return;
+        }
+
+        if (values.length != dimension) {
+            logger.error("Error calculating distance between vectors: Vectors are not the same size !");
+            return;
+        }
+        int nearest = minIndex(arrayDistanceFromCentroid(values, 0));
+        moveCentroid(nearest, values, 0);
+        assignmentOutdated = true;
+    }
+
+    /**
+     * Moves a centroid towards a vector by the rate of the schedule.
+     */
+    private void moveCentroid(int c, double[] vector, int offset) {
+        clusterUpdates[c]++;
+        steps++;
+        double rate = schedule.learningRate(clusterUpdates[c], steps);
+        int centroidOffset = c * dimension;
+        for (int i = 0; i < dimension; i++) {
+            centroids[centroidOffset + i] += rate * (vector[offset + i] - centroids[centroidOffset + i]);
+        }
+    }
+
+    /**
+     * @return a copy of the current centroids, one per row, or null if there are
+     *         not k of them yet
+     */
+    public double[][] getCentroids() {
+        if (centroids == null) {
+            return null;
+        }
+        double[][] copy = new double[k][];
+        for (int c = 0; c < k; c++) {
+            copy[c] = Arrays.copyOfRange(centroids, c * dimension, (c + 1) * dimension);
+        }
+        return copy;
+    }
+
+    /**
+     * Assigns the training data again if centroids moved with
+     * {@link #partialFit(CharacteristicVector)}.
+     */
+    private void refreshAssignment() {
+        if (trainMatrix == null) {
+            logger.error("No training data to evaluate the clusters on");
+            throw new IllegalStateException("Training data not set. Call train() before evaluating.");
+        }
+        if (assignmentOutdated) {
+            assignClusters();
+            groupMembers();
+            assignmentOutdated = false;
+        }
+    }
+
+    @Override
+    public double calculateSSE() {
+        refreshAssignment();
+        return super.calculateSSE();
+    }
+
+    @Override
+    public double calculateSilhouetteScore() {
+        refreshAssignment();
+        return super.calculateSilhouetteScore();
+    }
+
+    @Override
+    public double calculateSilhouetteScore(int sampleSize) {
+        refreshAssignment();
+        return super.calculateSilhouetteScore(sampleSize);
+    }
+
+    @Override
+    public ArrayList<ArrayList<CharacteristicVector>> getCluster() {
+        if (trainMatrix != null) {
+            refreshAssignment();
+        }
+        return super.getCluster();
+    }
+}
@@ -0,0 +1,527 @@
+package process;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import logger.LoggerUtil;
+import utils.DataLoader;
+
+/**
+ * Classifies the signature files appearing in a folder, with a classifier
+ * trained beforehand.
+ * <p>
+ * A watcher thread waits for the files created in the folder
+ * ({@link WatchService}) and puts them in a bounded queue. A classifier thread
+ * takes them one by one, parses them with {@link DataLoader#extractFromFile},
+ * predicts their label and gives a {@link Prediction} to the consumer. When
+ * the queue is full, the watcher waits for room before reading the next event:
+ * a burst of files is held by the file system instead of the heap. If the file
+ * system drops events during a burst, the folder is scanned again for the files
+ * not seen yet: the ones neither waiting, nor there when the watch started, nor
+ * among the last {@value #RECENT_FILES} classified. Only those paths are kept,
+ * so a long running stream does not remember every file it classified.
+ * </p>
+ * Files are taken as soon as they are created, so they should be written
+ * elsewhere (or under a name starting with '.' or ending with ".tmp", which are
+ * ignored) then renamed into the folder. Files already in the folder when the
+ * watch starts are not classified, unless they are created again. A file
+ * created again under the same name, once the previous one was read, is
+ * classified again.
+ *
+ * <pre>
+ * try (StreamingClassifier stream = new StreamingClassifier(knn, dimension, 64, System.out::println)) {
+ *     stream.watch(Paths.get("incoming"));
+ *     ...
+ * }
+ * </pre>
+ */
+public class StreamingClassifier implements AutoCloseable {
+    private static final Logger logger = LoggerUtil.getLogger(StreamingClassifier.class, Level.INFO);
+    /** Number of recent latencies kept for the percentiles of the statistics. */
+    private static final int LATENCY_WINDOW = 1024;
+    /** Number of classified files remembered to skip them when scanning again. */
+    static final int RECENT_FILES = 4096;
+
+    /** Queue entry telling the classifier thread to stop. */
+    private static final Pending END = new Pending(null, 0);
+
+    private final Classifier classifier;
+    private final int dimension;
+    private final Consumer<Prediction> consumer;
+    private final BlockingQueue<Pending> queue;
+    /** Files of the folder when the watch started, not created again since. */
+    private final Set<Path> existing = ConcurrentHashMap.newKeySet();
+    /** Files found by the watcher and not classified yet. */
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    /** The last classified files, oldest first. */
+    private final Set<Path> recent = Collections.newSetFromMap(new LinkedHashMap<Path, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Boolean> eldest) {
+            return size() > RECENT_FILES;
+        }
+    });
+
+    private final AtomicLong classified = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final long[] recentLatencies = new long[LATENCY_WINDOW];
+
+    private WatchService watchService;
+    private Thread watcher;
+    private Thread worker;
+    private volatile boolean closed;
+
+    /**
+     * @param classifier    the trained classifier, only called by the classifier
+     *                      thread
+     * @param dimension     the size of the training vectors, files of another
+     *                      size are rejected
+     * @param queueCapacity the number of files waiting to be classified before the
+     *                      watcher blocks
+     * @param consumer      receives each prediction, on the classifier thread. A
+     *                      prediction it throws on is logged and also counted as
+     *                      rejected
+     * @throws IllegalArgumentException if the capacity is lower than 1
+     */
+    public StreamingClassifier(Classifier classifier, int dimension, int queueCapacity,
+            Consumer<Prediction> consumer) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity should be at least 1, got " + queueCapacity);
+        }
+        this.classifier = classifier;
+        this.dimension = dimension;
+        this.consumer = consumer;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Starts the classifier thread and the watcher thread of the folder, then
+     * returns.
+     *
+     * @param folder the folder receiving the signature files
+     * @throws IOException           if the folder can not be watched
+     * @throws IllegalStateException if the stream is already started or closed
+     */
+    public synchronized void watch(Path folder) throws IOException {
+        if (worker != null || closed) {
+            throw new IllegalStateException("Stream already started");
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        // the files already there are not new
+        scan(folder, false);
+
+        startWorker();
+        watcher = new Thread(() -> watchLoop(folder), "signature-watcher");
+        watcher.start();
+        logger.info("Watching folder {} (queue of {} files)", folder, queue.remainingCapacity());
+    }
+
+    /**
+     * Starts only the classifier thread, files being given with
+     * {@link #submit(Path)}.
+     *
+     * @throws IllegalStateException if the stream is already started or closed
+     */
+    public synchronized void start() {
+        if (worker != null || closed) {
+            throw new IllegalStateException("Stream already started");
+        }
+        startWorker();
+    }
+
+    private void startWorker() {
+        worker = new Thread(this::classifyLoop, "signature-classifier");
+        worker.start();
+    }
+
+    /**
+     * Puts a file in the queue, waiting for room if it is full.
+     *
+     * @param file the signature file to classify
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public void submit(Path file) throws InterruptedException {
+        queue.put(new Pending(file, System.nanoTime()));
+    }
+
+    private void watchLoop(Path folder) {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        logger.warn("Events of folder {} were lost, scanning it again", folder);
+                        scan(folder, true);
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        forget(folder.resolve((Path) event.context()));
+                    } else {
+                        Path file = folder.resolve((Path) event.context());
+                        // a new file, even under the name of an older one
+                        forget(file);
+                        offer(file);
+                    }
+                }
+                if (!key.reset()) {
+                    logger.error("Folder {} can not be watched anymore", folder);
+                    break;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Submits the files of the folder not seen yet, or only marks them as
+     * existing if asked.
+     */
+    private void scan(Path folder, boolean submit) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path file : stream) {
+                if (!submit) {
+                    existing.add(file);
+                } else if (!existing.contains(file) && !isRecent(file)) {
+                    offer(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error scanning folder {}: {}", folder, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submits a file of the folder unless it is ignored or already waiting.
+     */
+    private void offer(Path file) throws InterruptedException {
+        if (!accepts(file) || !inFlight.add(file)) {
+            return;
+        }
+        submit(file);
+    }
+
+    private boolean isRecent(Path file) {
+        synchronized (recent) {
+            return recent.contains(file);
+        }
+    }
+
+    /** Forgets a file deleted or created again, so a rescan does not skip it. */
+    private void forget(Path file) {
+        existing.remove(file);
+        synchronized (recent) {
+            recent.remove(file);
+        }
+    }
+
+    private static boolean accepts(Path file) {
+        String name = file.getFileName().toString();
+        return !name.startsWith(".") && !name.endsWith(".tmp") && Files.isRegularFile(file);
+    }
+
+    private void classifyLoop() {
+        while (true) {
+            Pending pending;
+            try {
+                pending = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (pending == END) {
+                return;
+            }
+            Prediction prediction = classify(pending);
+            // the file was read, the same name can be submitted again.
+            // recent before leaving inFlight, so a scan never misses both
+            existing.remove(pending.file);
+            synchronized (recent) {
+                recent.add(pending.file);
+            }
+            inFlight.remove(pending.file);
+            try {
+                consumer.accept(prediction);
+            } catch (RuntimeException e) {
+                // the loop must go on, the watcher and close() wait for room in the queue
+                if (prediction.getError() == null) {
+                    rejected.incrementAndGet();
+                }
+                logger.error("Consumer failed on {}: {}", pending.file, e.toString());
+            }
+        }
+    }
+
+    private Prediction classify(Pending pending) {
+        long dequeued = System.nanoTime();
+        CharacteristicVector vector = DataLoader.extractFromFile(pending.file.toString());
+        long parsed = System.nanoTime();
+        String label = null;
+        String error = null;
+        if (vector.getVectorSize() != dimension) {
+            error = "expected " + dimension + " values, got " + vector.getVectorSize();
+        } else {
+            try {
+                label = classifier.predict(vector);
+            } catch (RuntimeException e) {
+                error = e.toString();
+            }
+        }
+        long predicted = System.nanoTime();
+        Prediction prediction = new Prediction(pending.file, vector, label, error, dequeued - pending.detected,
+                parsed - dequeued, predicted - parsed);
+        record(prediction);
+        return prediction;
+    }
+
+    private void record(Prediction prediction) {
+        if (prediction.getError() != null) {
+            rejected.incrementAndGet();
+            logger.warn("Rejected {}: {}", prediction.getFile(), prediction.getError());
+            return;
+        }
+        long latency = prediction.getTotalNanos();
+        long count = classified.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+        synchronized (recentLatencies) {
+            recentLatencies[(int) ((count - 1) % LATENCY_WINDOW)] = latency;
+        }
+    }
+
+    /**
+     * @return the number of files waiting in the queue
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return the latencies of the files classified so far
+     */
+    public Statistics getStatistics() {
+        long count = classified.get();
+        long[] window;
+        synchronized (recentLatencies) {
+            window = Arrays.copyOf(recentLatencies, (int) Math.min(count, LATENCY_WINDOW));
+        }
+        Arrays.sort(window);
+        return new Statistics(count, rejected.get(), count == 0 ? 0 : totalLatency.get() / count, maxLatency.get(),
+                percentile(window, 0.5), percentile(window, 0.99));
+    }
+
+    private static long percentile(long[] sorted, double rank) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(rank * sorted.length) - 1)];
+    }
+
+    /**
+     * Stops watching, classifies the files still in the queue, then stops the
+     * classifier thread.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (watcher != null) {
+                watchService.close();
+                watcher.interrupt();
+                watcher.join();
+            }
+            if (worker != null) {
+                queue.put(END);
+                worker.join();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing the watch service: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Stream closed: {}", getStatistics());
+    }
+
+    /** A file waiting in the queue. */
+    private static class Pending {
+        private final Path file;
+        private final long detected;
+
+        Pending(Path file, long detected) {
+            this.file = file;
+            this.detected = detected;
+        }
+    }
+
+    /**
+     * The label predicted for a file, and the time spent at each step.
+     */
+    public static class Prediction {
+        private final Path file;
+        private final CharacteristicVector vector;
+        private final String label;
+        private final String error;
+        private final long queueNanos;
+        private final long parseNanos;
+        private final long predictNanos;
+
+        Prediction(Path file, CharacteristicVector vector, String label, String error, long queueNanos,
+                long parseNanos, long predictNanos) {
+            this.file = file;
+            this.vector = vector;
+            this.label = label;
+            this.error = error;
+            this.queueNanos = queueNanos;
+            this.parseNanos = parseNanos;
+            this.predictNanos = predictNanos;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return the parsed signature, its label being the one of the filename
+         */
+        public CharacteristicVector getVector() {
+            return vector;
+        }
+
+        /**
+         * @return the predicted label, or null if the file was rejected
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return why the file was rejected, or null if it was classified
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return the time between the detection of the file and the start of its
+         *         classification
+         */
+        public long getQueueNanos() {
+            return queueNanos;
+        }
+
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        public long getPredictNanos() {
+            return predictNanos;
+        }
+
+        /**
+         * @return the time between the detection of the file and its prediction
+         */
+        public long getTotalNanos() {
+            return queueNanos + parseNanos + predictNanos;
+        }
+
+        @Override
+        public String toString() {
+            String result = error == null ? "predicted " + label : "rejected (" + error + ")";
+            return file.getFileName() + ": " + result + String.format(
+                    " in %.3f ms (queue %.3f, parse %.3f, predict %.3f)", getTotalNanos() / 1e6, queueNanos / 1e6,
+                    parseNanos / 1e6, predictNanos / 1e6);
+        }
+    }
+
+    /**
+     * Latencies of the classified files, from their detection to their
+     * prediction.
+     */
+    public static class Statistics {
+        private final long classified;
+        private final long rejected;
+        private final long meanNanos;
+        private final long maxNanos;
+        private final long medianNanos;
+        private final long p99Nanos;
+
+        Statistics(long classified, long rejected, long meanNanos, long maxNanos, long medianNanos, long p99Nanos) {
+            this.classified = classified;
+            this.rejected = rejected;
+            this.meanNanos = meanNanos;
+            this.maxNanos = maxNanos;
+            this.medianNanos = medianNanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        public long getClassified() {
+            return classified;
+        }
+
+        /**
+         * @return the number of files rejected by the classifier thread, or whose
+         *         prediction made the consumer throw
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @return the median latency of the last 1024 classified files
+         */
+        public long getMedianNanos() {
+            return medianNanos;
+        }
+
+        /**
+         * @return the 99th percentile latency of the last 1024 classified files
+         */
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d classified, %d rejected, latency mean %.3f ms, median %.3f ms, p99 %.3f ms,"
+                    + " max %.3f ms", classified, rejected, meanNanos / 1e6, medianNanos / 1e6, p99Nanos / 1e6,
+                    maxNanos / 1e6);
+        }
+    }
+}
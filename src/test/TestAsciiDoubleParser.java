@@ -0,0 +1,67 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import utils.AsciiDoubleParser;
+
+public class TestAsciiDoubleParser {
+
+    private static double parse(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return AsciiDoubleParser.parse(bytes, 0, bytes.length);
+    }
+
+    private static void assertSameAsJdk(String text) {
+        assertEquals(text, Double.doubleToRawLongBits(Double.parseDouble(text)),
+                Double.doubleToRawLongBits(parse(text)));
+    }
+
+    @Test
+    public void testSignatureValues() {
+        for (String text : new String[] { "0.00809775", "0.33886", "-0.168579", "1", "0", "-0", "+2.5", ".5", "5.",
+                "-.25", "0.0", "000123.4500", "1e3", "1.5E-7", "-2.5e+10" }) {
+            assertSameAsJdk(text);
+        }
+    }
+
+    @Test
+    public void testSlowPathValues() {
+        for (String text : new String[] { "NaN", "-Infinity", "0x1.8p1", "1d", "2.5f", "1e400", "1e-400",
+                "12345678901234567890123", "0.1234567890123456789", "9007199254740993", "4.9e-324",
+                "1.7976931348623157e308", "9999999999999999999", "0.9999999999999999999", "9300000000000000000",
+                "-9999999999999999999", "999999999999999999" }) {
+            assertSameAsJdk(text);
+        }
+    }
+
+    @Test
+    public void testRandomValues() {
+        Random random = new Random(5L);
+        for (int i = 0; i < 100_000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 10);
+            assertSameAsJdk(Double.toString(value));
+            assertSameAsJdk(String.format("%.6f", value));
+            assertSameAsJdk(String.format("%.8e", value));
+        }
+    }
+
+    @Test
+    public void testInvalidNumbers() {
+        for (String text : new String[] { "", "-", ".", "1e", "abc", "1.2.3", "1-2" }) {
+            assertThrows(text, NumberFormatException.class, () -> parse(text));
+        }
+    }
+
+    @Test
+    public void testParseInsideBuffer() {
+        byte[] bytes = "12.5\n-3\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(12.5, AsciiDoubleParser.parse(bytes, 0, 4), 0.0);
+        assertEquals(-3.0, AsciiDoubleParser.parse(bytes, 5, 7), 0.0);
+    }
+}
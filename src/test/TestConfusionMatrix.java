@@ -100,4 +100,73 @@ public class TestConfusionMatrix {
         double expectedF1 = 0.39997;
         assertEquals(expectedF1, confusionMatrix.globalF1Score(), 0.0001);
     }
+
+    @Test
+    public void testMerge() {
+        confusionMatrix.increment("Class01", "Class01");
+        confusionMatrix.increment("Class02", "Class03");
+
+        ConfusionMatrix other = new ConfusionMatrix(confusionMatrix.getLabels());
+        other.increment("Class01", "Class01");
+        other.increment("Class03", "Class03");
+        confusionMatrix.merge(other);
+
+        assertEquals(2, confusionMatrix.get("Class01", "Class01"));
+        assertEquals(1, confusionMatrix.get("Class02", "Class03"));
+        assertEquals(1, confusionMatrix.get("Class03", "Class03"));
+        assertEquals(0, confusionMatrix.get("Class02", "Class02"));
+        assertEquals(1, other.get("Class01", "Class01"));
+    }
+
+    @Test
+    public void testPerClassMetrics() {
+        confusionMatrix.increment("Class01", "Class01");
+        confusionMatrix.increment("Class01", "Class03");
+        confusionMatrix.increment("Class02", "Class01");
+        confusionMatrix.increment("Class03", "Class03");
+
+        assertEquals(0.5, confusionMatrix.precision("Class01"), 0.0001);
+        assertEquals(0.5, confusionMatrix.recall("Class01"), 0.0001);
+        assertEquals(0.5, confusionMatrix.precision("Class03"), 0.0001);
+        assertEquals(1.0, confusionMatrix.recall("Class03"), 0.0001);
+        assertEquals(2.0 / 3.0, confusionMatrix.f1Score("Class03"), 0.0001);
+        assertEquals(0.0, confusionMatrix.f1Score("Class02"), 0.0001);
+        assertEquals(0.0, confusionMatrix.precision("Invalid"), 0.0001);
+    }
+
+    @Test
+    public void testIncrementIgnoresUnknownLabels() {
+        confusionMatrix.increment("Invalid", "Class01");
+        confusionMatrix.increment("Class01", "Invalid");
+        confusionMatrix.increment("Class01", "Class01");
+
+        assertEquals(1.0, confusionMatrix.accuracy(), 0.0001);
+        assertEquals(1, confusionMatrix.get("Class01", "Class01"));
+    }
+
+    @Test
+    public void testMergeWithOtherLabels() {
+        ConfusionMatrix other = new ConfusionMatrix(Set.of("Class01", "Class04"));
+        other.increment("Class01", "Class01");
+        other.increment("Class01", "Class04");
+        other.increment("Class04", "Class04");
+        confusionMatrix.merge(other);
+
+        assertEquals(1, confusionMatrix.get("Class01", "Class01"));
+        assertEquals(-1, confusionMatrix.get("Class01", "Class04"));
+        assertEquals(1.0, confusionMatrix.accuracy(), 0.0001);
+        assertEquals(1.0, confusionMatrix.recall("Class01"), 0.0001);
+    }
+
+    @Test
+    public void testEmptyCopy() {
+        confusionMatrix.increment("Class01", "Class02");
+        ConfusionMatrix copy = confusionMatrix.emptyCopy();
+
+        assertEquals(confusionMatrix.getLabels(), copy.getLabels());
+        assertEquals(0, copy.get("Class01", "Class02"));
+        copy.increment(copy.indexOf("Class02"), copy.indexOf("Class02"));
+        confusionMatrix.merge(copy);
+        assertEquals(0.5, confusionMatrix.accuracy(), 0.0001);
+    }
 }
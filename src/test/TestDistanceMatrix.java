@@ -0,0 +1,88 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import utils.DistanceMatrix;
+import utils.DistanceMetrics;
+
+public class TestDistanceMatrix {
+    private FeatureMatrix matrix;
+
+    @Before
+    public void setUp() {
+        matrix = FeatureMatrix.fromVectors(new ArrayList<>(Arrays.asList(
+                new CharacteristicVector(new double[] { 0.0, 0.0 }, "A", null, null),
+                new CharacteristicVector(new double[] { 3.0, 4.0 }, "A", null, null),
+                new CharacteristicVector(new double[] { 1.0, 1.0 }, "B", null, null),
+                new CharacteristicVector(new double[] { -1.0, -1.0 }, "B", null, null),
+                new CharacteristicVector(new double[] { 6.0, 8.0 }, "C", null, null))));
+    }
+
+    @Test
+    public void testDistancesMatchMetric() {
+        DistanceMetric metric = DistanceMetrics.of(Classifier.MANHATTAN, 0);
+        DistanceMatrix distances = new DistanceMatrix(matrix, metric);
+        int dimension = matrix.getDimension();
+
+        assertEquals(5, distances.size());
+        for (int i = 0; i < matrix.getRowCount(); i++) {
+            for (int j = 0; j < matrix.getRowCount(); j++) {
+                double expected = i == j ? 0.0
+                        : metric.reducedDistance(matrix.getData(), i * dimension, matrix.getData(), j * dimension,
+                                dimension);
+                assertEquals(expected, distances.reducedDistance(i, j), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testTrueDistance() {
+        DistanceMatrix distances = new DistanceMatrix(matrix, DistanceMetrics.of(Classifier.EUCLIDEAN, 0));
+        assertEquals(25.0, distances.reducedDistance(0, 1), 1e-12);
+        assertEquals(5.0, distances.distance(1, 0), 1e-12);
+        assertEquals(10.0, distances.distance(4, 0), 1e-12);
+    }
+
+    @Test
+    public void testNearestTiesKeepIndexOrder() {
+        DistanceMatrix distances = new DistanceMatrix(matrix, DistanceMetrics.of(Classifier.EUCLIDEAN, 0));
+        // rows 2 and 3 are both at sqrt(2) of row 0
+        assertArrayEquals(new int[] { 2, 3, 1, 4 }, distances.nearest(0, 10));
+        assertArrayEquals(new int[] { 1, 2, 0, 3 }, distances.nearest(4, 4));
+        assertArrayEquals(new int[] { 2, 3 }, distances.nearest(0, 2));
+    }
+
+    @Test
+    public void testCachePerMatrixAndMetric() {
+        DistanceMetric euclidean = DistanceMetrics.of(Classifier.EUCLIDEAN, 0);
+        DistanceMatrix distances = DistanceMatrix.of(matrix, euclidean);
+
+        assertSame(distances, DistanceMatrix.of(matrix, euclidean));
+        assertNotSame(distances, DistanceMatrix.of(matrix, DistanceMetrics.of(Classifier.MANHATTAN, 0)));
+        assertNotSame(distances, DistanceMatrix.of(matrix.withData(matrix.getData().clone()), euclidean));
+    }
+
+    @Test
+    public void testTooManyRows() {
+        // 70000 rows give 2.4 billion pairs, more than an int can index
+        int rows = 70000;
+        FeatureMatrix large = new FeatureMatrix(new double[rows], rows, 1, new int[rows], new String[] { "A" }, null,
+                null);
+        assertThrows(IllegalArgumentException.class,
+                () -> new DistanceMatrix(large, DistanceMetrics.of(Classifier.EUCLIDEAN, 0)));
+    }
+}
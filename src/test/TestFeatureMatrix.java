@@ -0,0 +1,81 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import data.CharacteristicVector;
+import data.FeatureMatrix;
+import utils.MachineLearningUtils;
+
+public class TestFeatureMatrix {
+    private List<CharacteristicVector> vectors;
+    private FeatureMatrix matrix;
+
+    @Before
+    public void setUp() {
+        vectors = Arrays.asList(
+                new CharacteristicVector(new double[] { 1.0, 2.0, 3.0 }, "01", "ART", "01"),
+                new CharacteristicVector(new double[] { 4.0, 5.0, 6.0 }, "02", "ART", "01"),
+                new CharacteristicVector(new double[] { 7.0, 8.0, 9.0 }, "01", "ART", "02"));
+        matrix = FeatureMatrix.fromVectors(vectors);
+    }
+
+    @Test
+    public void testRowMajorLayout() {
+        assertEquals(3, matrix.getRowCount());
+        assertEquals(3, matrix.getDimension());
+        assertArrayEquals(new double[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 }, matrix.getData(), 0.0);
+        assertEquals(6, matrix.offset(2));
+        assertEquals(8.0, matrix.get(2, 1), 0.0);
+    }
+
+    @Test
+    public void testLabelCodes() {
+        // Codes are given in order of first appearance
+        assertArrayEquals(new int[] { 0, 1, 0 }, matrix.getLabelCodes());
+        assertEquals(2, matrix.getLabelCount());
+        assertEquals("02", matrix.getLabelByCode(1));
+        assertEquals("01", matrix.getLabel(2));
+        assertEquals("02", matrix.getSample(2));
+        assertEquals("ART", matrix.getMethod());
+    }
+
+    @Test
+    public void testToVectors() {
+        ArrayList<CharacteristicVector> unpacked = matrix.toVectors();
+        assertEquals(3, unpacked.size());
+        for (int i = 0; i < unpacked.size(); i++) {
+            assertArrayEquals(vectors.get(i).getVector(), unpacked.get(i).getVector(), 0.0);
+            assertEquals(vectors.get(i).getLabel(), unpacked.get(i).getLabel());
+            assertEquals(vectors.get(i).getSample(), unpacked.get(i).getSample());
+        }
+    }
+
+    @Test
+    public void testNotSameSize() {
+        List<CharacteristicVector> invalid = Arrays.asList(
+                new CharacteristicVector(new double[] { 1.0, 2.0 }, "01", null, null),
+                new CharacteristicVector(new double[] { 1.0 }, "01", null, null));
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> FeatureMatrix.fromVectors(invalid));
+        assertEquals("Vectors are not the same size !", exception.getMessage());
+    }
+
+    @Test
+    public void testNormalizeSameAsVectors() {
+        ArrayList<CharacteristicVector> normalizedVectors = MachineLearningUtils
+                .normalizeCharacteristicVectors(new ArrayList<>(vectors));
+        FeatureMatrix normalizedMatrix = MachineLearningUtils.normalizeFeatureMatrix(matrix);
+        for (int i = 0; i < normalizedVectors.size(); i++) {
+            assertArrayEquals(normalizedVectors.get(i).getVector(), normalizedMatrix.copyRow(i), 0.0);
+        }
+    }
+}
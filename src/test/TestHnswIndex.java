@@ -0,0 +1,144 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import data.FeatureMatrix;
+import data.NeighborIndex;
+import utils.BruteForceIndex;
+import utils.DistanceMetrics;
+import utils.HnswIndex;
+
+public class TestHnswIndex {
+
+    /** Rows around 10 random centers. */
+    private static FeatureMatrix clusteredMatrix(Random random, int rows, int dimension) {
+        double[][] centers = new double[10][dimension];
+        Random centerRandom = new Random(1L);
+        for (double[] center : centers) {
+            for (int j = 0; j < dimension; j++) {
+                center[j] = 3 * centerRandom.nextDouble();
+            }
+        }
+        double[] data = new double[rows * dimension];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < dimension; j++) {
+                data[i * dimension + j] = centers[i % 10][j] + random.nextGaussian();
+            }
+        }
+        return new FeatureMatrix(data, rows, dimension, new int[rows], new String[] { "A" }, null, null);
+    }
+
+    private static double recall(NeighborIndex exact, NeighborIndex approximate, double[] queries, int dimension,
+            int count) {
+        int hits = 0;
+        int total = 0;
+        for (int q = 0; q < queries.length / dimension; q++) {
+            int[] expected = exact.nearest(queries, q * dimension, count);
+            int[] found = approximate.nearest(queries, q * dimension, count);
+            Arrays.sort(found);
+            for (int row : expected) {
+                if (Arrays.binarySearch(found, row) >= 0) {
+                    hits++;
+                }
+            }
+            total += expected.length;
+        }
+        return (double) hits / total;
+    }
+
+    @Test
+    public void testRecall() {
+        Random random = new Random(2L);
+        FeatureMatrix matrix = clusteredMatrix(random, 3000, 24);
+        double[] queries = clusteredMatrix(random, 100, 24).getData();
+        NeighborIndex exact = new BruteForceIndex(matrix, DistanceMetrics.EUCLIDEAN);
+        HnswIndex hnsw = new HnswIndex(matrix, DistanceMetrics.EUCLIDEAN, 12, 100, 10, 7L);
+        assertFalse(hnsw.isExact());
+        assertEquals(3000, hnsw.size());
+
+        double lowRecall = recall(exact, hnsw, queries, 24, 10);
+        hnsw.setEfSearch(200);
+        double highRecall = recall(exact, hnsw, queries, 24, 10);
+        assertTrue("recall " + highRecall, highRecall > 0.95);
+        assertTrue(highRecall >= lowRecall);
+        // far fewer distances than the linear scan
+        assertTrue(hnsw.getDistanceEvaluations() < 3000L * 3000 + 200 * 3000);
+    }
+
+    @Test
+    public void testIncrementalInserts() {
+        Random random = new Random(3L);
+        FeatureMatrix matrix = clusteredMatrix(random, 2000, 8);
+        double[] data = matrix.getData();
+        FeatureMatrix firstHalf = new FeatureMatrix(Arrays.copyOf(data, 1000 * 8), 1000, 8, new int[1000],
+                new String[] { "A" }, null, null);
+
+        HnswIndex hnsw = new HnswIndex(firstHalf, DistanceMetrics.EUCLIDEAN, 3L);
+        for (int i = 1000; i < 2000; i++) {
+            assertEquals(i, hnsw.insert(data, i * 8));
+        }
+        assertEquals(2000, hnsw.size());
+        // every inserted row finds itself
+        for (int i = 1000; i < 2000; i += 37) {
+            assertEquals(i, hnsw.nearest(data, i * 8, 1)[0]);
+        }
+        double[] queries = clusteredMatrix(random, 50, 8).getData();
+        assertTrue(recall(new BruteForceIndex(matrix, DistanceMetrics.EUCLIDEAN), hnsw, queries, 8, 5) > 0.95);
+    }
+
+    @Test
+    public void testSmallAndEmptyGraphs() {
+        FeatureMatrix empty = new FeatureMatrix(new double[0], 0, 2, new int[0], new String[0], null, null);
+        HnswIndex hnsw = new HnswIndex(empty, DistanceMetrics.MANHATTAN, 1L);
+        double[] query = { 0.0, 0.0 };
+        assertEquals(0, hnsw.nearest(query, 0, 3).length);
+
+        hnsw.insert(new double[] { 5.0, 5.0 }, 0);
+        hnsw.insert(new double[] { 1.0, 1.0 }, 0);
+        hnsw.insert(new double[] { 2.0, 3.0 }, 0);
+        // fewer rows than ef, the whole graph is searched
+        assertArrayEquals(new int[] { 1, 2, 0 }, hnsw.nearest(query, 0, 10));
+        assertEquals(0, hnsw.nearest(query, 0, 0).length);
+    }
+
+    @Test
+    public void testBuiltIndexesAreCollected() throws InterruptedException {
+        // the per-thread search state must not keep the indexes of this thread alive
+        Random random = new Random(5L);
+        List<WeakReference<HnswIndex>> built = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            FeatureMatrix matrix = clusteredMatrix(random, 500, 16);
+            HnswIndex hnsw = new HnswIndex(matrix, DistanceMetrics.EUCLIDEAN, 8, 32, 16, i);
+            hnsw.nearest(matrix.getData(), 0, 3);
+            built.add(new WeakReference<>(hnsw));
+        }
+        for (int attempt = 0; attempt < 20 && built.stream().anyMatch(ref -> ref.get() != null); attempt++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertEquals(0, built.stream().filter(ref -> ref.get() != null).count());
+    }
+
+    @Test
+    public void testInvalidParameters() {
+        FeatureMatrix empty = new FeatureMatrix(new double[0], 0, 2, new int[0], new String[0], null, null);
+        assertThrows(IllegalArgumentException.class,
+                () -> new HnswIndex(empty, DistanceMetrics.EUCLIDEAN, 1, 10, 10, 0L));
+        assertThrows(IllegalArgumentException.class,
+                () -> new HnswIndex(empty, DistanceMetrics.EUCLIDEAN, 8, 0, 10, 0L));
+        assertThrows(IllegalArgumentException.class,
+                () -> new HnswIndex(empty, DistanceMetrics.EUCLIDEAN, 8, 10, 10, 0L).setEfSearch(0));
+    }
+}
@@ -8,13 +8,20 @@ import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import data.CharacteristicVector;
 import data.Classifier;
+import data.DistanceMetric;
+import data.FeatureMatrix;
 import process.KMeansClassifier;
+import utils.DistanceMatrix;
+import utils.MathUtils;
+import utils.Silhouette;
 
 public class TestKMeansClassifier {
     private KMeansClassifier kMeansClassifier;
@@ -71,6 +78,26 @@ public class TestKMeansClassifier {
         assertTrue(predictedCluster.startsWith("Cluster "));
     }
 
+    @Test
+    public void testTrainingWithFeatureMatrix() {
+        List<CharacteristicVector> trainingData = Arrays.asList(
+                new CharacteristicVector(new double[] { 1.0, 2.0 }, "Label1", null, null),
+                new CharacteristicVector(new double[] { 1.1, 2.1 }, "Label1", null, null),
+                new CharacteristicVector(new double[] { 9.0, 9.0 }, "Label2", null, null),
+                new CharacteristicVector(new double[] { 9.1, 9.1 }, "Label2", null, null));
+
+        KMeansClassifier matrixClassifier = new KMeansClassifier(2, Classifier.EUCLIDEAN);
+        matrixClassifier.train(FeatureMatrix.fromVectors(trainingData));
+
+        int total = 0;
+        for (ArrayList<CharacteristicVector> cluster : matrixClassifier.getCluster()) {
+            total += cluster.size();
+        }
+        assertEquals(4, total);
+        assertTrue(matrixClassifier.predict(trainingData.get(0)).startsWith("Cluster "));
+        assertTrue(matrixClassifier.calculateSSE() >= 0);
+    }
+
     @Test
     public void testEmptyClusterHandling() {
         List<CharacteristicVector> trainingData = Arrays.asList(
@@ -110,4 +137,212 @@ public class TestKMeansClassifier {
 
         assertTrue(sse >= 0);
     }
+
+    @Test
+    public void testSeededTrainingIsDeterministic() {
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            trainingData.add(new CharacteristicVector(new double[] { (i * 7) % 11, (i * 5) % 13 }, "L" + i, null,
+                    null));
+        }
+        KMeansClassifier first = new KMeansClassifier(4, Classifier.EUCLIDEAN);
+        KMeansClassifier second = new KMeansClassifier(4, Classifier.EUCLIDEAN);
+        first.setSeed(42L);
+        second.setSeed(42L);
+
+        first.train(trainingData);
+        second.train(trainingData);
+        assertEquals(first.calculateSSE(), second.calculateSSE(), 0.0);
+        double sse = first.calculateSSE();
+        first.train(trainingData);
+        assertEquals(sse, first.calculateSSE(), 0.0);
+    }
+
+    @Test
+    public void testHamerlySameClustersAsLloyd() {
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // three blobs of points
+            double center = (i % 3) * 10.0;
+            trainingData.add(new CharacteristicVector(
+                    new double[] { center + (i * 7) % 5 * 0.3, center - (i * 11) % 7 * 0.2 }, "L" + (i % 3), null,
+                    "s" + i));
+        }
+        for (String metric : new String[] { Classifier.EUCLIDEAN, Classifier.MANHATTAN }) {
+            KMeansClassifier lloyd = new KMeansClassifier(5, metric);
+            KMeansClassifier hamerly = new KMeansClassifier(5, metric);
+            lloyd.setAlgorithm(KMeansClassifier.LLOYD);
+            hamerly.setAlgorithm(KMeansClassifier.HAMERLY);
+            lloyd.setSeed(3L);
+            hamerly.setSeed(3L);
+            lloyd.train(trainingData);
+            hamerly.train(trainingData);
+
+            assertEquals(lloyd.calculateSSE(), hamerly.calculateSSE(), 0.0);
+            for (int c = 0; c < 5; c++) {
+                assertEquals(lloyd.getCluster().get(c), hamerly.getCluster().get(c));
+            }
+            assertTrue(hamerly.getSavedDistanceEvaluations() > 0);
+            assertTrue(hamerly.getDistanceEvaluations() < lloyd.getDistanceEvaluations());
+        }
+    }
+
+    @Test
+    public void testSilhouetteMatchesDefinition() {
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            trainingData.add(new CharacteristicVector(new double[] { (i * 7) % 11, (i * 5) % 13, i % 3 }, "L", null,
+                    null));
+        }
+        KMeansClassifier kmeans = new KMeansClassifier(4, Classifier.MANHATTAN);
+        kmeans.setSeed(9L);
+        kmeans.train(trainingData);
+
+        // a(i) and b(i) straight from the definition, with Euclidean distances
+        double expected = 0.0;
+        for (ArrayList<CharacteristicVector> cluster : kmeans.getCluster()) {
+            for (CharacteristicVector point : cluster) {
+                double a = 0.0;
+                for (CharacteristicVector other : cluster) {
+                    a += euclidean(point, other);
+                }
+                a = cluster.size() == 1 ? 0.0 : a / (cluster.size() - 1);
+                double b = Double.MAX_VALUE;
+                for (ArrayList<CharacteristicVector> otherCluster : kmeans.getCluster()) {
+                    if (otherCluster != cluster && !otherCluster.isEmpty()) {
+                        double sum = 0.0;
+                        for (CharacteristicVector other : otherCluster) {
+                            sum += euclidean(point, other);
+                        }
+                        b = Math.min(b, sum / otherCluster.size());
+                    }
+                }
+                expected += (b - a) / Math.max(a, b);
+            }
+        }
+        expected /= trainingData.size();
+
+        assertEquals(expected, kmeans.calculateSilhouetteScore(), 1e-12);
+        assertEquals(kmeans.calculateSilhouetteScore(), kmeans.calculateSilhouetteScore(40), 0.0);
+        double sampled = kmeans.calculateSilhouetteScore(10);
+        assertTrue(sampled >= -1.0 && sampled <= 1.0);
+        assertEquals(sampled, kmeans.calculateSilhouetteScore(10), 0.0);
+    }
+
+    @Test
+    public void testSilhouetteWithoutDistanceMatrix() {
+        Random random = new Random(4L);
+        int rows = 300;
+        double[] data = new double[rows * 3];
+        int[] clusterIds = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            clusterIds[i] = i % 4;
+            for (int j = 0; j < 3; j++) {
+                data[i * 3 + j] = 2 * clusterIds[i] + random.nextGaussian();
+            }
+        }
+        FeatureMatrix matrix = new FeatureMatrix(data, rows, 3, new int[rows], new String[] { "A" }, null, null);
+        // the matrix path reads the reduced distances as true distances
+        DistanceMetric metric = MathUtils::distEuclidean;
+        double[] cached = Silhouette.pointScores(new DistanceMatrix(matrix, metric), clusterIds, 4);
+        double[] computed = Silhouette.pointScores(matrix, metric, clusterIds, 4);
+        for (int i = 0; i < rows; i++) {
+            assertEquals(cached[i], computed[i], 1e-12);
+        }
+
+        // above the size where the distances are cached
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 6000; i++) {
+            trainingData.add(new CharacteristicVector(
+                    new double[] { 5 * (i % 3) + random.nextGaussian(), random.nextGaussian() }, "L", null, null));
+        }
+        KMeansClassifier kmeans = new KMeansClassifier(3, Classifier.EUCLIDEAN);
+        kmeans.setSeed(3L);
+        kmeans.train(trainingData);
+        assertTrue(kmeans.calculateSilhouetteScore() > 0.5);
+    }
+
+    @Test
+    public void testSilhouetteIgnoresEmptyClusters() {
+        List<CharacteristicVector> trainingData = Arrays.asList(
+                new CharacteristicVector(new double[] { 1.0, 2.0 }, "Label1", null, null),
+                new CharacteristicVector(new double[] { 1.0, 2.0 }, "Label2", null, null),
+                new CharacteristicVector(new double[] { 5.0, 6.0 }, "Label3", null, null));
+        KMeansClassifier kmeans = new KMeansClassifier(3, Classifier.EUCLIDEAN);
+        kmeans.train(trainingData);
+
+        assertTrue(kmeans.getCluster().stream().anyMatch(ArrayList::isEmpty));
+        assertTrue(!Double.isNaN(kmeans.calculateSilhouetteScore()));
+    }
+
+    private static double euclidean(CharacteristicVector a, CharacteristicVector b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.getVectorSize(); i++) {
+            double diff = a.getVector()[i] - b.getVector()[i];
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    @Test
+    public void testPoolGivesSameClusters() {
+        // several chunks of rows so the pool is really used
+        Random random = new Random(1L);
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            double[] values = new double[8];
+            for (int d = 0; d < values.length; d++) {
+                values[d] = (i % 4) * 3.0 + random.nextGaussian();
+            }
+            trainingData.add(new CharacteristicVector(values, "L" + (i % 4), null, null));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String algorithm : new String[] { KMeansClassifier.LLOYD, KMeansClassifier.HAMERLY }) {
+                KMeansClassifier sequential = new KMeansClassifier(6, Classifier.EUCLIDEAN);
+                KMeansClassifier parallel = new KMeansClassifier(6, Classifier.EUCLIDEAN);
+                sequential.setAlgorithm(algorithm);
+                parallel.setAlgorithm(algorithm);
+                sequential.setSeed(21L);
+                parallel.setSeed(21L);
+                parallel.setPool(pool);
+                sequential.train(trainingData);
+                parallel.train(trainingData);
+
+                assertEquals(sequential.calculateSSE(), parallel.calculateSSE(), 0.0);
+                assertEquals(sequential.getDistanceEvaluations(), parallel.getDistanceEvaluations());
+                for (int c = 0; c < 6; c++) {
+                    assertEquals(sequential.getCluster().get(c), parallel.getCluster().get(c));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPredictBatchMatchesPredict() {
+        Random random = new Random(4L);
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            trainingData.add(new CharacteristicVector(
+                    new double[] { (i % 3) * 4.0 + random.nextGaussian(), random.nextGaussian() }, "L", null, null));
+        }
+        KMeansClassifier classifier = new KMeansClassifier(4, Classifier.MANHATTAN);
+        classifier.setSeed(8L);
+        classifier.train(trainingData);
+
+        List<String> expected = new ArrayList<>();
+        for (CharacteristicVector vector : trainingData) {
+            expected.add(classifier.predict(vector));
+        }
+        assertEquals(expected, classifier.predictBatch(trainingData));
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            classifier.setPool(pool);
+            assertEquals(expected, classifier.predictBatch(FeatureMatrix.fromVectors(trainingData)));
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
@@ -0,0 +1,139 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import data.FeatureMatrix;
+import process.KMeansClassifier;
+import process.KMeansRunner;
+import utils.MachineLearningUtils;
+
+public class TestKMeansRunner {
+
+    private static FeatureMatrix blobs() {
+        List<CharacteristicVector> data = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            double center = (i % 4) * 6.0;
+            data.add(new CharacteristicVector(new double[] { center + (i * 7) % 5 * 0.4, center - (i * 11) % 7 * 0.3 },
+                    "L" + (i % 4), null, "s" + i));
+        }
+        return FeatureMatrix.fromVectors(data);
+    }
+
+    private static KMeansRunner runner(String criterion, ForkJoinPool pool) {
+        KMeansRunner runner = new KMeansRunner(() -> new KMeansClassifier(6, Classifier.EUCLIDEAN));
+        runner.setRestarts(8);
+        runner.setSeed(11L);
+        runner.setCriterion(criterion);
+        runner.setPool(pool);
+        return runner;
+    }
+
+    @Test
+    public void testBestRestartBySSE() {
+        KMeansRunner.Result result = runner(KMeansRunner.BY_SSE, null).run(blobs());
+
+        assertEquals(8, result.getRestarts().size());
+        for (int r = 0; r < 8; r++) {
+            KMeansRunner.RestartStats stats = result.getRestarts().get(r);
+            assertEquals(r, stats.getRestart());
+            assertEquals(MachineLearningUtils.deriveSeed(11L, r), stats.getSeed());
+            assertTrue(result.getBestStats().getSse() <= stats.getSse());
+        }
+        assertEquals(result.getMinSse(), result.getBestStats().getSse(), 0.0);
+        assertEquals(result.getBestStats().getSse(), result.getBest().calculateSSE(), 0.0);
+    }
+
+    @Test
+    public void testBestRestartBySilhouette() {
+        KMeansRunner.Result result = runner(KMeansRunner.BY_SILHOUETTE, null).run(blobs());
+
+        assertEquals(result.getMaxSilhouette(), result.getBestStats().getSilhouette(), 0.0);
+        for (KMeansRunner.RestartStats stats : result.getRestarts()) {
+            assertTrue(stats.getSilhouette() <= result.getBestStats().getSilhouette());
+        }
+    }
+
+    @Test
+    public void testSilhouetteOnlyWhenNeeded() {
+        KMeansRunner runner = runner(KMeansRunner.BY_SSE, null);
+        KMeansRunner.Result result = runner.run(blobs());
+        for (KMeansRunner.RestartStats stats : result.getRestarts()) {
+            assertTrue(Double.isNaN(stats.getSilhouette()));
+        }
+        assertTrue(Double.isNaN(result.getMaxSilhouette()));
+
+        runner.setSilhouetteSampleSize(20);
+        for (KMeansRunner.RestartStats stats : runner.run(blobs()).getRestarts()) {
+            assertTrue(stats.getSilhouette() >= -1.0 && stats.getSilhouette() <= 1.0);
+        }
+    }
+
+    @Test
+    public void testRestartIsReproducibleFromItsSeed() {
+        FeatureMatrix data = blobs();
+        KMeansRunner.Result result = runner(KMeansRunner.BY_SSE, null).run(data);
+        KMeansRunner.RestartStats stats = result.getRestarts().get(5);
+
+        KMeansClassifier replay = new KMeansClassifier(6, Classifier.EUCLIDEAN);
+        replay.setSeed(stats.getSeed());
+        replay.train(data);
+        assertEquals(stats.getSse(), replay.calculateSSE(), 0.0);
+    }
+
+    @Test
+    public void testPoolGivesSameResult() {
+        FeatureMatrix data = blobs();
+        KMeansRunner.Result sequential = runner(KMeansRunner.BY_SSE, null).run(data);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            KMeansRunner.Result parallel = runner(KMeansRunner.BY_SSE, pool).run(data);
+            assertEquals(sequential.getBestRestart(), parallel.getBestRestart());
+            for (int r = 0; r < 8; r++) {
+                assertEquals(sequential.getRestarts().get(r).getSse(), parallel.getRestarts().get(r).getSse(), 0.0);
+                assertEquals(sequential.getRestarts().get(r).getSilhouette(),
+                        parallel.getRestarts().get(r).getSilhouette(), 0.0);
+            }
+            for (int c = 0; c < 6; c++) {
+                assertEquals(samples(sequential.getBest().getCluster().get(c)),
+                        samples(parallel.getBest().getCluster().get(c)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<String> samples(List<CharacteristicVector> cluster) {
+        List<String> samples = new ArrayList<>();
+        for (CharacteristicVector vector : cluster) {
+            samples.add(vector.getSample());
+        }
+        return samples;
+    }
+
+    @Test
+    public void testSingleRestart() {
+        KMeansRunner runner = runner(KMeansRunner.BY_SSE, null);
+        runner.setRestarts(1);
+        KMeansRunner.Result result = runner.run(blobs());
+        assertEquals(0, result.getBestRestart());
+        assertSame(result.getRestarts().get(0), result.getBestStats());
+    }
+
+    @Test
+    public void testInvalidSettings() {
+        KMeansRunner runner = runner(KMeansRunner.BY_SSE, null);
+        assertThrows(IllegalArgumentException.class, () -> runner.setRestarts(0));
+        assertThrows(IllegalArgumentException.class, () -> runner.setCriterion("inertia"));
+    }
+}
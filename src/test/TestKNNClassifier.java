@@ -6,12 +6,21 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import data.CharacteristicVector;
+import data.Classifier;
+import data.ConfusionMatrix;
+import data.FeatureMatrix;
+import process.KMeansClassifier;
 import process.KNNClassifier;
+import utils.MachineLearningUtils;
 
 public class TestKNNClassifier {
     private KNNClassifier knnEuclidean;
@@ -148,6 +157,54 @@ public class TestKNNClassifier {
         assertEquals("Third closest neighbor should be (1.0, 1.0)", "A", neighbors.get(2).getLabel());
     }
 
+    @Test
+    public void testGetNeighborsLimitedToK() {
+        CharacteristicVector input = new CharacteristicVector(new double[] { 5.0, 5.0 }, null, null, null);
+        ArrayList<CharacteristicVector> neighbors = knnEuclidean.getNeighbors(input, 2);
+
+        assertEquals("Only k neighbors should be returned", 2, neighbors.size());
+        assertEquals("The closest neighbor should be (6.0, 6.0)", 6.0, neighbors.get(0).getVector()[0], 0.0);
+        assertEquals("Second closest neighbor should be (3.0, 3.0)", 3.0, neighbors.get(1).getVector()[0], 0.0);
+        assertEquals("k greater than training size returns everything", 4,
+                knnEuclidean.getNeighbors(input, 10).size());
+    }
+
+    @Test
+    public void testGetNeighborsTieKeepsTrainingOrder() {
+        ArrayList<CharacteristicVector> tiedData = new ArrayList<>(Arrays.asList(
+                new CharacteristicVector(new double[] { 0.0, 1.0 }, "A", null, "1"),
+                new CharacteristicVector(new double[] { 1.0, 0.0 }, "B", null, "2"),
+                new CharacteristicVector(new double[] { 0.0, -1.0 }, "C", null, "3"),
+                new CharacteristicVector(new double[] { -1.0, 0.0 }, "D", null, "4")));
+        knnManhattan.train(tiedData);
+        CharacteristicVector input = new CharacteristicVector(new double[] { 0.0, 0.0 }, null, null, null);
+
+        ArrayList<CharacteristicVector> neighbors = knnManhattan.getNeighbors(input, 3);
+        assertEquals("A", neighbors.get(0).getLabel());
+        assertEquals("B", neighbors.get(1).getLabel());
+        assertEquals("C", neighbors.get(2).getLabel());
+    }
+
+    @Test
+    public void testGetNeighborsInvalidK() {
+        CharacteristicVector input = new CharacteristicVector(new double[] { 1.0, 1.0 }, null, null, null);
+        assertThrows(IllegalArgumentException.class, () -> knnEuclidean.getNeighbors(input, 0));
+    }
+
+    @Test
+    public void testTrainWithFeatureMatrix() {
+        KNNClassifier knnMatrix = new KNNClassifier(3, KNNClassifier.EUCLIDEAN);
+        knnMatrix.train(FeatureMatrix.fromVectors(trainingData));
+        CharacteristicVector input = new CharacteristicVector(new double[] { 2.5, 2.5 }, null, null, null);
+
+        assertEquals(knnEuclidean.predict(input), knnMatrix.predict(input));
+        ArrayList<CharacteristicVector> expected = knnEuclidean.getNeighbors(input);
+        ArrayList<CharacteristicVector> neighbors = knnMatrix.getNeighbors(input);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getVector()[0], neighbors.get(i).getVector()[0], 0.0);
+        }
+    }
+
     @Test
     public void testGetNeighborsWithNoTrainingData() {
         KNNClassifier knnNoData = new KNNClassifier(3, KNNClassifier.EUCLIDEAN);
@@ -158,4 +215,277 @@ public class TestKNNClassifier {
         assertEquals("Training data not set. Call train() before predict().", exception.getMessage());
     }
 
+    @Test
+    public void testPredictLeaveOneOutMatchesTrainingWithoutVector() {
+        trainingData.add(new CharacteristicVector(new double[] { 5.0, 5.0 }, "B", null, null));
+        trainingData.add(new CharacteristicVector(new double[] { 2.5, 2.0 }, "A", null, null));
+        KNNClassifier loo = new KNNClassifier(3, KNNClassifier.EUCLIDEAN);
+        loo.train(trainingData);
+        assertTrue(loo.supportsLeaveOneOut());
+
+        for (int i = 0; i < trainingData.size(); i++) {
+            ArrayList<CharacteristicVector> withoutVector = new ArrayList<>(trainingData);
+            CharacteristicVector left = withoutVector.remove(i);
+            KNNClassifier reference = new KNNClassifier(3, KNNClassifier.EUCLIDEAN);
+            reference.train(withoutVector);
+            assertEquals(reference.predict(left), loo.predictLeaveOneOut(i));
+        }
+    }
+
+    @Test
+    public void testPredictLeaveOneOutOnLargeTrainingData() {
+        // above the size where the pairwise distances are cached
+        Random random = new Random(8L);
+        ArrayList<CharacteristicVector> large = new ArrayList<>();
+        for (int i = 0; i < 6000; i++) {
+            large.add(new CharacteristicVector(new double[] { 3 * (i % 3) + random.nextGaussian(),
+                    random.nextGaussian() }, "L" + i % 3, null, null));
+        }
+        KNNClassifier loo = new KNNClassifier(5, KNNClassifier.EUCLIDEAN);
+        loo.train(large);
+        for (int i = 0; i < large.size(); i += 600) {
+            ArrayList<CharacteristicVector> withoutVector = new ArrayList<>(large);
+            CharacteristicVector left = withoutVector.remove(i);
+            KNNClassifier reference = new KNNClassifier(5, KNNClassifier.EUCLIDEAN);
+            reference.train(withoutVector);
+            assertEquals(reference.predict(left), loo.predictLeaveOneOut(i));
+        }
+    }
+
+    @Test
+    public void testPredictLeaveOneOutInvalidState() {
+        KNNClassifier knnNoData = new KNNClassifier(3, KNNClassifier.EUCLIDEAN);
+        assertThrows(IllegalStateException.class, () -> knnNoData.predictLeaveOneOut(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> knnEuclidean.predictLeaveOneOut(4));
+    }
+
+    @Test
+    public void testLOOCVSameAsCopyingDataset() {
+        trainingData.add(new CharacteristicVector(new double[] { 5.0, 5.0 }, "B", null, null));
+        trainingData.add(new CharacteristicVector(new double[] { 2.5, 2.0 }, "A", null, null));
+        Set<String> labels = Set.of("A", "B");
+
+        ConfusionMatrix expected = new ConfusionMatrix(labels);
+        for (int i = 0; i < trainingData.size(); i++) {
+            ArrayList<CharacteristicVector> withoutVector = new ArrayList<>(trainingData);
+            CharacteristicVector left = withoutVector.remove(i);
+            KNNClassifier reference = new KNNClassifier(3, KNNClassifier.MANHATTAN);
+            reference.train(withoutVector);
+            expected.increment(left.getLabel(), reference.predict(left));
+        }
+
+        ConfusionMatrix cfx = new ConfusionMatrix(labels);
+        MachineLearningUtils.performLOOCV(trainingData, new KNNClassifier(3, KNNClassifier.MANHATTAN), cfx);
+        for (String actual : labels) {
+            for (String predicted : labels) {
+                assertEquals(expected.get(actual, predicted), cfx.get(actual, predicted));
+            }
+        }
+        assertEquals(expected.accuracy(),
+                MachineLearningUtils.performLOOCV(trainingData, new KNNClassifier(3, KNNClassifier.MANHATTAN)),
+                1e-12);
+        assertEquals(expected.accuracy(), MachineLearningUtils.performLOOCV(FeatureMatrix.fromVectors(trainingData),
+                new KNNClassifier(3, KNNClassifier.MANHATTAN)), 1e-12);
+    }
+
+    @Test
+    public void testLeaveOneOutNotSupportedByDefault() {
+        Classifier kmeans = new KMeansClassifier(2, KMeansClassifier.EUCLIDEAN);
+        kmeans.train(trainingData);
+        assertEquals(false, kmeans.supportsLeaveOneOut());
+        assertThrows(UnsupportedOperationException.class, () -> kmeans.predictLeaveOneOut(0));
+    }
+
+    @Test
+    public void testParallelLOOCVSameAsSequential() {
+        for (int i = 0; i < 40; i++) {
+            trainingData.add(new CharacteristicVector(new double[] { (i * 7) % 11, (i * 5) % 13 },
+                    i % 3 == 0 ? "A" : "B", null, null));
+        }
+        FeatureMatrix matrix = FeatureMatrix.fromVectors(trainingData);
+        Set<String> labels = Set.of("A", "B");
+        ConfusionMatrix expected = new ConfusionMatrix(labels);
+        MachineLearningUtils.performLOOCV(matrix, new KNNClassifier(3, KNNClassifier.EUCLIDEAN), expected);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ConfusionMatrix shared = new ConfusionMatrix(labels);
+            MachineLearningUtils.performLOOCV(matrix, () -> new KNNClassifier(3, KNNClassifier.EUCLIDEAN), shared,
+                    pool);
+            // a classifier without leave-one-out support is trained on copies
+            ConfusionMatrix copies = new ConfusionMatrix(labels);
+            MachineLearningUtils.performLOOCV(matrix, () -> new Classifier() {
+                private final KNNClassifier knn = new KNNClassifier(3, KNNClassifier.EUCLIDEAN);
+
+                @Override
+                public void train(List<CharacteristicVector> trainingData) {
+                    knn.train(trainingData);
+                }
+
+                @Override
+                public String predict(CharacteristicVector vector) {
+                    return knn.predict(vector);
+                }
+            }, copies, pool);
+
+            for (String actual : labels) {
+                for (String predicted : labels) {
+                    assertEquals(expected.get(actual, predicted), shared.get(actual, predicted));
+                    assertEquals(expected.get(actual, predicted), copies.get(actual, predicted));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testPredictBatchMatchesPredict() {
+        // more queries than a block and more training data than a tile
+        Random random = new Random(9L);
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            double[] values = new double[16];
+            for (int d = 0; d < values.length; d++) {
+                values[d] = (i % 5) + random.nextGaussian();
+            }
+            trainingData.add(new CharacteristicVector(values, "L" + (i % 5), null, null));
+        }
+        List<CharacteristicVector> queries = new ArrayList<>();
+        for (int q = 0; q < 150; q++) {
+            double[] values = new double[16];
+            for (int d = 0; d < values.length; d++) {
+                values[d] = (q % 5) + random.nextGaussian();
+            }
+            queries.add(new CharacteristicVector(values, null, null, null));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (String metric : new String[] { Classifier.EUCLIDEAN, Classifier.MANHATTAN }) {
+                KNNClassifier knn = new KNNClassifier(5, metric);
+                knn.train(trainingData);
+                List<String> expected = new ArrayList<>();
+                for (CharacteristicVector query : queries) {
+                    expected.add(knn.predict(query));
+                }
+                assertEquals(expected, knn.predictBatch(queries));
+                knn.setPool(pool);
+                assertEquals(expected, knn.predictBatch(FeatureMatrix.fromVectors(queries)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPredictBatchDefaultAndMismatch() {
+        List<CharacteristicVector> queries = Arrays.asList(
+                new CharacteristicVector(new double[] { 1.1, 2.1 }, null, null, null),
+                new CharacteristicVector(new double[] { 1.0 }, null, null, null));
+        // a vector of another size goes through predict, like the default method
+        List<String> labels = knnEuclidean.predictBatch(queries);
+        assertEquals(2, labels.size());
+        assertEquals(knnEuclidean.predict(queries.get(0)), labels.get(0));
+
+        Classifier constant = vector -> "X";
+        assertEquals(Arrays.asList("X", "X"), constant.predictBatch(queries));
+        assertThrows(IllegalStateException.class,
+                () -> new KNNClassifier(3, Classifier.EUCLIDEAN).predictBatch(queries));
+    }
+
+    @Test
+    public void testIndexesGiveSamePredictions() {
+        Random random = new Random(11L);
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            double[] values = new double[6];
+            for (int d = 0; d < values.length; d++) {
+                values[d] = (i % 4) + 0.8 * random.nextGaussian();
+            }
+            trainingData.add(new CharacteristicVector(values, "L" + (i % 4), null, null));
+        }
+        List<CharacteristicVector> queries = new ArrayList<>(trainingData.subList(0, 100));
+
+        KNNClassifier brute = new KNNClassifier(5, Classifier.MINKOWSKI, 3);
+        brute.train(trainingData);
+        List<String> expected = brute.predictBatch(queries);
+        for (String index : new String[] { KNNClassifier.KD_TREE, KNNClassifier.BALL_TREE }) {
+            KNNClassifier knn = new KNNClassifier(5, Classifier.MINKOWSKI, 3);
+            knn.setIndex(index);
+            knn.train(trainingData);
+            assertEquals(expected, knn.predictBatch(queries));
+            assertEquals(brute.getNeighbors(queries.get(7), 20), knn.getNeighbors(queries.get(7), 20));
+        }
+
+        // an unknown index is ignored, a new one is built on the trained data
+        knnEuclidean.setIndex("octree");
+        assertEquals("A", knnEuclidean.predict(new CharacteristicVector(new double[] { 1.5, 1.5 }, null, null, null)));
+        knnEuclidean.setIndex(KNNClassifier.KD_TREE);
+        assertEquals("B", knnEuclidean.predict(new CharacteristicVector(new double[] { 5.0, 5.0 }, null, null, null)));
+    }
+
+    @Test
+    public void testHnswIndexAndInserts() {
+        Random random = new Random(13L);
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        List<CharacteristicVector> later = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            double[] values = new double[10];
+            for (int d = 0; d < values.length; d++) {
+                values[d] = 3 * (i % 4) + random.nextGaussian();
+            }
+            CharacteristicVector vector = new CharacteristicVector(values, "L" + (i % 4), null, null);
+            (i < 800 ? trainingData : later).add(vector);
+        }
+
+        KNNClassifier knn = new KNNClassifier(5, Classifier.EUCLIDEAN);
+        knn.setIndex(KNNClassifier.HNSW);
+        knn.setHnswParameters(8, 64, 32);
+        knn.train(trainingData);
+        for (CharacteristicVector vector : later) {
+            knn.insert(vector);
+        }
+        assertTrue(knn.measureRecall(later.subList(0, 100), 5) > 0.9);
+        assertEquals(later.get(3).getLabel(), knn.predict(later.get(3)));
+        // getNeighbors stays exact, inserted vectors included
+        assertEquals(later.get(10), knn.getNeighbors(later.get(10), 1).get(0));
+        assertEquals(1200, knn.getNeighbors(later.get(10)).size());
+
+        // the exact indexes see the inserted vectors too
+        KNNClassifier brute = new KNNClassifier(1, Classifier.EUCLIDEAN);
+        brute.train(trainingData);
+        brute.insert(later.get(0));
+        assertEquals(later.get(0), brute.getNeighbors(later.get(0), 1).get(0));
+        assertEquals(1.0, brute.measureRecall(later, 3), 0.0);
+        assertThrows(IllegalArgumentException.class,
+                () -> brute.insert(new CharacteristicVector(new double[] { 1.0 }, "L0", null, null)));
+    }
+
+    @Test
+    public void testLshIndex() {
+        Random random = new Random(17L);
+        List<CharacteristicVector> trainingData = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            double[] values = new double[100];
+            for (int d = 0; d < values.length; d++) {
+                values[d] = (i % 4) * (d % 2) + 0.2 * random.nextGaussian();
+            }
+            trainingData.add(new CharacteristicVector(values, "L" + (i % 4), null, null));
+        }
+        KNNClassifier knn = new KNNClassifier(3, Classifier.MANHATTAN);
+        knn.setIndex(KNNClassifier.LSH);
+        knn.setLshParameters(12, 4, 0);
+        knn.train(trainingData);
+        assertTrue(knn.measureRecall(trainingData.subList(0, 50), 3) > 0.9);
+        assertEquals("L2", knn.predict(trainingData.get(6)));
+        assertEquals(trainingData.get(6), knn.getApproximateNeighbors(trainingData.get(6), 1).get(0));
+
+        // Chebyshev can not be hashed, the linear scan is used
+        KNNClassifier chebyshev = new KNNClassifier(3, Classifier.CHEBYSHEV);
+        chebyshev.setIndex(KNNClassifier.LSH);
+        chebyshev.train(trainingData);
+        assertTrue(chebyshev.getIndex().isExact());
+    }
 }
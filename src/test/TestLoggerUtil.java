@@ -0,0 +1,37 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.Test;
+
+import logger.LoggerUtil;
+import process.KNNClassifier;
+
+public class TestLoggerUtil {
+
+    @Test
+    public void testConfiguredOnce() {
+        Logger logger = LoggerUtil.getLogger(TestLoggerUtil.class, Level.ERROR);
+        Configuration configuration = LoggerContext.getContext(false).getConfiguration();
+        assertFalse(logger.isInfoEnabled());
+
+        // a level changed at runtime is not reset by the next loggers
+        Configurator.setLevel(TestLoggerUtil.class.getName(), Level.DEBUG);
+        LoggerUtil.getLogger(KNNClassifier.class, Level.WARN);
+        assertSame(configuration, LoggerContext.getContext(false).getConfiguration());
+        assertEquals(Level.DEBUG, logger.getLevel());
+        Configurator.setLevel(TestLoggerUtil.class.getName(), Level.ERROR);
+    }
+
+    @Test
+    public void testDevelopmentModeByDefault() {
+        assertFalse(LoggerUtil.isProductionMode());
+    }
+}
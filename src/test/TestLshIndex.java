@@ -0,0 +1,120 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
+import utils.BruteForceIndex;
+import utils.DistanceMetrics;
+import utils.LshIndex;
+
+public class TestLshIndex {
+
+    /** Rows around 12 random centers, like the classes of the signature files. */
+    private static FeatureMatrix clusteredMatrix(Random random, int rows, int dimension) {
+        double[][] centers = new double[12][dimension];
+        Random centerRandom = new Random(1L);
+        for (double[] center : centers) {
+            for (int j = 0; j < dimension; j++) {
+                center[j] = 2 * centerRandom.nextDouble();
+            }
+        }
+        double[] data = new double[rows * dimension];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < dimension; j++) {
+                data[i * dimension + j] = centers[i % 12][j] + 0.1 * random.nextGaussian();
+            }
+        }
+        return new FeatureMatrix(data, rows, dimension, new int[rows], new String[] { "A" }, null, null);
+    }
+
+    private static double recall(NeighborIndex exact, NeighborIndex approximate, double[] queries, int dimension,
+            int count) {
+        int hits = 0;
+        int total = 0;
+        for (int q = 0; q < queries.length / dimension; q++) {
+            int[] expected = exact.nearest(queries, q * dimension, count);
+            int[] found = approximate.nearest(queries, q * dimension, count);
+            Arrays.sort(found);
+            for (int row : expected) {
+                if (Arrays.binarySearch(found, row) >= 0) {
+                    hits++;
+                }
+            }
+            total += expected.length;
+        }
+        return (double) hits / total;
+    }
+
+    @Test
+    public void testRecallEuclideanAndManhattan() {
+        Random random = new Random(4L);
+        FeatureMatrix matrix = clusteredMatrix(random, 3000, 100);
+        double[] queries = clusteredMatrix(random, 60, 100).getData();
+        for (DistanceMetric metric : new DistanceMetric[] { DistanceMetrics.EUCLIDEAN, DistanceMetrics.MANHATTAN }) {
+            NeighborIndex exact = new BruteForceIndex(matrix, metric);
+            LshIndex lsh = new LshIndex(matrix, metric, 16, 6, 0, 5L, null);
+            assertFalse(lsh.isExact());
+            assertTrue(lsh.getWidth() > 0);
+            double recall = recall(exact, lsh, queries, 100, 10);
+            assertTrue(metric + " recall " + recall, recall > 0.9);
+            // only a share of the rows is ranked
+            assertTrue(lsh.getDistanceEvaluations() < 60L * 3000 / 2);
+        }
+    }
+
+    @Test
+    public void testParallelBuildSameTables() {
+        Random random = new Random(6L);
+        FeatureMatrix matrix = clusteredMatrix(random, 1000, 20);
+        double[] queries = clusteredMatrix(random, 20, 20).getData();
+        LshIndex sequential = new LshIndex(matrix, DistanceMetrics.EUCLIDEAN, 8, 3, 0, 9L, null);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            LshIndex parallel = new LshIndex(matrix, DistanceMetrics.EUCLIDEAN, 8, 3, 0, 9L, pool);
+            for (int q = 0; q < 20; q++) {
+                assertArrayEquals(sequential.nearest(queries, q * 20, 5), parallel.nearest(queries, q * 20, 5));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testFallbackToLinearScan() {
+        Random random = new Random(8L);
+        FeatureMatrix matrix = clusteredMatrix(random, 200, 5);
+        // a tiny width puts every row alone in its bucket
+        LshIndex lsh = new LshIndex(matrix, DistanceMetrics.MANHATTAN, 2, 4, 1e-9, 1L, null);
+        double[] query = { 50.0, 50.0, 50.0, 50.0, 50.0 };
+        assertArrayEquals(new BruteForceIndex(matrix, DistanceMetrics.MANHATTAN).nearest(query, 0, 7),
+                lsh.nearest(query, 0, 7));
+        assertEquals(0, lsh.nearest(query, 0, 0).length);
+    }
+
+    @Test
+    public void testInvalidIndexes() {
+        FeatureMatrix matrix = clusteredMatrix(new Random(2L), 100, 3);
+        assertThrows(IllegalArgumentException.class,
+                () -> new LshIndex(matrix, DistanceMetrics.CHEBYSHEV, 4, 2, 0, 0L, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LshIndex(matrix, DistanceMetrics.EUCLIDEAN, 0, 2, 0, 0L, null));
+        // over the default memory limit
+        FeatureMatrix large = new FeatureMatrix(new double[200000], 200000, 1, new int[200000],
+                new String[] { "A" }, null, null);
+        assertTrue(LshIndex.estimateBytes(200000, 1, 1000, 2) > 256L << 20);
+        assertThrows(IllegalArgumentException.class,
+                () -> new LshIndex(large, DistanceMetrics.EUCLIDEAN, 1000, 2, 1, 0L, null));
+    }
+}
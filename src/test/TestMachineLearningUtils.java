@@ -0,0 +1,60 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import data.CharacteristicVector;
+import utils.MachineLearningUtils;
+
+public class TestMachineLearningUtils {
+
+    private static ArrayList<CharacteristicVector> dataset(int size) {
+        ArrayList<CharacteristicVector> dataset = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            dataset.add(new CharacteristicVector(new double[] { i }, "L" + (i % 4), null, "s" + i));
+        }
+        return dataset;
+    }
+
+    @Test
+    public void testSeededFoldsAreDeterministic() {
+        ArrayList<CharacteristicVector> dataset = dataset(50);
+        ArrayList<ArrayList<CharacteristicVector>> first = MachineLearningUtils.createKFolds(dataset, 5, 7L);
+        ArrayList<ArrayList<CharacteristicVector>> second = MachineLearningUtils.createKFolds(dataset, 5, 7L);
+
+        assertEquals(5, first.size());
+        for (int f = 0; f < first.size(); f++) {
+            assertEquals(10, first.get(f).size());
+            for (int i = 0; i < first.get(f).size(); i++) {
+                assertEquals(first.get(f).get(i).getSample(), second.get(f).get(i).getSample());
+            }
+        }
+    }
+
+    @Test
+    public void testDeriveSeed() {
+        assertEquals(MachineLearningUtils.deriveSeed(3L, 1), MachineLearningUtils.deriveSeed(3L, 1));
+        assertNotEquals(MachineLearningUtils.deriveSeed(3L, 1), MachineLearningUtils.deriveSeed(3L, 2));
+        assertNotEquals(MachineLearningUtils.deriveSeed(3L, 1), MachineLearningUtils.deriveSeed(4L, 1));
+    }
+
+    @Test
+    public void testRunTasksKeepsIndexOrder() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            ArrayList<Integer> results = MachineLearningUtils.runTasks(20, i -> i * i, pool);
+            assertEquals(20, results.size());
+            for (int i = 0; i < 20; i++) {
+                assertEquals(Integer.valueOf(i * i), results.get(i));
+            }
+            assertEquals(MachineLearningUtils.runTasks(20, i -> i * i, null), results);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
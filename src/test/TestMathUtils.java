@@ -1,13 +1,20 @@
 package test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.fail;
 
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Test;
 import data.CharacteristicVector;
+import data.Classifier;
+import data.DistanceMetric;
 import data.MathUtilsException;
+import utils.DistanceMetrics;
 import utils.MathUtils;
 
 public class TestMathUtils {
@@ -79,4 +86,63 @@ public class TestMathUtils {
         // The Euclidean distance between the same vector should be 0
         assertEquals(0.0, result, 0.0);
     }
+
+    @Test
+    public void testKernelsWithOffsets() {
+        // vect1 and vect2 stored one after the other like in a FeatureMatrix
+        double[] data = { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0 };
+        assertEquals(27.0, MathUtils.squaredEuclidean(data, 0, data, 3, 3), 0.0);
+        assertEquals(9.0, MathUtils.distManhattan(data, 0, data, 3, 3), 0.0);
+        assertEquals(81.0, MathUtils.minkowskiSum(data, 0, data, 3, 3, 3), 0.0);
+        assertEquals(3.0, MathUtils.distChebyshev(data, 0, data, 3, 3), 0.0);
+    }
+
+    @Test
+    public void testIntegerPow() {
+        assertEquals(1.0, MathUtils.pow(2.5, 0), 0.0);
+        assertEquals(2.5, MathUtils.pow(2.5, 1), 0.0);
+        assertEquals(15.625, MathUtils.pow(2.5, 3), 0.0);
+        assertEquals(Math.pow(1.1, 7), MathUtils.pow(1.1, 7), 1e-12);
+    }
+
+    @Test
+    public void testDistanceMetricsMatchMathUtils() throws MathUtilsException {
+        double[] a = vect1.getVector();
+        double[] b = vect2.getVector();
+        DistanceMetric euclidean = DistanceMetrics.of(Classifier.EUCLIDEAN, 0);
+        DistanceMetric manhattan = DistanceMetrics.of(Classifier.MANHATTAN, 0);
+        DistanceMetric minkowski = DistanceMetrics.of(Classifier.MINKOWSKI, 3);
+
+        // Euclidean reduced distance is the squared distance
+        assertEquals(27.0, euclidean.reducedDistance(a, 0, b, 0, 3), 0.0);
+        assertEquals(MathUtils.distEuclidean(vect1, vect2), euclidean.distance(a, 0, b, 0, 3), 1e-12);
+        assertEquals(MathUtils.distManhattan(vect1, vect2), manhattan.distance(a, 0, b, 0, 3), 0.0);
+        assertEquals(MathUtils.distMinkowski(vect1, vect2, 3), minkowski.distance(a, 0, b, 0, 3), 1e-12);
+        assertEquals(3.0, DistanceMetrics.of(Classifier.CHEBYSHEV, 0).distance(a, 0, b, 0, 3), 0.0);
+    }
+
+    @Test
+    public void testDistanceMetricsResolution() {
+        assertSame(DistanceMetrics.MANHATTAN, DistanceMetrics.minkowski(1));
+        assertSame(DistanceMetrics.EUCLIDEAN, DistanceMetrics.minkowski(2));
+        assertSame(DistanceMetrics.minkowski(3), DistanceMetrics.of(Classifier.MINKOWSKI, 3));
+        assertNull(DistanceMetrics.of(Classifier.MINKOWSKI, 0));
+        assertNull(DistanceMetrics.of("invalid_metric", 0));
+        assertThrows(IllegalArgumentException.class, () -> DistanceMetrics.minkowski(-3));
+    }
+
+    @Test
+    public void testPreferredMetricsMatchScalar() {
+        // Same values whether the Vector API backend is used or not (GFD and ART sizes)
+        Random random = new Random(42);
+        for (int length : new int[] { 100, 36, 3 }) {
+            double[] a = random.doubles(length).toArray();
+            double[] b = random.doubles(length).toArray();
+            for (String name : new String[] { Classifier.EUCLIDEAN, Classifier.MANHATTAN, Classifier.MINKOWSKI }) {
+                double expected = DistanceMetrics.scalarOf(name, 3).reducedDistance(a, 0, b, 0, length);
+                double actual = DistanceMetrics.of(name, 3).reducedDistance(a, 0, b, 0, length);
+                assertEquals(name + " of size " + length, expected, actual, 1e-12 * expected);
+            }
+        }
+    }
 }
@@ -0,0 +1,159 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import process.KNNClassifier;
+import utils.MachineLearningUtils;
+
+public class TestMetricsRegistry {
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    @Test
+    public void testCounterFromSeveralThreads() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("events_total", "Events");
+        assertSame(counter, registry.counter("events_total", "Events"));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        MachineLearningUtils.runTasks(8, task -> {
+            for (int i = 0; i < 10_000; i++) {
+                counter.increment();
+            }
+            return null;
+        }, pool);
+        pool.shutdown();
+        assertEquals(80_000, counter.get());
+
+        registry.reset();
+        assertEquals(0, counter.get());
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.histogram("events_total", "Events", MetricsRegistry.UNITS));
+    }
+
+    @Test
+    public void testHistogramQuantiles() {
+        Histogram histogram = new MetricsRegistry().histogram("latency_seconds", "Latency",
+                MetricsRegistry.NANOSECONDS);
+        assertEquals(0, histogram.getQuantile(0.5));
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1_000);
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000L, histogram.getMax());
+        assertEquals(100_000L * 100_001 / 2 * 1_000, histogram.getSum());
+        // within the width of a bucket, 1/32 of the value
+        assertEquals(50_000_000, histogram.getQuantile(0.5), 50_000_000 / 32.0);
+        assertEquals(99_000_000, histogram.getQuantile(0.99), 99_000_000 / 32.0);
+        assertEquals(100_000_000L, histogram.getQuantile(1));
+
+        // small values are exact, negative ones are recorded as 0
+        Histogram small = new MetricsRegistry().histogram("iterations", "Iterations", MetricsRegistry.UNITS);
+        small.record(3);
+        small.record(7);
+        small.record(-5);
+        assertEquals(0, small.getQuantile(0.3));
+        assertEquals(3, small.getQuantile(0.5));
+        assertEquals(7, small.getQuantile(0.9));
+        assertEquals(Long.MAX_VALUE, bucketLimit(Long.MAX_VALUE));
+    }
+
+    private static long bucketLimit(long value) {
+        Histogram histogram = new MetricsRegistry().histogram("values", "Values", MetricsRegistry.UNITS);
+        histogram.record(value);
+        return histogram.getQuantile(1);
+    }
+
+    @Test
+    public void testSnapshots() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("files_total", "Files \"read\"").add(3);
+        registry.histogram("load_seconds", "Load", MetricsRegistry.NANOSECONDS).record(2_000_000_000L);
+
+        String json = registry.toJson();
+        assertTrue(json, json.startsWith("{\"files_total\":{\"type\":\"counter\",\"help\":\"Files \\\"read\\\"\""));
+        assertTrue(json, json.contains("\"value\":3"));
+        assertTrue(json, json.contains("\"load_seconds\":{\"type\":\"histogram\""));
+        assertTrue(json, json.contains("\"count\":1,\"sum\":2.0,\"max\":2.0,\"p50\":2.0"));
+        assertTrue(json, json.contains("\"p999\":2.0"));
+
+        String text = registry.toPrometheus();
+        assertTrue(text, text.contains("# TYPE files_total counter\nfiles_total 3\n"));
+        assertTrue(text, text.contains("# TYPE load_seconds summary\n"));
+        assertTrue(text, text.contains("load_seconds{quantile=\"0.99\"} 2.0\n"));
+        assertTrue(text, text.contains("load_seconds_sum 2.0\nload_seconds_count 1\n"));
+
+        Path file = temporary.getRoot().toPath().resolve("metrics.json");
+        registry.writeTo(file, MetricsRegistry.JSON);
+        assertEquals(json, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> registry.snapshot("xml"));
+    }
+
+    @Test
+    public void testServe() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "Requests").increment();
+        int port = registry.serve(0);
+        try {
+            assertEquals(registry.toPrometheus(), get("http://127.0.0.1:" + port + "/metrics"));
+            assertEquals(registry.toJson(), get("http://127.0.0.1:" + port + "/metrics.json"));
+        } finally {
+            registry.stopServing();
+        }
+    }
+
+    private static String get(String address) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+        try (InputStream input = connection.getInputStream()) {
+            assertEquals(200, connection.getResponseCode());
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testClassifierMetrics() {
+        ArrayList<CharacteristicVector> training = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            training.add(new CharacteristicVector(new double[] { i, i % 3 }, i < 10 ? "A" : "B", "GFD", "" + i));
+        }
+        Histogram predictLatency = MetricsRegistry.global().histogram("knn_predict_seconds", "",
+                MetricsRegistry.NANOSECONDS);
+        Counter distances = MetricsRegistry.global().counter("knn_distance_evaluations_total", "");
+        Counter loocvPredictions = MetricsRegistry.global().counter("loocv_predictions_total", "");
+        long predictions = predictLatency.getCount();
+        long evaluations = distances.get();
+        long loocv = loocvPredictions.get();
+
+        KNNClassifier knn = new KNNClassifier(3, Classifier.EUCLIDEAN);
+        knn.train(training);
+        knn.predict(training.get(0));
+        assertEquals(predictions + 1, predictLatency.getCount());
+        assertEquals(evaluations + 20, distances.get());
+
+        MachineLearningUtils.performLOOCV(training, new KNNClassifier(3, Classifier.EUCLIDEAN));
+        assertEquals(loocv + 20, loocvPredictions.get());
+    }
+}
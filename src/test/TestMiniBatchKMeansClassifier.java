@@ -0,0 +1,102 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import process.MiniBatchKMeansClassifier;
+
+public class TestMiniBatchKMeansClassifier {
+    private List<CharacteristicVector> trainingData;
+
+    @Before
+    public void setUp() {
+        // two well separated blobs
+        trainingData = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            double center = i % 2 == 0 ? 0.0 : 20.0;
+            trainingData.add(new CharacteristicVector(
+                    new double[] { center + (i * 7) % 5 * 0.1, center + (i * 3) % 4 * 0.1 }, "L" + (i % 2), null,
+                    "s" + i));
+        }
+    }
+
+    @Test
+    public void testTrainingSeparatesBlobs() {
+        MiniBatchKMeansClassifier kmeans = new MiniBatchKMeansClassifier(2, Classifier.EUCLIDEAN);
+        kmeans.setSeed(5L);
+        kmeans.setBatchSize(10);
+        kmeans.train(trainingData);
+
+        String low = kmeans.predict(new CharacteristicVector(new double[] { 0.1, 0.1 }, null, null, null));
+        String high = kmeans.predict(new CharacteristicVector(new double[] { 20.1, 20.1 }, null, null, null));
+        assertNotEquals(low, high);
+        assertEquals(2, kmeans.getCluster().size());
+        assertEquals(30, kmeans.getCluster().get(0).size());
+        assertTrue(kmeans.calculateSSE() < 5.0);
+        assertTrue(kmeans.calculateSilhouetteScore() > 0.9);
+    }
+
+    @Test
+    public void testSeededTrainingIsDeterministic() {
+        MiniBatchKMeansClassifier first = new MiniBatchKMeansClassifier(3, Classifier.MANHATTAN);
+        MiniBatchKMeansClassifier second = new MiniBatchKMeansClassifier(3, Classifier.MANHATTAN);
+        first.setSeed(11L);
+        second.setSeed(11L);
+        first.setLearningRateSchedule(MiniBatchKMeansClassifier.inverseTime(0.5, 0.01));
+        second.setLearningRateSchedule(MiniBatchKMeansClassifier.inverseTime(0.5, 0.01));
+        first.train(trainingData);
+        second.train(trainingData);
+
+        assertEquals(first.calculateSSE(), second.calculateSSE(), 0.0);
+    }
+
+    @Test
+    public void testPartialFitFromScratch() {
+        MiniBatchKMeansClassifier kmeans = new MiniBatchKMeansClassifier(2, Classifier.EUCLIDEAN);
+        kmeans.partialFit(new CharacteristicVector(new double[] { 0.0, 0.0 }, null, null, null));
+        assertNull(kmeans.getCentroids());
+        kmeans.partialFit(new CharacteristicVector(new double[] { 10.0, 10.0 }, null, null, null));
+        kmeans.partialFit(new CharacteristicVector(new double[] { 2.0, 2.0 }, null, null, null));
+
+        // the first centroid is the running mean of (0, 0) and (2, 2)
+        double[][] centroids = kmeans.getCentroids();
+        assertEquals(1.0, centroids[0][0], 1e-12);
+        assertEquals(10.0, centroids[1][1], 1e-12);
+        assertEquals("Cluster 1",
+                kmeans.predict(new CharacteristicVector(new double[] { 9.0, 9.0 }, null, null, null)));
+        assertThrows(IllegalStateException.class, kmeans::calculateSSE);
+    }
+
+    @Test
+    public void testPartialFitAfterTraining() {
+        MiniBatchKMeansClassifier kmeans = new MiniBatchKMeansClassifier(2, Classifier.EUCLIDEAN);
+        kmeans.setSeed(5L);
+        kmeans.train(trainingData);
+        double sse = kmeans.calculateSSE();
+
+        // drag one centroid away with a constant rate: the diagnostics follow
+        kmeans.setLearningRateSchedule(MiniBatchKMeansClassifier.constant(0.5));
+        for (int i = 0; i < 20; i++) {
+            kmeans.partialFit(new CharacteristicVector(new double[] { 10.0, 10.0 }, null, null, null));
+        }
+        assertTrue(kmeans.calculateSSE() > sse);
+    }
+
+    @Test
+    public void testInvalidParameters() {
+        MiniBatchKMeansClassifier kmeans = new MiniBatchKMeansClassifier(2, Classifier.EUCLIDEAN);
+        assertThrows(IllegalArgumentException.class, () -> kmeans.setBatchSize(0));
+        assertThrows(IllegalArgumentException.class, () -> kmeans.setMaxIterations(0));
+    }
+}
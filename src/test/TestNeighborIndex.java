@@ -0,0 +1,113 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
+import utils.BallTreeIndex;
+import utils.BruteForceIndex;
+import utils.DistanceMetrics;
+import utils.KDTreeIndex;
+
+public class TestNeighborIndex {
+    private static final DistanceMetric[] METRICS = { DistanceMetrics.EUCLIDEAN, DistanceMetrics.MANHATTAN,
+            DistanceMetrics.minkowski(3), DistanceMetrics.CHEBYSHEV };
+
+    /** Rows on a small integer grid, full of equal distances and duplicates. */
+    private static FeatureMatrix gridMatrix(Random random, int rows, int dimension) {
+        double[] data = new double[rows * dimension];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt(5);
+        }
+        return new FeatureMatrix(data, rows, dimension, new int[rows], new String[] { "A" }, null, null);
+    }
+
+    /** Rows around 8 centers, like the classes of the signature files. */
+    private static FeatureMatrix clusteredMatrix(Random random, int rows, int dimension) {
+        double[] data = new double[rows * dimension];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < dimension; j++) {
+                data[i * dimension + j] = (i % 8) * ((j % 3) + 1) + 0.3 * random.nextGaussian();
+            }
+        }
+        return new FeatureMatrix(data, rows, dimension, new int[rows], new String[] { "A" }, null, null);
+    }
+
+    private static void assertSameNeighbors(FeatureMatrix matrix, double[] queries, int[] counts) {
+        int dimension = matrix.getDimension();
+        for (DistanceMetric metric : METRICS) {
+            NeighborIndex brute = new BruteForceIndex(matrix, metric);
+            NeighborIndex[] trees = { new KDTreeIndex(matrix, metric), new BallTreeIndex(matrix, metric) };
+            for (int q = 0; q < queries.length / dimension; q++) {
+                for (int count : counts) {
+                    int[] expected = brute.nearest(queries, q * dimension, count);
+                    for (NeighborIndex tree : trees) {
+                        assertArrayEquals(metric + " " + tree.getClass().getSimpleName() + " query " + q,
+                                expected, tree.nearest(queries, q * dimension, count));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSameNeighborsWithTies() {
+        Random random = new Random(3L);
+        for (int dimension : new int[] { 1, 3, 8 }) {
+            FeatureMatrix matrix = gridMatrix(random, 300, dimension);
+            double[] queries = new double[40 * dimension];
+            for (int i = 0; i < queries.length; i++) {
+                // on the grid for exact ties, or in between
+                queries[i] = i % 2 == 0 ? random.nextInt(6) - 0.5 : random.nextInt(5);
+            }
+            assertSameNeighbors(matrix, queries, new int[] { 1, 3, 17, 300, 400 });
+        }
+    }
+
+    @Test
+    public void testSameNeighborsOnClusters() {
+        Random random = new Random(5L);
+        FeatureMatrix matrix = clusteredMatrix(random, 2000, 18);
+        double[] queries = clusteredMatrix(random, 30, 18).getData();
+        assertSameNeighbors(matrix, queries, new int[] { 1, 5, 64 });
+        // a training row finds itself first
+        assertSameNeighbors(matrix, matrix.copyRow(42), new int[] { 1, 2 });
+    }
+
+    @Test
+    public void testTreesComputeFewerDistances() {
+        Random random = new Random(7L);
+        FeatureMatrix matrix = clusteredMatrix(random, 4000, 4);
+        double[] queries = clusteredMatrix(random, 50, 4).getData();
+        NeighborIndex brute = new BruteForceIndex(matrix, DistanceMetrics.EUCLIDEAN);
+        NeighborIndex kdTree = new KDTreeIndex(matrix, DistanceMetrics.EUCLIDEAN);
+        NeighborIndex ballTree = new BallTreeIndex(matrix, DistanceMetrics.EUCLIDEAN);
+        for (int q = 0; q < 50; q++) {
+            brute.nearest(queries, q * 4, 3);
+            kdTree.nearest(queries, q * 4, 3);
+            ballTree.nearest(queries, q * 4, 3);
+        }
+        assertEquals(50L * 4000, brute.getDistanceEvaluations());
+        assertTrue(kdTree.getDistanceEvaluations() < brute.getDistanceEvaluations() / 4);
+        assertTrue(ballTree.getDistanceEvaluations() < brute.getDistanceEvaluations() / 4);
+    }
+
+    @Test
+    public void testEmptyAndZeroCount() {
+        FeatureMatrix empty = new FeatureMatrix(new double[0], 0, 2, new int[0], new String[0], null, null);
+        double[] query = { 1.0, 2.0 };
+        assertEquals(0, new KDTreeIndex(empty, DistanceMetrics.EUCLIDEAN).nearest(query, 0, 3).length);
+        assertEquals(0, new BallTreeIndex(empty, DistanceMetrics.EUCLIDEAN).nearest(query, 0, 3).length);
+
+        FeatureMatrix matrix = gridMatrix(new Random(1L), 50, 2);
+        assertEquals(0, new KDTreeIndex(matrix, DistanceMetrics.EUCLIDEAN).nearest(query, 0, 0).length);
+        assertEquals(50, new BallTreeIndex(matrix, DistanceMetrics.EUCLIDEAN).nearest(query, 0, 50).length);
+    }
+}
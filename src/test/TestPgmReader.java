@@ -0,0 +1,60 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import data.GrayImage;
+import utils.PgmReader;
+
+public class TestPgmReader {
+
+    private static ByteArrayInputStream pgm(String header, byte... pixels) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(header.getBytes(StandardCharsets.US_ASCII));
+        output.write(pixels);
+        return new ByteArrayInputStream(output.toByteArray());
+    }
+
+    @Test
+    public void testReadImage() throws IOException {
+        GrayImage image = PgmReader.read(pgm("P5\n3 2\n255\n", (byte) 0, (byte) 255, (byte) 10, (byte) 20,
+                (byte) 128, (byte) 200));
+        assertEquals(3, image.getWidth());
+        assertEquals(2, image.getHeight());
+        assertEquals(255, image.get(1, 0));
+        assertEquals(200, image.get(2, 1));
+    }
+
+    @Test
+    public void testHeaderComments() throws IOException {
+        GrayImage image = PgmReader.read(pgm("P5 # made by hand\n# size\n2 1 255 ", (byte) 7, (byte) 8));
+        assertArrayEquals(new byte[] { 7, 8 }, image.getPixels());
+    }
+
+    @Test
+    public void testSmallAndWideMaxValues() throws IOException {
+        GrayImage small = PgmReader.read(pgm("P5\n2 1\n15\n", (byte) 0, (byte) 15));
+        assertEquals(0, small.get(0, 0));
+        assertEquals(255, small.get(1, 0));
+
+        GrayImage wide = PgmReader.read(pgm("P5\n2 1\n65535\n", (byte) 0xFF, (byte) 0xFF, (byte) 0x80, (byte) 0));
+        assertEquals(255, wide.get(0, 0));
+        assertEquals(127, wide.get(1, 0));
+    }
+
+    @Test
+    public void testInvalidImages() {
+        assertThrows(IOException.class, () -> PgmReader.read(pgm("P2\n1 1\n255\n", (byte) 0)));
+        assertThrows(IOException.class, () -> PgmReader.read(pgm("P5\nx 1\n255\n", (byte) 0)));
+        assertThrows(EOFException.class, () -> PgmReader.read(pgm("P5\n2 2\n255\n", (byte) 0)));
+    }
+}
@@ -0,0 +1,171 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import data.CharacteristicVector;
+import data.FeatureMatrix;
+import utils.DataLoader;
+import utils.SignatureCache;
+
+public class TestSignatureCache {
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    private Path signatureFolder() throws IOException {
+        File folder = temporary.newFolder("ART");
+        for (int label = 1; label <= 3; label++) {
+            for (int sample = 1; sample <= 2; sample++) {
+                String name = String.format("s%02dn%03d.art", label, sample);
+                Files.write(folder.toPath().resolve(name),
+                        (label + ".5\n-0." + sample + "\n" + label * sample + "e-3\n").getBytes());
+            }
+        }
+        return folder.toPath();
+    }
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        FeatureMatrix matrix = new FeatureMatrix(new double[] { 1.0, -2.5, Double.NaN, 1e-300 }, 2, 2,
+                new int[] { 1, 0 }, new String[] { "A", "B" }, new String[] { "01", null }, "GFD");
+        Path file = temporary.getRoot().toPath().resolve("matrix.sigcache");
+        SignatureCache.write(file, matrix, 42L);
+
+        SignatureCache cache = SignatureCache.open(file);
+        assertEquals(42L, cache.getSourceStamp());
+        assertEquals(2, cache.getRowCount());
+        assertEquals(2, cache.getDimension());
+        assertEquals("B", cache.getLabel(0));
+        assertEquals("A", cache.getLabel(1));
+        assertEquals("01", cache.getSample(0));
+        assertNull(cache.getSample(1));
+        DoubleBuffer values = cache.values();
+        assertEquals(4, values.remaining());
+        assertEquals(-2.5, values.get(1), 0.0);
+
+        FeatureMatrix copy = cache.toFeatureMatrix();
+        assertArrayEquals(matrix.getData(), copy.getData(), 0.0);
+        assertEquals("GFD", copy.getMethod());
+        assertEquals("B", copy.getLabel(0));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        FeatureMatrix matrix = new FeatureMatrix(new double[] { 1.0, 2.0, 3.0, 4.0 }, 2, 2, new int[] { 0, 1 },
+                new String[] { "A", "B" }, new String[] { "01", "02" }, "GFD");
+        Path file = temporary.getRoot().toPath().resolve("matrix.sigcache");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                writes.add(pool.submit(() -> {
+                    SignatureCache.write(file, matrix, 7L);
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertArrayEquals(matrix.getData(), SignatureCache.open(file).toFeatureMatrix().getData(), 0.0);
+        // no temporary file left behind
+        try (Stream<Path> files = Files.list(file.getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testCorruptedCache() throws IOException {
+        Path file = temporary.newFile("bad.sigcache").toPath();
+        Files.write(file, new byte[] { 1, 2, 3 });
+        assertThrows(IOException.class, () -> SignatureCache.open(file));
+    }
+
+    @Test
+    public void testDataLoaderCreatesAndInvalidatesCache() throws IOException {
+        Path folder = signatureFolder();
+        Path cacheFile = DataLoader.cachePath(folder.toString());
+
+        ArrayList<CharacteristicVector> parsed = DataLoader.extractFromFolder(folder.toString());
+        assertTrue(Files.isRegularFile(cacheFile));
+        ArrayList<CharacteristicVector> cached = DataLoader.extractFromFolder(folder.toString());
+        assertEquals(parsed.size(), cached.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertArrayEquals(parsed.get(i).getVector(), cached.get(i).getVector(), 0.0);
+            assertEquals(parsed.get(i).getLabel(), cached.get(i).getLabel());
+            assertEquals(parsed.get(i).getSample(), cached.get(i).getSample());
+            assertEquals(parsed.get(i).getMethod(), cached.get(i).getMethod());
+        }
+
+        // a modified file outdates the cache
+        Path first = folder.resolve("s01n001.art");
+        Files.write(first, "7\n8\n9\n".getBytes());
+        Files.setLastModifiedTime(first, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        FeatureMatrix matrix = DataLoader.extractMatrixFromFolder(folder.toString());
+        assertArrayEquals(new double[] { 7, 8, 9 }, matrix.copyRow(0), 0.0);
+        assertEquals(parsed.size(), matrix.getRowCount());
+    }
+
+    @Test
+    public void testOpenCachedFolder() throws IOException {
+        Path folder = signatureFolder();
+        ArrayList<CharacteristicVector> parsed = DataLoader.extractFromFolder(folder.toString());
+        Files.delete(DataLoader.cachePath(folder.toString()));
+
+        // written on the first call, mapped by both
+        for (int call = 0; call < 2; call++) {
+            SignatureCache cache = DataLoader.openCachedFolder(folder.toString());
+            assertEquals(parsed.size(), cache.getRowCount());
+            assertEquals("ART", cache.getMethod());
+            DoubleBuffer values = cache.values();
+            for (int i = 0; i < parsed.size(); i++) {
+                for (int j = 0; j < cache.getDimension(); j++) {
+                    assertEquals(parsed.get(i).getVector()[j], values.get(i * cache.getDimension() + j), 0.0);
+                }
+                assertEquals(parsed.get(i).getLabel(), cache.getLabel(i));
+            }
+        }
+
+        DataLoader.setCacheEnabled(false);
+        try {
+            assertThrows(IOException.class, () -> DataLoader.openCachedFolder(folder.toString()));
+        } finally {
+            DataLoader.setCacheEnabled(true);
+        }
+    }
+
+    @Test
+    public void testCacheDisabled() throws IOException {
+        Path folder = signatureFolder();
+        DataLoader.setCacheEnabled(false);
+        try {
+            assertEquals(6, DataLoader.extractFromFolder(folder.toString()).size());
+            assertTrue(Files.notExists(DataLoader.cachePath(folder.toString())));
+        } finally {
+            DataLoader.setCacheEnabled(true);
+        }
+    }
+}
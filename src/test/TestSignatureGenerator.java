@@ -0,0 +1,131 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import data.FeatureMatrix;
+import utils.DataLoader;
+import utils.SignatureCache;
+import utils.SignatureGenerator;
+
+public class TestSignatureGenerator {
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    /** Two classes: "01" around (0, 10) with deviations (1, 2), "02" around (5, -5) with no spread. */
+    private static FeatureMatrix source() {
+        double[] data = { -1, 8, 1, 12, 5, -5, 5, -5 };
+        return new FeatureMatrix(data, 4, 2, new int[] { 0, 0, 1, 1 }, new String[] { "01", "02" }, null, "GFD");
+    }
+
+    @Test
+    public void testRowsAreDeterministic() {
+        SignatureGenerator generator = new SignatureGenerator(source(), 3L);
+        generator.setPool(null);
+        FeatureMatrix sequential = generator.generate(10_000);
+        generator.setPool(new ForkJoinPool(3));
+        FeatureMatrix parallel = generator.generate(10_000);
+        assertArrayEquals(sequential.getData(), parallel.getData(), 0.0);
+        assertArrayEquals(sequential.copyRow(9_999), generator.vector(9_999).getVector(), 0.0);
+        assertEquals("02", generator.vector(9_999).getLabel());
+        assertEquals("5000", generator.vector(9_999).getSample());
+
+        FeatureMatrix other = new SignatureGenerator(source(), 4L).generate(10);
+        assertFalse(Arrays.equals(sequential.copyRow(0), other.copyRow(0)));
+    }
+
+    @Test
+    public void testClassStatistics() {
+        SignatureGenerator generator = new SignatureGenerator(source(), 1L);
+        FeatureMatrix rows = generator.generate(40_000);
+        double[] sum = new double[4];
+        double[] squares = new double[4];
+        for (int row = 0; row < rows.getRowCount(); row++) {
+            for (int j = 0; j < 2; j++) {
+                int at = rows.getLabelCode(row) * 2 + j;
+                sum[at] += rows.get(row, j);
+                squares[at] += rows.get(row, j) * rows.get(row, j);
+            }
+        }
+        double[] expectedMeans = { 0, 10, 5, -5 };
+        double[] expectedDeviations = { 1, 2, 0, 0 };
+        for (int at = 0; at < 4; at++) {
+            double mean = sum[at] / 20_000;
+            double deviation = Math.sqrt(Math.max(0, squares[at] / 20_000 - mean * mean));
+            assertEquals(expectedMeans[at], mean, 0.05);
+            assertEquals(expectedDeviations[at], deviation, 0.05);
+        }
+
+        generator.setSpread(0);
+        assertArrayEquals(new double[] { 0, 10 }, generator.vector(0).getVector(), 0.0);
+    }
+
+    @Test
+    public void testDimension() {
+        SignatureGenerator generator = new SignatureGenerator(source(), 1L);
+        generator.setSpread(0);
+        generator.setDimension(5);
+        assertArrayEquals(new double[] { 5, -5, 5, -5, 5 }, generator.vector(1).getVector(), 0.0);
+        generator.setDimension(1);
+        assertArrayEquals(new double[] { 0 }, generator.vector(2).getVector(), 0.0);
+
+        assertThrows(IllegalArgumentException.class, () -> generator.setDimension(0));
+        assertThrows(IllegalArgumentException.class, () -> generator.setSpread(-1));
+        assertThrows(IllegalArgumentException.class, () -> generator.setSpread(Double.NaN));
+        assertThrows(IllegalArgumentException.class,
+                () -> new SignatureGenerator(new FeatureMatrix(new double[0], 0, 2, new int[0], new String[0],
+                        null, null), 1L));
+    }
+
+    @Test
+    public void testWriteBinary() throws IOException {
+        SignatureGenerator generator = new SignatureGenerator(source(), 5L);
+        // larger than a write block
+        generator.setDimension(100);
+        Path file = temporary.getRoot().toPath().resolve("generated.sigcache");
+        generator.writeBinary(file, 1_001);
+
+        FeatureMatrix written = SignatureCache.open(file).toFeatureMatrix();
+        FeatureMatrix expected = generator.generate(1_001);
+        assertArrayEquals(expected.getData(), written.getData(), 0.0);
+        assertEquals("GFD", written.getMethod());
+        assertEquals("02", written.getLabel(1_000 - 1));
+        assertEquals("501", written.getSample(1_000));
+    }
+
+    @Test
+    public void testWriteTextReadByDataLoader() throws IOException {
+        SignatureGenerator generator = new SignatureGenerator(source(), 6L);
+        Path folder = temporary.getRoot().toPath().resolve("GFD");
+        generator.writeText(folder, 30);
+
+        DataLoader.setCacheEnabled(false);
+        try {
+            FeatureMatrix read = DataLoader.extractMatrixFromFolder(folder.toString());
+            assertEquals(30, read.getRowCount());
+            assertEquals("GFD", read.getMethod());
+            // files sorted by name: the 15 rows of "01" then the 15 of "02"
+            for (int rank = 0; rank < 15; rank++) {
+                assertArrayEquals(generator.vector(2 * rank).getVector(), read.copyRow(rank), 1e-12);
+                assertEquals("01", read.getLabel(rank));
+                assertEquals(generator.getSample(2 * rank), read.getSample(rank));
+                assertArrayEquals(generator.vector(2 * rank + 1).getVector(), read.copyRow(15 + rank), 1e-12);
+                assertEquals("02", read.getLabel(15 + rank));
+                assertEquals(generator.getSample(2 * rank + 1), read.getSample(15 + rank));
+            }
+        } finally {
+            DataLoader.setCacheEnabled(true);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import data.CharacteristicVector;
+import data.Classifier;
+import process.KNNClassifier;
+import process.StreamingClassifier;
+import process.StreamingClassifier.Prediction;
+
+public class TestStreamingClassifier {
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    private KNNClassifier knn;
+    private final BlockingQueue<Prediction> predictions = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        knn = new KNNClassifier(1, Classifier.EUCLIDEAN);
+        knn.train(Arrays.asList(new CharacteristicVector(new double[] { 0.0, 0.0 }, "01", null, null),
+                new CharacteristicVector(new double[] { 10.0, 10.0 }, "02", null, null)));
+    }
+
+    /** Writes a file aside then moves it into the folder, like a producer should. */
+    private Path drop(Path folder, String name, String content) throws IOException {
+        Path aside = temporary.newFile(name + ".part").toPath();
+        Files.write(aside, content.getBytes());
+        return Files.move(aside, folder.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Prediction next() throws InterruptedException {
+        Prediction prediction = predictions.poll(20, TimeUnit.SECONDS);
+        assertNotNull("No prediction received", prediction);
+        return prediction;
+    }
+
+    @Test
+    public void testClassifiesNewFiles() throws Exception {
+        Path folder = temporary.newFolder("incoming").toPath();
+        Files.write(folder.resolve("s01n001.art"), "0\n0\n".getBytes());
+        try (StreamingClassifier stream = new StreamingClassifier(knn, 2, 4, predictions::add)) {
+            stream.watch(folder);
+            drop(folder, "s02n005.art", "9.5\n9\n");
+            Prediction prediction = next();
+            assertEquals("s02n005.art", prediction.getFile().getFileName().toString());
+            assertEquals("02", prediction.getLabel());
+            assertNull(prediction.getError());
+            assertTrue(prediction.getTotalNanos() >= prediction.getPredictNanos());
+
+            drop(folder, "s01n006.art", "1\n0.5\n");
+            assertEquals("01", next().getLabel());
+        }
+        // the file already in the folder was not classified
+        assertTrue(predictions.isEmpty());
+    }
+
+    @Test
+    public void testClassifiesFilesCreatedAgain() throws Exception {
+        Path folder = temporary.newFolder("incoming").toPath();
+        Path query = Files.write(folder.resolve("s01n001.art"), "0\n0\n".getBytes());
+        try (StreamingClassifier stream = new StreamingClassifier(knn, 2, 4, predictions::add)) {
+            stream.watch(folder);
+            // replaces the file there when the watch started
+            drop(folder, "s01n001.art", "9\n9.5\n");
+            assertEquals("02", next().getLabel());
+
+            // the same name again, after a delete then after a replace
+            Files.delete(query);
+            drop(folder, "s01n001.art", "0.5\n1\n");
+            assertEquals("01", next().getLabel());
+            drop(folder, "s01n001.art", "10\n9\n");
+            assertEquals("02", next().getLabel());
+        }
+        assertTrue(predictions.isEmpty());
+    }
+
+    @Test
+    public void testRejectsWrongDimension() throws Exception {
+        Path folder = temporary.newFolder("incoming").toPath();
+        try (StreamingClassifier stream = new StreamingClassifier(knn, 2, 4, predictions::add)) {
+            stream.watch(folder);
+            drop(folder, "s01n001.art", "1\n2\n3\n");
+            Prediction prediction = next();
+            assertNull(prediction.getLabel());
+            assertNotNull(prediction.getError());
+            assertEquals(1, stream.getStatistics().getRejected());
+        }
+    }
+
+    @Test
+    public void testBoundedQueueKeepsEveryFile() throws Exception {
+        Path folder = temporary.newFolder("incoming").toPath();
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Path file = folder.resolve("s0" + (i % 2 + 1) + "n00" + i + ".art");
+            Files.write(file, (i % 2 == 0 ? "0\n1\n" : "10\n9\n").getBytes());
+            files.add(file);
+        }
+        StreamingClassifier stream = new StreamingClassifier(knn, 2, 1, prediction -> {
+            try {
+                // a slow consumer fills the queue
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            predictions.add(prediction);
+        });
+        stream.start();
+        for (Path file : files) {
+            stream.submit(file);
+            assertTrue(stream.getQueueSize() <= 1);
+        }
+        stream.close();
+
+        assertEquals(10, predictions.size());
+        for (int i = 0; i < 10; i++) {
+            Prediction prediction = predictions.take();
+            assertEquals(files.get(i), prediction.getFile());
+            assertEquals(i % 2 == 0 ? "01" : "02", prediction.getLabel());
+        }
+        StreamingClassifier.Statistics statistics = stream.getStatistics();
+        assertEquals(10, statistics.getClassified());
+        assertTrue(statistics.getMedianNanos() <= statistics.getP99Nanos());
+        assertTrue(statistics.getP99Nanos() <= statistics.getMaxNanos());
+    }
+
+    @Test
+    public void testFailingConsumerDoesNotStopTheStream() throws Exception {
+        StreamingClassifier stream = new StreamingClassifier(knn, 2, 1, prediction -> {
+            if (prediction.getFile().getFileName().toString().startsWith("s01")) {
+                throw new IllegalStateException("consumer failure");
+            }
+            predictions.add(prediction);
+        });
+        stream.start();
+        for (int i = 0; i < 6; i++) {
+            Path file = temporary.newFile("s0" + (i % 2 + 1) + "n00" + i + ".art").toPath();
+            Files.write(file, "0\n1\n".getBytes());
+            // would block once the queue is full if the classifier thread had stopped
+            stream.submit(file);
+        }
+        stream.close();
+
+        assertEquals(3, predictions.size());
+        // the failed ones were classified, then rejected by the consumer
+        assertEquals(6, stream.getStatistics().getClassified());
+        assertEquals(3, stream.getStatistics().getRejected());
+    }
+}
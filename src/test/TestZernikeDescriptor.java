@@ -0,0 +1,83 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import data.GrayImage;
+import utils.ZernikeDescriptor;
+
+public class TestZernikeDescriptor {
+
+    /** A white image with a black rectangle. */
+    private static GrayImage rectangle(int width, int height, int left, int top, int rectangleWidth,
+            int rectangleHeight) {
+        byte[] pixels = new byte[width * height];
+        Arrays.fill(pixels, (byte) 255);
+        for (int y = top; y < top + rectangleHeight; y++) {
+            for (int x = left; x < left + rectangleWidth; x++) {
+                pixels[y * width + x] = 0;
+            }
+        }
+        return new GrayImage(width, height, pixels);
+    }
+
+    @Test
+    public void testSizeOfOrderSeven() {
+        ZernikeDescriptor descriptor = new ZernikeDescriptor();
+        assertEquals(18, descriptor.getSize());
+        assertEquals(18, descriptor.describe(rectangle(20, 20, 5, 5, 8, 4)).length);
+        assertEquals(ZernikeDescriptor.METHOD, descriptor.getMethod());
+    }
+
+    @Test
+    public void testTranslationInvariance() {
+        ZernikeDescriptor descriptor = new ZernikeDescriptor();
+        double[] first = descriptor.describe(rectangle(40, 40, 2, 3, 12, 5));
+        double[] moved = descriptor.describe(rectangle(40, 40, 20, 30, 12, 5));
+        assertArrayEquals(first, moved, 1e-9);
+    }
+
+    @Test
+    public void testRotationInvariance() {
+        ZernikeDescriptor descriptor = new ZernikeDescriptor();
+        // a quarter turn maps the pixel grid on itself, so the moments are the same
+        double[] horizontal = descriptor.describe(rectangle(30, 30, 5, 10, 15, 6));
+        double[] vertical = descriptor.describe(rectangle(30, 30, 10, 5, 6, 15));
+        assertArrayEquals(horizontal, vertical, 1e-9);
+    }
+
+    @Test
+    public void testScaleInvariance() {
+        ZernikeDescriptor descriptor = new ZernikeDescriptor();
+        double[] small = descriptor.describe(rectangle(200, 200, 10, 10, 50, 20));
+        double[] large = descriptor.describe(rectangle(200, 200, 10, 10, 150, 60));
+        // the same shape with 9 times more pixels: equal up to the pixel grid,
+        // 9 times larger without the pixel area
+        for (int j = 0; j < small.length; j++) {
+            assertEquals(small[j], large[j], 0.1 * small[0]);
+        }
+    }
+
+    @Test
+    public void testSymmetricShape() {
+        double[] square = new ZernikeDescriptor().describe(rectangle(21, 21, 5, 5, 11, 11));
+        // a square has a 4-fold symmetry: only repetitions multiple of 4 remain
+        // moments in order (2,0) (2,2) (3,1) (3,3) (4,0) (4,2) (4,4)
+        assertTrue(square[0] > 0.01);
+        assertEquals(0, square[1], 1e-9);
+        assertEquals(0, square[2], 1e-9);
+        assertEquals(0, square[3], 1e-9);
+        assertTrue(square[6] > 0.01);
+    }
+
+    @Test
+    public void testEmptyImage() {
+        double[] signature = new ZernikeDescriptor().describe(rectangle(5, 5, 0, 0, 0, 0));
+        assertArrayEquals(new double[18], signature, 0.0);
+    }
+}
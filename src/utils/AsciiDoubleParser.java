@@ -0,0 +1,126 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses decimal numbers straight from ASCII bytes, without building a String
+ * for each of them.
+ * <p>
+ * A number with at most 18 significant digits is read as a {@code long}
+ * mantissa and a power of ten. When the mantissa fits in the 53 bits of a double
+ * and the power is at most 22, both are exact doubles and a single
+ * multiplication or division gives the correctly rounded result (Clinger's fast
+ * path), which covers every value of the signature files. Any other number
+ * (more digits, large exponents, "NaN", "Infinity", hexadecimal, ...) is given
+ * to {@link Double#parseDouble}, so results are always the same as
+ * {@code Double.parseDouble}.
+ * </p>
+ */
+public class AsciiDoubleParser {
+    /** Powers of ten exactly representable as a double. */
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /** 18 digits always fit in a long, 19 may overflow it. */
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private AsciiDoubleParser() {
+    }
+
+    /**
+     * Parses the number written in {@code bytes[from, to)}.
+     *
+     * @param bytes the ASCII text
+     * @param from  the index of the first character of the number
+     * @param to    the index after the last character of the number
+     * @return the value of the number, as given by {@link Double#parseDouble}
+     * @throws NumberFormatException if the text is not a number
+     */
+    public static double parse(byte[] bytes, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            int c = bytes[i];
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (mantissa == 0 && c == '0') {
+                    // leading zeros are not significant
+                    if (point) {
+                        exponent--;
+                    }
+                    continue;
+                }
+                if (++significantDigits > MAX_MANTISSA_DIGITS) {
+                    return slowParse(bytes, from, to);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (point) {
+                    exponent--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return slowParse(bytes, from, to);
+        }
+
+        if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponentStart = i;
+            int value = 0;
+            for (; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                if (value > 10_000) {
+                    return slowParse(bytes, from, to);
+                }
+                value = value * 10 + (bytes[i] - '0');
+            }
+            if (i == exponentStart) {
+                return slowParse(bytes, from, to);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != to) {
+            // suffix such as 'd' or 'f', or not a number at all
+            return slowParse(bytes, from, to);
+        }
+
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return slowParse(bytes, from, to);
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(byte[] bytes, int from, int to) {
+        return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @param c an ASCII character
+     * @return true if the character separates two numbers
+     */
+    static boolean isSeparator(byte c) {
+        return c == '\n' || c == '\r' || c == ' ' || c == '\t' || c == '\f';
+    }
+}
@@ -0,0 +1,66 @@
+package utils;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+
+/**
+ * A ball tree: each node is the ball centered on the mean of its rows, whose
+ * radius is the distance to the farthest one.
+ * <p>
+ * By the triangle inequality no row of the ball is closer to the query than
+ * {@code distance(query, center) - radius}. The bound is computed on true
+ * distances, so it needs a metric satisfying the triangle inequality
+ * (Euclidean, Manhattan, Minkowski, Chebyshev). Unlike the boxes of
+ * {@link KDTreeIndex}, a ball does not depend on the axes, it keeps pruning a
+ * bit longer when the rows lie close to a subspace of lower dimension.
+ * </p>
+ */
+public class BallTreeIndex extends SpatialTreeIndex {
+    /**
+     * Relative margin taken off the bounds so rounding errors of the root and the
+     * subtraction can never skip a row the linear scan would keep.
+     */
+    private static final double BOUND_MARGIN = 1e-9;
+
+    /** Center of node n, starting at n * dimension. */
+    private final double[] centers;
+    private final double[] radii;
+
+    /**
+     * @param matrix the training data, copied in tree order
+     * @param metric the metric of the queries, one of {@link DistanceMetrics}
+     */
+    public BallTreeIndex(FeatureMatrix matrix, DistanceMetric metric) {
+        super(matrix, metric);
+        centers = new double[nodeCount * dimension];
+        radii = new double[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            int center = node * dimension;
+            int count = nodeEnd[node] - nodeStart[node];
+            for (int p = nodeStart[node]; p < nodeEnd[node]; p++) {
+                for (int j = 0; j < dimension; j++) {
+                    centers[center + j] += points[p * dimension + j];
+                }
+            }
+            for (int j = 0; j < dimension; j++) {
+                centers[center + j] /= count;
+            }
+            double radius = 0;
+            for (int p = nodeStart[node]; p < nodeEnd[node]; p++) {
+                radius = Math.max(radius, metric.distance(points, p * dimension, centers, center, dimension));
+            }
+            radii[node] = radius;
+        }
+    }
+
+    @Override
+    double lowerBound(int node, double[] query, int offset, double[] scratch) {
+        double distance = metric.distance(centers, node * dimension, query, offset, dimension);
+        return distance - radii[node] - BOUND_MARGIN * (distance + radii[node]);
+    }
+
+    @Override
+    boolean skips(double bound, double worstReducedDistance) {
+        return bound > metric.toDistance(worstReducedDistance);
+    }
+}
@@ -0,0 +1,47 @@
+package utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
+
+/**
+ * The linear scan: every row is compared to the query and offered to a
+ * {@link TopKSelector}. No structure is built, it works with any metric and
+ * stays the fastest choice when the dimension is high.
+ */
+public class BruteForceIndex implements NeighborIndex {
+    private final FeatureMatrix matrix;
+    private final DistanceMetric metric;
+    private final LongAdder distanceEvaluations = new LongAdder();
+
+    /**
+     * @param matrix the training data, used as is, not copied
+     * @param metric the metric of the queries
+     */
+    public BruteForceIndex(FeatureMatrix matrix, DistanceMetric metric) {
+        this.matrix = matrix;
+        this.metric = metric;
+    }
+
+    @Override
+    public int[] nearest(double[] query, int offset, int count) {
+        int size = matrix.getRowCount();
+        int dimension = matrix.getDimension();
+        double[] data = matrix.getData();
+        TopKSelector selector = new TopKSelector(Math.max(0, Math.min(count, size)));
+
+        for (int i = 0; i < size; i++) {
+            selector.offer(metric.reducedDistance(data, i * dimension, query, offset, dimension), i);
+        }
+        distanceEvaluations.add(size);
+        DISTANCE_EVALUATIONS.add(size);
+        return selector.sortedIndices();
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations.sum();
+    }
+}
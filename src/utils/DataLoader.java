@@ -1,20 +1,28 @@
 package utils;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
 import data.CharacteristicVector;
+import data.FeatureMatrix;
+import data.ShapeDescriptor;
 import logger.LoggerUtil;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 
 /**
  * Utility class for loading and extracting {@code CharacteristicVector} data
@@ -22,6 +30,20 @@ import logger.LoggerUtil;
  * Provides functionality to read numerical data from text files, interpret
  * metadata from filenames,
  * and organize the extracted data into CharacteristicVector objects.
+ * <p>
+ * Each file is read at once with {@link Files#readAllBytes} and its numbers are
+ * parsed from the bytes by {@link AsciiDoubleParser} into a {@code double[]},
+ * without any String or boxed Double per value. The files of a folder are read
+ * in parallel.
+ * </p>
+ * <p>
+ * A parsed folder is saved in a binary {@link SignatureCache}, memory-mapped by
+ * the next loads of the folder as long as its files did not change. The loads
+ * returning vectors or a {@link FeatureMatrix} copy the mapped values on the
+ * heap, {@link #openCachedFolder(String)} leaves them in the mapped file for
+ * corpora too large for the heap. A cache is a single mapping of at most 2 GB:
+ * larger folders are parsed on every load.
+ * </p>
  */
 public class DataLoader {
     /**
@@ -30,6 +52,21 @@ public class DataLoader {
      */
     private static final String[] METHOD = { "ART", "ZRK", "E34", "GFD", "YNG" };
     private static final Logger logger = LoggerUtil.getLogger(DataLoader.class, Level.INFO);
+    private static final Counter filesRead = MetricsRegistry.global().counter("loader_files_total",
+            "Signature files parsed by DataLoader");
+    private static final Counter bytesRead = MetricsRegistry.global().counter("loader_bytes_total",
+            "Bytes of the signature files parsed by DataLoader");
+    private static final Counter valuesRead = MetricsRegistry.global().counter("loader_values_total",
+            "Values parsed from the signature files by DataLoader");
+    private static final Counter cacheHits = MetricsRegistry.global().counter("loader_cache_hits_total",
+            "Folders loaded from their binary cache instead of their files");
+    private static final Histogram parseLatency = MetricsRegistry.global().histogram("loader_parse_seconds",
+            "Duration of the parsing of a signature folder", MetricsRegistry.NANOSECONDS);
+    private static final Histogram parseThroughput = MetricsRegistry.global().histogram(
+            "loader_throughput_bytes_per_second", "Bytes per second of the parsing of a signature folder",
+            MetricsRegistry.UNITS);
+    private static final String CACHE_EXTENSION = ".sigcache";
+    private static volatile boolean cacheEnabled = true;
 
     /**
      * Extracts a CharacteristicVector from a single file by reading numerical
@@ -41,88 +78,353 @@ public class DataLoader {
      *         metadata.
      */
     public static CharacteristicVector extractFromFile(String pathname) {
-        List<Double> list = new ArrayList<Double>();
-        BufferedReader buffer = null;
-        logger.debug("Starting extraction from file: {}", pathname);
+        return extractFromFile(Paths.get(pathname), new long[1], 0);
+    }
 
+    /**
+     * @param sizes receives the number of bytes read, at the given index
+     */
+    private static CharacteristicVector extractFromFile(Path path, long[] sizes, int index) {
+        double[] values;
         try {
-            buffer = new BufferedReader(new FileReader(pathname));
-            String line;
-            while ((line = buffer.readLine()) != null) {
-                try {
-                    list.add(Double.parseDouble(line));
-                } catch (Exception e) {
-                    logger.warn("Couldn't convert '{}' to double in file: {}", line, pathname);
-                }
-            }
+            byte[] bytes = Files.readAllBytes(path);
+            sizes[index] = bytes.length;
+            values = parseValues(bytes, path.toString());
         } catch (IOException e) {
-            logger.error("Error reading file {}: {}", pathname, e.getMessage());
-        } finally {
-            if (buffer != null) {
-                try {
-                    buffer.close();
-                    logger.debug("File {} successfully closed.", pathname);
-                } catch (IOException e) {
-                    logger.error("Error closing file {}: {}", pathname, e.getMessage());
+            logger.error("Error reading file {}: {}", path, e.getMessage());
+            values = new double[0];
+        }
+        String filename = path.getFileName().toString();
+        return new CharacteristicVector(values, getLabelNumber(filename), getMethodUsed(filename),
+                getSampleNumber(filename));
+    }
+
+    /**
+     * Parses the numbers of a file, separated by line breaks or spaces, straight
+     * into a {@code double[]}.
+     *
+     * @param bytes    the content of the file
+     * @param pathname the file, for the warnings
+     * @return the values in file order, without the ones that are not numbers
+     */
+    static double[] parseValues(byte[] bytes, String pathname) {
+        // a value takes at least 2 bytes with its separator
+        double[] values = new double[Math.max(16, bytes.length / 8)];
+        int count = 0;
+        int i = 0;
+        while (i < bytes.length) {
+            while (i < bytes.length && AsciiDoubleParser.isSeparator(bytes[i])) {
+                i++;
+            }
+            int start = i;
+            while (i < bytes.length && !AsciiDoubleParser.isSeparator(bytes[i])) {
+                i++;
+            }
+            if (start == i) {
+                break;
+            }
+            try {
+                double value = AsciiDoubleParser.parse(bytes, start, i);
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
                 }
+                values[count++] = value;
+            } catch (NumberFormatException e) {
+                logger.warn("Couldn't convert '{}' to double in file: {}",
+                        new String(bytes, start, i - start, StandardCharsets.ISO_8859_1), pathname);
             }
         }
-        double[] arrayDoubles = new double[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            arrayDoubles[i] = list.get(i);
-        }
-        String filename = Paths.get(pathname).getFileName().toString();
-        String method = getMethodUsed(filename);
-        String label = getLabelNumber(filename);
-        String sample = getSampleNumber(filename);
-
-        logger.debug("Extracted CharacteristicVector from file: {}, Method: {}, Label: {}, Sample: {}", pathname,
-                method,
-                label, sample);
-        return new CharacteristicVector(arrayDoubles, label, method, sample);
+        return Arrays.copyOf(values, count);
     }
 
     /**
      * Extracts a list of CharacteristicVector objects from all valid files within a
-     * folder.
+     * folder. Files are read and parsed in parallel on the common pool.
      *
      * @param folderPath the path of the folder containing files to process.
-     * @return an ArrayList of CharacteristicVector objects.
+     * @return an ArrayList of CharacteristicVector objects, sorted by filename.
      */
     public static ArrayList<CharacteristicVector> extractFromFolder(String folderPath) {
-        ArrayList<CharacteristicVector> vectors = new ArrayList<>();
-        DirectoryStream<Path> stream = null;
+        return extractFromFolder(folderPath, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Extracts a list of CharacteristicVector objects from all valid files within a
+     * folder, one file per task of the pool. The throughput of the load is logged.
+     * The vectors are read from the binary cache of the folder when it is up to
+     * date, see {@link #setCacheEnabled(boolean)}.
+     *
+     * @param folderPath the path of the folder containing files to process.
+     * @param pool       the pool reading the files, or null to read them on the
+     *                   calling thread.
+     * @return an ArrayList of CharacteristicVector objects, sorted by filename.
+     */
+    public static ArrayList<CharacteristicVector> extractFromFolder(String folderPath, ForkJoinPool pool) {
+        ArrayList<Path> files = listFiles(folderPath);
+        long stamp = sourceStamp(folderPath, files);
+        FeatureMatrix cached = readCache(folderPath, files.size(), stamp);
+        if (cached != null) {
+            return cached.toVectors();
+        }
+        ArrayList<CharacteristicVector> vectors = parseFiles(folderPath, files, pool);
+        writeCache(folderPath, vectors, stamp);
+        return vectors;
+    }
+
+    private static ArrayList<CharacteristicVector> parseFiles(String folderPath, ArrayList<Path> files,
+            ForkJoinPool pool) {
         logger.info("Starting extraction from folder: {}", folderPath);
+        long start = System.nanoTime();
+        long[] sizes = new long[files.size()];
+        ArrayList<CharacteristicVector> vectors = MachineLearningUtils.runTasks(files.size(),
+                i -> extractFromFile(files.get(i), sizes, i), pool);
+
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        long bytes = 0;
+        long values = 0;
+        for (int i = 0; i < files.size(); i++) {
+            bytes += sizes[i];
+            values += vectors.get(i).getVectorSize();
+        }
+        filesRead.add(files.size());
+        bytesRead.add(bytes);
+        valuesRead.add(values);
+        parseLatency.record(elapsed);
+        parseThroughput.record((long) (bytes * 1e9 / elapsed));
+        if (logger.isInfoEnabled()) {
+            logger.info("Finished extraction from folder: {}. Total files processed: {}, {} values, {} bytes in {} ms"
+                    + " ({} MB/s, {} values/s)", folderPath, vectors.size(), values, bytes,
+                    String.format("%.2f", elapsed / 1e6), String.format("%.1f", bytes * 1e3 / elapsed),
+                    String.format("%.0f", values * 1e9 / elapsed));
+        }
+        return vectors;
+    }
+
+    /**
+     * Enables or disables the binary cache of the folders. When enabled (the
+     * default), the first load of a folder writes a {@link SignatureCache} next to
+     * it ({@code <folder>.sigcache}) and the next loads map it instead of parsing
+     * the files again, until a file of the folder is added, removed or modified.
+     * A cache holds at most 2 GB, larger folders are always parsed.
+     *
+     * @param enabled true to read and write the caches
+     */
+    public static void setCacheEnabled(boolean enabled) {
+        cacheEnabled = enabled;
+    }
+
+    /**
+     * @param folderPath a signature folder
+     * @return the path of its cache
+     */
+    public static Path cachePath(String folderPath) {
+        Path folder = Paths.get(folderPath).toAbsolutePath().normalize();
+        return folder.resolveSibling(folder.getFileName() + CACHE_EXTENSION);
+    }
+
+    /**
+     * @return a hash of the modification time and size of the folder and each of
+     *         its files, or 0 if the cache is disabled or a file can not be read
+     */
+    private static long sourceStamp(String folderPath, ArrayList<Path> files) {
+        if (!cacheEnabled) {
+            return 0;
+        }
         try {
-            stream = Files.newDirectoryStream(Paths.get(folderPath));
+            long stamp = Files.getLastModifiedTime(Paths.get(folderPath)).toMillis();
+            for (Path file : files) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                stamp = stamp * 31 + file.getFileName().toString().hashCode();
+                stamp = stamp * 31 + attributes.lastModifiedTime().toMillis();
+                stamp = stamp * 31 + attributes.size();
+            }
+            // 0 is kept for "no stamp"
+            return stamp == 0 ? 1 : stamp;
+        } catch (IOException e) {
+            logger.warn("Can not stamp folder {}, its cache is not used: {}", folderPath, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * @return the cached matrix of the folder, or null if there is no cache or it
+     *         is outdated
+     */
+    private static FeatureMatrix readCache(String folderPath, int fileCount, long stamp) {
+        long start = System.nanoTime();
+        SignatureCache cache = openCache(folderPath, fileCount, stamp);
+        if (cache == null) {
+            return null;
+        }
+        FeatureMatrix matrix = cache.toFeatureMatrix();
+        logger.info("Loaded {} vectors of folder {} from cache {} in {} ms", matrix.getRowCount(), folderPath,
+                cachePath(folderPath), String.format("%.2f", (System.nanoTime() - start) / 1e6));
+        return matrix;
+    }
+
+    /**
+     * @return the mapped cache of the folder, or null if there is no cache or it
+     *         is outdated
+     */
+    private static SignatureCache openCache(String folderPath, int fileCount, long stamp) {
+        Path cacheFile = cachePath(folderPath);
+        if (stamp == 0 || !Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        try {
+            SignatureCache cache = SignatureCache.open(cacheFile);
+            if (cache.getSourceStamp() != stamp || cache.getRowCount() != fileCount) {
+                logger.info("Cache {} is outdated, parsing folder {} again", cacheFile, folderPath);
+                return null;
+            }
+            cacheHits.increment();
+            return cache;
+        } catch (IOException e) {
+            logger.warn("Can not read cache {}, parsing folder {} again: {}", cacheFile, folderPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the binary cache of a folder, its values left in the mapped file so
+     * a large corpus only takes the page cache, not the heap. Read them with
+     * {@link SignatureCache#values()}. If the cache is missing or outdated, the
+     * files are parsed (on the heap, this once) and the cache written first.
+     *
+     * @param folderPath the path of the folder containing the signature files.
+     * @return the mapped cache of the folder.
+     * @throws IOException if the cache is disabled, the folder can not be cached
+     *                     (mixed vector sizes or methods, more than 2 GB) or the
+     *                     cache can not be written or read.
+     */
+    public static SignatureCache openCachedFolder(String folderPath) throws IOException {
+        ArrayList<Path> files = listFiles(folderPath);
+        long stamp = sourceStamp(folderPath, files);
+        if (stamp == 0) {
+            throw new IOException("The cache of folder " + folderPath + " is disabled or can not be stamped");
+        }
+        SignatureCache cache = openCache(folderPath, files.size(), stamp);
+        if (cache != null) {
+            return cache;
+        }
+        writeCache(folderPath, parseFiles(folderPath, files, ForkJoinPool.commonPool()), stamp);
+        cache = openCache(folderPath, files.size(), stamp);
+        if (cache == null) {
+            throw new IOException("Folder " + folderPath + " could not be cached, see the log");
+        }
+        return cache;
+    }
+
+    /**
+     * Writes the cache of the folder. Folders whose files do not share the same
+     * size and method do not fit in a {@link FeatureMatrix} and are not cached,
+     * nor are folders of more than 2 GB of values.
+     */
+    private static void writeCache(String folderPath, ArrayList<CharacteristicVector> vectors, long stamp) {
+        if (stamp == 0 || vectors.isEmpty()) {
+            return;
+        }
+        CharacteristicVector first = vectors.get(0);
+        for (CharacteristicVector vector : vectors) {
+            if (vector.getVectorSize() != first.getVectorSize()
+                    || !Objects.equals(vector.getMethod(), first.getMethod())) {
+                logger.info("Folder {} mixes vector sizes or methods, it is not cached", folderPath);
+                return;
+            }
+        }
+        Path cacheFile = cachePath(folderPath);
+        try {
+            SignatureCache.write(cacheFile, FeatureMatrix.fromVectors(vectors), stamp);
+        } catch (IOException | IllegalArgumentException e) {
+            // too large for a single mapping, or not writable
+            logger.warn("Can not write cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the regular files of the folder, sorted by filename so samples
+     *         always come in the same order whatever the file system
+     */
+    private static ArrayList<Path> listFiles(String folderPath) {
+        ArrayList<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(folderPath))) {
             for (Path filePath : stream) {
                 if (Files.isRegularFile(filePath)) {
-                    logger.debug("Processing file: {}", filePath.toString());
-                    CharacteristicVector vector = extractFromFile(filePath.toString());
-                    vectors.add(vector);
+                    files.add(filePath);
                 }
             }
-            logger.info("Finished extraction from folder: {}. Total files processed: {}", folderPath, vectors.size());
         } catch (IOException e) {
             logger.error("Error processing folder {}: {}", folderPath, e.getMessage());
-        } finally {
-            if (stream != null) {
-                try {
-                    stream.close();
-                    logger.debug("DirectoryStream for folder {} successfully closed.", folderPath);
-                } catch (IOException e) {
-                    logger.error("Error closing DirectoryStream for folder {}: {}", folderPath, e.getMessage());
-                }
-            }
         }
+        files.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        return files;
+    }
+
+    /**
+     * Extracts every valid file within a folder into a single
+     * {@link FeatureMatrix}, one row per file.
+     *
+     * @param folderPath the path of the folder containing files to process.
+     * @return the packed vectors of the folder.
+     * @throws IllegalArgumentException if the files do not hold the same number of
+     *                                  values.
+     */
+    public static FeatureMatrix extractMatrixFromFolder(String folderPath) {
+        ArrayList<Path> files = listFiles(folderPath);
+        long stamp = sourceStamp(folderPath, files);
+        FeatureMatrix cached = readCache(folderPath, files.size(), stamp);
+        if (cached != null) {
+            return cached;
+        }
+        ArrayList<CharacteristicVector> vectors = parseFiles(folderPath, files, ForkJoinPool.commonPool());
+        writeCache(folderPath, vectors, stamp);
+        return FeatureMatrix.fromVectors(vectors);
+    }
 
+    /**
+     * Computes the signature of every PGM image of a folder, e.g.
+     * {@code res/Corpus/pgm}, one image per task of the pool. Labels and samples
+     * are read from the filenames like for the signature files.
+     *
+     * @param folderPath the path of the folder containing the images.
+     * @param descriptor the signature to compute, e.g. a
+     *                   {@link ZernikeDescriptor}.
+     * @param pool       the pool describing the images, or null to describe them
+     *                   on the calling thread.
+     * @return an ArrayList of CharacteristicVector objects, sorted by filename,
+     *         whose method is the one of the descriptor.
+     */
+    public static ArrayList<CharacteristicVector> extractFromImages(String folderPath, ShapeDescriptor descriptor,
+            ForkJoinPool pool) {
+        logger.info("Starting description of the images of folder: {}", folderPath);
+        long start = System.nanoTime();
+        ArrayList<Path> files = listFiles(folderPath);
+        files.removeIf(path -> !path.getFileName().toString().toLowerCase().endsWith(".pgm"));
+        ArrayList<CharacteristicVector> vectors = MachineLearningUtils.runTasks(files.size(),
+                i -> describeImage(files.get(i), descriptor), pool);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        logger.info("Finished description of folder: {}. Total images processed: {} in {} ms ({} images/s)",
+                folderPath, vectors.size(), String.format("%.2f", elapsed / 1e6),
+                String.format("%.0f", vectors.size() * 1e9 / elapsed));
         return vectors;
     }
 
+    private static CharacteristicVector describeImage(Path path, ShapeDescriptor descriptor) {
+        double[] values;
+        try {
+            values = descriptor.describe(PgmReader.read(path));
+        } catch (IOException e) {
+            logger.error("Error reading image {}: {}", path, e.getMessage());
+            values = new double[0];
+        }
+        String filename = path.getFileName().toString();
+        return new CharacteristicVector(values, getLabelNumber(filename), descriptor.getMethod(),
+                getSampleNumber(filename));
+    }
+
     private static String getMethodUsed(String filename) {
         for (String methodString : METHOD) {
-            if (filename.toLowerCase().contains(methodString.toLowerCase())) {
-                logger.debug("Method identified as '{}' for file: {}", methodString, filename);
+            if (containsIgnoreCase(filename, methodString)) {
                 return methodString;
             }
         }
@@ -130,21 +432,41 @@ public class DataLoader {
         return "Unknown";
     }
 
+    private static boolean containsIgnoreCase(String text, String part) {
+        for (int i = 0; i + part.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static String getLabelNumber(String filename) {
         if (filename.startsWith("s")) {
-            String label = filename.substring(1, 3);
-            logger.debug("Label identified as '{}' for file: {}", label, filename);
-            return label;
+            return filename.substring(1, 3);
         }
         logger.warn("Label not identified in filename: {}", filename);
         return "Unknown";
     }
 
+    /**
+     * Reads the digits after the 'n' of {@code s<label>n<sample>}, without the
+     * leading zeros beyond two digits: "s01n001" gives "01", "s01n0000501" gives
+     * "501".
+     */
     private static String getSampleNumber(String filename) {
-        if (filename.startsWith("s")) {
-            String sample = filename.substring(5, 7);
-            logger.debug("Sample number identified as '{}' for file: {}", sample, filename);
-            return sample;
+        if (filename.startsWith("s") && filename.length() > 4 && filename.charAt(3) == 'n') {
+            int start = 4;
+            int end = start;
+            while (end < filename.length() && Character.isDigit(filename.charAt(end))) {
+                end++;
+            }
+            while (end - start > 2 && filename.charAt(start) == '0') {
+                start++;
+            }
+            if (end > 4) {
+                return filename.substring(start, end);
+            }
         }
         logger.warn("Sample number not identified in filename: {}", filename);
         return "Unknown";
@@ -0,0 +1,170 @@
+package utils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+
+/**
+ * Every pairwise distance of a {@link FeatureMatrix} for one
+ * {@link DistanceMetric}, computed once.
+ * <p>
+ * Only the upper triangle without the diagonal is stored, packed in a single
+ * {@code double[]} of n(n-1)/2 reduced distances. Values are kept as double so
+ * rankings and ties are exactly the ones of the metric.
+ * </p>
+ * <p>
+ * The matrices are cached by {@link #of(FeatureMatrix, DistanceMetric)}: the
+ * same dataset (the same {@code FeatureMatrix} instance, so a normalized copy is
+ * another dataset) with the same metric always gets the same distances. Entries
+ * are dropped when the {@code FeatureMatrix} is garbage collected.
+ * </p>
+ * The nearest rows of a row are selected from its stored distances on each
+ * query, only the distances are kept.
+ */
+public class DistanceMatrix {
+    private static final Map<FeatureMatrix, Map<DistanceMetric, DistanceMatrix>> CACHE = Collections
+            .synchronizedMap(new WeakHashMap<>());
+    /** The largest array the usual JVMs allocate. */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final Counter distanceCounter = MetricsRegistry.global().counter(
+            "distance_matrix_evaluations_total", "Pairwise distances computed by DistanceMatrix");
+
+    private final DistanceMetric metric;
+    private final int size;
+    /** Reduced distance of (i, j), i < j, at {@code index(i, j)}. */
+    private final double[] packed;
+
+    /**
+     * Computes every pairwise distance of the matrix. Prefer
+     * {@link #of(FeatureMatrix, DistanceMetric)} which reuses them.
+     *
+     * @param matrix the dataset
+     * @param metric the metric to use
+     * @throws IllegalArgumentException if the matrix has too many rows for the
+     *                                  distances to fit in one array
+     */
+    public DistanceMatrix(FeatureMatrix matrix, DistanceMetric metric) {
+        this.metric = metric;
+        this.size = matrix.getRowCount();
+        this.packed = new double[packedLength(size)];
+
+        double[] data = matrix.getData();
+        int dimension = matrix.getDimension();
+        int p = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                packed[p++] = metric.reducedDistance(data, i * dimension, data, j * dimension, dimension);
+            }
+        }
+        distanceCounter.add(packed.length);
+    }
+
+    /**
+     * Returns the distances of the matrix for the metric, computing them only the
+     * first time.
+     *
+     * @param matrix the dataset
+     * @param metric the metric to use
+     * @return the shared distance matrix
+     */
+    public static DistanceMatrix of(FeatureMatrix matrix, DistanceMetric metric) {
+        Map<DistanceMetric, DistanceMatrix> byMetric = CACHE.computeIfAbsent(matrix,
+                m -> new ConcurrentHashMap<>());
+        return byMetric.computeIfAbsent(metric, m -> new DistanceMatrix(matrix, m));
+    }
+
+    /**
+     * Drops every cached distance matrix.
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * @return the number of rows of the dataset
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the metric of the distances
+     */
+    public DistanceMetric getMetric() {
+        return metric;
+    }
+
+    /**
+     * @param size the number of rows
+     * @return the number of pairs of rows, n(n-1)/2
+     * @throws IllegalArgumentException if they do not fit in one array
+     */
+    private static int packedLength(int size) {
+        long pairs = (long) size * (size - 1) / 2;
+        if (pairs > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException("Too many rows for a distance matrix: " + size + " rows give " + pairs
+                    + " pairs, at most " + MAX_ARRAY_LENGTH + " fit in one array");
+        }
+        return (int) pairs;
+    }
+
+    private int index(int i, int j) {
+        // Rows before i hold (size - 1) + (size - 2) + ... + (size - i) values
+        return (int) ((long) i * (2L * size - i - 1) / 2) + (j - i - 1);
+    }
+
+    /**
+     * @param i the index of a row
+     * @param j the index of another row
+     * @return the reduced distance between the rows, 0 if i == j
+     */
+    public double reducedDistance(int i, int j) {
+        if (i == j) {
+            return 0.0;
+        }
+        return i < j ? packed[index(i, j)] : packed[index(j, i)];
+    }
+
+    /**
+     * Returns the stored distances, not a copy, for loops reading every pair in
+     * order: (0, 1), (0, 2) ... (0, n-1), (1, 2) ... (n-2, n-1).
+     *
+     * @return the reduced distances of the upper triangle, row by row
+     */
+    public double[] packedReducedDistances() {
+        return packed;
+    }
+
+    /**
+     * @param i the index of a row
+     * @param j the index of another row
+     * @return the true distance between the rows
+     */
+    public double distance(int i, int j) {
+        return metric.toDistance(reducedDistance(i, j));
+    }
+
+    /**
+     * Selects the other rows closest to the given row, in ascending order of
+     * distance, ties broken by index.
+     *
+     * @param row   the index of the row
+     * @param count the maximum number of rows to select
+     * @return the indices of the nearest other rows, nearest first
+     */
+    public int[] nearest(int row, int count) {
+        TopKSelector selector = new TopKSelector(Math.max(0, Math.min(count, size - 1)));
+        for (int j = 0; j < size; j++) {
+            if (j != row) {
+                selector.offer(reducedDistance(row, j), j);
+            }
+        }
+        return selector.sortedIndices();
+    }
+}
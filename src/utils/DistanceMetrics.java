@@ -0,0 +1,275 @@
+package utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import data.Classifier;
+import data.DistanceMetric;
+import logger.LoggerUtil;
+
+/**
+ * The {@link DistanceMetric} implementations used by the classifiers, built on
+ * the kernels of {@link MathUtils}.
+ * <p>
+ * Metrics are meant to be resolved once, e.g. in the constructor of a
+ * classifier, with {@link #of(String, int)}. The returned instances are shared
+ * so two classifiers using the same metric get the same object.
+ * </p>
+ * <p>
+ * When the {@code jdk.incubator.vector} module is available at startup
+ * ({@code --add-modules jdk.incubator.vector}), the Euclidean, Manhattan and
+ * Minkowski metrics use the SIMD loops of {@code utils.VectorDistanceMetrics},
+ * compiled from {@code src-vector} by the {@code vector} Maven profile. It can
+ * be turned off with {@code -D}{@value #VECTOR_PROPERTY}{@code =false}. The
+ * scalar versions stay available with {@link #scalarOf(String, int)}.
+ * </p>
+ */
+public class DistanceMetrics {
+    private static final Logger logger = LoggerUtil.getLogger(DistanceMetrics.class, Level.INFO);
+
+    /** System property to disable the Vector API backend. */
+    public static final String VECTOR_PROPERTY = "distance.vector";
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_CLASS = "utils.VectorDistanceMetrics";
+
+    /** Scalar Euclidean distance, the reduced distance is the squared one. */
+    private static final DistanceMetric SCALAR_EUCLIDEAN = new DistanceMetric() {
+        @Override
+        public double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+            return MathUtils.squaredEuclidean(a, offsetA, b, offsetB, length);
+        }
+
+        @Override
+        public double toDistance(double reducedDistance) {
+            return Math.sqrt(reducedDistance);
+        }
+
+        @Override
+        public String toString() {
+            return Classifier.EUCLIDEAN;
+        }
+    };
+
+    /** Scalar Manhattan distance, the reduced distance is the distance itself. */
+    private static final DistanceMetric SCALAR_MANHATTAN = new DistanceMetric() {
+        @Override
+        public double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+            return MathUtils.distManhattan(a, offsetA, b, offsetB, length);
+        }
+
+        @Override
+        public String toString() {
+            return Classifier.MANHATTAN;
+        }
+    };
+
+    /** Chebyshev distance, the reduced distance is the distance itself. */
+    public static final DistanceMetric CHEBYSHEV = new DistanceMetric() {
+        @Override
+        public double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+            return MathUtils.distChebyshev(a, offsetA, b, offsetB, length);
+        }
+
+        @Override
+        public String toString() {
+            return Classifier.CHEBYSHEV;
+        }
+    };
+
+    /**
+     * Puts every vector at {@code Double.MAX_VALUE} of each other. Used in place
+     * of an unknown metric, like the classifiers always did.
+     */
+    public static final DistanceMetric MAXIMUM = new DistanceMetric() {
+        @Override
+        public double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+            return Double.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "maximum";
+        }
+    };
+
+    private static final ConcurrentHashMap<Integer, DistanceMetric> MINKOWSKI = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, DistanceMetric> SCALAR_MINKOWSKI = new ConcurrentHashMap<>();
+
+    /** The vector backend class, or null if the scalar loops are used. */
+    private static final Class<?> VECTOR_BACKEND = loadVectorBackend();
+
+    /** Euclidean distance, the reduced distance is the squared one (no sqrt). */
+    public static final DistanceMetric EUCLIDEAN = vectorOrScalar("EUCLIDEAN", SCALAR_EUCLIDEAN);
+
+    /** Manhattan distance, the reduced distance is the distance itself. */
+    public static final DistanceMetric MANHATTAN = vectorOrScalar("MANHATTAN", SCALAR_MANHATTAN);
+
+    private DistanceMetrics() {
+    }
+
+    /**
+     * Loads {@code VectorDistanceMetrics} if the Vector API module is in the boot
+     * layer and the backend is not disabled.
+     *
+     * @return the class, or null to use the scalar loops
+     */
+    private static Class<?> loadVectorBackend() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))) {
+            logger.info("Vector API distances disabled, using scalar loops");
+            return null;
+        }
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            logger.debug("Module {} not available, using scalar loops", VECTOR_MODULE);
+            return null;
+        }
+        try {
+            Class<?> backend = Class.forName(VECTOR_CLASS);
+            logger.info("Using Vector API distances ({} lanes)", backend.getMethod("laneCount").invoke(null));
+            return backend;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warn("Could not load Vector API distances, using scalar loops: {}", e.toString());
+            return null;
+        }
+    }
+
+    private static DistanceMetric vectorOrScalar(String field, DistanceMetric scalar) {
+        if (VECTOR_BACKEND == null) {
+            return scalar;
+        }
+        try {
+            return (DistanceMetric) VECTOR_BACKEND.getField(field).get(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warn("Could not load Vector API {} distance, using scalar loop: {}", field, e.toString());
+            return scalar;
+        }
+    }
+
+    /**
+     * @return true if the Euclidean, Manhattan and Minkowski metrics use the
+     *         Vector API
+     */
+    public static boolean isVectorized() {
+        return VECTOR_BACKEND != null;
+    }
+
+    /**
+     * Resolves a metric from its name.
+     *
+     * @param metricName one of {@link Classifier#EUCLIDEAN},
+     *                   {@link Classifier#MANHATTAN}, {@link Classifier#MINKOWSKI}
+     *                   or {@link Classifier#CHEBYSHEV}
+     * @param norm       the order of the norm, only used for Minkowski
+     * @return the metric, or null if the name is unknown or the norm is lower
+     *         than 1 for Minkowski
+     */
+    public static DistanceMetric of(String metricName, int norm) {
+        if (metricName == null) {
+            return null;
+        }
+        switch (metricName) {
+            case Classifier.EUCLIDEAN:
+                return EUCLIDEAN;
+            case Classifier.MANHATTAN:
+                return MANHATTAN;
+            case Classifier.CHEBYSHEV:
+                return CHEBYSHEV;
+            case Classifier.MINKOWSKI:
+                return norm < 1 ? null : minkowski(norm);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Resolves a metric from its name, always using the scalar loops of
+     * {@link MathUtils} even if the Vector API is available.
+     *
+     * @param metricName the metric name, see {@link #of(String, int)}
+     * @param norm       the order of the norm, only used for Minkowski
+     * @return the scalar metric, or null if the name or the norm is not valid
+     */
+    public static DistanceMetric scalarOf(String metricName, int norm) {
+        if (metricName == null) {
+            return null;
+        }
+        switch (metricName) {
+            case Classifier.EUCLIDEAN:
+                return SCALAR_EUCLIDEAN;
+            case Classifier.MANHATTAN:
+                return SCALAR_MANHATTAN;
+            case Classifier.CHEBYSHEV:
+                return CHEBYSHEV;
+            case Classifier.MINKOWSKI:
+                if (norm < 1) {
+                    return null;
+                }
+                if (norm == 1) {
+                    return SCALAR_MANHATTAN;
+                }
+                if (norm == 2) {
+                    return SCALAR_EUCLIDEAN;
+                }
+                return SCALAR_MINKOWSKI.computeIfAbsent(norm, DistanceMetrics::newMinkowski);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the Minkowski metric of order p. The reduced distance is the sum of
+     * the p-th powers, computed with repeated multiplications. p = 1 and p = 2
+     * give the Manhattan and Euclidean metrics.
+     *
+     * @param p the order of the norm
+     * @return the Minkowski metric of order p
+     * @throws IllegalArgumentException if p is lower than 1
+     */
+    public static DistanceMetric minkowski(int p) {
+        if (p < 1) {
+            throw new IllegalArgumentException("Order of the norm should be a positive integer p=" + p);
+        }
+        if (p == 1) {
+            return MANHATTAN;
+        }
+        if (p == 2) {
+            return EUCLIDEAN;
+        }
+        return MINKOWSKI.computeIfAbsent(p, DistanceMetrics::newPreferredMinkowski);
+    }
+
+    private static DistanceMetric newPreferredMinkowski(int p) {
+        if (VECTOR_BACKEND != null) {
+            try {
+                Method minkowski = VECTOR_BACKEND.getMethod("minkowski", int.class);
+                return (DistanceMetric) minkowski.invoke(null, p);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.warn("Could not load Vector API Minkowski distance, using scalar loop: {}", e.toString());
+            }
+        }
+        return SCALAR_MINKOWSKI.computeIfAbsent(p, DistanceMetrics::newMinkowski);
+    }
+
+    private static DistanceMetric newMinkowski(int p) {
+        final double inverse = 1.0 / (double) p;
+        return new DistanceMetric() {
+            @Override
+            public double reducedDistance(double[] a, int offsetA, double[] b, int offsetB, int length) {
+                return MathUtils.minkowskiSum(a, offsetA, b, offsetB, length, p);
+            }
+
+            @Override
+            public double toDistance(double reducedDistance) {
+                return Math.pow(reducedDistance, inverse);
+            }
+
+            @Override
+            public String toString() {
+                return Classifier.MINKOWSKI + " p=" + p;
+            }
+        };
+    }
+}
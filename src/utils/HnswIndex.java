@@ -0,0 +1,547 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
+
+/**
+ * An approximate index: the Hierarchical Navigable Small World graph of Malkov
+ * and Yashunin.
+ * <p>
+ * Every row is a node of layer 0, and of the layers above up to a random level
+ * (each layer holding about 1/M of the nodes of the layer below). Each node is
+ * linked on each of its layers to at most M close nodes (2M on layer 0), chosen
+ * with the heuristic of the paper which favors neighbors in different
+ * directions. A query walks greedily from the single node of the top layer
+ * down to layer 1, then explores layer 0 keeping the {@code efSearch} closest
+ * nodes met, and returns the closest of them.
+ * </p>
+ * <p>
+ * A query computes a few hundred distances instead of one per row, but may
+ * miss some of the true neighbors: raise {@code efSearch} (no rebuild needed)
+ * or {@code efConstruction} and M (at build) for a better recall, see
+ * {@code KNNClassifier.measureRecall}.
+ * </p>
+ * Rows can be added after the build with {@link #insert(double[], int)}, they
+ * are linked into the graph like the first ones. Queries run concurrently,
+ * inserts wait for the running queries and block the new ones.
+ */
+public class HnswIndex implements NeighborIndex {
+    /** Default number of links per node and layer. */
+    public static final int DEFAULT_M = 16;
+    /** Default number of candidates kept while linking a new node. */
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+    /** Default number of candidates kept by a query. */
+    public static final int DEFAULT_EF_SEARCH = 50;
+
+    private final DistanceMetric metric;
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    /** 1 / ln(M): the mean level is about log_M(size). */
+    private final double levelMultiplier;
+    private final Random random;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Rows in insertion order, row i starts at i * dimension. */
+    private double[] vectors;
+    private int size;
+    /**
+     * Links of each node per layer: links[node][layer][0] is the number of links,
+     * followed by the linked nodes.
+     */
+    private int[][][] links;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private final LongAdder distanceEvaluations = new LongAdder();
+    /**
+     * Heaps and visited marks of the queries of each thread. A {@link Search}
+     * does not reference the index, so the entry of a thread goes away with it.
+     */
+    private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+
+    /**
+     * Builds the graph of the rows of a matrix, with the default parameters.
+     *
+     * @param matrix the training data, copied
+     * @param metric the metric of the queries
+     * @param seed   the seed of the random levels, the same seed giving the same
+     *               graph
+     */
+    public HnswIndex(FeatureMatrix matrix, DistanceMetric metric, long seed) {
+        this(matrix, metric, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH, seed);
+    }
+
+    /**
+     * Builds the graph of the rows of a matrix.
+     *
+     * @param matrix         the training data, copied
+     * @param metric         the metric of the queries
+     * @param m              the number of links per node and layer, 2M on layer 0
+     * @param efConstruction the number of candidates kept while linking a node
+     * @param efSearch       the number of candidates kept by a query
+     * @param seed           the seed of the random levels, the same seed giving
+     *                       the same graph
+     * @throws IllegalArgumentException if M is lower than 2 or an ef lower than 1
+     */
+    public HnswIndex(FeatureMatrix matrix, DistanceMetric metric, int m, int efConstruction, int efSearch,
+            long seed) {
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("HNSW needs M >= 2 and ef >= 1, got M=" + m + ", efConstruction="
+                    + efConstruction + ", efSearch=" + efSearch);
+        }
+        this.metric = metric;
+        this.dimension = matrix.getDimension();
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.random = new Random(seed);
+
+        int rows = matrix.getRowCount();
+        vectors = new double[Math.max(16, rows) * dimension];
+        links = new int[Math.max(16, rows)][][];
+        double[] data = matrix.getData();
+        for (int i = 0; i < rows; i++) {
+            add(data, i * dimension);
+        }
+    }
+
+    /**
+     * Adds a row to the graph, without rebuilding it.
+     *
+     * @param vector the array holding the row
+     * @param offset the index of the first value of the row
+     * @return the index of the new row, the number of rows before the call
+     */
+    public int insert(double[] vector, int offset) {
+        lock.writeLock().lock();
+        try {
+            return add(vector, offset);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int add(double[] source, int offset) {
+        int node = size;
+        if (node == links.length) {
+            links = Arrays.copyOf(links, 2 * node);
+            vectors = Arrays.copyOf(vectors, 2 * node * dimension);
+        }
+        System.arraycopy(source, offset, vectors, node * dimension, dimension);
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        links[node] = new int[level + 1][];
+        for (int layer = 0; layer <= level; layer++) {
+            links[node][layer] = new int[(layer == 0 ? maxM0 : m) + 1];
+        }
+        size++;
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        Search search = searches.get();
+        int queryOffset = node * dimension;
+        int current = entryPoint;
+        double currentDistance = search.distance(this, current, vectors, queryOffset);
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = search.greedy(this, vectors, queryOffset, current, currentDistance, layer);
+            currentDistance = search.lastDistance;
+        }
+        int[] entries = { current };
+        double[] entryDistances = { currentDistance };
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            int found = search.searchLayer(this, vectors, queryOffset, entries, entryDistances, efConstruction, layer);
+            int[] candidates = Arrays.copyOf(search.resultNodes, found);
+            double[] candidateDistances = Arrays.copyOf(search.resultDistances, found);
+
+            int[] selected = search.selectNeighbors(this, candidates, candidateDistances, found, m);
+            int[] own = links[node][layer];
+            own[0] = selected.length;
+            System.arraycopy(selected, 0, own, 1, selected.length);
+            for (int neighbor : selected) {
+                link(search, neighbor, node, layer);
+            }
+            entries = candidates;
+            entryDistances = candidateDistances;
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+        countEvaluations(search);
+        return node;
+    }
+
+    /**
+     * Links {@code node} to {@code target} on a layer, choosing again the links
+     * of the target with the heuristic when it has too many.
+     */
+    private void link(Search search, int target, int node, int layer) {
+        int[] targetLinks = links[target][layer];
+        int count = targetLinks[0];
+        int capacity = targetLinks.length - 1;
+        if (count < capacity) {
+            targetLinks[count + 1] = node;
+            targetLinks[0] = count + 1;
+            return;
+        }
+        int targetOffset = target * dimension;
+        int[] candidates = new int[count + 1];
+        double[] distances = new double[count + 1];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = targetLinks[i + 1];
+            distances[i] = search.distance(this, candidates[i], vectors, targetOffset);
+        }
+        candidates[count] = node;
+        distances[count] = search.distance(this, node, vectors, targetOffset);
+        sortByDistance(candidates, distances);
+        int[] selected = search.selectNeighbors(this, candidates, distances, candidates.length, capacity);
+        targetLinks[0] = selected.length;
+        System.arraycopy(selected, 0, targetLinks, 1, selected.length);
+    }
+
+    /** Insertion sort of a few nodes by distance, ties broken by node. */
+    private static void sortByDistance(int[] nodes, double[] distances) {
+        for (int i = 1; i < nodes.length; i++) {
+            int node = nodes[i];
+            double distance = distances[i];
+            int j = i - 1;
+            while (j >= 0 && (distances[j] > distance || (distances[j] == distance && nodes[j] > node))) {
+                nodes[j + 1] = nodes[j];
+                distances[j + 1] = distances[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            distances[j + 1] = distance;
+        }
+    }
+
+    /**
+     * Returns up to {@code count} rows close to the query, most of them being
+     * among the true nearest neighbors. At least {@code count} candidates are
+     * kept even if {@code efSearch} is lower.
+     */
+    @Override
+    public int[] nearest(double[] query, int offset, int count) {
+        lock.readLock().lock();
+        try {
+            if (size == 0 || count <= 0) {
+                return new int[0];
+            }
+            Search search = searches.get();
+            int current = entryPoint;
+            double currentDistance = search.distance(this, current, query, offset);
+            for (int layer = maxLevel; layer > 0; layer--) {
+                current = search.greedy(this, query, offset, current, currentDistance, layer);
+                currentDistance = search.lastDistance;
+            }
+            int found = search.searchLayer(this, query, offset, new int[] { current }, new double[] { currentDistance },
+                    Math.max(efSearch, count), 0);
+            countEvaluations(search);
+            return Arrays.copyOf(search.resultNodes, Math.min(count, found));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return false, the neighbors are approximate
+     */
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    private void countEvaluations(Search search) {
+        long evaluations = search.takeEvaluations();
+        distanceEvaluations.add(evaluations);
+        DISTANCE_EVALUATIONS.add(evaluations);
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations.sum();
+    }
+
+    /**
+     * @return the number of rows of the graph
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * Changes the number of candidates kept by the next queries, the graph stays
+     * the same.
+     *
+     * @param efSearch the number of candidates, at least 1
+     * @throws IllegalArgumentException if efSearch is lower than 1
+     */
+    public void setEfSearch(int efSearch) {
+        if (efSearch < 1) {
+            throw new IllegalArgumentException("efSearch should be at least 1, got " + efSearch);
+        }
+        this.efSearch = efSearch;
+    }
+
+    /**
+     * The working memory of a search, reused by the queries of one thread. The
+     * graph is given to each call and never kept.
+     */
+    private static class Search {
+        /** Candidates to expand, closest first. */
+        private final NodeHeap candidates = new NodeHeap(false);
+        /** The ef closest nodes met, farthest first. */
+        private final NodeHeap results = new NodeHeap(true);
+        /** A node is visited by the current search if its mark is the epoch. */
+        private int[] marks = new int[0];
+        private int epoch;
+        private long evaluations;
+        /** Distance of the node returned by the last {@link #greedy} call. */
+        private double lastDistance;
+        /** Nodes found by the last {@link #searchLayer} call, closest first. */
+        private int[] resultNodes = new int[0];
+        private double[] resultDistances = new double[0];
+
+        double distance(HnswIndex index, int node, double[] query, int offset) {
+            evaluations++;
+            int dimension = index.dimension;
+            return index.metric.reducedDistance(index.vectors, node * dimension, query, offset, dimension);
+        }
+
+        long takeEvaluations() {
+            long taken = evaluations;
+            evaluations = 0;
+            return taken;
+        }
+
+        /**
+         * Moves to the closest linked node as long as it gets closer to the query.
+         *
+         * @return the node reached, its distance in {@link #lastDistance}
+         */
+        int greedy(HnswIndex index, double[] query, int offset, int current, double currentDistance, int layer) {
+            boolean moved = true;
+            while (moved) {
+                moved = false;
+                int[] nodeLinks = index.links[current][layer];
+                for (int i = 1; i <= nodeLinks[0]; i++) {
+                    double distance = distance(index, nodeLinks[i], query, offset);
+                    if (distance < currentDistance) {
+                        currentDistance = distance;
+                        current = nodeLinks[i];
+                        moved = true;
+                    }
+                }
+            }
+            lastDistance = currentDistance;
+            return current;
+        }
+
+        /**
+         * Explores a layer from the entry nodes, keeping the {@code ef} closest
+         * nodes met.
+         *
+         * @return the number of nodes found, stored closest first in
+         *         {@link #resultNodes} and {@link #resultDistances}
+         */
+        int searchLayer(HnswIndex index, double[] query, int offset, int[] entries, double[] entryDistances, int ef,
+                int layer) {
+            newEpoch(index.size);
+            candidates.clear();
+            results.clear();
+            for (int i = 0; i < entries.length; i++) {
+                marks[entries[i]] = epoch;
+                candidates.push(entryDistances[i], entries[i]);
+                results.push(entryDistances[i], entries[i]);
+                if (results.size() > ef) {
+                    results.pop();
+                }
+            }
+            while (candidates.size() > 0) {
+                double closest = candidates.topDistance();
+                if (results.size() >= ef && closest > results.topDistance()) {
+                    break;
+                }
+                int node = candidates.pop();
+                int[] nodeLinks = index.links[node][layer];
+                for (int i = 1; i <= nodeLinks[0]; i++) {
+                    int neighbor = nodeLinks[i];
+                    if (marks[neighbor] == epoch) {
+                        continue;
+                    }
+                    marks[neighbor] = epoch;
+                    double distance = distance(index, neighbor, query, offset);
+                    if (results.size() < ef || distance < results.topDistance()) {
+                        candidates.push(distance, neighbor);
+                        results.push(distance, neighbor);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+
+            int found = results.size();
+            if (resultNodes.length < found) {
+                resultNodes = new int[found];
+                resultDistances = new double[found];
+            }
+            for (int i = found - 1; i >= 0; i--) {
+                resultDistances[i] = results.topDistance();
+                resultNodes[i] = results.pop();
+            }
+            return found;
+        }
+
+        private void newEpoch(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, 2 * marks.length)];
+                epoch = 0;
+            }
+            if (++epoch == 0) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        /**
+         * The heuristic of the paper: a candidate is kept if it is closer to the
+         * base node than to every candidate kept before it.
+         *
+         * @param index      the graph
+         * @param candidates the candidates sorted by distance to the base node
+         * @param distances  their distance to the base node
+         * @param count      the number of candidates
+         * @param max        the maximum number of neighbors to keep
+         * @return the kept candidates, closest first
+         */
+        int[] selectNeighbors(HnswIndex index, int[] candidates, double[] distances, int count, int max) {
+            int[] selected = new int[Math.min(count, max)];
+            int kept = 0;
+            for (int c = 0; c < count && kept < max; c++) {
+                int candidate = candidates[c];
+                boolean diverse = true;
+                for (int s = 0; s < kept; s++) {
+                    if (distance(index, selected[s], index.vectors, candidate * index.dimension) < distances[c]) {
+                        diverse = false;
+                        break;
+                    }
+                }
+                if (diverse) {
+                    selected[kept++] = candidate;
+                }
+            }
+            return Arrays.copyOf(selected, kept);
+        }
+    }
+
+    /**
+     * A binary heap of (distance, node) pairs over primitive arrays, ordered by
+     * distance then by node.
+     */
+    private static class NodeHeap {
+        private final boolean farthestFirst;
+        private double[] distances = new double[64];
+        private int[] nodes = new int[64];
+        private int size;
+
+        NodeHeap(boolean farthestFirst) {
+            this.farthestFirst = farthestFirst;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        double topDistance() {
+            return distances[0];
+        }
+
+        /** @return true if (d1, n1) must be above (d2, n2) */
+        private boolean above(double d1, int n1, double d2, int n2) {
+            if (farthestFirst) {
+                return d1 > d2 || (d1 == d2 && n1 > n2);
+            }
+            return d1 < d2 || (d1 == d2 && n1 < n2);
+        }
+
+        void push(double distance, int node) {
+            if (size == nodes.length) {
+                distances = Arrays.copyOf(distances, 2 * size);
+                nodes = Arrays.copyOf(nodes, 2 * size);
+            }
+            int child = size++;
+            while (child > 0) {
+                int parent = (child - 1) >>> 1;
+                if (!above(distance, node, distances[parent], nodes[parent])) {
+                    break;
+                }
+                distances[child] = distances[parent];
+                nodes[child] = nodes[parent];
+                child = parent;
+            }
+            distances[child] = distance;
+            nodes[child] = node;
+        }
+
+        /** @return the node of the top, removed */
+        int pop() {
+            int top = nodes[0];
+            size--;
+            double distance = distances[size];
+            int node = nodes[size];
+            int parent = 0;
+            int half = size >>> 1;
+            while (parent < half) {
+                int child = 2 * parent + 1;
+                int right = child + 1;
+                if (right < size && above(distances[right], nodes[right], distances[child], nodes[child])) {
+                    child = right;
+                }
+                if (!above(distances[child], nodes[child], distance, node)) {
+                    break;
+                }
+                distances[parent] = distances[child];
+                nodes[parent] = nodes[child];
+                parent = child;
+            }
+            distances[parent] = distance;
+            nodes[parent] = node;
+            return top;
+        }
+    }
+}
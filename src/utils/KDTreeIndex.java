@@ -0,0 +1,64 @@
+package utils;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+
+/**
+ * A k-d tree: each node is the bounding box of its rows.
+ * <p>
+ * The bound of a node is the reduced distance from the query to the closest
+ * point of the box, the query clamped into it. For a metric which never
+ * decreases when a coordinate difference grows (Euclidean, Manhattan,
+ * Minkowski, Chebyshev), no row of the box can be closer, and the bound is
+ * computed by the same kernel as the rows so it stays below their distance
+ * after rounding too.
+ * </p>
+ * The boxes prune well while the intrinsic dimension of the data is low. On
+ * spread data of higher dimension the query is close to the border of almost
+ * every box and the tree compares as many rows as the linear scan, plus the
+ * bounds (see {@code bench.NeighborIndexBenchmark}).
+ */
+public class KDTreeIndex extends SpatialTreeIndex {
+    /** Bounding box of node n: lower[n * dimension + j] to upper[n * dimension + j]. */
+    private final double[] lower;
+    private final double[] upper;
+
+    /**
+     * @param matrix the training data, copied in tree order
+     * @param metric the metric of the queries, one of {@link DistanceMetrics}
+     */
+    public KDTreeIndex(FeatureMatrix matrix, DistanceMetric metric) {
+        super(matrix, metric);
+        lower = new double[nodeCount * dimension];
+        upper = new double[nodeCount * dimension];
+        for (int node = 0; node < nodeCount; node++) {
+            int box = node * dimension;
+            for (int j = 0; j < dimension; j++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int p = nodeStart[node]; p < nodeEnd[node]; p++) {
+                    double value = points[p * dimension + j];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                lower[box + j] = min;
+                upper[box + j] = max;
+            }
+        }
+    }
+
+    @Override
+    double lowerBound(int node, double[] query, int offset, double[] scratch) {
+        int box = node * dimension;
+        for (int j = 0; j < dimension; j++) {
+            scratch[j] = Math.max(lower[box + j], Math.min(upper[box + j], query[offset + j]));
+        }
+        return metric.reducedDistance(scratch, 0, query, offset, dimension);
+    }
+
+    @Override
+    boolean skips(double bound, double worstReducedDistance) {
+        // equal distances are kept by index, the node may hold a lower one
+        return bound > worstReducedDistance;
+    }
+}
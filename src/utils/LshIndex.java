@@ -0,0 +1,340 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import data.Classifier;
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
+
+/**
+ * An approximate index: locality-sensitive hashing with p-stable projections
+ * (Datar, Immorlica, Indyk and Mirrokni).
+ * <p>
+ * Each of the {@code tables} hash tables hashes a row with {@code projections}
+ * functions {@code floor((a . v + b) / width)}, {@code a} being a random vector
+ * drawn from a p-stable law (Gaussian for the Euclidean distance, Cauchy for
+ * the Manhattan distance) and {@code b} uniform in {@code [0, width)}. Two rows
+ * fall in the same bucket with a probability decreasing with their distance.
+ * A query gathers the rows sharing a bucket with it in any table and ranks
+ * these candidates with the exact metric, so the neighbors returned are exact
+ * distances, only some true neighbors may be missing. When fewer candidates
+ * than asked are found, the query falls back to the linear scan.
+ * </p>
+ * <p>
+ * More tables raise the recall and the memory, more projections per table (or
+ * a smaller width) make the buckets smaller, so fewer candidates and a lower
+ * recall, see {@code bench.LshBenchmark}. Unlike the trees, the cost of a query
+ * does not grow with the dimension beyond the projections, which suits the 100
+ * values of the GFD signatures.
+ * </p>
+ * A table is a row array sorted by bucket key with the distinct keys and their
+ * offsets, about {@code 4 * rows} bytes plus 12 bytes per non empty bucket, no
+ * object per bucket. The tables are built independently on a pool. An index
+ * needing more than {@code -D}{@value #MEMORY_PROPERTY} bytes (256 MiB by
+ * default) is refused.
+ */
+public class LshIndex implements NeighborIndex {
+    /** System property giving the maximum size in bytes of an index. */
+    public static final String MEMORY_PROPERTY = "lsh.maxBytes";
+    /** Default number of hash tables. */
+    public static final int DEFAULT_TABLES = 16;
+    /** Default number of projections hashed together by each table. */
+    public static final int DEFAULT_PROJECTIONS = 4;
+
+    private static final long MAX_BYTES = Long.getLong(MEMORY_PROPERTY, 256L << 20);
+    /** Rows sampled to estimate the width. */
+    private static final int WIDTH_SAMPLE = 64;
+    /**
+     * Estimated width in mean nearest neighbor distances, for the Gaussian and
+     * Cauchy projections. A nearest neighbor at the mean distance then shares
+     * the bucket of one projection with a probability of about 0.8 with both
+     * laws, the Cauchy law needing wider buckets for its heavy tails.
+     */
+    private static final double GAUSSIAN_WIDTH_FACTOR = 4;
+    private static final double CAUCHY_WIDTH_FACTOR = 10;
+
+    private final FeatureMatrix matrix;
+    private final DistanceMetric metric;
+    private final int dimension;
+    private final int tables;
+    private final int projections;
+    private final double width;
+    /** Projection vectors of table t, projection p at (t * projections + p) * dimension. */
+    private final double[] directions;
+    private final double[] shifts;
+    /** Distinct keys of each table, sorted. */
+    private final long[][] keys;
+    /** Rows of bucket i of table t are rows[t][offsets[t][i] .. offsets[t][i + 1] - 1]. */
+    private final int[][] offsets;
+    private final int[][] rows;
+
+    private final LongAdder distanceEvaluations = new LongAdder();
+    /** Candidates already ranked by the current query of each thread. */
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    /**
+     * Hashes the rows of a matrix.
+     *
+     * @param matrix      the training data, used as is, not copied
+     * @param metric      the Euclidean or Manhattan metric of
+     *                    {@link DistanceMetrics}
+     * @param tables      the number of hash tables, at least 1
+     * @param projections the number of projections hashed together by a table,
+     *                    at least 1
+     * @param width       the width of the projection buckets, or 0 to estimate
+     *                    it from the mean distance of a sample of rows to their
+     *                    nearest neighbor
+     * @param seed        the seed of the projections
+     * @param pool        the pool building the tables, or null to build them on
+     *                    the calling thread
+     * @throws IllegalArgumentException if the metric is not Euclidean nor
+     *                                  Manhattan, a parameter is out of range,
+     *                                  or the index would exceed the memory limit
+     */
+    public LshIndex(FeatureMatrix matrix, DistanceMetric metric, int tables, int projections, double width,
+            long seed, ForkJoinPool pool) {
+        boolean euclidean = isEuclidean(metric);
+        if (!euclidean && !isManhattan(metric)) {
+            throw new IllegalArgumentException("LSH supports the Euclidean and Manhattan metrics, got " + metric);
+        }
+        if (tables < 1 || projections < 1 || width < 0) {
+            throw new IllegalArgumentException("LSH needs tables >= 1, projections >= 1 and width >= 0, got tables="
+                    + tables + ", projections=" + projections + ", width=" + width);
+        }
+        long bytes = estimateBytes(matrix.getRowCount(), matrix.getDimension(), tables, projections);
+        if (bytes > MAX_BYTES) {
+            throw new IllegalArgumentException("LSH index of " + tables + " tables over " + matrix.getRowCount()
+                    + " rows needs " + bytes + " bytes, over the limit of " + MAX_BYTES + " (-D" + MEMORY_PROPERTY
+                    + "), use fewer tables");
+        }
+        this.matrix = matrix;
+        this.metric = metric;
+        this.dimension = matrix.getDimension();
+        this.tables = tables;
+        this.projections = projections;
+        this.width = width > 0 ? width
+                : (euclidean ? GAUSSIAN_WIDTH_FACTOR : CAUCHY_WIDTH_FACTOR) * meanNearestDistance(matrix, metric, seed);
+
+        Random random = new Random(seed);
+        directions = new double[tables * projections * dimension];
+        shifts = new double[tables * projections];
+        for (int i = 0; i < directions.length; i++) {
+            // Gaussian is 2-stable, Cauchy is 1-stable
+            directions[i] = euclidean ? random.nextGaussian() : Math.tan(Math.PI * (random.nextDouble() - 0.5));
+        }
+        for (int i = 0; i < shifts.length; i++) {
+            shifts[i] = random.nextDouble() * this.width;
+        }
+
+        keys = new long[tables][];
+        offsets = new int[tables][];
+        rows = new int[tables][];
+        MachineLearningUtils.runTasks(tables, table -> {
+            buildTable(table);
+            return table;
+        }, pool);
+    }
+
+    private static boolean isEuclidean(DistanceMetric metric) {
+        return metric == DistanceMetrics.EUCLIDEAN || metric == DistanceMetrics.scalarOf(Classifier.EUCLIDEAN, 0);
+    }
+
+    private static boolean isManhattan(DistanceMetric metric) {
+        return metric == DistanceMetrics.MANHATTAN || metric == DistanceMetrics.scalarOf(Classifier.MANHATTAN, 0);
+    }
+
+    /**
+     * @return true if the metric can be hashed, Euclidean or Manhattan
+     */
+    public static boolean supports(DistanceMetric metric) {
+        return isEuclidean(metric) || isManhattan(metric);
+    }
+
+    /**
+     * @return the approximate size in bytes of an index: the row arrays and at
+     *         worst one bucket per row for each table, plus the projections
+     */
+    public static long estimateBytes(int rowCount, int dimension, int tables, int projections) {
+        long perTable = (long) rowCount * (Integer.BYTES + Long.BYTES + Integer.BYTES);
+        long projectionBytes = (long) projections * (dimension + 1) * Double.BYTES;
+        return tables * (perTable + projectionBytes);
+    }
+
+    /**
+     * @return the mean distance of a sample of rows to their nearest other row,
+     *         1 if it is 0
+     */
+    private static double meanNearestDistance(FeatureMatrix matrix, DistanceMetric metric, long seed) {
+        int size = matrix.getRowCount();
+        int dimension = matrix.getDimension();
+        double[] data = matrix.getData();
+        if (size < 2) {
+            return 1;
+        }
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+        int samples = Math.min(WIDTH_SAMPLE, size);
+        double sum = 0;
+        for (int s = 0; s < samples; s++) {
+            int row = samples == size ? s : random.nextInt(size);
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                if (i != row) {
+                    nearest = Math.min(nearest,
+                            metric.reducedDistance(data, i * dimension, data, row * dimension, dimension));
+                }
+            }
+            sum += metric.toDistance(nearest);
+        }
+        double mean = sum / samples;
+        return mean > 0 ? mean : 1;
+    }
+
+    /**
+     * Sorts the rows by their key in the table, then lists the distinct keys.
+     */
+    private void buildTable(int table) {
+        int size = matrix.getRowCount();
+        double[] data = matrix.getData();
+        long[] rowKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            rowKeys[i] = key(table, data, i * dimension);
+        }
+        long[] sortedKeys = rowKeys.clone();
+        Arrays.sort(sortedKeys);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || sortedKeys[i] != sortedKeys[i - 1]) {
+                sortedKeys[distinct++] = sortedKeys[i];
+            }
+        }
+        long[] tableKeys = Arrays.copyOf(sortedKeys, distinct);
+        int[] tableOffsets = new int[distinct + 1];
+        int[] bucketOf = new int[size];
+        for (int i = 0; i < size; i++) {
+            bucketOf[i] = Arrays.binarySearch(tableKeys, rowKeys[i]);
+            tableOffsets[bucketOf[i] + 1]++;
+        }
+        for (int b = 0; b < distinct; b++) {
+            tableOffsets[b + 1] += tableOffsets[b];
+        }
+        int[] tableRows = new int[size];
+        int[] next = Arrays.copyOf(tableOffsets, distinct);
+        for (int i = 0; i < size; i++) {
+            tableRows[next[bucketOf[i]]++] = i;
+        }
+        keys[table] = tableKeys;
+        offsets[table] = tableOffsets;
+        rows[table] = tableRows;
+    }
+
+    /**
+     * @return the bucket key of a vector in a table, mixing the bucket of each
+     *         projection
+     */
+    private long key(int table, double[] vector, int offset) {
+        long key = table;
+        for (int p = 0; p < projections; p++) {
+            int projection = table * projections + p;
+            int direction = projection * dimension;
+            double dot = shifts[projection];
+            for (int j = 0; j < dimension; j++) {
+                dot += directions[direction + j] * vector[offset + j];
+            }
+            long bucket = (long) Math.floor(dot / width);
+            key = (key ^ bucket) * 0x9E3779B97F4A7C15L;
+        }
+        return key;
+    }
+
+    @Override
+    public int[] nearest(double[] query, int offset, int count) {
+        int size = matrix.getRowCount();
+        double[] data = matrix.getData();
+        TopKSelector selector = new TopKSelector(Math.max(0, Math.min(count, size)));
+        if (selector.capacity() == 0) {
+            return new int[0];
+        }
+        Visited visited = this.visited.get();
+        int epoch = visited.newEpoch(size);
+        int[] marks = visited.marks;
+
+        int candidates = 0;
+        for (int table = 0; table < tables; table++) {
+            int bucket = Arrays.binarySearch(keys[table], key(table, query, offset));
+            if (bucket < 0) {
+                continue;
+            }
+            int[] tableRows = rows[table];
+            for (int r = offsets[table][bucket]; r < offsets[table][bucket + 1]; r++) {
+                int row = tableRows[r];
+                if (marks[row] != epoch) {
+                    marks[row] = epoch;
+                    candidates++;
+                    selector.offer(metric.reducedDistance(data, row * dimension, query, offset, dimension), row);
+                }
+            }
+        }
+        if (candidates < selector.capacity()) {
+            // not enough candidates, scan everything
+            selector.clear();
+            for (int i = 0; i < size; i++) {
+                selector.offer(metric.reducedDistance(data, i * dimension, query, offset, dimension), i);
+            }
+            candidates += size;
+        }
+        distanceEvaluations.add(candidates);
+        DISTANCE_EVALUATIONS.add(candidates);
+        return selector.sortedIndices();
+    }
+
+    /**
+     * @return false, true neighbors whose buckets all differ from the query's are
+     *         missed
+     */
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations.sum();
+    }
+
+    public int getTables() {
+        return tables;
+    }
+
+    public int getProjections() {
+        return projections;
+    }
+
+    /**
+     * @return the width of the projection buckets, estimated if 0 was given
+     */
+    public double getWidth() {
+        return width;
+    }
+
+    /** A row is a candidate of the current query if its mark is the epoch. */
+    private static class Visited {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        int newEpoch(int size) {
+            if (marks.length < size) {
+                marks = new int[size];
+                epoch = 0;
+            }
+            if (++epoch == 0) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+            return epoch;
+        }
+    }
+}
@@ -2,6 +2,12 @@ package utils;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
@@ -10,10 +16,18 @@ import data.CharacteristicVector;
 import data.Classifier;
 import data.ConfusionMatrix;
 import data.EntityConstants;
+import data.FeatureMatrix;
 import logger.LoggerUtil;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 
 public class MachineLearningUtils {
     private static final Logger logger = LoggerUtil.getLogger(MachineLearningUtils.class, Level.INFO);
+    private static final Histogram loocvLatency = MetricsRegistry.global().histogram("loocv_seconds",
+            "Duration of a whole leave-one-out cross-validation", MetricsRegistry.NANOSECONDS);
+    private static final Counter loocvPredictions = MetricsRegistry.global().counter("loocv_predictions_total",
+            "Samples predicted by the leave-one-out cross-validations");
 
     /**
      * Performs k-fold cross-validation on the given dataset.
@@ -24,9 +38,29 @@ public class MachineLearningUtils {
      */
     public static ArrayList<ArrayList<CharacteristicVector>> createKFolds(
             ArrayList<CharacteristicVector> dataset, int k) {
+        return createKFolds(dataset, k, new Random());
+    }
+
+    /**
+     * Splits the dataset in k folds like {@link #createKFolds(ArrayList, int)},
+     * the shuffle being drawn from the given seed so the folds are always the
+     * same for the same seed.
+     *
+     * @param dataset The dataset to be split into k folds.
+     * @param k       The number of folds.
+     * @param seed    The seed of the shuffle.
+     * @return A list of k folds, each containing a list of CharacteristicVectors.
+     */
+    public static ArrayList<ArrayList<CharacteristicVector>> createKFolds(
+            ArrayList<CharacteristicVector> dataset, int k, long seed) {
+        return createKFolds(dataset, k, new Random(seed));
+    }
+
+    private static ArrayList<ArrayList<CharacteristicVector>> createKFolds(
+            ArrayList<CharacteristicVector> dataset, int k, Random random) {
         ArrayList<ArrayList<CharacteristicVector>> folds = new ArrayList<>();
         ArrayList<CharacteristicVector> shuffled = new ArrayList<>(dataset);
-        Collections.shuffle(shuffled);
+        Collections.shuffle(shuffled, random);
 
         for (int i = 0; i < k; i++) {
             folds.add(new ArrayList<>());
@@ -39,17 +73,112 @@ public class MachineLearningUtils {
         return folds;
     }
 
+    /**
+     * Derives the seed of the i-th task (fold, restart...) from a master seed, so
+     * each task is deterministic whatever the thread running it.
+     *
+     * @param seed  the master seed
+     * @param index the index of the task
+     * @return the seed of the task
+     */
+    public static long deriveSeed(long seed, int index) {
+        // SplitMix64 finalizer, consecutive indices give unrelated seeds
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Runs independent tasks (e.g. one per fold) on a pool and returns their
+     * results in the order of the indices, whatever the order they completed in.
+     *
+     * @param <T>       the type of the results
+     * @param taskCount the number of tasks
+     * @param task      computes the result of the i-th task
+     * @param pool      the pool running the tasks, or null to run them one after
+     *                  the other on the calling thread
+     * @return the result of each task
+     */
+    public static <T> ArrayList<T> runTasks(int taskCount, IntFunction<T> task, ForkJoinPool pool) {
+        ArrayList<T> results = new ArrayList<>(taskCount);
+        if (pool == null) {
+            for (int i = 0; i < taskCount; i++) {
+                results.add(task.apply(i));
+            }
+            return results;
+        }
+
+        ArrayList<ForkJoinTask<T>> submitted = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            final int index = i;
+            submitted.add(pool.submit(() -> task.apply(index)));
+        }
+        for (ForkJoinTask<T> future : submitted) {
+            // join rethrows the exception of a failed task
+            results.add(future.join());
+        }
+        return results;
+    }
+
     /**
      * Performs Leave-One-Out Cross-Validation (LOOCV) on the given dataset with a
      * specified classifier.
      * Do not split your dataset (i.e. no 80/10/10 or anything else)
+     * <p>
+     * The vectors are packed in a new {@link FeatureMatrix} on each call, so the
+     * distances cached for a matrix (see {@link DistanceMatrix#of}) are computed
+     * again every time. To evaluate the same dataset several times, pack it once
+     * and call {@link #performLOOCV(FeatureMatrix, Classifier)}.
+     * </p>
      * 
      * @param dataset    The dataset to be split into LOOCV folds.
      * @param classifier The classifier to be used for training and validation.
      * @return The accuracy of the classifier over all folds.
      */
     public static double performLOOCV(ArrayList<CharacteristicVector> dataset, Classifier classifier) {
+        long start = System.nanoTime();
+        double accuracy = classifier.supportsLeaveOneOut()
+                ? leaveOneOutAccuracy(FeatureMatrix.fromVectors(dataset), classifier)
+                : leaveOneOutAccuracy(dataset, classifier);
+        recordLOOCV(start, dataset.size());
+        return accuracy;
+    }
+
+    /**
+     * Performs Leave-One-Out Cross-Validation (LOOCV) on a packed dataset. The
+     * classifier is trained once on the whole matrix, then every vector is
+     * predicted with {@link Classifier#predictLeaveOneOut(int)}, so the distances
+     * cached for the matrix are reused by the next calls on it. Classifiers that
+     * do not support it are trained on a copy without the vector instead.
+     *
+     * @param dataset    the packed dataset
+     * @param classifier The classifier to be used for training and validation.
+     * @return The accuracy of the classifier over all folds.
+     */
+    public static double performLOOCV(FeatureMatrix dataset, Classifier classifier) {
+        long start = System.nanoTime();
+        double accuracy = classifier.supportsLeaveOneOut() ? leaveOneOutAccuracy(dataset, classifier)
+                : leaveOneOutAccuracy(dataset.toVectors(), classifier);
+        recordLOOCV(start, dataset.getRowCount());
+        return accuracy;
+    }
+
+    private static double leaveOneOutAccuracy(FeatureMatrix dataset, Classifier classifier) {
         int correctPredictions = 0;
+        // Train once, each prediction skips its own vector
+        classifier.train(dataset);
+        for (int i = 0; i < dataset.getRowCount(); i++) {
+            if (classifier.predictLeaveOneOut(i).equals(dataset.getLabel(i))) {
+                correctPredictions++;
+            }
+        }
+        return (double) correctPredictions / dataset.getRowCount();
+    }
+
+    private static double leaveOneOutAccuracy(ArrayList<CharacteristicVector> dataset, Classifier classifier) {
+        int correctPredictions = 0;
+
         for (int i = 0; i < dataset.size(); i++) {
             // Split dataset into training and validation set
             ArrayList<CharacteristicVector> trainingSet = new ArrayList<>(dataset);
@@ -68,7 +197,9 @@ public class MachineLearningUtils {
     }
 
     /**
-     * Perform LOOCV AND fill the confusion matrix
+     * Perform LOOCV AND fill the confusion matrix. Like
+     * {@link #performLOOCV(ArrayList, Classifier)}, the vectors are packed again on
+     * each call: pass a {@link FeatureMatrix} to reuse its cached distances.
      * 
      * @param dataset    ArrayList of CharacteristicVector
      * @param classifier The class that implement classifier interface
@@ -77,6 +208,13 @@ public class MachineLearningUtils {
      */
     public static void performLOOCV(ArrayList<CharacteristicVector> dataset, Classifier classifier,
             ConfusionMatrix cfx) {
+        long start = System.nanoTime();
+        leaveOneOut(dataset, classifier, cfx);
+        recordLOOCV(start, dataset == null ? 0 : dataset.size());
+    }
+
+    private static void leaveOneOut(ArrayList<CharacteristicVector> dataset, Classifier classifier,
+            ConfusionMatrix cfx) {
         if (dataset == null || dataset.isEmpty()) {
             logger.error("Dataset is null or empty. LOO-CV cannot proceed.");
             return;
@@ -84,6 +222,10 @@ public class MachineLearningUtils {
         logger.debug("Starting Leave-One-Out Cross-Validation (LOO-CV) with classifier: {}",
                 classifier.getClass().getSimpleName());
         logger.debug("Dataset size: {}", dataset.size());
+        if (classifier.supportsLeaveOneOut()) {
+            leaveOneOut(FeatureMatrix.fromVectors(dataset), classifier, cfx);
+            return;
+        }
         for (int i = 0; i < dataset.size(); i++) {
             // Split dataset into training and validation set
             ArrayList<CharacteristicVector> trainingSet = new ArrayList<>(dataset);
@@ -92,17 +234,180 @@ public class MachineLearningUtils {
             classifier.train(trainingSet);
 
             String predictedLabel = classifier.predict(validationSet);
-            logger.debug("Processed {}th point. Actual: {} ({}) | Predicted: {} ({})",
-                    i + 1,
-                    validationLabel,
-                    EntityConstants.getEntityByLabelCode(validationLabel),
-                    predictedLabel,
-                    EntityConstants.getEntityByLabelCode(predictedLabel));
+            if (logger.isDebugEnabled()) {
+                logProcessed(i, validationLabel, predictedLabel);
+            }
             // Compare predicted label with actual label
             cfx.increment(validationLabel, predictedLabel);
         }
     }
 
+    /**
+     * Perform LOOCV on a packed dataset AND fill the confusion matrix. The
+     * classifier is trained once on the whole matrix, then every vector is
+     * predicted with {@link Classifier#predictLeaveOneOut(int)}. Classifiers that
+     * do not support it are trained on a copy without the vector instead.
+     *
+     * @param dataset    the packed dataset
+     * @param classifier The class that implement classifier interface
+     * @param cfx        a fresh confusion matrix
+     */
+    public static void performLOOCV(FeatureMatrix dataset, Classifier classifier, ConfusionMatrix cfx) {
+        long start = System.nanoTime();
+        leaveOneOut(dataset, classifier, cfx);
+        recordLOOCV(start, dataset == null ? 0 : dataset.getRowCount());
+    }
+
+    private static void leaveOneOut(FeatureMatrix dataset, Classifier classifier, ConfusionMatrix cfx) {
+        if (dataset == null || dataset.getRowCount() == 0) {
+            logger.error("Dataset is null or empty. LOO-CV cannot proceed.");
+            return;
+        }
+        if (!classifier.supportsLeaveOneOut()) {
+            leaveOneOut(dataset.toVectors(), classifier, cfx);
+            return;
+        }
+        classifier.train(dataset);
+        for (int i = 0; i < dataset.getRowCount(); i++) {
+            String validationLabel = dataset.getLabel(i);
+            String predictedLabel = classifier.predictLeaveOneOut(i);
+            if (logger.isDebugEnabled()) {
+                logProcessed(i, validationLabel, predictedLabel);
+            }
+            cfx.increment(validationLabel, predictedLabel);
+        }
+    }
+
+    /**
+     * Perform LOOCV on a pool of threads AND fill the confusion matrix. The samples
+     * are split in ranges, each range fills its own confusion matrix and the
+     * partial matrices are merged at the end, so the result is the same as
+     * {@link #performLOOCV(FeatureMatrix, Classifier, ConfusionMatrix)}.
+     * <p>
+     * If the classifier supports {@link Classifier#predictLeaveOneOut(int)}, one
+     * instance is trained and shared by every thread. Otherwise each range uses
+     * its own instance, trained on a copy of the dataset without the sample.
+     * </p>
+     *
+     * @param dataset           the packed dataset
+     * @param classifierFactory creates a new untrained classifier
+     * @param cfx               a fresh confusion matrix
+     * @param pool              the pool running the predictions, or null to run
+     *                          them on the calling thread
+     */
+    public static void performLOOCV(FeatureMatrix dataset, Supplier<? extends Classifier> classifierFactory,
+            ConfusionMatrix cfx, ForkJoinPool pool) {
+        if (dataset == null || dataset.getRowCount() == 0) {
+            logger.error("Dataset is null or empty. LOO-CV cannot proceed.");
+            return;
+        }
+        long start = System.nanoTime();
+        if (pool == null) {
+            leaveOneOut(dataset, classifierFactory.get(), cfx);
+            recordLOOCV(start, dataset.getRowCount());
+            return;
+        }
+        Classifier shared = classifierFactory.get();
+        if (shared.supportsLeaveOneOut()) {
+            shared.train(dataset);
+        } else {
+            shared = null;
+        }
+        int rows = dataset.getRowCount();
+        // a few ranges per thread so threads finishing early can steal work
+        int grain = Math.max(1, rows / (pool.getParallelism() * 4));
+        logger.debug("Starting parallel LOO-CV on {} threads, ranges of {} samples", pool.getParallelism(), grain);
+        ConfusionMatrix result = pool.invoke(
+                new LeaveOneOutTask(dataset, shared, classifierFactory, cfx, 0, rows, grain));
+        cfx.merge(result);
+        recordLOOCV(start, rows);
+    }
+
+    /**
+     * Logs the prediction of a sample of a cross-validation, called once the
+     * debug level is known to be enabled: the names of the entities are only
+     * looked up for a written message.
+     */
+    private static void logProcessed(int index, String validationLabel, String predictedLabel) {
+        logger.debug("Processed {}th point. Actual: {} ({}) | Predicted: {} ({})",
+                index + 1,
+                validationLabel,
+                EntityConstants.getEntityByLabelCode(validationLabel),
+                predictedLabel,
+                EntityConstants.getEntityByLabelCode(predictedLabel));
+    }
+
+    /**
+     * Records the duration and the predictions of a cross-validation, when it
+     * predicted something.
+     */
+    private static void recordLOOCV(long start, int predictions) {
+        if (predictions > 0) {
+            loocvLatency.recordSince(start);
+            loocvPredictions.add(predictions);
+        }
+    }
+
+    /**
+     * Leave-one-out predictions of a range of samples, split in two until the
+     * range is small enough.
+     */
+    private static class LeaveOneOutTask extends RecursiveTask<ConfusionMatrix> {
+        private static final long serialVersionUID = 1L;
+
+        private final FeatureMatrix dataset;
+        private final Classifier shared;
+        private final Supplier<? extends Classifier> classifierFactory;
+        /** Empty matrix giving the labels of the partial matrices. */
+        private final ConfusionMatrix template;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        LeaveOneOutTask(FeatureMatrix dataset, Classifier shared, Supplier<? extends Classifier> classifierFactory,
+                ConfusionMatrix template, int from, int to, int grain) {
+            this.dataset = dataset;
+            this.shared = shared;
+            this.classifierFactory = classifierFactory;
+            this.template = template;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected ConfusionMatrix compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                LeaveOneOutTask left = new LeaveOneOutTask(dataset, shared, classifierFactory, template, from,
+                        middle, grain);
+                LeaveOneOutTask right = new LeaveOneOutTask(dataset, shared, classifierFactory, template, middle, to,
+                        grain);
+                left.fork();
+                ConfusionMatrix partial = right.compute();
+                partial.merge(left.join());
+                return partial;
+            }
+
+            ConfusionMatrix partial = template.emptyCopy();
+            if (shared != null) {
+                for (int i = from; i < to; i++) {
+                    partial.increment(dataset.getLabel(i), shared.predictLeaveOneOut(i));
+                }
+                return partial;
+            }
+            Classifier classifier = classifierFactory.get();
+            ArrayList<CharacteristicVector> vectors = dataset.toVectors();
+            for (int i = from; i < to; i++) {
+                ArrayList<CharacteristicVector> trainingSet = new ArrayList<>(vectors);
+                CharacteristicVector validationSet = trainingSet.remove(i);
+                classifier.train(trainingSet);
+                partial.increment(validationSet.getLabel(), classifier.predict(validationSet));
+            }
+            return partial;
+        }
+    }
+
     /**
      * Normalizes a list of CharacteristicVector objects to have values between 0
      * and 1.
@@ -166,4 +471,49 @@ public class MachineLearningUtils {
         return normalizedVectors;
     }
 
+    /**
+     * Normalizes a {@code FeatureMatrix} to have values between 0 and 1.
+     *
+     * @param matrix the input matrix
+     * @return a new matrix where each value is between 0 and 1
+     */
+    public static FeatureMatrix normalizeFeatureMatrix(FeatureMatrix matrix) {
+        return normalizeFeatureMatrix(matrix, 0, 1);
+    }
+
+    /**
+     * Normalizes a {@code FeatureMatrix} to have values between specified bounds,
+     * using the same global min and max scaling as
+     * {@link #normalizeCharacteristicVectors(ArrayList, int, int)}.
+     *
+     * @param matrix the input matrix.
+     * @param min    the minimum bound for the normalized values.
+     * @param max    the maximum bound for the normalized values.
+     * @return a new matrix with normalized values, sharing the labels of the input.
+     */
+    public static FeatureMatrix normalizeFeatureMatrix(FeatureMatrix matrix, int min, int max) {
+        double[] original = matrix.getData();
+        double globalMin = Double.MAX_VALUE;
+        double globalMax = Double.MIN_VALUE;
+
+        for (double value : original) {
+            if (value < globalMin)
+                globalMin = value;
+            if (value > globalMax)
+                globalMax = value;
+        }
+
+        double[] normalized = new double[original.length];
+        for (int i = 0; i < original.length; i++) {
+            if (globalMax - globalMin == 0) {
+                // division by zero
+                normalized[i] = (min + max) / 2.0;
+            } else {
+                normalized[i] = min + (original[i] - globalMin) * (max - min) / (globalMax - globalMin);
+            }
+        }
+
+        return matrix.withData(normalized);
+    }
+
 }
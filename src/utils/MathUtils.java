@@ -9,6 +9,10 @@ import data.MathUtilsException;
  * that are used throughout the project. These calculations include distance
  * metrics such as
  * Euclidean, Manhattan, and Minkowski distances between characteristic vectors.
+ * <p>
+ * The overloads taking arrays and offsets are the allocation-free kernels used
+ * by {@link DistanceMetrics}, they neither check sizes nor throw.
+ * </p>
  */
 public class MathUtils {
 
@@ -30,12 +34,48 @@ public class MathUtils {
         if (vect1.getVectorSize() != vect2.getVectorSize()) {
             throw new MathUtilsException("Vectors are not the same size !");
         }
+        return distEuclidean(vect1.getVector(), 0, vect2.getVector(), 0, vect1.getVectorSize());
+    }
+
+    /**
+     * Calculates the Euclidean distance between two vectors stored inside larger
+     * arrays, e.g. two rows of a {@link data.FeatureMatrix}. Sizes are not
+     * checked.
+     *
+     * @param a       the array holding the first vector
+     * @param offsetA the index of the first value of the first vector
+     * @param b       the array holding the second vector
+     * @param offsetB the index of the first value of the second vector
+     * @param length  the size of the vectors
+     * @return the Euclidean distance between the two vectors
+     */
+    public static double distEuclidean(double[] a, int offsetA, double[] b, int offsetB, int length) {
+        return Math.sqrt(squaredEuclidean(a, offsetA, b, offsetB, length));
+    }
+
+    /**
+     * Calculates the squared Euclidean distance between two vectors stored inside
+     * larger arrays, i.e. the Euclidean distance without the square root. Sizes
+     * are not checked.
+     *
+     * <pre>
+     * distance = sum((a[i] - b[i]) ^ 2)
+     * </pre>
+     *
+     * @param a       the array holding the first vector
+     * @param offsetA the index of the first value of the first vector
+     * @param b       the array holding the second vector
+     * @param offsetB the index of the first value of the second vector
+     * @param length  the size of the vectors
+     * @return the squared Euclidean distance between the two vectors
+     */
+    public static double squaredEuclidean(double[] a, int offsetA, double[] b, int offsetB, int length) {
         double sum = 0;
-        int length = vect1.getVectorSize();
         for (int i = 0; i < length; i++) {
-            sum += Math.pow(Math.abs(vect1.getVector()[i] - vect2.getVector()[i]), 2);
+            double diff = a[offsetA + i] - b[offsetB + i];
+            sum += diff * diff;
         }
-        return Math.sqrt(sum);
+        return sum;
     }
 
     /**
@@ -56,10 +96,24 @@ public class MathUtils {
         if (vect1.getVectorSize() != vect2.getVectorSize()) {
             throw new MathUtilsException("Vectors are not the same size !");
         }
+        return distManhattan(vect1.getVector(), 0, vect2.getVector(), 0, vect1.getVectorSize());
+    }
+
+    /**
+     * Calculates the Manhattan distance between two vectors stored inside larger
+     * arrays. Sizes are not checked.
+     *
+     * @param a       the array holding the first vector
+     * @param offsetA the index of the first value of the first vector
+     * @param b       the array holding the second vector
+     * @param offsetB the index of the first value of the second vector
+     * @param length  the size of the vectors
+     * @return the Manhattan distance between the two vectors
+     */
+    public static double distManhattan(double[] a, int offsetA, double[] b, int offsetB, int length) {
         double sum = 0;
-        int length = vect1.getVectorSize();
         for (int i = 0; i < length; i++) {
-            sum += Math.abs(vect1.getVector()[i] - vect2.getVector()[i]);
+            sum += Math.abs(a[offsetA + i] - b[offsetB + i]);
         }
         return sum;
     }
@@ -86,11 +140,95 @@ public class MathUtils {
         if (vect1.getVectorSize() != vect2.getVectorSize()) {
             throw new MathUtilsException("Vectors are not the same size !");
         }
+        return distMinkowski(vect1.getVector(), 0, vect2.getVector(), 0, vect1.getVectorSize(), p);
+    }
+
+    /**
+     * Calculates the Minkowski distance between two vectors stored inside larger
+     * arrays. Sizes and norm are not checked.
+     *
+     * @param a       the array holding the first vector
+     * @param offsetA the index of the first value of the first vector
+     * @param b       the array holding the second vector
+     * @param offsetB the index of the first value of the second vector
+     * @param length  the size of the vectors
+     * @param p       the order of the norm (should be a positive integer)
+     * @return the Minkowski distance between the two vectors
+     */
+    public static double distMinkowski(double[] a, int offsetA, double[] b, int offsetB, int length, int p) {
+        return Math.pow(minkowskiSum(a, offsetA, b, offsetB, length, p), 1.0 / (double) p);
+    }
+
+    /**
+     * Calculates the Minkowski sum between two vectors stored inside larger arrays,
+     * i.e. the Minkowski distance without the final p-th root. The powers are
+     * computed with repeated multiplications instead of {@code Math.pow}. Sizes
+     * and norm are not checked.
+     *
+     * <pre>
+     *   distance = sum(|a[i] - b[i]|^p)
+     * </pre>
+     *
+     * @param a       the array holding the first vector
+     * @param offsetA the index of the first value of the first vector
+     * @param b       the array holding the second vector
+     * @param offsetB the index of the first value of the second vector
+     * @param length  the size of the vectors
+     * @param p       the order of the norm (should be a positive integer)
+     * @return the sum of the p-th powers of the differences
+     */
+    public static double minkowskiSum(double[] a, int offsetA, double[] b, int offsetB, int length, int p) {
         double sum = 0;
-        int length = vect1.getVectorSize();
         for (int i = 0; i < length; i++) {
-            sum += Math.pow(Math.abs(vect1.getVector()[i] - vect2.getVector()[i]), p);
+            sum += pow(Math.abs(a[offsetA + i] - b[offsetB + i]), p);
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the Chebyshev distance between two vectors stored inside larger
+     * arrays, the limit of the Minkowski distance when p grows. Sizes are not
+     * checked.
+     *
+     * <pre>
+     *   distance = max(|a[i] - b[i]|)
+     * </pre>
+     *
+     * @param a       the array holding the first vector
+     * @param offsetA the index of the first value of the first vector
+     * @param b       the array holding the second vector
+     * @param offsetB the index of the first value of the second vector
+     * @param length  the size of the vectors
+     * @return the Chebyshev distance between the two vectors
+     */
+    public static double distChebyshev(double[] a, int offsetA, double[] b, int offsetB, int length) {
+        double max = 0;
+        for (int i = 0; i < length; i++) {
+            double diff = Math.abs(a[offsetA + i] - b[offsetB + i]);
+            if (diff > max) {
+                max = diff;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Raises a value to a positive integer power by squaring, without
+     * {@code Math.pow}.
+     *
+     * @param x the value
+     * @param p the power, 0 or more
+     * @return x^p
+     */
+    public static double pow(double x, int p) {
+        double result = 1;
+        while (p > 0) {
+            if ((p & 1) != 0) {
+                result *= x;
+            }
+            x *= x;
+            p >>= 1;
         }
-        return Math.pow(sum, 1.0 / (double) p);
+        return result;
     }
 }
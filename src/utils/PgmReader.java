@@ -0,0 +1,122 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import data.GrayImage;
+
+/**
+ * Decoder of binary (P5) PGM images.
+ * <p>
+ * The header (magic number, width, height and maximum gray value, with
+ * optional {@code #} comments) is parsed byte by byte, then the pixels are read
+ * in one call straight into the {@code byte[]} of the {@link GrayImage}. Images
+ * with more than 8 bits per pixel (maximum value above 255, two big-endian
+ * bytes per pixel) are scaled down to 8 bits, as are images whose maximum value
+ * is below 255.
+ * </p>
+ */
+public class PgmReader {
+
+    private PgmReader() {
+    }
+
+    /**
+     * @param file a P5 PGM file
+     * @return the image of the file
+     * @throws IOException if the file can not be read or is not a P5 PGM
+     */
+    public static GrayImage read(Path file) throws IOException {
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            return read(input);
+        }
+    }
+
+    /**
+     * Reads one image from a stream, leaving the stream just after its last
+     * pixel.
+     *
+     * @param input a stream positioned on the magic number of a P5 PGM
+     * @return the image
+     * @throws IOException if the stream can not be read or is not a P5 PGM
+     */
+    public static GrayImage read(InputStream input) throws IOException {
+        if (input.read() != 'P' || input.read() != '5') {
+            throw new IOException("Not a binary PGM (P5) image");
+        }
+        int width = readHeaderInt(input);
+        int height = readHeaderInt(input);
+        int maxValue = readHeaderInt(input);
+        if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 65535
+                || (long) width * height > Integer.MAX_VALUE / 2) {
+            throw new IOException("Invalid PGM header: " + width + " x " + height + ", max value " + maxValue);
+        }
+        // readHeaderInt consumed the single whitespace before the pixels
+
+        int size = width * height;
+        if (maxValue <= 255) {
+            byte[] pixels = readFully(input, size);
+            if (maxValue < 255) {
+                for (int i = 0; i < size; i++) {
+                    pixels[i] = (byte) ((pixels[i] & 0xFF) * 255 / maxValue);
+                }
+            }
+            return new GrayImage(width, height, pixels);
+        }
+
+        byte[] wide = readFully(input, size * 2);
+        byte[] pixels = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int value = (wide[2 * i] & 0xFF) << 8 | (wide[2 * i + 1] & 0xFF);
+            pixels[i] = (byte) (value * 255 / maxValue);
+        }
+        return new GrayImage(width, height, pixels);
+    }
+
+    private static byte[] readFully(InputStream input, int length) throws IOException {
+        byte[] bytes = input.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("PGM image truncated: " + bytes.length + " bytes of pixels out of " + length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a decimal number of the header, skipping the whitespace and comments
+     * before it, and the single whitespace after it.
+     */
+    private static int readHeaderInt(InputStream input) throws IOException {
+        int c = input.read();
+        while (c == '#' || isWhitespace(c)) {
+            if (c == '#') {
+                while (c != '\n' && c != '\r' && c != -1) {
+                    c = input.read();
+                }
+            }
+            c = input.read();
+        }
+        if (c < '0' || c > '9') {
+            throw new IOException("Invalid PGM header");
+        }
+        int value = 0;
+        while (c >= '0' && c <= '9') {
+            if (value > 10_000_000) {
+                throw new IOException("Invalid PGM header: number too large");
+            }
+            value = value * 10 + (c - '0');
+            c = input.read();
+        }
+        if (!isWhitespace(c)) {
+            throw new IOException("Invalid PGM header");
+        }
+        return value;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B;
+    }
+}
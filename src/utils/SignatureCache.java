@@ -0,0 +1,339 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+import data.FeatureMatrix;
+
+/**
+ * Binary copy of a parsed signature folder, read back through a memory-mapped
+ * file instead of parsing every text file again.
+ * <p>
+ * The file is little-endian:
+ * </p>
+ *
+ * <pre>
+ * int    magic 'SIGC', int version
+ * long   source stamp (last modification of the folder and its files)
+ * int    rows, int dimension, int offset of the values
+ * string method (int length then UTF-8 bytes, length -1 for null)
+ * int    label count, then each label as a string
+ * int    label code of each row
+ * string sample of each row
+ * padding up to a multiple of 8 bytes
+ * double rows * dimension values, row-major
+ * </pre>
+ *
+ * The values are not copied on the heap by {@link #open}: {@link #values()}
+ * reads them from the mapped file, so a large corpus only takes the page cache
+ * ({@link DataLoader#openCachedFolder} gives the cache of a folder).
+ * {@link #toFeatureMatrix()} copies them for the classifiers. A single mapping
+ * holds at most 2 GB.
+ */
+public class SignatureCache {
+    private static final int MAGIC = 0x43474953; // "SIGC" in little-endian
+    private static final int VERSION = 1;
+    /** Size of the blocks written to the file. */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final long sourceStamp;
+    private final int rows;
+    private final int dimension;
+    private final String method;
+    private final String[] labels;
+    private final int[] labelCodes;
+    private final String[] samples;
+    private final DoubleBuffer values;
+
+    private SignatureCache(long sourceStamp, int rows, int dimension, String method, String[] labels,
+            int[] labelCodes, String[] samples, DoubleBuffer values) {
+        this.sourceStamp = sourceStamp;
+        this.rows = rows;
+        this.dimension = dimension;
+        this.method = method;
+        this.labels = labels;
+        this.labelCodes = labelCodes;
+        this.samples = samples;
+        this.values = values;
+    }
+
+    /**
+     * Maps a cache file.
+     *
+     * @param file the cache file
+     * @return the cache, its values still in the mapped file
+     * @throws IOException if the file can not be read or is not a valid cache
+     */
+    public static SignatureCache open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a signature cache of version " + VERSION + ": " + file);
+            }
+            long sourceStamp = buffer.getLong();
+            int rows = buffer.getInt();
+            int dimension = buffer.getInt();
+            int valuesOffset = buffer.getInt();
+            String method = getString(buffer);
+            String[] labels = new String[buffer.getInt()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = getString(buffer);
+            }
+            int[] labelCodes = new int[rows];
+            buffer.asIntBuffer().get(labelCodes);
+            buffer.position(buffer.position() + rows * Integer.BYTES);
+            String[] samples = new String[rows];
+            for (int i = 0; i < rows; i++) {
+                samples[i] = getString(buffer);
+            }
+            if (rows < 0 || dimension < 0 || valuesOffset < buffer.position()
+                    || (long) valuesOffset + (long) rows * dimension * Double.BYTES != buffer.capacity()) {
+                throw new IOException("Corrupted signature cache: " + file);
+            }
+            buffer.position(valuesOffset);
+            DoubleBuffer values = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            return new SignatureCache(sourceStamp, rows, dimension, method, labels, labelCodes, samples, values);
+        } catch (RuntimeException e) {
+            // truncated file or negative sizes
+            throw new IOException("Corrupted signature cache: " + file, e);
+        }
+    }
+
+    /**
+     * Gives the values of the rows written by
+     * {@link SignatureCache#write(Path, int, int, String, String[], IntUnaryOperator, IntFunction, long, RowSource)},
+     * one row at a time and in row order.
+     */
+    @FunctionalInterface
+    public interface RowSource {
+        /**
+         * @param row    the row to give
+         * @param values receives the {@code dimension} values of the row
+         */
+        void fill(int row, double[] values);
+    }
+
+    /**
+     * Writes a matrix to a cache file. The file is written next to the target then
+     * moved over it, so a concurrent reader never sees a partial cache.
+     *
+     * @param file        the cache file
+     * @param matrix      the parsed signatures
+     * @param sourceStamp the stamp of the sources the matrix was parsed from
+     * @throws IOException if the file can not be written
+     */
+    public static void write(Path file, FeatureMatrix matrix, long sourceStamp) throws IOException {
+        String[] labels = new String[matrix.getLabelCount()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = matrix.getLabelByCode(i);
+        }
+        int dimension = matrix.getDimension();
+        double[] data = matrix.getData();
+        write(file, matrix.getRowCount(), dimension, matrix.getMethod(), labels, matrix::getLabelCode,
+                matrix::getSample, sourceStamp,
+                (row, values) -> System.arraycopy(data, row * dimension, values, 0, dimension));
+    }
+
+    /**
+     * Writes rows given one at a time to a cache file, without holding them all in
+     * memory: the file is written by blocks of {@value #BLOCK_SIZE} bytes. The
+     * file is written next to the target, under a unique name, then moved over
+     * it, so a concurrent reader never sees a partial cache and concurrent
+     * writers do not write the same file.
+     *
+     * @param file        the cache file
+     * @param rows        the number of rows
+     * @param dimension   the number of values of each row
+     * @param method      the method of the signatures, may be null
+     * @param labels      the labels, by label code
+     * @param labelCode   gives the label code of each row
+     * @param sample      gives the sample of each row, may give null
+     * @param sourceStamp the stamp of the sources of the rows
+     * @param source      gives the values of each row
+     * @throws IOException if the file can not be written
+     */
+    public static void write(Path file, int rows, int dimension, String method, String[] labels,
+            IntUnaryOperator labelCode, IntFunction<String> sample, long sourceStamp, RowSource source)
+            throws IOException {
+        // the size of the header first, the samples are encoded twice rather than kept
+        long headerSize = 6 * Integer.BYTES + Long.BYTES + encode(method).length + (long) rows * Integer.BYTES;
+        for (String label : labels) {
+            headerSize += encode(label).length;
+        }
+        for (int i = 0; i < rows; i++) {
+            headerSize += encode(sample.apply(i)).length;
+        }
+        if (headerSize + (long) rows * dimension * Double.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A signature cache holds at most 2 GB, got " + rows + " rows of "
+                    + dimension + " values.");
+        }
+        int valuesOffset = (int) ((headerSize + Double.BYTES - 1) / Double.BYTES * Double.BYTES);
+
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                reserve(channel, block, Integer.BYTES * 2 + Long.BYTES + Integer.BYTES * 3);
+                block.putInt(MAGIC).putInt(VERSION).putLong(sourceStamp);
+                block.putInt(rows).putInt(dimension).putInt(valuesOffset);
+                put(channel, block, encode(method));
+                reserve(channel, block, Integer.BYTES);
+                block.putInt(labels.length);
+                for (String label : labels) {
+                    put(channel, block, encode(label));
+                }
+                for (int i = 0; i < rows; i++) {
+                    reserve(channel, block, Integer.BYTES);
+                    block.putInt(labelCode.applyAsInt(i));
+                }
+                for (int i = 0; i < rows; i++) {
+                    put(channel, block, encode(sample.apply(i)));
+                }
+                reserve(channel, block, (int) (valuesOffset - headerSize));
+                block.put(new byte[(int) (valuesOffset - headerSize)]);
+
+                double[] values = new double[dimension];
+                for (int i = 0; i < rows; i++) {
+                    source.fill(i, values);
+                    for (double value : values) {
+                        reserve(channel, block, Double.BYTES);
+                        block.putDouble(value);
+                    }
+                }
+                flush(channel, block);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Makes room for {@code length} bytes in the block, writing it to the channel
+     * when it is too full. The length must not exceed {@value #BLOCK_SIZE}.
+     */
+    private static void reserve(FileChannel channel, ByteBuffer block, int length) throws IOException {
+        if (block.remaining() < length) {
+            flush(channel, block);
+        }
+    }
+
+    private static void put(FileChannel channel, ByteBuffer block, byte[] bytes) throws IOException {
+        int written = 0;
+        while (written < bytes.length) {
+            if (!block.hasRemaining()) {
+                flush(channel, block);
+            }
+            int length = Math.min(block.remaining(), bytes.length - written);
+            block.put(bytes, written, length);
+            written += length;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer block) throws IOException {
+        block.flip();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        block.clear();
+    }
+
+    /**
+     * @return the length then the UTF-8 bytes of the string, length -1 for null
+     */
+    private static byte[] encode(String string) {
+        byte[] bytes = string == null ? new byte[0] : string.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(string == null ? -1 : bytes.length).put(bytes);
+        return buffer.array();
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the stamp of the sources when the cache was written
+     */
+    public long getSourceStamp() {
+        return sourceStamp;
+    }
+
+    /**
+     * @return the method of the signatures, may be null
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the number of vectors
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return the size of each vector
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @param row the index of the vector
+     * @return the label of the row
+     */
+    public String getLabel(int row) {
+        return labels[labelCodes[row]];
+    }
+
+    /**
+     * @param row the index of the vector
+     * @return the sample of the row
+     */
+    public String getSample(int row) {
+        return samples[row];
+    }
+
+    /**
+     * @return a read-only view of the row-major values, in the mapped file
+     */
+    public DoubleBuffer values() {
+        return values.asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the values on the heap.
+     *
+     * @return the cached signatures as a matrix
+     */
+    public FeatureMatrix toFeatureMatrix() {
+        double[] data = new double[rows * dimension];
+        values.duplicate().get(data);
+        return new FeatureMatrix(data, rows, dimension, labelCodes, labels, samples, method);
+    }
+}
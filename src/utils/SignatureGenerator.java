@@ -0,0 +1,303 @@
+package utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import data.CharacteristicVector;
+import data.FeatureMatrix;
+import logger.LoggerUtil;
+
+/**
+ * Generates as many signatures as needed from the classes of a real family, for
+ * the tests and the benchmarks at scale.
+ * <p>
+ * Each class of the source is modeled by the mean and the standard deviation of
+ * each feature over its vectors. A generated vector takes a class, in turn, and
+ * draws each feature from the gaussian law of the class, the deviation being
+ * multiplied by the spread ({@value #DEFAULT_SPREAD} by default). A dimension
+ * larger than the one of the source repeats the features of the source, each
+ * with its own noise; a smaller one keeps the first features.
+ * </p>
+ * <p>
+ * Row {@code i} is drawn from its own generator, seeded from the seed of the
+ * generator and {@code i}: a row is the same whatever the number of rows, the
+ * order they are generated in and the threads generating them. Its label is the
+ * one of class {@code i % classes} and its sample is {@code i / classes + 1}
+ * ("01" for the first rows).
+ * </p>
+ * The rows can be generated in memory ({@link #generate}) or streamed to disk,
+ * as signature text files read by {@link DataLoader#extractFromFolder}
+ * ({@link #writeText}) or as a {@link SignatureCache} file
+ * ({@link #writeBinary}), which holds at most 2 GB.
+ */
+public class SignatureGenerator {
+    private static final Logger logger = LoggerUtil.getLogger(SignatureGenerator.class, Level.INFO);
+
+    /** Default multiplier of the deviation of each class. */
+    public static final double DEFAULT_SPREAD = 1.0;
+
+    /** Number of rows generated or written by each task of the pool. */
+    private static final int CHUNK_SIZE = 4096;
+
+    private final long seed;
+    private final String method;
+    private final String[] labels;
+    private final int sourceDimension;
+    /** Mean of feature j of class c at c * sourceDimension + j. */
+    private final double[] means;
+    /** Standard deviation of feature j of class c, same layout as the means. */
+    private final double[] deviations;
+
+    private int dimension;
+    private double spread = DEFAULT_SPREAD;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Models the classes of a family.
+     *
+     * @param source the real signatures
+     * @param seed   the seed of the generated rows
+     * @throws IllegalArgumentException if the source has no row
+     */
+    public SignatureGenerator(FeatureMatrix source, long seed) {
+        if (source.getRowCount() == 0 || source.getDimension() == 0) {
+            throw new IllegalArgumentException("Cannot model the classes of an empty matrix.");
+        }
+        this.seed = seed;
+        this.method = source.getMethod();
+        this.sourceDimension = source.getDimension();
+        this.dimension = sourceDimension;
+
+        int classCount = source.getLabelCount();
+        labels = new String[classCount];
+        for (int c = 0; c < classCount; c++) {
+            labels[c] = source.getLabelByCode(c);
+        }
+        means = new double[classCount * sourceDimension];
+        deviations = new double[classCount * sourceDimension];
+        int[] counts = new int[classCount];
+        double[] data = source.getData();
+        for (int row = 0; row < source.getRowCount(); row++) {
+            int c = source.getLabelCode(row);
+            counts[c]++;
+            for (int j = 0; j < sourceDimension; j++) {
+                double value = data[row * sourceDimension + j];
+                means[c * sourceDimension + j] += value;
+                deviations[c * sourceDimension + j] += value * value;
+            }
+        }
+        for (int c = 0; c < classCount; c++) {
+            for (int j = 0; j < sourceDimension; j++) {
+                int at = c * sourceDimension + j;
+                double mean = means[at] / counts[c];
+                means[at] = mean;
+                deviations[at] = Math.sqrt(Math.max(0, deviations[at] / counts[c] - mean * mean));
+            }
+        }
+    }
+
+    /**
+     * Models the classes of a signature folder.
+     *
+     * @param folderPath the folder, e.g. "res/Signatures/GFD"
+     * @param seed       the seed of the generated rows
+     * @return the generator
+     * @throws IllegalArgumentException if the folder has no signature
+     */
+    public static SignatureGenerator fromFolder(String folderPath, long seed) {
+        return new SignatureGenerator(DataLoader.extractMatrixFromFolder(folderPath), seed);
+    }
+
+    /**
+     * Sets the dimension of the generated vectors, the one of the source by
+     * default.
+     *
+     * @param dimension the number of features of each vector
+     * @throws IllegalArgumentException if the dimension is lower than 1
+     */
+    public void setDimension(int dimension) {
+        if (dimension < 1) {
+            throw new IllegalArgumentException("Dimension must be at least 1, got " + dimension);
+        }
+        this.dimension = dimension;
+    }
+
+    /**
+     * Sets the multiplier of the deviation of each class: 0 generates the class
+     * means only, above 1 the classes overlap more than in the source.
+     *
+     * @param spread the multiplier, {@value #DEFAULT_SPREAD} by default
+     * @throws IllegalArgumentException if the spread is negative or not a number
+     */
+    public void setSpread(double spread) {
+        if (!(spread >= 0) || Double.isInfinite(spread)) {
+            throw new IllegalArgumentException("Spread must be a finite positive number, got " + spread);
+        }
+        this.spread = spread;
+    }
+
+    /**
+     * Sets the pool generating and writing the rows by chunks of
+     * {@value #CHUNK_SIZE}, the common pool by default. The rows do not depend on
+     * it.
+     *
+     * @param pool the pool to use, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the number of features of the generated vectors
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the number of classes of the source
+     */
+    public int getLabelCount() {
+        return labels.length;
+    }
+
+    /**
+     * @param row a row index
+     * @return the label of the row
+     */
+    public String getLabel(int row) {
+        return labels[row % labels.length];
+    }
+
+    /**
+     * @param row a row index
+     * @return the sample of the row, its rank in its class starting at 1, on at
+     *         least two digits like the samples of the signature files
+     */
+    public String getSample(int row) {
+        return String.format(Locale.ROOT, "%02d", row / labels.length + 1);
+    }
+
+    /**
+     * Writes the values of a row.
+     *
+     * @param row    the row index
+     * @param values receives the {@link #getDimension()} values
+     * @param offset the index of the first value in {@code values}
+     */
+    public void fillRow(int row, double[] values, int offset) {
+        SplittableRandom random = new SplittableRandom(MachineLearningUtils.deriveSeed(seed, row));
+        int base = (row % labels.length) * sourceDimension;
+        for (int j = 0; j < dimension; j++) {
+            int at = base + j % sourceDimension;
+            values[offset + j] = means[at] + random.nextGaussian() * spread * deviations[at];
+        }
+    }
+
+    /**
+     * @param row the row index
+     * @return the generated vector of the row
+     */
+    public CharacteristicVector vector(int row) {
+        double[] values = new double[dimension];
+        fillRow(row, values, 0);
+        return new CharacteristicVector(values, getLabel(row), method, getSample(row));
+    }
+
+    /**
+     * Generates rows in memory.
+     *
+     * @param count the number of rows
+     * @return the rows 0 to {@code count - 1}
+     * @throws IllegalArgumentException if the count is negative or the matrix
+     *                                  would exceed the size of an array
+     */
+    public FeatureMatrix generate(int count) {
+        if (count < 0 || (long) count * dimension > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Cannot generate " + count + " rows of " + dimension + " values.");
+        }
+        double[] data = new double[count * dimension];
+        int[] labelCodes = new int[count];
+        String[] samples = new String[count];
+        MachineLearningUtils.runTasks(chunkCount(count), chunk -> {
+            for (int row = chunk * CHUNK_SIZE; row < Math.min(count, (chunk + 1) * CHUNK_SIZE); row++) {
+                fillRow(row, data, row * dimension);
+                labelCodes[row] = row % labels.length;
+                samples[row] = getSample(row);
+            }
+            return null;
+        }, pool);
+        return new FeatureMatrix(data, count, dimension, labelCodes, labels.clone(), samples, method);
+    }
+
+    /**
+     * Streams rows to a {@link SignatureCache} file, without holding them in
+     * memory. {@link SignatureCache#open} reads it back.
+     *
+     * @param file  the file to write
+     * @param count the number of rows
+     * @throws IOException              if the file can not be written
+     * @throws IllegalArgumentException if the rows exceed 2 GB
+     */
+    public void writeBinary(Path file, int count) throws IOException {
+        long start = System.nanoTime();
+        SignatureCache.write(file, count, dimension, method, labels.clone(), row -> row % labels.length,
+                this::getSample, 0L, (row, values) -> fillRow(row, values, 0));
+        logger.info("Generated {} signatures of dimension {} in {} ({} ms)", count, dimension, file,
+                String.format("%.0f", (System.nanoTime() - start) / 1e6));
+    }
+
+    /**
+     * Streams rows to a folder as signature text files, one value per line, named
+     * like the files of {@code res/Signatures} ({@code s<label>n<sample>.<method>})
+     * so {@link DataLoader} reads their label and method back. The files are
+     * written by the pool, one task per chunk of rows.
+     *
+     * @param folder the folder, created if needed
+     * @param count  the number of rows
+     * @throws IOException if a file can not be written
+     */
+    public void writeText(Path folder, int count) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(folder);
+        String extension = method == null ? "txt" : method.toLowerCase(Locale.ROOT);
+        try {
+            MachineLearningUtils.runTasks(chunkCount(count), chunk -> {
+                double[] values = new double[dimension];
+                StringBuilder text = new StringBuilder(dimension * 24);
+                for (int row = chunk * CHUNK_SIZE; row < Math.min(count, (chunk + 1) * CHUNK_SIZE); row++) {
+                    fillRow(row, values, 0);
+                    text.setLength(0);
+                    for (double value : values) {
+                        text.append(value).append('\n');
+                    }
+                    String name = String.format(Locale.ROOT, "s%sn%07d.%s", getLabel(row),
+                            row / labels.length + 1, extension);
+                    try (BufferedWriter writer = Files.newBufferedWriter(folder.resolve(name))) {
+                        writer.append(text);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return null;
+            }, pool);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        logger.info("Generated {} signature files of dimension {} in {} ({} ms)", count, dimension, folder,
+                String.format("%.0f", (System.nanoTime() - start) / 1e6));
+    }
+
+    private static int chunkCount(int count) {
+        return (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+}
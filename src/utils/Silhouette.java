@@ -0,0 +1,173 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+
+/**
+ * Silhouette scores of a clustering, given as the cluster id of each point.
+ * <p>
+ * For a point i of cluster A, a(i) is its average distance to the other points
+ * of A and b(i) the smallest average distance to the points of another
+ * non-empty cluster. Its silhouette is {@code (b(i) - a(i)) / max(a(i), b(i))},
+ * a point alone in its cluster having a(i) = 0.
+ * </p>
+ * The exact scores read every pairwise distance once from a
+ * {@link DistanceMatrix} and add it to the per-cluster sums of both points, so
+ * all the averages come from a single pass over the pairs, with n * k sums.
+ * When the n(n-1)/2 distances are too many to keep, the same pass computes
+ * each distance as it goes instead. For large datasets,
+ * {@link #sampledScore} only computes the silhouette of a random sample of
+ * points.
+ */
+public class Silhouette {
+
+    private Silhouette() {
+    }
+
+    /**
+     * Computes the silhouette of every point.
+     *
+     * @param distances    the pairwise distances, the reduced distance of the
+     *                     matrix being the distance used by the silhouette
+     * @param clusterIds   the cluster of each point, from 0 to clusterCount - 1
+     * @param clusterCount the number of clusters
+     * @return the silhouette of each point
+     */
+    public static double[] pointScores(DistanceMatrix distances, int[] clusterIds, int clusterCount) {
+        int size = clusterIds.length;
+        // sums[i * clusterCount + c] = sum of the distances from i to the points of c
+        double[] sums = new double[size * clusterCount];
+        double[] packed = distances.packedReducedDistances();
+        int p = 0;
+        for (int i = 0; i < size; i++) {
+            int rowOffset = i * clusterCount;
+            int clusterOfI = clusterIds[i];
+            for (int j = i + 1; j < size; j++) {
+                double d = packed[p++];
+                sums[rowOffset + clusterIds[j]] += d;
+                sums[j * clusterCount + clusterOfI] += d;
+            }
+        }
+        return scores(sums, clusterIds, clusterCount);
+    }
+
+    /**
+     * Computes the silhouette of every point without storing the pairwise
+     * distances: each pair is computed once and added to the sums of both
+     * points, so the extra memory is the n * k sums.
+     *
+     * @param matrix       the points
+     * @param metric       the distance used by the silhouette, its reduced
+     *                     distance is converted with
+     *                     {@link DistanceMetric#toDistance}
+     * @param clusterIds   the cluster of each point, from 0 to clusterCount - 1
+     * @param clusterCount the number of clusters
+     * @return the silhouette of each point
+     */
+    public static double[] pointScores(FeatureMatrix matrix, DistanceMetric metric, int[] clusterIds,
+            int clusterCount) {
+        int size = clusterIds.length;
+        double[] data = matrix.getData();
+        int dimension = matrix.getDimension();
+        double[] sums = new double[size * clusterCount];
+        for (int i = 0; i < size; i++) {
+            int rowOffset = i * clusterCount;
+            int clusterOfI = clusterIds[i];
+            for (int j = i + 1; j < size; j++) {
+                double d = metric.toDistance(
+                        metric.reducedDistance(data, i * dimension, data, j * dimension, dimension));
+                sums[rowOffset + clusterIds[j]] += d;
+                sums[j * clusterCount + clusterOfI] += d;
+            }
+        }
+        return scores(sums, clusterIds, clusterCount);
+    }
+
+    private static double[] scores(double[] sums, int[] clusterIds, int clusterCount) {
+        int[] clusterSizes = clusterSizes(clusterIds, clusterCount);
+        double[] scores = new double[clusterIds.length];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = score(sums, i * clusterCount, clusterIds[i], clusterSizes);
+        }
+        return scores;
+    }
+
+    /**
+     * Estimates the mean silhouette from a random sample of points. Each sampled
+     * point needs its distance to every point, so the cost is
+     * {@code sampleSize * n} distances instead of {@code n * (n - 1) / 2}.
+     *
+     * @param matrix       the points
+     * @param metric       the distance used by the silhouette, its reduced
+     *                     distance is converted with
+     *                     {@link DistanceMetric#toDistance}
+     * @param clusterIds   the cluster of each point, from 0 to clusterCount - 1
+     * @param clusterCount the number of clusters
+     * @param sampleSize   the number of points to sample
+     * @param random       the generator drawing the sample
+     * @return the mean silhouette of the sampled points
+     */
+    public static double sampledScore(FeatureMatrix matrix, DistanceMetric metric, int[] clusterIds,
+            int clusterCount, int sampleSize, Random random) {
+        int size = clusterIds.length;
+        int samples = Math.min(sampleSize, size);
+        int[] clusterSizes = clusterSizes(clusterIds, clusterCount);
+        double[] data = matrix.getData();
+        int dimension = matrix.getDimension();
+
+        // partial Fisher-Yates shuffle: the first samples indices are the sample
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        double[] sums = new double[clusterCount];
+        double total = 0.0;
+        for (int s = 0; s < samples; s++) {
+            int swap = s + random.nextInt(size - s);
+            int point = order[swap];
+            order[swap] = order[s];
+            order[s] = point;
+
+            Arrays.fill(sums, 0.0);
+            for (int j = 0; j < size; j++) {
+                if (j != point) {
+                    double reduced = metric.reducedDistance(data, point * dimension, data, j * dimension, dimension);
+                    sums[clusterIds[j]] += metric.toDistance(reduced);
+                }
+            }
+            total += score(sums, 0, clusterIds[point], clusterSizes);
+        }
+        return total / samples;
+    }
+
+    /**
+     * @param sums         the distance sums of the point to each cluster, from
+     *                     offset
+     * @param offset       the index of the sum to the first cluster
+     * @param own          the cluster of the point
+     * @param clusterSizes the number of points of each cluster
+     * @return the silhouette of the point
+     */
+    private static double score(double[] sums, int offset, int own, int[] clusterSizes) {
+        double a = clusterSizes[own] == 1 ? 0.0 : sums[offset + own] / (clusterSizes[own] - 1);
+        double b = Double.MAX_VALUE;
+        for (int c = 0; c < clusterSizes.length; c++) {
+            // an empty cluster has no average distance
+            if (c != own && clusterSizes[c] > 0) {
+                b = Math.min(b, sums[offset + c] / clusterSizes[c]);
+            }
+        }
+        return (b - a) / Math.max(a, b);
+    }
+
+    private static int[] clusterSizes(int[] clusterIds, int clusterCount) {
+        int[] clusterSizes = new int[clusterCount];
+        for (int id : clusterIds) {
+            clusterSizes[id]++;
+        }
+        return clusterSizes;
+    }
+}
@@ -0,0 +1,240 @@
+package utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import data.DistanceMetric;
+import data.FeatureMatrix;
+import data.NeighborIndex;
+
+/**
+ * The binary tree shared by {@link KDTreeIndex} and {@link BallTreeIndex}.
+ * <p>
+ * Each node holds a range of rows. A node with more than {@link #LEAF_SIZE}
+ * rows is split at the median of the coordinate with the widest spread, so the
+ * tree is balanced. The rows are copied in tree order, the rows of a leaf being
+ * contiguous in memory. Subclasses describe each node by a region containing
+ * its rows (a box, a ball) and give a lower bound of the distance from a query
+ * to any row of the region.
+ * </p>
+ * A query walks the tree depth first, the child with the smallest bound first,
+ * and skips a node when its bound is worse than the k-th distance found so far.
+ * A skipped node can not hold a row the linear scan would keep, even with an
+ * equal distance and a lower index, so the result is the one of
+ * {@link BruteForceIndex}.
+ */
+abstract class SpatialTreeIndex implements NeighborIndex {
+    /** Maximum number of rows of a leaf, compared one by one. */
+    static final int LEAF_SIZE = 16;
+
+    final DistanceMetric metric;
+    final int size;
+    final int dimension;
+    /** The rows in tree order, row p starts at p * dimension. */
+    final double[] points;
+    /** Index in the training data of each row of {@link #points}. */
+    final int[] rows;
+    /** Rows of node n are nodeStart[n] to nodeEnd[n] - 1. */
+    final int[] nodeStart;
+    final int[] nodeEnd;
+    /** Children of each node, -1 for a leaf. */
+    final int[] leftChild;
+    final int[] rightChild;
+    int nodeCount;
+    private final LongAdder distanceEvaluations = new LongAdder();
+
+    SpatialTreeIndex(FeatureMatrix matrix, DistanceMetric metric) {
+        this.metric = metric;
+        this.size = matrix.getRowCount();
+        this.dimension = matrix.getDimension();
+        double[] data = matrix.getData();
+
+        rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        int capacity = nodeCapacity(size);
+        nodeStart = new int[capacity];
+        nodeEnd = new int[capacity];
+        leftChild = new int[capacity];
+        rightChild = new int[capacity];
+        if (size > 0) {
+            build(data, 0, size);
+        }
+
+        points = new double[size * dimension];
+        for (int p = 0; p < size; p++) {
+            System.arraycopy(data, rows[p] * dimension, points, p * dimension, dimension);
+        }
+    }
+
+    /**
+     * @return the number of nodes of a tree of the given number of rows when
+     *         every split is done
+     */
+    private static int nodeCapacity(int rowCount) {
+        if (rowCount <= LEAF_SIZE) {
+            return 1;
+        }
+        int half = rowCount >>> 1;
+        return 1 + nodeCapacity(half) + nodeCapacity(rowCount - half);
+    }
+
+    /**
+     * Creates the node of rows[start .. end - 1] and its subtree.
+     *
+     * @return the index of the node
+     */
+    private int build(double[] data, int start, int end) {
+        int node = nodeCount++;
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        leftChild[node] = -1;
+        rightChild[node] = -1;
+        if (end - start <= LEAF_SIZE) {
+            return node;
+        }
+        int axis = widestAxis(data, start, end);
+        if (axis < 0) {
+            // every row is the same, nothing to split
+            return node;
+        }
+        int middle = (start + end) >>> 1;
+        select(data, start, end - 1, middle, axis);
+        leftChild[node] = build(data, start, middle);
+        rightChild[node] = build(data, middle, end);
+        return node;
+    }
+
+    /**
+     * @return the coordinate with the widest spread over the rows, or -1 if all
+     *         the rows are equal
+     */
+    private int widestAxis(double[] data, int start, int end) {
+        int axis = -1;
+        double widest = 0;
+        for (int j = 0; j < dimension; j++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int p = start; p < end; p++) {
+                double value = data[rows[p] * dimension + j];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                axis = j;
+            }
+        }
+        return axis;
+    }
+
+    /**
+     * Reorders rows[low .. high] so the row at {@code kth} has the value it would
+     * have once sorted on the axis, lower values before it and higher after
+     * (quickselect).
+     */
+    private void select(double[] data, int low, int high, int kth, int axis) {
+        while (low < high) {
+            double pivot = data[rows[(low + high) >>> 1] * dimension + axis];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (data[rows[i] * dimension + axis] < pivot) {
+                    i++;
+                }
+                while (data[rows[j] * dimension + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = rows[i];
+                    rows[i] = rows[j];
+                    rows[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (kth <= j) {
+                high = j;
+            } else if (kth >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Computes a lower bound of the distance from the query to any row of the
+     * node.
+     *
+     * @param node    the node
+     * @param query   the array holding the query
+     * @param offset  the index of the first value of the query
+     * @param scratch an array of {@link #dimension} values the method may write
+     * @return the bound, in the unit read by {@link #skips}
+     */
+    abstract double lowerBound(int node, double[] query, int offset, double[] scratch);
+
+    /**
+     * @param bound                a value returned by {@link #lowerBound}
+     * @param worstReducedDistance the reduced distance of the k-th row found so
+     *                             far, infinite while fewer rows are found
+     * @return true if no row with this bound can be closer than the k-th row
+     */
+    abstract boolean skips(double bound, double worstReducedDistance);
+
+    @Override
+    public int[] nearest(double[] query, int offset, int count) {
+        TopKSelector selector = new TopKSelector(Math.max(0, Math.min(count, size)));
+        if (size > 0 && selector.capacity() > 0) {
+            long evaluations = visit(0, query, offset, selector, new double[dimension]);
+            distanceEvaluations.add(evaluations);
+            DISTANCE_EVALUATIONS.add(evaluations);
+        }
+        return selector.sortedIndices();
+    }
+
+    /**
+     * Offers the rows of the node to the selector, skipping the children that
+     * can not improve it.
+     *
+     * @return the number of distances and bounds computed
+     */
+    private long visit(int node, double[] query, int offset, TopKSelector selector, double[] scratch) {
+        int left = leftChild[node];
+        if (left < 0) {
+            for (int p = nodeStart[node]; p < nodeEnd[node]; p++) {
+                selector.offer(metric.reducedDistance(points, p * dimension, query, offset, dimension), rows[p]);
+            }
+            return nodeEnd[node] - nodeStart[node];
+        }
+        int right = rightChild[node];
+        double leftBound = lowerBound(left, query, offset, scratch);
+        double rightBound = lowerBound(right, query, offset, scratch);
+        long evaluations = 2;
+
+        int first = leftBound <= rightBound ? left : right;
+        int second = first == left ? right : left;
+        double firstBound = Math.min(leftBound, rightBound);
+        double secondBound = first == left ? rightBound : leftBound;
+        if (!skips(firstBound, selector.worstDistance())) {
+            evaluations += visit(first, query, offset, selector, scratch);
+        }
+        if (!skips(secondBound, selector.worstDistance())) {
+            evaluations += visit(second, query, offset, selector, scratch);
+        }
+        return evaluations;
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations.sum();
+    }
+
+    /**
+     * @return the number of nodes of the tree
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+}
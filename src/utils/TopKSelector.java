@@ -0,0 +1,172 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the k smallest distances offered to it, together with the index of
+ * the element each distance belongs to.
+ * <p>
+ * It is a bounded max-heap over two primitive arrays: the root is always the
+ * worst candidate kept so far, so a new candidate is either rejected with one
+ * comparison or replaces the root in O(log k). Nothing is allocated per
+ * candidate, a whole scan over n elements costs O(n log k).
+ * </p>
+ * <p>
+ * Candidates are ordered by distance, then by index. This way when two
+ * distances are equal, the element encountered first (lowest index) is kept
+ * and sorted before the later one, like a stable insertion sort would do.
+ * </p>
+ *
+ * <pre>
+ * TopKSelector selector = new TopKSelector(k);
+ * for (int i = 0; i &lt; n; i++) {
+ *     selector.offer(distance(i), i);
+ * }
+ * int[] nearest = selector.sortedIndices();
+ * </pre>
+ */
+public class TopKSelector {
+    private final double[] distances;
+    private final int[] indices;
+    private int size;
+
+    /**
+     * Creates a selector keeping at most {@code capacity} candidates.
+     *
+     * @param capacity the number of candidates to keep (k), can be 0
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public TopKSelector(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must be positive or zero, got " + capacity);
+        }
+        this.distances = new double[capacity];
+        this.indices = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Removes every candidate so the selector can be reused for another query.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of candidates currently kept
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of candidates kept
+     */
+    public int capacity() {
+        return distances.length;
+    }
+
+    /**
+     * @return true if the selector holds {@link #capacity()} candidates
+     */
+    public boolean isFull() {
+        return size == distances.length;
+    }
+
+    /**
+     * Returns the distance a new candidate has to beat to be kept.
+     *
+     * @return the largest kept distance, or {@code Double.POSITIVE_INFINITY}
+     *         while the selector is not full
+     */
+    public double worstDistance() {
+        if (size < distances.length) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return distances.length == 0 ? Double.NEGATIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Offers a candidate to the selector.
+     *
+     * @param distance the distance of the candidate
+     * @param index    the index of the candidate (e.g. in the training data)
+     * @return true if the candidate is kept, false if it was rejected
+     */
+    public boolean offer(double distance, int index) {
+        if (size < distances.length) {
+            // Not full yet, append and sift up
+            int child = size++;
+            while (child > 0) {
+                int parent = (child - 1) >>> 1;
+                if (!greater(distance, index, distances[parent], indices[parent])) {
+                    break;
+                }
+                distances[child] = distances[parent];
+                indices[child] = indices[parent];
+                child = parent;
+            }
+            distances[child] = distance;
+            indices[child] = index;
+            return true;
+        }
+        if (size == 0 || !greater(distances[0], indices[0], distance, index)) {
+            return false;
+        }
+        siftDown(distance, index, size);
+        return true;
+    }
+
+    /**
+     * Returns the indices kept in ascending order of distance (ties broken by
+     * index). The selector is emptied by this call.
+     *
+     * @return the sorted indices, of length {@link #size()}
+     */
+    public int[] sortedIndices() {
+        int count = size;
+        // Heap sort in place: move the root (the worst) at the end each time
+        for (int end = count - 1; end > 0; end--) {
+            double lastDistance = distances[end];
+            int lastIndex = indices[end];
+            distances[end] = distances[0];
+            indices[end] = indices[0];
+            siftDown(lastDistance, lastIndex, end);
+        }
+        size = 0;
+        return Arrays.copyOf(indices, count);
+    }
+
+    /**
+     * Places (distance, index) at the root of the heap of the given size and sift
+     * it down to its position.
+     */
+    private void siftDown(double distance, int index, int heapSize) {
+        int parent = 0;
+        int half = heapSize >>> 1;
+        while (parent < half) {
+            int child = 2 * parent + 1;
+            int right = child + 1;
+            if (right < heapSize && greater(distances[right], indices[right], distances[child], indices[child])) {
+                child = right;
+            }
+            if (!greater(distances[child], indices[child], distance, index)) {
+                break;
+            }
+            distances[parent] = distances[child];
+            indices[parent] = indices[child];
+            parent = child;
+        }
+        distances[parent] = distance;
+        indices[parent] = index;
+    }
+
+    /**
+     * Orders candidates by distance then by index.
+     *
+     * @return true if (d1, i1) comes after (d2, i2)
+     */
+    private static boolean greater(double d1, int i1, double d2, int i2) {
+        return d1 > d2 || (d1 == d2 && i1 > i2);
+    }
+}
@@ -0,0 +1,215 @@
+package utils;
+
+import data.GrayImage;
+import data.ShapeDescriptor;
+
+/**
+ * Zernike moments of a shape, the moments of the family
+ * {@code res/Signatures/Zernike7}.
+ * <p>
+ * The shape is made of the pixels darker than a threshold. They are mapped on
+ * the unit disk centered on their centroid, whose radius r is the distance to
+ * the farthest shape pixel, so the moments do not depend on the position of
+ * the shape. Each pixel covers 1 / r^2 of the disk, so they do not depend on
+ * its size either. The moment of order n and repetition m is
+ * </p>
+ *
+ * <pre>
+ * A(n, m) = (n + 1) / PI / r^2 * sum over the shape pixels of R(n, m)(rho) * exp(-i * m * theta)
+ * </pre>
+ *
+ * and the signature holds the magnitudes |A(n, m)|, which do not depend on the
+ * rotation of the shape, for n from 2 to the order and m from n mod 2 to n by
+ * steps of 2: 18 values for order 7, in the order of the precomputed files.
+ * A(0, 0) (the area of the shape over PI r^2) and A(1, 1) (0 at the centroid)
+ * carry no information about the shape and are left out.
+ * <p>
+ * The precomputed files are not normalized by the size of the shape: on
+ * {@code res/Corpus/pgm} each of their vectors is these moments times a factor
+ * of its own, from 1e4 to 1e5 (94% of the values within 10% of the factor of
+ * their vector). Computed and precomputed vectors should not be mixed in one
+ * dataset.
+ * </p>
+ * <p>
+ * Each shape pixel costs one square root and a few multiplications per moment:
+ * the powers of rho and the cosines and sines of m * theta are obtained by
+ * recurrence, without any trigonometric call.
+ * </p>
+ */
+public class ZernikeDescriptor implements ShapeDescriptor {
+    /** Method identifier of the Zernike signatures, as in the precomputed files. */
+    public static final String METHOD = "ZRK";
+
+    private final int order;
+    private final int threshold;
+    /** Order and repetition of each moment of the signature. */
+    private final int[] orders;
+    private final int[] repetitions;
+    /**
+     * Coefficients of the radial polynomial of each moment, coefficient k
+     * multiplying rho^(n - 2k).
+     */
+    private final double[][] radialCoefficients;
+
+    /**
+     * Creates the descriptor of the precomputed family: order 7, shape pixels
+     * darker than 128.
+     */
+    public ZernikeDescriptor() {
+        this(7, 128);
+    }
+
+    /**
+     * @param order     the highest order of the moments, at least 2
+     * @param threshold the shape is made of the pixels of gray level strictly
+     *                  below it
+     * @throws IllegalArgumentException if the order is lower than 2
+     */
+    public ZernikeDescriptor(int order, int threshold) {
+        if (order < 2) {
+            throw new IllegalArgumentException("Zernike order should be at least 2, got " + order);
+        }
+        this.order = order;
+        this.threshold = threshold;
+
+        int count = 0;
+        for (int n = 2; n <= order; n++) {
+            count += n / 2 + 1;
+        }
+        orders = new int[count];
+        repetitions = new int[count];
+        radialCoefficients = new double[count][];
+        int j = 0;
+        for (int n = 2; n <= order; n++) {
+            for (int m = n % 2; m <= n; m += 2) {
+                orders[j] = n;
+                repetitions[j] = m;
+                radialCoefficients[j] = radialCoefficients(n, m);
+                j++;
+            }
+        }
+    }
+
+    /**
+     * @return (-1)^k (n - k)! / (k! ((n + m) / 2 - k)! ((n - m) / 2 - k)!) for k
+     *         from 0 to (n - m) / 2
+     */
+    private static double[] radialCoefficients(int n, int m) {
+        double[] coefficients = new double[(n - m) / 2 + 1];
+        for (int k = 0; k < coefficients.length; k++) {
+            double value = factorial(n - k) / (factorial(k) * factorial((n + m) / 2 - k) * factorial((n - m) / 2 - k));
+            coefficients[k] = k % 2 == 0 ? value : -value;
+        }
+        return coefficients;
+    }
+
+    private static double factorial(int n) {
+        double result = 1;
+        for (int i = 2; i <= n; i++) {
+            result *= i;
+        }
+        return result;
+    }
+
+    @Override
+    public String getMethod() {
+        return METHOD;
+    }
+
+    /**
+     * @return the number of values of the signatures
+     */
+    public int getSize() {
+        return orders.length;
+    }
+
+    /**
+     * @return the magnitudes of the moments, all 0 if the image has no shape
+     *         pixel
+     */
+    @Override
+    public double[] describe(GrayImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] pixels = image.getPixels();
+        double[] signature = new double[orders.length];
+
+        long count = 0;
+        double sumX = 0;
+        double sumY = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((pixels[y * width + x] & 0xFF) < threshold) {
+                    count++;
+                    sumX += x;
+                    sumY += y;
+                }
+            }
+        }
+        if (count == 0) {
+            return signature;
+        }
+        double centerX = sumX / count;
+        double centerY = sumY / count;
+        double maxSquaredRadius = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((pixels[y * width + x] & 0xFF) < threshold) {
+                    double dx = x - centerX;
+                    double dy = y - centerY;
+                    maxSquaredRadius = Math.max(maxSquaredRadius, dx * dx + dy * dy);
+                }
+            }
+        }
+        // a single pixel shape still needs a disk
+        double radius = maxSquaredRadius == 0 ? 1 : Math.sqrt(maxSquaredRadius);
+
+        double[] real = new double[orders.length];
+        double[] imaginary = new double[orders.length];
+        double[] rhoPowers = new double[order + 1];
+        double[] cosines = new double[order + 1];
+        double[] sines = new double[order + 1];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((pixels[y * width + x] & 0xFF) >= threshold) {
+                    continue;
+                }
+                double dx = x - centerX;
+                double dy = y - centerY;
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                double rho = distance / radius;
+                double cos = distance == 0 ? 1 : dx / distance;
+                double sin = distance == 0 ? 0 : dy / distance;
+
+                rhoPowers[0] = 1;
+                cosines[0] = 1;
+                sines[0] = 0;
+                for (int p = 1; p <= order; p++) {
+                    rhoPowers[p] = rhoPowers[p - 1] * rho;
+                    // cos and sin of p * theta from the ones of (p - 1) * theta
+                    cosines[p] = cosines[p - 1] * cos - sines[p - 1] * sin;
+                    sines[p] = sines[p - 1] * cos + cosines[p - 1] * sin;
+                }
+
+                for (int j = 0; j < orders.length; j++) {
+                    double[] coefficients = radialCoefficients[j];
+                    int n = orders[j];
+                    double radial = 0;
+                    for (int k = 0; k < coefficients.length; k++) {
+                        radial += coefficients[k] * rhoPowers[n - 2 * k];
+                    }
+                    // exp(-i m theta) = cos(m theta) - i sin(m theta)
+                    real[j] += radial * cosines[repetitions[j]];
+                    imaginary[j] -= radial * sines[repetitions[j]];
+                }
+            }
+        }
+
+        // a pixel covers 1 / radius^2 of the unit disk
+        double pixelArea = 1 / (radius * radius);
+        for (int j = 0; j < orders.length; j++) {
+            signature[j] = (orders[j] + 1) / Math.PI * Math.hypot(real[j], imaginary[j]) * pixelArea;
+        }
+        return signature;
+    }
+}